@@ -15,6 +15,7 @@ import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -68,7 +70,7 @@ public class DataFileServiceBean implements java.io.Serializable {
     @EJB EmbargoServiceBean embargoService;
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
-    private EntityManager em;
+    EntityManager em;
     
     // Assorted useful mime types:
     
@@ -352,19 +354,15 @@ public class DataFileServiceBean implements java.io.Serializable {
     }
 
     public DataFile findCheapAndEasy(Long id) {
-        DataFile dataFile;
-
-        Object[] result;
-
-        try {
-            result = (Object[]) em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t3.ID, t2.AUTHORITY, t2.IDENTIFIER, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.AUTHORITY, T0.PROTOCOL, T0.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID = " + id + ") AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))").getSingleResult();
-        } catch (Exception ex) {
-            return null;
-        }
+        return findCheapAndEasy(Collections.singletonList(id)).get(id);
+    }
 
-        if (result == null) {
-            return null;
-        }
+    /**
+     * @return the file (and its owner, with just the id and the identifier)
+     * in a row of the query of {@link #findCheapAndEasy(Collection)}
+     */
+    private DataFile toDataFile(Object[] result) {
+        DataFile dataFile;
 
         Integer file_id = (Integer) result[0];
 
@@ -504,19 +502,60 @@ public class DataFileServiceBean implements java.io.Serializable {
                 
         dataFile.setOwner(owner);
 
-        // If content type indicates it's tabular data, spend 2 extra queries 
-        // looking up the data table and tabular tags objects:
-        
-        if (MIME_TYPE_TSV.equalsIgnoreCase(contentType) || MIME_TYPE_TSV_ALT.equalsIgnoreCase(contentType)) {
-            Object[] dtResult;
+        return dataFile;
+    }
+
+    /**
+     * Same as {@link #findCheapAndEasy(Long)}, for many files at once, with
+     * one query (and two more if any of the files are tabular) - for the
+     * file cards of a page of search results, say.
+     *
+     * @return the files found, by id
+     */
+    public Map<Long, DataFile> findCheapAndEasy(Collection<Long> ids) {
+        Map<Long, DataFile> dataFiles = new HashMap<>();
+        if (ids.isEmpty()) {
+            return dataFiles;
+        }
+
+        List<Object[]> results;
+
+        try {
+            results = em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t3.ID, t2.AUTHORITY, t2.IDENTIFIER, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.AUTHORITY, T0.PROTOCOL, T0.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID IN (" + idList(ids) + ")) AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))").getResultList();
+        } catch (Exception ex) {
+            return dataFiles;
+        }
+
+        Set<Long> tabularIds = new HashSet<>();
+
+        for (Object[] result : results) {
+            DataFile dataFile = toDataFile(result);
+            dataFiles.put(dataFile.getId(), dataFile);
+
+            // If content type indicates it's tabular data, look up the data
+            // table and tabular tags objects (for all the tabular files at once):
+            String contentType = dataFile.getContentType();
+            if (MIME_TYPE_TSV.equalsIgnoreCase(contentType) || MIME_TYPE_TSV_ALT.equalsIgnoreCase(contentType)) {
+                tabularIds.add(dataFile.getId());
+            }
+        }
+
+        if (!tabularIds.isEmpty()) {
+            List<Object[]> dtResults;
             try {
-                dtResult = (Object[]) em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT, ORIGINALFILESIZE FROM dataTable WHERE DATAFILE_ID = " + id).getSingleResult();
+                dtResults = em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT, ORIGINALFILESIZE, DATAFILE_ID FROM dataTable WHERE DATAFILE_ID IN (" + idList(tabularIds) + ")").getResultList();
             } catch (Exception ex) {
-                dtResult = null;
+                dtResults = Collections.emptyList();
             }
-        
-            if (dtResult != null) {
-                DataTable dataTable = new DataTable(); 
+
+            Set<Long> withDataTable = new HashSet<>();
+
+            for (Object[] dtResult : dtResults) {
+                DataFile dataFile = dataFiles.get(((Number) dtResult[6]).longValue());
+                if (dataFile == null || dataFile.getDataTable() != null) {
+                    continue;
+                }
+                DataTable dataTable = new DataTable();
 
                 dataTable.setId(((Integer) dtResult[0]).longValue());
             
@@ -532,12 +571,15 @@ public class DataFileServiceBean implements java.io.Serializable {
                 
                 dataTable.setDataFile(dataFile);
                 dataFile.setDataTable(dataTable);
-                
-                // tabular tags: 
-                
+                withDataTable.add(dataFile.getId());
+            }
+
+            // tabular tags: 
+            
+            if (!withDataTable.isEmpty()) {
                 List<Object[]> tagResults;
                 try {
-                    tagResults = em.createNativeQuery("SELECT t.TYPE, t.DATAFILE_ID FROM DATAFILETAG t WHERE t.DATAFILE_ID = " + id).getResultList();
+                    tagResults = em.createNativeQuery("SELECT t.TYPE, t.DATAFILE_ID FROM DATAFILETAG t WHERE t.DATAFILE_ID IN (" + idList(withDataTable) + ")").getResultList();
                 } catch (Exception ex) {
                     logger.info("EXCEPTION looking up tags.");
                     tagResults = null;
@@ -547,6 +589,7 @@ public class DataFileServiceBean implements java.io.Serializable {
                     List<String> fileTagLabels = DataFileTag.listTags();
                     
                     for (Object[] tagResult : tagResults) {
+                        DataFile dataFile = dataFiles.get(((Number) tagResult[1]).longValue());
                         Integer tagId = (Integer)tagResult[0];
                         DataFileTag tag = new DataFileTag();
                         tag.setTypeByLabel(fileTagLabels.get(tagId));
@@ -557,8 +600,13 @@ public class DataFileServiceBean implements java.io.Serializable {
             }
         }
         
-        return dataFile;
+        return dataFiles;
     }
+
+    private static String idList(Collection<Long> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
     /* 
      * This is an experimental method for populating the versions of 
      * the datafile with the filemetadatas, optimized for making as few db 
@@ -1374,6 +1422,21 @@ public class DataFileServiceBean implements java.io.Serializable {
     public void populateFileSearchCard(SolrSearchResult solrSearchResult) {
         solrSearchResult.setEntity(this.findCheapAndEasy(solrSearchResult.getEntityId()));
     }
+
+    /**
+     * {@link #populateFileSearchCard(SolrSearchResult)} for a page of search
+     * results, with one lookup for all of them.
+     */
+    public void populateFileSearchCards(List<SolrSearchResult> solrSearchResults) {
+        List<Long> ids = new ArrayList<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            ids.add(solrSearchResult.getEntityId());
+        }
+        Map<Long, DataFile> dataFiles = findCheapAndEasy(ids);
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            solrSearchResult.setEntity(dataFiles.get(solrSearchResult.getEntityId()));
+        }
+    }
     
     public boolean hasBeenDeleted(DataFile df){
         Dataset dataset = df.getOwner();
@@ -1906,6 +1906,7 @@ public class DatasetPage implements java.io.Serializable {
                 // This will default to all the files in the version, if the search term
                 // parameter hasn't been specified yet:
                 fileMetadatasSearch = selectFileMetadatasForDisplay();
+                fileDownloadHelper.loadDownloadPermissions(fileMetadatasSearch);
                 ownerId = dataset.getOwner().getId();
                 datasetNextMajorVersion = this.dataset.getNextMajorVersionString();
                 datasetNextMinorVersion = this.dataset.getNextMinorVersionString();
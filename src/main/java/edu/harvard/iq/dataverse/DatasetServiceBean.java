@@ -25,7 +25,9 @@ import edu.harvard.iq.dataverse.workflows.WorkflowComment;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -234,20 +236,43 @@ public class DatasetServiceBean implements java.io.Serializable {
      * @see DataverseServiceBean#findAllOrSubset(long, long, boolean)
      */     
     public List<Long> findAllOrSubsetOrderByFilesOwned(boolean skipIndexed) {
+        return findAllOrSubsetOrderByFilesOwned(1, 0, skipIndexed, null);
+    }
+
+    /**
+     * @param numPartitions
+     * @param partitionId
+     * @param skipIndexed If true, will skip any datasets that have a indexTime set
+     * @param indexedBefore With skipIndexed, don't skip the datasets indexed
+     * before this time (to resume an interrupted full reindex); may be null.
+     * @return the ids of the datasets of the partition, the ones with the
+     * fewest files first
+     */
+    public List<Long> findAllOrSubsetOrderByFilesOwned(long numPartitions, long partitionId, boolean skipIndexed, Timestamp indexedBefore) {
         /*
         Disregards deleted or replaced files when determining 'size' of dataset.
         Could possibly make more efficient by getting file metadata counts
         of latest published/draft version.
-        Also disregards partitioning which is no longer supported.
         SEK - 11/09/2021
         */
-
-        String skipClause = skipIndexed ? "AND o.indexTime is null " : "";
+        if (numPartitions < 1) {
+            numPartitions = 1;
+        }
+        String skipClause = "";
+        if (skipIndexed) {
+            skipClause = indexedBefore == null ? "AND o.indexTime is null " : "AND (o.indexTime is null OR o.indexTime < ?3) ";
+        }
         Query query = em.createNativeQuery(" Select distinct(o.id), count(f.id) as numFiles FROM dvobject o " +
             "left join dvobject f on f.owner_id = o.id  where o.dtype = 'Dataset' "
+                + "AND MOD(o.id, ?1) = ?2 "
                 + skipClause
                 + " group by o.id "
                 + "ORDER BY count(f.id) asc, o.id");
+        query.setParameter(1, numPartitions);
+        query.setParameter(2, partitionId);
+        if (skipIndexed && indexedBefore != null) {
+            query.setParameter(3, indexedBefore);
+        }
 
         List<Object[]> queryResults;
         queryResults = query.getResultList();
@@ -811,6 +836,40 @@ public class DatasetServiceBean implements java.io.Serializable {
     public void updateLastExportTimeStamp(Long datasetId) {
         Date now = new Date();
         em.createNativeQuery("UPDATE Dataset SET lastExportTime='"+now.toString()+"' WHERE id="+datasetId).executeUpdate();
+        updateNextEmbargoEnd(datasetId);
+    }
+
+    // Sets the earliest embargo end date, among the files of each version, 
+    // that is after the given date; see DatasetVersion.getNextEmbargoEnd().
+    private static final String NEXT_EMBARGO_END_QUERY = "UPDATE datasetversion v SET nextembargoend = ("
+            + "SELECT MIN(e.dateavailable) FROM filemetadata fm"
+            + " JOIN datafile df ON df.id = fm.datafile_id"
+            + " JOIN embargo e ON e.id = df.embargo_id"
+            + " WHERE fm.datasetversion_id = v.id AND e.dateavailable > %s)"
+            + " WHERE v.dataset_id = ?1";
+
+    /**
+     * Updates the next embargo end date of the versions of the dataset, 
+     * relative to its last export. Needs to be called when the embargoes of
+     * its files change, and when it is exported.
+     */
+    public void updateNextEmbargoEnd(Long datasetId) {
+        em.createNativeQuery(String.format(NEXT_EMBARGO_END_QUERY,
+                "COALESCE((SELECT CAST(d.lastexporttime AS DATE) FROM dataset d WHERE d.id = v.dataset_id), DATE '-infinity')"))
+                .setParameter(1, datasetId)
+                .executeUpdate();
+    }
+
+    /**
+     * Same as {@link #updateNextEmbargoEnd(Long)}, but relative to the given
+     * date rather than to the last export; for when only the DDI export has 
+     * been refreshed, on that date.
+     */
+    public void updateNextEmbargoEnd(Long datasetId, LocalDate after) {
+        em.createNativeQuery(String.format(NEXT_EMBARGO_END_QUERY, "?2"))
+                .setParameter(1, datasetId)
+                .setParameter(2, java.sql.Date.valueOf(after))
+                .executeUpdate();
     }
 
     public Dataset setNonDatasetFileAsThumbnail(Dataset dataset, InputStream inputStream) {
@@ -15,6 +15,7 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -146,6 +147,17 @@ public class DatasetVersion implements Serializable {
     @Temporal(value = TemporalType.TIMESTAMP)
     private Date archiveTime;
     
+    /**
+     * The earliest end date of an embargo on a file of this version that is 
+     * after the date the dataset was last exported; i.e. when the cached DDI
+     * export (which leaves out embargoed files) next needs to be refreshed.
+     * Maintained with native queries by 
+     * {@link DatasetServiceBean#updateNextEmbargoEnd(Long)}, hence read-only 
+     * here, so that merging a stale copy of the version can't overwrite it.
+     */
+    @Column(insertable = false, updatable = false)
+    private LocalDate nextEmbargoEnd;
+    
     @Size(min=0, max=ARCHIVE_NOTE_MAX_LENGTH)
     @Column(length = ARCHIVE_NOTE_MAX_LENGTH)
     //@ValidateURL() - this validation rule was making a bunch of older legacy datasets invalid;
@@ -176,6 +188,17 @@ public class DatasetVersion implements Serializable {
     
     @Transient
     private DatasetVersionDifference dvd;
+
+    /**
+     * The ids of the files of the version (see {@link #containsDataFile}), and
+     * the file metadatas they were collected from.
+     */
+    @Transient
+    private Set<Long> dataFileIds;
+    @Transient
+    private List<FileMetadata> dataFileIdsSource;
+    @Transient
+    private int dataFileIdsSourceSize;
     
     
     public Long getId() {
@@ -251,6 +274,36 @@ public class DatasetVersion implements Serializable {
     public void setFileMetadatas(List<FileMetadata> fileMetadatas) {
         this.fileMetadatas = fileMetadatas;
     }
+
+    /**
+     * Whether the file is part of this version. The ids of the files of the
+     * version are collected on the first call (and again once file metadatas
+     * were added, removed or replaced), so checking all the files of a version
+     * takes one pass over its file metadatas rather than one per file. Meant
+     * for released versions, whose files don't change: a file metadata
+     * pointed at another file isn't noticed.
+     *
+     * @param dataFile a file
+     * @return {@code true} iff one of the file metadatas of the version is
+     * for {@code dataFile}
+     */
+    public boolean containsDataFile(DataFile dataFile) {
+        if (dataFile.getId() == null) {
+            return false;
+        }
+        if (dataFileIds == null || dataFileIdsSource != fileMetadatas || dataFileIdsSourceSize != fileMetadatas.size()) {
+            Set<Long> ids = new HashSet<>();
+            for (FileMetadata fileMetadata : fileMetadatas) {
+                if (fileMetadata.getDataFile() != null) {
+                    ids.add(fileMetadata.getDataFile().getId());
+                }
+            }
+            dataFileIds = ids;
+            dataFileIdsSource = fileMetadatas;
+            dataFileIdsSourceSize = fileMetadatas.size();
+        }
+        return dataFileIds.contains(dataFile.getId());
+    }
     
     public TermsOfUseAndAccess getTermsOfUseAndAccess() {
         return termsOfUseAndAccess;
@@ -296,6 +349,35 @@ public class DatasetVersion implements Serializable {
         this.archiveTime = archiveTime;
     }
 
+    public LocalDate getNextEmbargoEnd() {
+        return nextEmbargoEnd;
+    }
+
+    public void setNextEmbargoEnd(LocalDate nextEmbargoEnd) {
+        this.nextEmbargoEnd = nextEmbargoEnd;
+    }
+
+    /**
+     * Works out what {@link #getNextEmbargoEnd()} should be from the files of
+     * this version, as {@link DatasetServiceBean#updateNextEmbargoEnd(Long)}
+     * does in the database.
+     *
+     * @param after the date of the last export, or {@code null} if none
+     * @return the earliest end date of an embargo on a file of this version
+     * that is after {@code after}, or {@code null} if there is none
+     */
+    public LocalDate findNextEmbargoEnd(LocalDate after) {
+        LocalDate next = null;
+        for (FileMetadata fm : getFileMetadatas()) {
+            Embargo embargo = fm.getDataFile().getEmbargo();
+            LocalDate end = (embargo != null) ? embargo.getDateAvailable() : null;
+            if (end != null && (after == null || end.isAfter(after)) && (next == null || end.isBefore(next))) {
+                next = end;
+            }
+        }
+        return next;
+    }
+
     public String getArchiveNote() {
         return archiveNote;
     }
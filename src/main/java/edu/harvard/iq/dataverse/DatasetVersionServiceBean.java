@@ -19,11 +19,15 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
@@ -68,7 +72,7 @@ public class DatasetVersionServiceBean implements java.io.Serializable {
     IndexServiceBean indexService;
 
     @PersistenceContext(unitName = "VDCNet-ejbPU")
-    private EntityManager em;
+    EntityManager em;
 
     /**
      *  Response to a successful request from the DatasetPage
@@ -926,6 +930,76 @@ public class DatasetVersionServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * {@link #populateDatasetSearchCard(SolrSearchResult)} for a page of
+     * search results, with one query for all of them, and one for the files
+     * assigned as their thumbnails. The deaccessioned state and the alias of
+     * the dataverse come from the Solr documents (see
+     * {@link SolrSearchResult#setPublicationStatuses(List)} and
+     * {@link SolrSearchResult#getIdentifierOfDataverse()}).
+     */
+    public void populateDatasetSearchCards(List<SolrSearchResult> solrSearchResults) {
+        Set<Long> datasetIds = new HashSet<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            if (solrSearchResult.getEntityId() != null) {
+                datasetIds.add(solrSearchResult.getEntityId());
+            }
+        }
+
+        Map<Long, Object[]> searchResults = new HashMap<>();
+        Set<Long> thumbnailFileIds = new HashSet<>();
+
+        if (!datasetIds.isEmpty()) {
+            List<Object[]> results;
+            try {
+                results = em.createNativeQuery("SELECT t2.ID, t2.THUMBNAILFILE_ID, t2.USEGENERICTHUMBNAIL, t3.STORAGEIDENTIFIER FROM DATASET t2, DVOBJECT t3 WHERE t2.ID IN ("
+                        + datasetIds.stream().map(String::valueOf).collect(Collectors.joining(","))
+                        + ") AND t2.ID = t3.ID").getResultList();
+            } catch (Exception ex) {
+                results = Collections.emptyList();
+            }
+            for (Object[] result : results) {
+                searchResults.put(((Number) result[0]).longValue(), result);
+                if (result[1] != null) {
+                    thumbnailFileIds.add(((Number) result[1]).longValue());
+                }
+            }
+        }
+
+        Map<Long, DataFile> thumbnailFiles = datafileService.findCheapAndEasy(thumbnailFileIds);
+
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            if (solrSearchResult.getIdentifierOfDataverse() != null) {
+                solrSearchResult.setDataverseAlias(solrSearchResult.getIdentifierOfDataverse());
+            }
+
+            Object[] searchResult = searchResults.get(solrSearchResult.getEntityId());
+            if (searchResult == null) {
+                continue;
+            }
+
+            Dataset datasetEntity = new Dataset();
+            GlobalId globalId = new GlobalId(solrSearchResult.getIdentifier());
+
+            datasetEntity.setProtocol(globalId.getProtocol());
+            datasetEntity.setAuthority(globalId.getAuthority());
+            datasetEntity.setIdentifier(globalId.getIdentifier());
+            if (searchResult[3] != null) {
+                datasetEntity.setStorageIdentifier(searchResult[3].toString());
+            }
+            if (searchResult[1] != null) {
+                // This is the image file specifically assigned as the "icon" for
+                // the dataset:
+                DataFile thumbnailFile = thumbnailFiles.get(((Number) searchResult[1]).longValue());
+                if (thumbnailFile != null) {
+                    datasetEntity.setThumbnailFile(thumbnailFile);
+                }
+            }
+            datasetEntity.setUseGenericThumbnail(searchResult[2] != null && (Boolean) searchResult[2]);
+            solrSearchResult.setEntity(datasetEntity);
+        }
+    }
+
     /**
      * Return a list of the checksum Strings for files in the specified DatasetVersion
      * 
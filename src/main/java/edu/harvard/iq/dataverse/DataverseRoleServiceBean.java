@@ -9,6 +9,7 @@ import edu.harvard.iq.dataverse.search.IndexAsync;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -19,9 +20,12 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 //import javax.validation.constraints.NotNull;
 
@@ -35,6 +39,14 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 
     private static final Logger logger = Logger.getLogger(DataverseRoleServiceBean.class.getCanonicalName());
 
+    /**
+     * Name of the cache version (see
+     * {@link edu.harvard.iq.dataverse.util.CacheVersionServiceBean}) bumped
+     * whenever a role, or a role assignment, changes: the permissions kept in
+     * memory (see {@link PermissionDecisionCache}) are dropped when it moves.
+     */
+    public static final String CACHE_NAME = "roleAssignments";
+
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
 
@@ -46,6 +58,10 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     SolrIndexServiceBean solrIndexService;
     @EJB
     IndexAsync indexAsync;
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+    @Inject
+    PermissionDecisionCache permissionDecisionCache;
 
     public DataverseRole save(DataverseRole aRole) {
         if (aRole.getId() == null) {
@@ -57,6 +73,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             return aRole;
         } else {
             DataverseRole merged = em.merge(aRole);
+            rolesChanged();
             /**
              * @todo update permissionModificationTime here.
              */
@@ -76,6 +93,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         } else {
             assignment = em.merge(assignment);
         }
+        rolesChanged();
         /**
          * @todo update permissionModificationTime here.
          */
@@ -106,6 +124,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         em.createNamedQuery("DataverseRole.deleteById", DataverseRole.class)
             .setParameter("id", id)
             .executeUpdate();
+        rolesChanged();
     }
 
     public List<DataverseRole> findByOwnerId(Long ownerId) {
@@ -142,6 +161,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             em.refresh(role);
         }
         em.refresh(assignee);
+        rolesChanged();
     }
 
     public void revoke(RoleAssignment ra) {
@@ -149,6 +169,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             ra = em.merge(ra);
         }
         em.remove(ra);
+        rolesChanged();
         /**
          * @todo update permissionModificationTime here.
          */
@@ -170,10 +191,27 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 
             reindexSet.add(ra.getDefinitionPoint());
         }
+        rolesChanged();
 
         indexAsync.indexRoles(reindexSet);
     }
 
+    /**
+     * Has the permissions worked out from the roles and role assignments
+     * before the change forgotten, by this request now and by the others once
+     * the change is committed. To be called by code that changes role
+     * assignments without this bean, too: through the entities, or with
+     * queries.
+     */
+    public void rolesChanged() {
+        cacheVersionSvc.bump(CACHE_NAME);
+        try {
+            permissionDecisionCache.invalidate();
+        } catch (ContextNotActiveException ex) {
+            // not called by a request: nothing kept
+        }
+    }
+
     public RoleAssignmentSet roleAssignments(User user, Dataverse dv) {
         RoleAssignmentSet retVal = new RoleAssignmentSet(user);
         while (dv != null) {
@@ -290,6 +328,49 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         return query.getResultList();
     }
 
+    /**
+     * Retrieves the role assignments directly on the given objects, without
+     * loading the objects (nor the assignments) as entities.
+     *
+     * @param dvObjectIds the ids of the objects where the roles are defined
+     * @return the assignments, as {definition point id, assignee identifier, role id}
+     */
+    public List<Object[]> directRoleAssignmentIds(Collection<Long> dvObjectIds) {
+        if (dvObjectIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String ids = dvObjectIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        return em.createNativeQuery("SELECT definitionpoint_id, assigneeidentifier, role_id FROM roleassignment WHERE definitionpoint_id IN (" + ids + ")")
+                .getResultList();
+    }
+
+    /**
+     * Retrieves the role assignments of the given assignees directly on the
+     * given objects, without loading the objects (nor the assignments) as
+     * entities.
+     *
+     * @param roleAssignees the assignees whose roles are given
+     * @param dvObjectIds the ids of the objects where the roles are defined
+     * @return the assignments, as {definition point id, assignee identifier, role id}
+     */
+    public List<Object[]> directRoleAssignmentIds(Set<? extends RoleAssignee> roleAssignees, Collection<Long> dvObjectIds) {
+        if (roleAssignees.isEmpty() || dvObjectIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String ids = dvObjectIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        List<String> raIds = roleAssignees.stream().map(RoleAssignee::getIdentifier).collect(Collectors.toList());
+        StringBuilder raParams = new StringBuilder();
+        for (int i = 1; i <= raIds.size(); i++) {
+            raParams.append(i == 1 ? "?" : ",?").append(i);
+        }
+        Query query = em.createNativeQuery("SELECT definitionpoint_id, assigneeidentifier, role_id FROM roleassignment"
+                + " WHERE definitionpoint_id IN (" + ids + ") AND assigneeidentifier IN (" + raParams + ")");
+        for (int i = 0; i < raIds.size(); i++) {
+            query.setParameter(i + 1, raIds.get(i));
+        }
+        return query.getResultList();
+    }
+
     /**
      * Get all the available roles in a given dataverse, mapped by the dataverse
      * that defines them. Map entries are ordered by reversed hierarchy (root is
@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.logging.Logger;
 import java.util.Properties;
 import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -87,7 +88,7 @@ public class DataverseServiceBean implements java.io.Serializable {
     DataverseSession session;
 
     @PersistenceContext(unitName = "VDCNet-ejbPU")
-    private EntityManager em;
+    EntityManager em;
 
     private static final String BASE_QUERY_DATASET_TITLES_WITHIN_DV = "select v.value, o.id\n" 
                 + "from datasetfieldvalue v, dvobject o "
@@ -172,6 +173,21 @@ public class DataverseServiceBean implements java.io.Serializable {
     }
     
     public List<Long> findDataverseIdsForIndexing(boolean skipIndexed) {
+        return findDataverseIdsForIndexing(skipIndexed, null);
+    }
+
+    /**
+     * @param skipIndexed If true, will skip any dataverses that have a indexTime set
+     * @param indexedBefore With skipIndexed, don't skip the dataverses indexed
+     * before this time (to resume an interrupted full reindex); may be null.
+     * @return the ids of the dataverses to index
+     */
+    public List<Long> findDataverseIdsForIndexing(boolean skipIndexed, Timestamp indexedBefore) {
+        if (skipIndexed && indexedBefore != null) {
+            return em.createQuery("SELECT o.id FROM Dataverse o WHERE o.indexTime IS null OR o.indexTime < :indexedBefore ORDER BY o.id", Long.class)
+                    .setParameter("indexedBefore", indexedBefore)
+                    .getResultList();
+        }
         if (skipIndexed) {
             return em.createQuery("SELECT o.id FROM Dataverse o WHERE o.indexTime IS null ORDER BY o.id", Long.class).getResultList();
         }
@@ -745,6 +761,43 @@ public class DataverseServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * {@link #populateDvSearchCard(SolrSearchResult)} for a page of search
+     * results. The alias and affiliation come from the Solr documents; only
+     * the aliases of the parents are looked up, with one query for all of
+     * them.
+     */
+    public void populateDvSearchCards(List<SolrSearchResult> solrSearchResults) {
+        List<Long> dvIds = new ArrayList<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            if (solrSearchResult.getEntityId() != null && solrSearchResult.getParent().get("id") != null) {
+                dvIds.add(solrSearchResult.getEntityId());
+            }
+        }
+        if (dvIds.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> searchResults;
+        try {
+            searchResults = em.createNativeQuery("SELECT t1.ID, t2.ALIAS FROM DVOBJECT t1, DATAVERSE t2 WHERE (t1.OWNER_ID = t2.ID) AND (t1.ID IN ("
+                    + dvIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + "))").getResultList();
+        } catch (Exception ex) {
+            return;
+        }
+
+        Map<Long, String> parentAliases = new HashMap<>();
+        for (Object[] searchResult : searchResults) {
+            parentAliases.put(((Number) searchResult[0]).longValue(), (String) searchResult[1]);
+        }
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            String parentAlias = parentAliases.get(solrSearchResult.getEntityId());
+            if (parentAlias != null) {
+                solrSearchResult.setDataverseParentAlias(parentAlias);
+            }
+        }
+    }
+    
     // function to recursively find ids of all children of a dataverse that 
     // are also of type dataverse
     public List<Long> findAllDataverseDataverseChildren(Long dvId) {
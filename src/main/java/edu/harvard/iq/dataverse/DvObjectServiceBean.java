@@ -3,6 +3,7 @@ package edu.harvard.iq.dataverse;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -57,6 +58,19 @@ public class DvObjectServiceBean implements java.io.Serializable {
         }
     }
 
+    /**
+     * @return the objects with the ids, with one query (those that don't
+     * exist are left out)
+     */
+    public List<DvObject> findDvObjects(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery("SELECT o FROM DvObject o WHERE o.id IN :ids", DvObject.class)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+
     public List<DvObject> findAll() {
         return em.createNamedQuery("DvObject.findAll", DvObject.class).getResultList();
     }
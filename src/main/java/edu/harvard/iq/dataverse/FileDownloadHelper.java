@@ -13,9 +13,11 @@ import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import static edu.harvard.iq.dataverse.util.JsfHelper.JH;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.faces.application.FacesMessage;
@@ -246,6 +248,44 @@ public class FileDownloadHelper implements java.io.Serializable {
         return false;
     }
 
+    /**
+     * Works out what {@link #canDownloadFile(FileMetadata)} answers for each
+     * of the file metadatas, checking the restricted and embargoed files all
+     * at once (see {@link PermissionServiceBean#findDownloadableFileIds}),
+     * rather than one file at a time. The files of deaccessioned versions are left to
+     * {@code canDownloadFile}.
+     *
+     * @param fileMetadatas the file metadatas of a page
+     */
+    public void loadDownloadPermissions(Collection<FileMetadata> fileMetadatas) {
+        if (session.getUser() instanceof PrivateUrlUser) {
+            return;
+        }
+        Map<DataFile, List<Long>> toCheck = new HashMap<>();
+        for (FileMetadata fileMetadata : fileMetadatas) {
+            Long fid = fileMetadata.getId();
+            if (fid == null || fileMetadata.getDataFile().getId() == null || fileDownloadPermissionMap.containsKey(fid)
+                    || fileMetadata.getDatasetVersion().isDeaccessioned()) {
+                continue;
+            }
+            boolean isRestrictedFile = fileMetadata.isRestricted() || fileMetadata.getDataFile().isRestricted();
+            if (!isRestrictedFile && !FileUtil.isActivelyEmbargoed(fileMetadata)) {
+                fileDownloadPermissionMap.put(fid, true);
+            } else {
+                toCheck.computeIfAbsent(fileMetadata.getDataFile(), dataFile -> new ArrayList<>()).add(fid);
+            }
+        }
+        if (toCheck.isEmpty()) {
+            return;
+        }
+        Set<Long> downloadable = permissionService.findDownloadableFileIds(dvRequestService.getDataverseRequest(), toCheck.keySet());
+        toCheck.forEach((dataFile, fids) -> {
+            for (Long fid : fids) {
+                fileDownloadPermissionMap.put(fid, downloadable.contains(dataFile.getId()));
+            }
+        });
+    }
+
     public boolean isRestrictedOrEmbargoed(FileMetadata fileMetadata) {
         return fileMetadata.isRestricted() || FileUtil.isActivelyEmbargoed(fileMetadata);
     }
@@ -0,0 +1,210 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.ejb.EJB;
+import javax.enterprise.context.RequestScoped;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * The permissions users get over dvObjects from the roles assigned to them and
+ * to their groups, as worked out by {@link PermissionServiceBean}: finding the
+ * groups of the request, then the role assignments on the permission
+ * ancestors of the dvObject, takes a few queries, and a page checks the same
+ * permissions many times. They are kept for the rest of the request, by user,
+ * IP address (the inputs of the group memberships) and dvObject; and, if
+ * {@code dataverse.permissions.cache.ttl} is set, for that many seconds in a
+ * cache shared by the requests of this server.
+ *
+ * A request that changes role assignments or explicit groups drops what it
+ * kept, and no longer uses the shared cache. An entry of the shared cache is
+ * dropped when roles, role assignments or groups have changed (the version of
+ * the {@link DataverseRoleServiceBean#CACHE_NAME} or
+ * {@link GroupServiceBean#CACHE_NAME} cache moved), so other changes that
+ * affect permissions (moving a dataset, a new email address for mail domain
+ * groups, ...) show after at most the time to live.
+ */
+@RequestScoped
+public class PermissionDecisionCache {
+
+    private static final Logger logger = Logger.getLogger(PermissionDecisionCache.class.getCanonicalName());
+
+    static final long DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * See {@code dataverse.permissions.cache.ttl} in the installation guide.
+     */
+    private static final Shared SHARED = new Shared(getTtlSeconds() * 1000, DEFAULT_MAX_SIZE);
+
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+
+    Shared shared = SHARED;
+
+    private final Map<String, Set<Permission>> decisions = new HashMap<>();
+    private boolean invalidated;
+    private long[] versions;
+
+    /**
+     * The permissions that roles are giving to the user of {@code req} over
+     * {@code dvo}, which must have an id.
+     *
+     * @param compute works them out, if they aren't cached
+     * @return the cached permissions, not to be modified
+     */
+    public Set<Permission> get(DataverseRequest req, DvObject dvo, Supplier<Set<Permission>> compute) {
+        return get(key(req.getUser().getIdentifier(), req.getSourceAddress(), dvo.getId()), compute);
+    }
+
+    Set<Permission> get(String key, Supplier<Set<Permission>> compute) {
+        Set<Permission> permissions = decisions.get(key);
+        if (permissions != null) {
+            shared.requestHits.incrementAndGet();
+            return permissions;
+        }
+        if (shared.isEnabled() && !invalidated) {
+            long[] current = versions();
+            permissions = shared.get(key, current[0], current[1], System.currentTimeMillis(), compute);
+        } else {
+            shared.misses.incrementAndGet();
+            permissions = Collections.unmodifiableSet(EnumSet.copyOf(compute.get()));
+        }
+        decisions.put(key, permissions);
+        return permissions;
+    }
+
+    /**
+     * Keeps permissions worked out elsewhere (for many objects at once, see
+     * {@link PermissionServiceBean#hasPermissionsForEach}) for the rest of the
+     * request. The shared cache is left alone.
+     */
+    public void put(DataverseRequest req, DvObject dvo, Set<Permission> permissions) {
+        decisions.put(key(req.getUser().getIdentifier(), req.getSourceAddress(), dvo.getId()),
+                Collections.unmodifiableSet(EnumSet.copyOf(permissions)));
+    }
+
+    /**
+     * Drops what this request kept, for it changed the role assignments or the
+     * groups it was worked out from. The changes aren't committed yet, so the
+     * shared cache isn't used for the rest of the request either.
+     */
+    public void invalidate() {
+        decisions.clear();
+        invalidated = true;
+    }
+
+    /**
+     * The versions of the groups and of the role assignments, read once per
+     * request.
+     */
+    private long[] versions() {
+        if (versions == null) {
+            versions = new long[]{
+                cacheVersionSvc.getVersion(GroupServiceBean.CACHE_NAME),
+                cacheVersionSvc.getVersion(DataverseRoleServiceBean.CACHE_NAME)};
+        }
+        return versions;
+    }
+
+    static String key(String userIdentifier, Object sourceAddress, Long dvObjectId) {
+        return userIdentifier + "@" + sourceAddress + ":" + dvObjectId;
+    }
+
+    private static long getTtlSeconds() {
+        String ttl = System.getProperty("dataverse.permissions.cache.ttl");
+        if (ttl != null) {
+            try {
+                return Math.max(0, Long.parseLong(ttl));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid dataverse.permissions.cache.ttl: " + ttl + ", using default");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Empties the cache shared by the requests of this server.
+     */
+    public static void invalidateShared() {
+        SHARED.cache.invalidate();
+    }
+
+    public static JsonObjectBuilder getStatus() {
+        return SHARED.getStatus();
+    }
+
+    /**
+     * The cache shared by the requests of a server, and the hit counters of
+     * both caches.
+     */
+    static class Shared {
+
+        private final LruCache<String, Entry> cache = new LruCache<>();
+        private final long ttlMillis;
+
+        final AtomicLong requestHits = new AtomicLong();
+        final AtomicLong sharedHits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        private static class Entry {
+
+            final Set<Permission> permissions;
+            final long groupsVersion;
+            final long roleAssignmentsVersion;
+            final long expires;
+
+            Entry(Set<Permission> permissions, long groupsVersion, long roleAssignmentsVersion, long expires) {
+                this.permissions = permissions;
+                this.groupsVersion = groupsVersion;
+                this.roleAssignmentsVersion = roleAssignmentsVersion;
+                this.expires = expires;
+            }
+        }
+
+        Shared(long ttlMillis, long maxSize) {
+            this.ttlMillis = ttlMillis;
+            cache.setMaxSize(maxSize);
+        }
+
+        boolean isEnabled() {
+            return ttlMillis > 0;
+        }
+
+        Set<Permission> get(String key, long groupsVersion, long roleAssignmentsVersion, long now, Supplier<Set<Permission>> compute) {
+            Entry entry = cache.get(key);
+            if (entry != null && entry.groupsVersion == groupsVersion
+                    && entry.roleAssignmentsVersion == roleAssignmentsVersion && entry.expires > now) {
+                sharedHits.incrementAndGet();
+                return entry.permissions;
+            }
+            misses.incrementAndGet();
+            Set<Permission> permissions = Collections.unmodifiableSet(EnumSet.copyOf(compute.get()));
+            cache.put(key, new Entry(permissions, groupsVersion, roleAssignmentsVersion, now + ttlMillis));
+            return permissions;
+        }
+
+        JsonObjectBuilder getStatus() {
+            long hits = requestHits.get() + sharedHits.get();
+            long lookups = hits + misses.get();
+            return Json.createObjectBuilder()
+                    .add("ttlSeconds", ttlMillis / 1000)
+                    .add("size", cache.size())
+                    .add("requestHits", requestHits.get())
+                    .add("sharedHits", sharedHits.get())
+                    .add("misses", misses.get())
+                    .add("hitRatio", lookups == 0 ? 0 : (double) hits / lookups);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import edu.harvard.iq.dataverse.authorization.RoleAssignee;
 import edu.harvard.iq.dataverse.authorization.groups.Group;
 import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.GroupUtil;
+import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroup;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.engine.command.Command;
@@ -18,6 +19,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
+import javax.enterprise.context.ContextNotActiveException;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -35,10 +37,12 @@ import edu.harvard.iq.dataverse.workflow.PendingWorkflowInvocation;
 import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.logging.Level;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import static java.util.stream.Collectors.toList;
 import javax.persistence.Query;
@@ -95,6 +99,9 @@ public class PermissionServiceBean {
     @Inject
     DataverseRequestServiceBean dvRequestService;
 
+    @Inject
+    PermissionDecisionCache permissionDecisionCache;
+
     /**
      * A request-level permission query (e.g includes IP ras).
      */
@@ -324,9 +331,38 @@ public class PermissionServiceBean {
             }
         }
         
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(user);
-        return hasGroupPermissionsFor(ras, dvo, required);
+        return assignedPermissionsFor(req, dvo).containsAll(required);
+    }
+
+    /**
+     * For each of {@code dvos}, whether the user of {@code req} has all the
+     * {@code required} permissions over it: the answer
+     * {@link #hasPermissionsFor(DataverseRequest, DvObject, Set)} gives for
+     * each, worked out for all of them at once. The groups of the request are
+     * looked up once, and the role assignments on the objects and on their
+     * permission ancestors are loaded with one query, so checking thousands of
+     * objects takes a few queries. The permissions found are kept for the
+     * rest of the request (see {@link PermissionDecisionCache}), for the
+     * checks then made one object at a time.
+     *
+     * @param req the request
+     * @param dvos saved objects (those without an id are left out)
+     * @param required the permissions to check
+     * @return the decisions, by object id
+     */
+    public Map<Long, Boolean> hasPermissionsForEach(DataverseRequest req, Collection<? extends DvObject> dvos, Set<Permission> required) {
+        Map<Long, Boolean> decisions = new HashMap<>();
+        User user = req.getUser();
+        if (user.isSuperuser() || (!user.isAuthenticated() && required.stream().anyMatch(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY::contains))) {
+            for (DvObject dvo : dvos) {
+                if (dvo.getId() != null) {
+                    decisions.put(dvo.getId(), user.isSuperuser());
+                }
+            }
+            return decisions;
+        }
+        assignedPermissionsFor(req, dvos).forEach((id, permissions) -> decisions.put(id, permissions.containsAll(required)));
+        return decisions;
     }
 
     public boolean hasPermissionsFor(RoleAssignee ra, DvObject dvo, Set<Permission> required) {
@@ -375,9 +411,7 @@ public class PermissionServiceBean {
         Set<Permission> permissions = getInferredPermissions(dvo);
 
         // Add permissions gained from ras
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(req.getUser());
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(assignedPermissionsFor(req, dvo));
 
         if (!req.getUser().isAuthenticated()) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -411,6 +445,89 @@ public class PermissionServiceBean {
         return permissions;
     }
     
+    /**
+     * The permissions the roles assigned to the user of {@code req}, and to
+     * its groups, give over {@code dvo}; kept for the rest of the request
+     * (see {@link PermissionDecisionCache}).
+     */
+    private Set<Permission> assignedPermissionsFor(DataverseRequest req, DvObject dvo) {
+        Supplier<Set<Permission>> compute = () -> {
+            Set<Permission> permissions = EnumSet.noneOf(Permission.class);
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
+            ras.add(req.getUser());
+            addGroupPermissionsFor(ras, dvo, permissions);
+            return permissions;
+        };
+        if (dvo.getId() == null) {
+            return compute.get();
+        }
+        try {
+            return permissionDecisionCache.get(req, dvo, compute);
+        } catch (ContextNotActiveException ex) {
+            // not called by a request (a timer, ...)
+            return compute.get();
+        }
+    }
+
+    /**
+     * {@link #assignedPermissionsFor(DataverseRequest, DvObject)} for many
+     * objects, by id. The groups of the request are looked up regardless of
+     * the objects; an explicit group only counts for the objects under the
+     * dataverse that defines it, as it does when the groups are looked up for
+     * an object.
+     */
+    private Map<Long, Set<Permission>> assignedPermissionsFor(DataverseRequest req, Collection<? extends DvObject> dvos) {
+        Map<String, Group> groups = new HashMap<>();
+        for (Group group : groupService.groupsFor(req)) {
+            groups.put(group.getIdentifier(), group);
+        }
+        Set<RoleAssignee> ras = new HashSet<>(groups.values());
+        ras.add(req.getUser());
+
+        Map<DvObject, Set<DvObject>> ancestors = new HashMap<>();
+        Set<Long> definitionPointIds = new HashSet<>();
+        for (DvObject dvo : dvos) {
+            if (dvo.getId() != null) {
+                Set<DvObject> permAncestors = getPermissionAncestors(dvo);
+                ancestors.put(dvo, permAncestors);
+                permAncestors.forEach(ancestor -> definitionPointIds.add(ancestor.getId()));
+            }
+        }
+        definitionPointIds.remove(null);
+
+        // {assignee identifier, role id} by definition point id
+        Map<Long, List<Object[]>> assignments = new HashMap<>();
+        for (Object[] row : roleService.directRoleAssignmentIds(ras, definitionPointIds)) {
+            assignments.computeIfAbsent(((Number) row[0]).longValue(), id -> new LinkedList<>())
+                    .add(new Object[]{row[1], ((Number) row[2]).longValue()});
+        }
+        Map<Long, Set<Permission>> rolePermissions = new HashMap<>();
+
+        Map<Long, Set<Permission>> permissionsById = new HashMap<>();
+        ancestors.forEach((dvo, permAncestors) -> {
+            Set<Permission> permissions = EnumSet.noneOf(Permission.class);
+            for (DvObject ancestor : permAncestors) {
+                for (Object[] assignment : assignments.getOrDefault(ancestor.getId(), Collections.emptyList())) {
+                    Group group = groups.get((String) assignment[0]);
+                    if (group instanceof ExplicitGroup && !((ExplicitGroup) group).getOwner().isAncestorOf(dvo)) {
+                        continue;
+                    }
+                    permissions.addAll(rolePermissions.computeIfAbsent((Long) assignment[1], roleId -> {
+                        DataverseRole role = roleService.find(roleId);
+                        return role == null ? Collections.emptySet() : role.permissions();
+                    }));
+                }
+            }
+            permissionsById.put(dvo.getId(), permissions);
+            try {
+                permissionDecisionCache.put(req, dvo, permissions);
+            } catch (ContextNotActiveException ex) {
+                // not called by a request: nothing to keep
+            }
+        });
+        return permissionsById;
+    }
+
     private void addGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> permissions) {
         for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
             permissions.addAll(asmnt.getRole().permissions());
@@ -448,20 +565,75 @@ public class PermissionServiceBean {
             DataFile df = (DataFile) dvo;
 
             if (!df.isRestricted()) {
-                if (df.getOwner().getReleasedVersion() != null) {
-                    if (df.getOwner().getReleasedVersion().getFileMetadatas() != null) {
-                        for (FileMetadata fm : df.getOwner().getReleasedVersion().getFileMetadatas()) {
-                            if (df.equals(fm.getDataFile())) {
-                                return true;
-                            }
-                        }
-                    }
+                DatasetVersion releasedVersion = df.getOwner().getReleasedVersion();
+                if (releasedVersion != null && releasedVersion.getFileMetadatas() != null) {
+                    return releasedVersion.containsDataFile(df);
                 }
             }
         }
         return false;
     }
 
+    /**
+     * The files, out of {@code fileIds}, that everybody may download: the
+     * unrestricted files of the latest released version of their dataset
+     * (see {@link #isPublicallyDownloadable(DvObject)}) that are not under an
+     * embargo that has yet to end. Answered with one query.
+     *
+     * @param fileIds ids of files
+     * @return the ids of those that are publicly downloadable
+     */
+    public Set<Long> findPublicallyDownloadableFileIds(Collection<Long> fileIds) {
+        Set<Long> downloadable = new HashSet<>();
+        if (fileIds.isEmpty()) {
+            return downloadable;
+        }
+        String idList = fileIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        List<?> results = em.createNativeQuery("SELECT fm.datafile_id FROM filemetadata fm"
+                + " JOIN datafile f ON f.id = fm.datafile_id"
+                + " LEFT JOIN embargo e ON e.id = f.embargo_id"
+                + " WHERE fm.datafile_id IN (" + idList + ") AND NOT f.restricted"
+                + " AND (f.embargo_id IS NULL OR e.dateavailable <= now())"
+                + " AND fm.datasetversion_id = (SELECT v.id FROM datasetversion v"
+                + "   JOIN datasetversion fv ON fv.dataset_id = v.dataset_id"
+                + "   WHERE fv.id = fm.datasetversion_id AND v.versionstate = 'RELEASED'"
+                + "   ORDER BY v.versionnumber DESC, v.minorversionnumber DESC LIMIT 1)")
+                .getResultList();
+        for (Object id : results) {
+            downloadable.add(((Number) id).longValue());
+        }
+        return downloadable;
+    }
+
+    /**
+     * Which of {@code files} the user of {@code req} may download, as the
+     * download pages and the zip download work it out: the publicly
+     * downloadable files, found with one query (see
+     * {@link #findPublicallyDownloadableFileIds(Collection)}), and those the
+     * role assignments of the request allow, checked all at once (see
+     * {@link #hasPermissionsForEach}). Unlike the inferred permission of
+     * {@link #permissionsFor(DataverseRequest, DvObject)}, a file under an
+     * embargo that has yet to end is only downloadable through a role.
+     *
+     * @param req the request
+     * @param files saved files
+     * @return the ids of the files that may be downloaded
+     */
+    public Set<Long> findDownloadableFileIds(DataverseRequest req, Collection<DataFile> files) {
+        Set<Long> ids = files.stream().map(DataFile::getId).filter(id -> id != null).collect(Collectors.toSet());
+        if (req.getUser().isSuperuser()) {
+            return ids;
+        }
+        Set<Long> downloadable = findPublicallyDownloadableFileIds(ids);
+        List<DataFile> others = files.stream().filter(file -> file.getId() != null && !downloadable.contains(file.getId())).collect(toList());
+        hasPermissionsForEach(req, others, EnumSet.of(Permission.DownloadFile)).forEach((id, allowed) -> {
+            if (allowed) {
+                downloadable.add(id);
+            }
+        });
+        return downloadable;
+    }
+
     /**
      * Returns all the role assignments that are effective for {@code ra} over
      * {@code d}. Traverses the containment hierarchy of the {@code d}.
@@ -82,8 +82,11 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import javax.inject.Inject;
 import javax.json.Json;
@@ -411,6 +414,25 @@ public class Access extends AbstractApiBean {
                 
             }
         }
+        
+        String rowsParam = uriInfo.getQueryParameters().getFirst("rows");
+        if (rowsParam != null) {
+            // Rows of a tabular file; either of the entire file, or of a column subset:
+            if (!df.isTabularData()) {
+                throw new BadRequestException("The rows parameter is only supported on tabular data files.");
+            }
+            if (downloadInstance.getConversionParam() != null
+                    && !"subset".equals(downloadInstance.getConversionParam())
+                    && !"noVarHeader".equals(downloadInstance.getConversionParam())) {
+                throw new BadRequestException("The rows parameter can only be combined with the variables and noVarHeader parameters.");
+            }
+            try {
+                downloadInstance.setRowRange(DownloadInstanceWriter.getRowRange(rowsParam, df.getDataTable().getCaseQuantity()));
+            } catch (RuntimeException ex) {
+                throw new BadRequestException(ex.getMessage());
+            }
+        }
+        
         if (serviceRequested && !serviceFound) {
             // Service not supported/bad arguments, etc.:
             // One could return
@@ -837,16 +859,30 @@ public class Access extends AbstractApiBean {
         
         StreamingOutput stream = new StreamingOutput() {
 
+            private DataFileZipper zipper = null; 
+
             @Override
             public void write(OutputStream os) throws IOException,
                     WebApplicationException {
+                try {
+                    writeZippedFiles(os);
+                } finally {
+                    if (zipper != null) {
+                        // (in case we didn't get to finalize the stream)
+                        zipper.discardPendingEntries();
+                    }
+                }
+            }
+
+            private void writeZippedFiles(OutputStream os) throws IOException,
+                    WebApplicationException {
                 String fileIdParams[] = fileIds.split(",");
-                DataFileZipper zipper = null; 
                 String fileManifest = "";
                 long sizeTotal = 0L;
                 
                 if (fileIdParams != null && fileIdParams.length > 0) {
                     logger.fine(fileIdParams.length + " tokens;");
+                    loadAccessPermissions(fileIdParams, apiTokenUser);
                     for (int i = 0; i < fileIdParams.length; i++) {
                         logger.fine("token: " + fileIdParams[i]);
                         Long fileId = null;
@@ -1708,6 +1744,44 @@ public class Access extends AbstractApiBean {
     }
     
 
+    /**
+     * Has the permissions of the users of the request (the one of the session,
+     * or the guest, and the one of the API token) over the files that aren't
+     * public, and over their datasets, worked out all at once (see
+     * {@link PermissionServiceBean#findDownloadableFileIds} and
+     * {@link PermissionServiceBean#hasPermissionsForEach}) and kept for the
+     * rest of the request, so that the checks {@link #isAccessAuthorized}
+     * then makes for each file don't take queries of their own.
+     */
+    private void loadAccessPermissions(String[] fileIdParams, User apiTokenUser) {
+        Set<DataFile> files = new HashSet<>();
+        Set<Dataset> datasets = new HashSet<>();
+        for (String fileIdParam : fileIdParams) {
+            DataFile file;
+            try {
+                file = dataFileService.find(Long.valueOf(fileIdParam));
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            if (file != null && (file.isRestricted() || !file.isReleased() || FileUtil.isActivelyEmbargoed(file))) {
+                files.add(file);
+                datasets.add(file.getOwner());
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        List<DataverseRequest> requests = new ArrayList<>();
+        requests.add(dvRequestService.getDataverseRequest());
+        if (apiTokenUser != null) {
+            requests.add(createDataverseRequest(apiTokenUser));
+        }
+        for (DataverseRequest request : requests) {
+            permissionService.findDownloadableFileIds(request, files);
+            permissionService.hasPermissionsForEach(request, datasets, EnumSet.of(Permission.DownloadFile));
+        }
+    }
+
     private boolean isAccessAuthorized(DataFile df, String apiToken) {
     // First, check if the file belongs to a released Dataset version: 
         
@@ -2019,6 +2093,7 @@ public class Access extends AbstractApiBean {
         if (fileIdParams == null || fileIdParams.length == 0) {
             throw new BadRequestException();
         }
+        loadAccessPermissions(fileIdParams, apiTokenUser);
         
         for (int i = 0; i < fileIdParams.length; i++) {
             Long fileId = null;
@@ -16,6 +16,7 @@ import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.EMailValidator;
 import edu.harvard.iq.dataverse.EjbDataverseEngine;
 import edu.harvard.iq.dataverse.GlobalId;
+import edu.harvard.iq.dataverse.PermissionDecisionCache;
 import edu.harvard.iq.dataverse.RoleAssignment;
 import edu.harvard.iq.dataverse.UserServiceBean;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
@@ -42,6 +43,7 @@ import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.engine.command.impl.AbstractSubmitToArchiveCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDataverseCommand;
 import edu.harvard.iq.dataverse.settings.Setting;
+import edu.harvard.iq.dataverse.settings.SettingsCache;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
@@ -156,6 +158,8 @@ public class Admin extends AbstractApiBean {
         ExplicitGroupServiceBean explicitGroupService;
         @EJB
         BannerMessageServiceBean bannerMessageService;
+        @EJB
+        SettingsCache settingsCache;
         
 
 	// Make the session available
@@ -210,6 +214,36 @@ public class Admin extends AbstractApiBean {
 		return ok("Setting " + name + " - " + lang + " deleted.");
 	}
 
+	@Path("settingsCache")
+	@GET
+	public Response getSettingsCacheStatus() {
+		return ok(jsonObjectBuilder()
+				.add("size", settingsCache.size())
+				.add("version", settingsCache.getLoadedVersion())
+				.add("hits", settingsCache.getHits())
+				.add("misses", settingsCache.getMisses()));
+	}
+
+	@Path("settingsCache")
+	@DELETE
+	public Response invalidateSettingsCache() {
+		settingsCache.invalidate();
+		return ok("Settings cache invalidated.");
+	}
+
+	@Path("permissionsCache")
+	@GET
+	public Response getPermissionsCacheStatus() {
+		return ok(PermissionDecisionCache.getStatus());
+	}
+
+	@Path("permissionsCache")
+	@DELETE
+	public Response invalidatePermissionsCache() {
+		PermissionDecisionCache.invalidateShared();
+		return ok("Permissions cache invalidated.");
+	}
+
 	@Path("authenticationProviderFactories")
 	@GET
 	public Response listAuthProviderFactories() {
@@ -1426,6 +1426,7 @@ public class Datasets extends AbstractApiBean {
                     embargoService.deleteById(emb.getId(), authenticatedUser.getIdentifier());
                 }
             }
+            datasetService.updateNextEmbargoEnd(dataset.getId());
             //If superuser, report changes to any released files
             if (authenticatedUser.isSuperuser()) {
                 String releasedFiles = filesToEmbargo.stream().filter(d -> d.isReleased())
@@ -1542,6 +1543,7 @@ public class Datasets extends AbstractApiBean {
                     embargoService.deleteById(emb.getId(), authenticatedUser.getIdentifier());
                 }
             }
+            datasetService.updateNextEmbargoEnd(dataset.getId());
             String releasedFiles = embargoFilesToUnset.stream().filter(d -> d.isReleased()).map(d->d.getId().toString()).collect(Collectors.joining(","));
             if(!releasedFiles.isBlank()) {
                 ActionLogRecord removeRecord = new ActionLogRecord(ActionLogRecord.ActionType.Admin, "embargoRemovedFrom").setInfo("Embargo removed from released file(s), id(s) " + releasedFiles + ".");
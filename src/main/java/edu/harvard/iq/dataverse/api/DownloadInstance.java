@@ -12,6 +12,7 @@ import edu.harvard.iq.dataverse.EjbDataverseEngine;
 import edu.harvard.iq.dataverse.GuestbookResponse;
 import java.util.List;
 import edu.harvard.iq.dataverse.dataaccess.OptionalAccessService;
+import edu.harvard.iq.dataverse.dataaccess.Range;
 import javax.faces.context.FacesContext;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.UriInfo;
@@ -54,6 +55,10 @@ public class DownloadInstance {
     // itself, that have to be deposited externally.  
     private AuxiliaryFile auxiliaryFile = null; 
     
+    // Rows (0-based, inclusive) of a tabular file requested with the "rows" 
+    // parameter; on their own, or combined with a column subset. 
+    private Range rowRange = null; 
+    
     private EjbDataverseEngine command;
 
     private DataverseRequestServiceBean dataverseRequestService;
@@ -225,4 +230,12 @@ public class DownloadInstance {
         this.auxiliaryFile = auxiliaryFile;
     }
     
+    public Range getRowRange() {
+        return rowRange;
+    }
+    
+    public void setRowRange(Range rowRange) {
+        this.rowRange = rowRange;
+    }
+    
 }
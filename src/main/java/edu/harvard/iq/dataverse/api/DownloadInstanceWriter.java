@@ -8,7 +8,6 @@ package edu.harvard.iq.dataverse.api;
 import edu.harvard.iq.dataverse.AuxiliaryFile;
 import java.lang.reflect.Type;
 import java.lang.annotation.Annotation;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 
@@ -31,13 +30,19 @@ import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean.MakeDataCountEntry;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.FileOutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -46,6 +51,7 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.RedirectionException;
 import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.HttpHeaders;
+import org.apache.commons.io.IOUtils;
 import org.apache.tika.mime.MimeType;
 import org.apache.tika.mime.MimeTypeException;
 import org.apache.tika.mime.MimeTypes;
@@ -150,7 +156,10 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     } else if (dataFile.isTabularData()) {
                         // Many separate special cases here.
 
-                        if (di.getConversionParam() != null) {
+                        if (di.getRowRange() != null) {
+                            // Rows of the file - must be extracted locally.
+                            redirectSupported = false;
+                        } else if (di.getConversionParam() != null) {
                             if (di.getConversionParam().equals("format")) {
 
                                 if ("original".equals(di.getConversionParamValue())) {
@@ -231,7 +240,30 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     }
                 }
 
-                if (di.getConversionParam() != null) {
+                if (di.getRowRange() != null && dataFile.isTabularData() && !"subset".equals(di.getConversionParam())) {
+                    // Rows of the tab file; with the variable header line, 
+                    // unless noVarHeader was requested as well. (Row ranges 
+                    // of column subsets are produced by the subset code below)
+                    if ("noVarHeader".equals(di.getConversionParam())) {
+                        storageIO.setNoVarHeader(Boolean.TRUE);
+                        storageIO.setVarHeader(null);
+                    }
+                    File tempRowsFile = null;
+                    try {
+                        tempRowsFile = File.createTempFile("tempRowsFile", ".tmp");
+                        subsetRows(storageIO, di.getRowRange(), null, tempRowsFile);
+
+                        InputStreamIO rowsStreamIO = new InputStreamIO(openTempFile(tempRowsFile), tempRowsFile.length());
+                        rowsStreamIO.setVarHeader(storageIO.getVarHeader());
+                        rowsStreamIO.setFileName(getSubsetFileName(storageIO));
+                        rowsStreamIO.setMimeType(storageIO.getMimeType());
+                        storageIO = rowsStreamIO;
+                    } catch (IOException ioex) {
+                        deleteTempFile(tempRowsFile);
+                        logger.warning("Failed to extract rows " + di.getRowRange().getStart() + "-" + di.getRowRange().getEnd() + " of datafile " + dataFile.getId() + ": " + ioex.getMessage());
+                        throw new NotFoundException("datafile access error: requested rows could not be extracted from this datafile.");
+                    }
+                } else if (di.getConversionParam() != null) {
                     // Image Thumbnail and Tabular data conversion: 
                     // NOTE: only supported on local files, as of 4.0.2!
                     // NOTE: should be supported on all files for which StorageIO drivers
@@ -322,37 +354,33 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                                 if (variablePositionIndex.size() > 0) {
 
+                                    File tempSubsetFile = null;
                                     try {
-                                        File tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
-                                        TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
-                                        tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
+                                        if (di.getRowRange() != null) {
+                                            subsetRows(storageIO, di.getRowRange(), variablePositionIndex, tempSubsetFile);
+                                        } else if (!subsetColumnarFile(storageIO, variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), tempSubsetFile)) {
+                                            TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
+                                            tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        }
 
                                         if (tempSubsetFile.exists()) {
-                                            FileInputStream subsetStream = new FileInputStream(tempSubsetFile);
                                             long subsetSize = tempSubsetFile.length();
+                                            InputStream subsetStream = openTempFile(tempSubsetFile);
 
                                             InputStreamIO subsetStreamIO = new InputStreamIO(subsetStream, subsetSize);
                                             logger.fine("successfully created subset output stream.");
                                             subsetVariableHeader = subsetVariableHeader.concat("\n");
                                             subsetStreamIO.setVarHeader(subsetVariableHeader);
 
-                                            String tabularFileName = storageIO.getFileName();
-
-                                            if (tabularFileName != null && tabularFileName.endsWith(".tab")) {
-                                                tabularFileName = tabularFileName.replaceAll("\\.tab$", "-subset.tab");
-                                            } else if (tabularFileName != null && !"".equals(tabularFileName)) {
-                                                tabularFileName = tabularFileName.concat("-subset.tab");
-                                            } else {
-                                                tabularFileName = "subset.tab";
-                                            }
-
-                                            subsetStreamIO.setFileName(tabularFileName);
+                                            subsetStreamIO.setFileName(getSubsetFileName(storageIO));
                                             subsetStreamIO.setMimeType(storageIO.getMimeType());
                                             storageIO = subsetStreamIO;
                                         } else {
                                             storageIO = null;
                                         }
                                     } catch (IOException ioex) {
+                                        deleteTempFile(tempSubsetFile);
                                         storageIO = null;
                                     }
                                 }
@@ -388,8 +416,11 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                 } 
 
-                try (InputStream instream = storageIO.getInputStream()) {
-                    if (instream != null) {
+                // The InputStream of the whole file is only opened when it is 
+                // read; ranges, and files of a known size, are copied by the 
+                // storage driver (on S3, with a ranged GET of just those bytes). 
+                try {
+                    if (storageIO.getSize() > 0 || storageIO.getInputStream() != null) {
                         // headers:
 
                         String fileName = storageIO.getFileName();
@@ -415,11 +446,10 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         if (headers != null) {
                             rangeHeader = headers.getHeaderString("Range");
                         }
-                        long offset = 0;
-                        long leftToRead = -1L; 
-                        // Moving the "left to read" var. here; - since we may need 
-                        // to start counting our rangeHeader bytes outside the main .write()
-                        // loop, if it's a tabular file with a header. 
+                        // For multiple ranges, the parts of the multipart/byteranges
+                        // response: their headers, and the closing boundary.
+                        List<byte[]> partHeaders = new ArrayList<>();
+                        byte[] multipartEnd = null;
                         
                         if ((contentSize = getContentSize(storageIO)) > 0) {
                             try {
@@ -428,18 +458,31 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                 logger.fine("Exception caught processing Range header: " + ex.getLocalizedMessage());
                                 throw new ClientErrorException("Error due to Range header: " + ex.getLocalizedMessage(), Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
                             }
+                            httpHeaders.add("Accept-Ranges", "bytes");
                             
                             if (ranges.isEmpty()) {
                                 logger.fine("Content size (retrieved from the AccessObject): " + contentSize);
                                 httpHeaders.add("Content-Length", contentSize);
-                            } else  {
-                                // For now we only support a single rangeHeader.
+                            } else if (ranges.size() == 1) {
                                 long rangeContentSize = ranges.get(0).getLength();
                                 logger.fine("Content size (Range header in use): " + rangeContentSize);
                                 httpHeaders.add("Content-Length", rangeContentSize);
-                                
-                                offset = ranges.get(0).getStart();
-                                leftToRead = rangeContentSize;
+                                httpHeaders.add("Content-Range", getContentRange(ranges.get(0), contentSize));
+                            } else {
+                                String boundary = UUID.randomUUID().toString();
+                                long multipartContentSize = 0;
+                                for (Range range : ranges) {
+                                    byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                                            + "Content-Type: " + mimeType + "\r\n"
+                                            + "Content-Range: " + getContentRange(range, contentSize) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+                                    partHeaders.add(partHeader);
+                                    multipartContentSize += partHeader.length + range.getLength();
+                                }
+                                multipartEnd = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+                                multipartContentSize += multipartEnd.length;
+                                logger.fine("Content size (multiple ranges): " + multipartContentSize);
+                                httpHeaders.putSingle("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                                httpHeaders.add("Content-Length", multipartContentSize);
                             }
                         } else {
                             // Content size unknown, must be a dynamically
@@ -453,91 +496,37 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                         // (the httpHeaders map must be modified *before* writing any
                         // data in the output stream!)
-                        int bufsize;
-                        byte[] bffr = new byte[4 * 8192];
 
-                        // Before writing out any bytes from the input stream, write
-                        // any extra content, such as the variable header for the 
-                        // subsettable files: 
+                        // The content is made up of any extra content, such as
+                        // the variable header for the subsettable files, followed
+                        // by the bytes of the file: 
+                        byte[] varHeader = new byte[0];
                         if (storageIO.getVarHeader() != null) {
                             logger.fine("storageIO.getVarHeader().getBytes().length: " + storageIO.getVarHeader().getBytes().length);
-                            if (storageIO.getVarHeader().getBytes().length > 0) {
-                                // If a rangeHeader is not being requested, let's call that the normal case.
-                                // Write the entire line of variable headers. Later, the rest of the file
-                                // will be written.
-                                if (ranges.isEmpty()) {
-                                    logger.fine("writing the entire variable header");
-                                    outstream.write(storageIO.getVarHeader().getBytes());
-                                } else {
-                                    // Range requested. Since the output stream of a 
-                                    // tabular file is made up of the varHeader and the body of 
-                                    // the physical file, we should assume that the requested 
-                                    // rangeHeader may span any portion of the combined stream.
-                                    // Thus we may or may not have to write the header, or a 
-                                    // portion thereof. 
-                                    int headerLength = storageIO.getVarHeader().getBytes().length;
-                                    if (offset >= headerLength) {
-                                        // We can skip the entire header. 
-                                        // All we need to do is adjust the byte offset 
-                                        // in the physical file; the number of bytes
-                                        // left to write stays unchanged, since we haven't
-                                        // written anything.
-                                        logger.fine("Skipping the variable header completely.");
-                                        offset -= headerLength;
-                                    } else {
-                                        // We need to write some portion of the header; 
-                                        // Once we are done, we may or may not still have 
-                                        // some bytes left to write from the main physical file.
-                                        if (offset + leftToRead <= headerLength) {
-                                            // This is a more straightforward case - we just need to 
-                                            // write a portion of the header, and then we are done!
-                                            logger.fine("Writing this many bytes of the variable header line: " + leftToRead);
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, (int)offset + (int)leftToRead));
-                                            // set "left to read" to zero, indicating that we are done:
-                                            leftToRead = 0; 
-                                        } else {
-                                            // write the requested portion of the header:
-                                            logger.fine("Writing this many bytes of the variable header line: " + (headerLength - offset));
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, headerLength));
-                                            // and adjust the file offset and remaining number of bytes accordingly: 
-                                            leftToRead -= (headerLength - offset);
-                                            offset = 0;
-                                        }
-                                        
-                                    }
-                                }
-                            }
+                            varHeader = storageIO.getVarHeader().getBytes();
                         }
 
-                        // Dynamic streams, etc. Normal operation. No leftToRead.
                         if (ranges.isEmpty()) {
                             logger.fine("Normal, non-range request of file id " + dataFile.getId());
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                outstream.write(bffr, 0, bufsize);
+                            outstream.write(varHeader);
+                            if (storageIO.getSize() > -1) {
+                                // the storage driver copies the file in the 
+                                // most efficient way it can:
+                                storageIO.copyRange(0, storageIO.getSize(), outstream);
+                            } else {
+                                // Dynamic streams, etc.
+                                IOUtils.copyLarge(storageIO.getInputStream(), outstream, new byte[4 * 8192]);
                             }
-                        } else if (leftToRead > 0) {
-                            // This is a rangeHeader request, and we still have bytes to read 
-                            // (for a tabular file, we may have already written enough
-                            // bytes from the variable header!)
-                            storageIO.setOffset(offset);
-                            // Thinking about it, we could just do instream.skip(offset) 
-                            // here... But I would like to have this offset functionality 
-                            // in StorageIO, for any future cases where we may not 
-                            // be able to do that on the stream directly (?) -- L.A.
+                        } else if (ranges.size() == 1) {
                             logger.fine("Range request of file id " + dataFile.getId());
-                            // Read a rangeHeader of bytes instead of the whole file. We'll count down as we write.
-                            // For now we only support a single rangeHeader.
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                if ((leftToRead -= bufsize) > 0) {
-                                    // Just do a normal write. Potentially lots to go. Don't break.
-                                    outstream.write(bffr, 0, bufsize);
-                                } else {
-                                    // Get those last bytes or bytes equal to bufsize. Last one. Then break.
-                                    outstream.write(bffr, 0, (int) leftToRead + bufsize);
-                                    break;
-                                }
+                            writeRange(storageIO, varHeader, ranges.get(0), outstream);
+                        } else {
+                            logger.fine("Multiple range request of file id " + dataFile.getId());
+                            for (int i = 0; i < ranges.size(); i++) {
+                                outstream.write(partHeaders.get(i));
+                                writeRange(storageIO, varHeader, ranges.get(i), outstream);
                             }
-
+                            outstream.write(multipartEnd);
                         }
 
                         logger.fine("di conversion param: " + di.getConversionParam() + ", value: " + di.getConversionParamValue());
@@ -561,6 +550,8 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         outstream.close();
                         return;
                     }
+                } finally {
+                    storageIO.closeInputStream();
                 }
             }
         }
@@ -569,6 +560,31 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
     }
 
+    /**
+     * Writes a range of the content: a Range request may span any portion of
+     * the variable header (if there is one) and of the physical file that 
+     * follows it.
+     */
+    private void writeRange(StorageIO<?> storageIO, byte[] varHeader, Range range, OutputStream outstream) throws IOException {
+        long offset = range.getStart();
+        long leftToWrite = range.getLength();
+        if (offset < varHeader.length) {
+            int headerEnd = (int) Math.min(varHeader.length, offset + leftToWrite);
+            logger.fine("Writing this many bytes of the variable header line: " + (headerEnd - offset));
+            outstream.write(varHeader, (int) offset, headerEnd - (int) offset);
+            leftToWrite -= headerEnd - offset;
+            offset = varHeader.length;
+        }
+        if (leftToWrite > 0) {
+            // the rest comes from the file:
+            storageIO.copyRange(offset - varHeader.length, leftToWrite, outstream);
+        }
+    }
+
+    private static String getContentRange(Range range, long contentSize) {
+        return "bytes " + range.getStart() + "-" + range.getEnd() + "/" + contentSize;
+    }
+
     private boolean isAuxiliaryObjectCached(StorageIO storageIO, String auxiliaryTag) {
         try {
             return storageIO.isAuxObjectCached(auxiliaryTag);
@@ -623,6 +639,94 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         return downloadInstance.getConversionParam().equals("format") && downloadInstance.getConversionParamValue().equals("prep");
     }
 
+    /**
+     * Produces a variable subset from the columnar copy of the tab file, if 
+     * there is one; reading only the blocks of the requested variables, 
+     * instead of the entire file. 
+     * 
+     * @return false if there is no (usable) columnar copy. 
+     */
+    /**
+     * Opens a temporary file produced for the response (rows, or a subset of
+     * the columns); the file is deleted once the stream is closed, after the
+     * response has been written.
+     */
+    static InputStream openTempFile(File tempFile) throws IOException {
+        return new FilterInputStream(new FileInputStream(tempFile)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deleteTempFile(tempFile);
+                }
+            }
+        };
+    }
+
+    private static void deleteTempFile(File tempFile) {
+        if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+            logger.warning("Failed to delete the temporary file " + tempFile.getAbsolutePath());
+        }
+    }
+
+    private boolean subsetColumnarFile(StorageIO<DataFile> storageIO, List<Integer> variablePositionIndex, Long caseQuantity, File tempSubsetFile) {
+        try {
+            TabularColumnarFile columnarFile = TabularColumnarFile.open(storageIO);
+            if (columnarFile == null || caseQuantity == null || columnarFile.getCaseCount() != caseQuantity) {
+                return false;
+            }
+            try (OutputStream subsetStream = new BufferedOutputStream(new FileOutputStream(tempSubsetFile))) {
+                columnarFile.writeSubset(variablePositionIndex, subsetStream);
+            }
+        } catch (IOException ioex) {
+            logger.warning("Failed to subset the columnar copy of the tab file; falling back to the tab file itself: " + ioex.getMessage());
+            return false;
+        }
+        // The main file is not needed after all; close its InputStream, 
+        // if it was opened: 
+        storageIO.closeInputStream();
+        return true;
+    }
+
+    /**
+     * Writes rows of the tab file - entire rows, or some of the columns - 
+     * into a temp file. With the row index of the file, only the byte range 
+     * that contains the rows is read; without it (files ingested before 
+     * the indexes were introduced), the file is read from the start. 
+     */
+    private void subsetRows(StorageIO<DataFile> storageIO, Range rows, List<Integer> columns, File tempFile) throws IOException {
+        TabularRowIndex rowIndex = null;
+        try {
+            rowIndex = TabularRowIndex.open(storageIO);
+        } catch (IOException ioex) {
+            logger.warning("Failed to read the row index of the tab file; reading it from the start: " + ioex.getMessage());
+        }
+        try (OutputStream rowsStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            if (rowIndex != null) {
+                rowIndex.copyRows(storageIO, (int) rows.getStart(), (int) rows.getEnd(), columns, rowsStream);
+            } else {
+                TabularRowIndex.copyRows(new BufferedInputStream(storageIO.getInputStream()), (int) rows.getStart(), (int) rows.getLength(), columns, rowsStream);
+            }
+        }
+        // Done with the main file; (its InputStream is only open if it 
+        // had to be read from the start) 
+        storageIO.closeInputStream();
+    }
+
+    private String getSubsetFileName(StorageIO<DataFile> storageIO) {
+        String tabularFileName = storageIO.getFileName();
+
+        if (tabularFileName != null && tabularFileName.endsWith(".tab")) {
+            tabularFileName = tabularFileName.replaceAll("\\.tab$", "-subset.tab");
+        } else if (tabularFileName != null && !"".equals(tabularFileName)) {
+            tabularFileName = tabularFileName.concat("-subset.tab");
+        } else {
+            tabularFileName = "subset.tab";
+        }
+        return tabularFileName;
+    }
+
     private long getContentSize(StorageIO<?> accessObject) {
         long contentSize = 0;
 
@@ -678,6 +782,38 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         return -1;
     }
 
+    /**
+     * @param rows "1-100" for example; the (1-based, inclusive) rows of a 
+     * tabular file requested with the "rows" parameter. "101-" stands for 
+     * row 101 to the end, and "-10" for the last 10 rows. 
+     * @param caseCount Number of rows (cases) in the file.
+     * @return The (0-based, inclusive) range of rows.
+     * @throws RunTimeException on any problems processing the parameter.
+     */
+    public static Range getRowRange(String rows, long caseCount) {
+        if (rows == null || !rows.matches("^\\d*-\\d*$") || "-".equals(rows)) {
+            throw new RuntimeException("The format is rows=<first>-<last> where first and last are optional.");
+        }
+        String[] parts = rows.split("-", -1);
+        long first;
+        long last;
+        if (parts[0].isEmpty()) {
+            // the last n rows
+            first = Math.max(1, caseCount - Long.parseLong(parts[1]) + 1);
+            last = caseCount;
+        } else {
+            first = Long.parseLong(parts[0]);
+            last = parts[1].isEmpty() ? caseCount : Math.min(caseCount, Long.parseLong(parts[1]));
+        }
+        if (first < 1 || first > caseCount || last < first) {
+            throw new RuntimeException("Rows " + rows + " are not in the range of the " + caseCount + " rows of the file.");
+        }
+        return new Range(first - 1, last - 1);
+    }
+
+    // The maximum number of ranges in a single Range header:
+    static final int MAX_RANGES = 20;
+
     /**
      * @param range "bytes 0-10" for example. Found in the "Range" HTTP header.
      * @param fileSize File size in bytes.
@@ -691,19 +827,15 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         if (range != null) {
             logger.fine("Range header supplied: " + range);
 
-            // Technically this regex supports multiple ranges.
-            // Below we have a check to enforce a single range.
             if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
                 throw new RuntimeException("The format is bytes=<range-start>-<range-end> where start and end are optional.");
             }
 
             // The 6 is to remove "bytes="
             String[] parts = range.substring(6).split(",");
-            if (parts.length > 1) {
-                // Only allow a single range.
-                throw new RuntimeException("Only one range is allowed.");
+            if (parts.length > MAX_RANGES) {
+                throw new RuntimeException("At most " + MAX_RANGES + " ranges are allowed.");
             }
-            // This loop is here in case we ever want to support multiple ranges.
             for (String part : parts) {
 
                 long start = getRangeStart(part);
@@ -723,6 +855,11 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                 if (start > end) {
                     throw new RuntimeException("Start is larger than end or size of file.");
                 }
+                // Multiple ranges are served in one pass through the file, 
+                // so they must be in order (as allowed by RFC 7233, 6.1):
+                if (!ranges.isEmpty() && start <= ranges.get(ranges.size() - 1).getEnd()) {
+                    throw new RuntimeException("Multiple ranges must be in ascending order and must not overlap.");
+                }
 
                 ranges.add(new Range(start, end));
 
@@ -0,0 +1,27 @@
+package edu.harvard.iq.dataverse.api;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Marks the responses to Range requests for file downloads as partial
+ * content (206). The status has to be set here, before the response is
+ * written: {@link DownloadInstanceWriter} writes the range(s), or throws
+ * an exception (a redirect, or an error when a Range header can't be
+ * satisfied) that replaces the whole response.
+ */
+@Provider
+public class DownloadRangeResponseFilter implements ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (responseContext.getEntity() instanceof DownloadInstance
+                && responseContext.getStatus() == Response.Status.OK.getStatusCode()
+                && requestContext.getHeaderString("Range") != null) {
+            responseContext.setStatus(Response.Status.PARTIAL_CONTENT.getStatusCode());
+        }
+    }
+}
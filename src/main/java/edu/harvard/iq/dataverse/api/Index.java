@@ -27,14 +27,18 @@ import edu.harvard.iq.dataverse.search.DvObjectSolrDoc;
 import edu.harvard.iq.dataverse.search.FacetCategory;
 import edu.harvard.iq.dataverse.search.FileView;
 import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
+import edu.harvard.iq.dataverse.search.IndexQueue;
 import edu.harvard.iq.dataverse.search.IndexResponse;
+import edu.harvard.iq.dataverse.search.IndexRunServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.IndexUtil;
+import edu.harvard.iq.dataverse.search.PermissionIndexQueue;
 import edu.harvard.iq.dataverse.search.SearchException;
 import edu.harvard.iq.dataverse.search.SearchFields;
 import edu.harvard.iq.dataverse.search.SearchFilesServiceBean;
 import edu.harvard.iq.dataverse.search.SearchUtil;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import edu.harvard.iq.dataverse.search.SolrUpdateBatcher;
 import edu.harvard.iq.dataverse.search.SortBy;
 import edu.harvard.iq.dataverse.util.ConstraintViolationUtil;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
@@ -95,6 +99,14 @@ public class Index extends AbstractApiBean {
     DatasetFieldServiceBean datasetFieldService;
     @EJB
     SearchFilesServiceBean searchFilesService;
+    @EJB
+    SolrUpdateBatcher solrUpdateBatcher;
+    @EJB
+    IndexRunServiceBean indexRunService;
+    @EJB
+    IndexQueue indexQueue;
+    @EJB
+    PermissionIndexQueue permissionIndexQueue;
 
     public static String contentChanged = "contentChanged";
     public static String contentIndexed = "contentIndexed";
@@ -397,6 +409,48 @@ public class Index extends AbstractApiBean {
             return ok("Index Status Batch Job initiated, check log for job status.");
         }
     }
+
+    /**
+     * The progress (throughput, expected time to finish) of the latest "index
+     * all" runs, and the objects they failed to index; without the rest of
+     * the index status, which takes a while to compute.
+     */
+    @GET
+    @Path("runs")
+    public Response getIndexRuns(@QueryParam("limit") Integer limit) {
+        return ok(indexRunService.getRecentRuns(limit == null ? 10 : Math.max(1, limit)));
+    }
+
+    /**
+     * The dataverses and datasets waiting to be indexed after a change, and
+     * those that failed to index.
+     */
+    @GET
+    @Path("queue")
+    public Response getIndexQueueStatus() {
+        return ok(indexQueue.getStatus());
+    }
+
+    /**
+     * The definition points waiting for their permissions to be reindexed
+     * after a change of role assignments, on this node.
+     */
+    @GET
+    @Path("queue/permissions")
+    public Response getPermissionIndexQueueStatus() {
+        return ok(permissionIndexQueue.getStatus());
+    }
+
+    /**
+     * Reports the updates waiting to be sent to Solr, and how long sending
+     * them in batches has been taking.
+     */
+    @GET
+    @Path("solr/updates")
+    public Response getSolrUpdateStatus() {
+        return ok(solrUpdateBatcher.getStatus());
+    }
+
      /**
      * Deletes "orphan" Solr documents (that don't match anything in the database).
      * @param sync - optional parameter, if set, then run the command 
@@ -6,7 +6,12 @@
 package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.export.ExportService.ExportTiming;
+import java.util.Map;
 import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
 import javax.ejb.EJB;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -61,6 +66,25 @@ public class Metadata extends AbstractApiBean {
         return this.accepted();
     } 
 
+    // How long producing each export format has taken, on this server, 
+    // since it was started.
+    @GET
+    @Path("/exportTimings")
+    @Produces("application/json")
+    public Response exportTimings() {
+        JsonObjectBuilder timings = Json.createObjectBuilder();
+        for (Map.Entry<String, ExportTiming> entry : ExportService.getInstance().getExportTimings().entrySet()) {
+            ExportTiming timing = entry.getValue();
+            timings.add(entry.getKey(), Json.createObjectBuilder()
+                    .add("count", timing.getCount())
+                    .add("failures", timing.getFailures())
+                    .add("totalMillis", timing.getTotalMillis())
+                    .add("averageMillis", timing.getAverageMillis())
+                    .add("maxMillis", timing.getMaxMillis()));
+        }
+        return ok(timings);
+    }
+
     /**
      * initial attempt at triggering indexing/creation/population of a OAI set without going throught
      * the UI.
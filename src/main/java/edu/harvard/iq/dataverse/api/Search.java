@@ -12,6 +12,7 @@ import edu.harvard.iq.dataverse.search.SolrQueryResponse;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.GuestUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.search.SearchConstants;
 import edu.harvard.iq.dataverse.search.SearchException;
 import edu.harvard.iq.dataverse.search.SearchUtil;
@@ -19,6 +20,7 @@ import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
 import edu.harvard.iq.dataverse.search.SortBy;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,10 +34,13 @@ import javax.json.JsonObjectBuilder;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.common.params.CursorMarkParams;
 
 /**
  * User-facing documentation:
@@ -46,6 +51,8 @@ public class Search extends AbstractApiBean {
 
     private static final Logger logger = Logger.getLogger(Search.class.getCanonicalName());
 
+    private static final int MAX_RESULTS_PER_PAGE = 1000;
+
     @EJB
     SearchServiceBean searchService;
     @EJB
@@ -89,35 +96,9 @@ public class Search extends AbstractApiBean {
             List<Dataverse> dataverseSubtrees = new ArrayList<>();
 
             try {
-                if (!types.isEmpty()) {
-                    filterQueries.add(getFilterQueryFromTypes(types));
-                } else {
-                    /**
-                     * Added to prevent a NullPointerException for superusers
-                     * (who don't use our permission JOIN) when
-                     * SearchServiceBean tries to get SearchFields.TYPE. The GUI
-                     * always seems to add SearchFields.TYPE, even for superusers.
-                     */
-                    filterQueries.add(SearchFields.TYPE + ":(" + SearchConstants.DATAVERSES + " OR " + SearchConstants.DATASETS + " OR " + SearchConstants.FILES + ")");
-                }
                 sortBy = SearchUtil.getSortBy(sortField, sortOrder);
                 numResultsPerPage = getNumberOfResultsPerPage(numResultsPerPageRequested);
-                
-                 // we have to add "" (root) otherwise there is no permissions check
-                if(subtrees.isEmpty()) {
-                    dataverseSubtrees.add(getSubtree(""));
-                }
-                else {
-                    for(String subtree : subtrees) {
-                        dataverseSubtrees.add(getSubtree(subtree));
-                    }
-                }
-                filterQueries.add(getFilterQueryFromSubtrees(dataverseSubtrees));
-                
-                if(filterQueries.isEmpty()) { //Extra sanity check just in case someone else touches this
-                    throw new IOException("Filter is empty, which should never happen, as this allows unfettered searching of our index");
-                }
-                
+                addFilterQueries(types, subtrees, dataverseSubtrees, filterQueries);
             } catch (Exception ex) {
                 return error(Response.Status.BAD_REQUEST, ex.getLocalizedMessage());
             }
@@ -209,6 +190,127 @@ public class Search extends AbstractApiBean {
         }
     }
 
+    /**
+     * All the results of a search, as one JSON object per line (NDJSON),
+     * written out a page after the other as they come from Solr - so even
+     * millions of results can be exported without holding them all in memory,
+     * and each page takes as long as the first one. The parameters are those
+     * of {@link #search}, without start and facets (and per_page is the size
+     * of the pages read from Solr).
+     */
+    @GET
+    @Path("export")
+    @Produces("application/x-ndjson")
+    public Response export(
+            @QueryParam("q") String query,
+            @QueryParam("type") final List<String> types,
+            @QueryParam("subtree") final List<String> subtrees,
+            @QueryParam("sort") String sortField,
+            @QueryParam("order") String sortOrder,
+            @QueryParam("per_page") final int numResultsPerPageRequested,
+            @QueryParam("show_relevance") boolean showRelevance,
+            @QueryParam("fq") final List<String> filterQueries,
+            @QueryParam("show_entity_ids") boolean showEntityIds,
+            @QueryParam("show_api_urls") boolean showApiUrls
+    ) {
+
+        User user;
+        try {
+            user = getUser();
+        } catch (WrappedResponse ex) {
+            return ex.getResponse();
+        }
+
+        if (query == null) {
+            return error(Response.Status.BAD_REQUEST, "q parameter is missing");
+        }
+
+        SortBy sortBy;
+        int numResultsPerPage;
+        List<Dataverse> dataverseSubtrees = new ArrayList<>();
+        try {
+            sortBy = SearchUtil.getSortBy(sortField, sortOrder);
+            numResultsPerPage = numResultsPerPageRequested == 0 ? MAX_RESULTS_PER_PAGE : getNumberOfResultsPerPage(numResultsPerPageRequested);
+            addFilterQueries(types, subtrees, dataverseSubtrees, filterQueries);
+        } catch (Exception ex) {
+            return error(Response.Status.BAD_REQUEST, ex.getLocalizedMessage());
+        }
+
+        DataverseRequest dataverseRequest = createDataverseRequest(user);
+        // the first page is read right away, so a bad query gets an error response
+        SolrQueryResponse firstPage;
+        try {
+            firstPage = searchService.searchWithCursor(dataverseRequest, dataverseSubtrees, query, filterQueries,
+                    sortBy.getField(), sortBy.getOrder(), CursorMarkParams.CURSOR_MARK_START, numResultsPerPage, true);
+        } catch (SearchException ex) {
+            logger.log(Level.INFO, "Exception exporting search results for [" + query + "] with filterQueries " + filterQueries, ex);
+            return error(Response.Status.INTERNAL_SERVER_ERROR, "Exception running search for [" + query + "]: " + ex.getLocalizedMessage());
+        }
+        if (firstPage.getError() != null) {
+            return error(Response.Status.BAD_REQUEST, firstPage.getError());
+        }
+
+        StreamingOutput stream = os -> {
+            SolrQueryResponse page = firstPage;
+            String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+            while (true) {
+                for (SolrSearchResult solrSearchResult : page.getSolrSearchResults()) {
+                    os.write(solrSearchResult.toJsonObject(showRelevance, showEntityIds, showApiUrls).toString().getBytes(StandardCharsets.UTF_8));
+                    os.write('\n');
+                }
+                os.flush();
+                if (page.getNextCursorMark() == null || page.getNextCursorMark().equals(cursorMark)) {
+                    return;
+                }
+                cursorMark = page.getNextCursorMark();
+                try {
+                    page = searchService.searchWithCursor(dataverseRequest, dataverseSubtrees, query, filterQueries,
+                            sortBy.getField(), sortBy.getOrder(), cursorMark, numResultsPerPage, true);
+                } catch (SearchException ex) {
+                    // (too late for an error response: the export is cut short instead)
+                    throw new IOException("Exception exporting search results for [" + query + "]", ex);
+                }
+                if (page.getError() != null) {
+                    throw new IOException("Error exporting search results for [" + query + "]: " + page.getError());
+                }
+            }
+        };
+        return Response.ok(stream).build();
+    }
+
+    /**
+     * Adds the filter queries for the types and subtrees asked for, and the
+     * subtrees to dataverseSubtrees.
+     */
+    private void addFilterQueries(List<String> types, List<String> subtrees, List<Dataverse> dataverseSubtrees, List<String> filterQueries) throws Exception {
+        if (!types.isEmpty()) {
+            filterQueries.add(getFilterQueryFromTypes(types));
+        } else {
+            /**
+             * Added to prevent a NullPointerException for superusers
+             * (who don't use our permission JOIN) when
+             * SearchServiceBean tries to get SearchFields.TYPE. The GUI
+             * always seems to add SearchFields.TYPE, even for superusers.
+             */
+            filterQueries.add(SearchFields.TYPE + ":(" + SearchConstants.DATAVERSES + " OR " + SearchConstants.DATASETS + " OR " + SearchConstants.FILES + ")");
+        }
+
+         // we have to add "" (root) otherwise there is no permissions check
+        if(subtrees.isEmpty()) {
+            dataverseSubtrees.add(getSubtree(""));
+        }
+        else {
+            for(String subtree : subtrees) {
+                dataverseSubtrees.add(getSubtree(subtree));
+            }
+        }
+        filterQueries.add(getFilterQueryFromSubtrees(dataverseSubtrees));
+
+        if(filterQueries.isEmpty()) { //Extra sanity check just in case someone else touches this
+            throw new IOException("Filter is empty, which should never happen, as this allows unfettered searching of our index");
+        }
+    }
+
     private User getUser() throws WrappedResponse {
         User userToExecuteSearchAs = GuestUser.get();
         try {
@@ -244,7 +346,7 @@ public class Search extends AbstractApiBean {
         /**
          * @todo should maxLimit be configurable?
          */
-        int maxLimit = 1000; 
+        int maxLimit = MAX_RESULTS_PER_PAGE; 
         if (numResultsPerPage == 0) {
             /**
              * @todo should defaultLimit be configurable?
@@ -530,10 +530,13 @@ public class AuthenticationServiceBean {
         
         deleteBannerMessages(au);
                
-        if (!explicitGroupService.findGroups(au).isEmpty()) {
-            for(ExplicitGroup explicitGroup: explicitGroupService.findGroups(au)){
+        Set<ExplicitGroup> explicitGroups = explicitGroupService.findGroups(au);
+        if (!explicitGroups.isEmpty()) {
+            for(ExplicitGroup explicitGroup: explicitGroups){
                 explicitGroup.removeByRoleAssgineeIdentifier(au.getIdentifier());
-            }            
+            }
+            // (the groups are changed through the entities, not persist())
+            explicitGroupService.groupsChanged();
         }
         
     }
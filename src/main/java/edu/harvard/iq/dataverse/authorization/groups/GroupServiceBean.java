@@ -37,6 +37,14 @@ import javax.inject.Named;
 @Named
 public class GroupServiceBean {
     private static final Logger logger = Logger.getLogger(GroupServiceBean.class.getName());
+
+    /**
+     * The name of the cache version (see
+     * {@link edu.harvard.iq.dataverse.util.CacheVersionServiceBean})
+     * bumped whenever a group, or its members, change: what is derived from
+     * group memberships and kept in memory is dropped when it moves.
+     */
+    public static final String CACHE_NAME = "groups";
     
     @EJB
     IpGroupsServiceBean ipGroupsService;
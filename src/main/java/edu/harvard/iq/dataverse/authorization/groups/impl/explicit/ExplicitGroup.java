@@ -43,6 +43,8 @@ import org.hibernate.validator.constraints.NotBlank;
 @NamedQueries({
     @NamedQuery( name="ExplicitGroup.findAll",
                  query="SELECT eg FROM ExplicitGroup eg"),
+    @NamedQuery( name="ExplicitGroup.findByIds",
+                 query="SELECT eg FROM ExplicitGroup eg LEFT JOIN FETCH eg.owner WHERE eg.id IN :ids"),
     @NamedQuery( name="ExplicitGroup.findByOwnerIdAndAlias",
                  query="SELECT eg FROM ExplicitGroup eg WHERE eg.owner.id=:ownerId AND eg.groupAliasInOwner=:alias"),
     @NamedQuery( name="ExplicitGroup.findByAlias",
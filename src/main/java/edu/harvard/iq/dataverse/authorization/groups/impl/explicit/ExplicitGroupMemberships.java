@@ -0,0 +1,148 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
+
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The memberships of all the explicit groups, for finding the groups of a role
+ * assignee in memory rather than with a query per level of group containment.
+ * Holds the groups each user, group and other role assignee is directly a
+ * member of, the owner of each group, and the transitive closure of group
+ * containment: for each group, itself and all the groups that contain it,
+ * directly or not.
+ *
+ * Immutable once built, so a single copy can be shared by all the requests.
+ *
+ * @see ExplicitGroupServiceBean
+ */
+final class ExplicitGroupMemberships {
+
+    private final long version;
+    private final Map<Long, Long> ownerIds;
+    private final Map<Long, Set<Long>> groupsByUserId;
+    private final Map<String, Set<Long>> groupsByIdentifier;
+    private final Map<Long, Set<Long>> groupsByGroupId;
+    private final Map<Long, Set<Long>> closures;
+
+    private ExplicitGroupMemberships(long version, Builder builder) {
+        this.version = version;
+        ownerIds = builder.ownerIds;
+        groupsByUserId = builder.groupsByUserId;
+        groupsByIdentifier = builder.groupsByIdentifier;
+        groupsByGroupId = builder.groupsByGroupId;
+        closures = new HashMap<>();
+        for (Long groupId : ownerIds.keySet()) {
+            closures.put(groupId, Collections.unmodifiableSet(containing(groupId)));
+        }
+    }
+
+    /**
+     * @return the version of the groups the memberships were loaded from.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return ownerIds.size();
+    }
+
+    /**
+     * @return the ids of the groups {@code ra} is directly a member of.
+     */
+    Set<Long> findDirectlyContainingGroupIds(RoleAssignee ra) {
+        Set<Long> groupIds;
+        if (ra instanceof AuthenticatedUser) {
+            groupIds = groupsByUserId.get(((AuthenticatedUser) ra).getId());
+        } else if (ra instanceof ExplicitGroup) {
+            groupIds = groupsByGroupId.get(((ExplicitGroup) ra).getId());
+        } else {
+            groupIds = groupsByIdentifier.get(ra.getIdentifier());
+        }
+        return (groupIds != null) ? groupIds : Collections.emptySet();
+    }
+
+    /**
+     * @return the ids of the groups in {@code seed}, and of the groups that
+     * contain them, directly or not.
+     */
+    Set<Long> findClosure(Collection<Long> seed) {
+        Set<Long> groupIds = new HashSet<>();
+        for (Long id : seed) {
+            Set<Long> closure = closures.get(id);
+            if (closure != null) {
+                groupIds.addAll(closure);
+            }
+        }
+        return groupIds;
+    }
+
+    /**
+     * @return whether the group is defined at {@code o} or at one of its
+     * ancestors.
+     */
+    boolean isAvailableIn(Long groupId, DvObject o) {
+        Long ownerId = ownerIds.get(groupId);
+        for (DvObject cur = o; ownerId != null && cur != null; cur = cur.getOwner()) {
+            if (ownerId.equals(cur.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<Long> containing(Long groupId) {
+        Set<Long> closure = new HashSet<>();
+        Deque<Long> perimeter = new ArrayDeque<>();
+        perimeter.add(groupId);
+        // the visited set also keeps cycles, that may be made on the SQL console, from looping.
+        while (!perimeter.isEmpty()) {
+            Long next = perimeter.poll();
+            if (closure.add(next)) {
+                perimeter.addAll(groupsByGroupId.getOrDefault(next, Collections.emptySet()));
+            }
+        }
+        return closure;
+    }
+
+    static class Builder {
+
+        private final Map<Long, Long> ownerIds = new HashMap<>();
+        private final Map<Long, Set<Long>> groupsByUserId = new HashMap<>();
+        private final Map<String, Set<Long>> groupsByIdentifier = new HashMap<>();
+        private final Map<Long, Set<Long>> groupsByGroupId = new HashMap<>();
+
+        Builder addGroup(long groupId, Long ownerId) {
+            ownerIds.put(groupId, ownerId);
+            return this;
+        }
+
+        Builder addAuthenticatedUser(long groupId, long userId) {
+            groupsByUserId.computeIfAbsent(userId, k -> new HashSet<>()).add(groupId);
+            return this;
+        }
+
+        Builder addExplicitGroup(long groupId, long containedGroupId) {
+            groupsByGroupId.computeIfAbsent(containedGroupId, k -> new HashSet<>()).add(groupId);
+            return this;
+        }
+
+        Builder addRoleAssignee(long groupId, String identifier) {
+            groupsByIdentifier.computeIfAbsent(identifier, k -> new HashSet<>()).add(groupId);
+            return this;
+        }
+
+        ExplicitGroupMemberships build(long version) {
+            return new ExplicitGroupMemberships(version, this);
+        }
+    }
+}
@@ -1,26 +1,33 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
 
 import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.PermissionDecisionCache;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+import edu.harvard.iq.dataverse.util.VersionedCache;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import static java.util.stream.Collectors.joining;
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * A bean providing the {@link ExplicitGroupProvider}s with container services,
@@ -35,36 +42,22 @@ public class ExplicitGroupServiceBean {
     private static final Logger logger = Logger.getLogger(ExplicitGroupServiceBean.class.getName());
     @EJB
     private RoleAssigneeServiceBean roleAssigneeSvc;
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+    @Inject
+    PermissionDecisionCache permissionDecisionCache;
+    @Resource
+    TransactionSynchronizationRegistry txRegistry;
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     protected EntityManager em;
 	
     ExplicitGroupProvider provider;
     
-    /**
-     * A PostgreSQL-specific query that returns a group and all the groups
-     * that contain it, and their parents too (-> recourse up teh containment
-     * hierarchy of the explicit groups). Takes the group id as a parameter.
-     */
-    private static final String FIND_ALL_PARENTS_QUERY_TEMPLATE = "WITH RECURSIVE\n" +
-        "explicit_group_graph AS (\n" +
-        "  SELECT\n" +
-        "     eg.id as id,\n" +
-        "     ee.explicitgroup_id as parent_group_id\n" +
-        "  FROM explicitgroup eg \n" +
-        "    LEFT JOIN explicitgroup_explicitgroup ee \n" +
-        "      ON eg.id=ee.containedexplicitgroups_id\n" +
-        "),\n" +
-        "parents AS (\n" +
-        "  SELECT * FROM explicit_group_graph\n" +
-        "  WHERE \n" +
-        "    id IN (@IDS)\n" +
-        "  UNION ALL\n" +
-        "  SELECT egg.*\n" +
-        "  FROM explicit_group_graph egg, parents\n" +
-        "  WHERE parents.parent_group_id = egg.id\n" +
-        ") SELECT * from explicitgroup \n" +
-        "WHERE id IN (SELECT distinct id FROM parents);";
+    static final long MEMBERSHIPS_CHECK_INTERVAL_MILLIS = 1000;
+    
+    private static final VersionedCache<ExplicitGroupMemberships> memberships
+            = new VersionedCache<>(GroupServiceBean.CACHE_NAME, MEMBERSHIPS_CHECK_INTERVAL_MILLIS);
     
     @PostConstruct
     void setup() {
@@ -76,6 +69,7 @@ public class ExplicitGroupServiceBean {
     }
     
     public ExplicitGroup persist( ExplicitGroup g ) {
+        groupsChanged();
         if ( g.getId() == null ) {
             em.persist( g );
             return g;
@@ -127,6 +121,7 @@ public class ExplicitGroupServiceBean {
 
     public void removeGroup(ExplicitGroup explicitGroup) {
         em.remove( explicitGroup );
+        groupsChanged();
     }
     
     /**
@@ -152,28 +147,7 @@ public class ExplicitGroupServiceBean {
      * @see #findGroups(edu.harvard.iq.dataverse.authorization.RoleAssignee)
      */
     public Set<ExplicitGroup> findDirectlyContainingGroups( RoleAssignee ra ) {
-        if ( ra instanceof AuthenticatedUser ) {
-            return provider.updateProvider(
-                    new HashSet<>(
-                            em.createNamedQuery("ExplicitGroup.findByAuthenticatedUserIdentifier", ExplicitGroup.class)
-                              .setParameter("authenticatedUserIdentifier", ra.getIdentifier().substring(1))
-                              .getResultList()
-                  ));
-        } else if ( ra instanceof ExplicitGroup ) {
-            return provider.updateProvider(
-                    new HashSet<>(
-                            em.createNamedQuery("ExplicitGroup.findByContainedExplicitGroupId", ExplicitGroup.class)
-                              .setParameter("containedExplicitGroupId", ((ExplicitGroup) ra).getId())
-                              .getResultList()
-                  ));
-        } else {
-            return provider.updateProvider(
-                    new HashSet<>(
-                            em.createNamedQuery("ExplicitGroup.findByRoleAssgineeIdentifier", ExplicitGroup.class)
-                              .setParameter("roleAssigneeIdentifier", ra.getIdentifier())
-                              .getResultList()
-                  ));
-        }
+        return toGroups(getMemberships().findDirectlyContainingGroupIds(ra));
     }
 
     
@@ -183,7 +157,8 @@ public class ExplicitGroupServiceBean {
      * @return set of the explicit groups that contain {@code ra}.
      */
     public Set<ExplicitGroup> findGroups( RoleAssignee ra ) {
-        return findClosure(findDirectlyContainingGroups(ra));
+        ExplicitGroupMemberships egm = getMemberships();
+        return toGroups(egm.findClosure(egm.findDirectlyContainingGroupIds(ra)));
     }
     
     /**
@@ -194,9 +169,10 @@ public class ExplicitGroupServiceBean {
      * @return All the groups in {@code o}'s context that {@code ra} is a member of.
      */
     public Set<ExplicitGroup> findGroups( RoleAssignee ra, DvObject o ) {
-        return findGroups(ra).stream()
-                .filter( g -> g.owner.isAncestorOf(o) )
-                .collect( Collectors.toSet() );
+        ExplicitGroupMemberships egm = getMemberships();
+        return toGroups(egm.findClosure(egm.findDirectlyContainingGroupIds(ra)).stream()
+                .filter( id -> egm.isAvailableIn(id, o) )
+                .collect( Collectors.toSet() ));
     }
     
     /**
@@ -214,34 +190,10 @@ public class ExplicitGroupServiceBean {
         if ( o == null ) {
             return Collections.emptySet();
         }
-        List<ExplicitGroup> groupList = new LinkedList<>();
-        
-        if ( ra instanceof ExplicitGroup ) {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndSubExGroupId", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("subExGroupId", ((ExplicitGroup)ra).getId())
-                  .getResultList() );
-            }
-            
-        } else if ( ra instanceof AuthenticatedUser ) {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndAuthUserId", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("authUserId", ((AuthenticatedUser)ra).getId())
-                  .getResultList() );
-            }
-            
-        } else {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndRAIdtf", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("raIdtf", ra.getIdentifier())
-                  .getResultList() );
-            }
-        }
-        
-        return provider.updateProvider( new HashSet<>(groupList) );
+        ExplicitGroupMemberships egm = getMemberships();
+        return toGroups(egm.findDirectlyContainingGroupIds(ra).stream()
+                .filter( id -> egm.isAvailableIn(id, o) )
+                .collect( Collectors.toSet() ));
     }
     
     /**
@@ -256,14 +208,53 @@ public class ExplicitGroupServiceBean {
         
         if ( seed.isEmpty() ) return Collections.emptySet();
         
-        String ids = seed.stream().map(eg->Long.toString(eg.getId())).collect( joining(",") );
-        
-        // PSQL driver has issues with arrays and collections as parameters, so we're using 
-        // string manipulation to create the query here. Not ideal, but seems to be
-        // the only solution at the Java Persistence level (i.e. without downcasting to org.postgresql.*)
-        String sqlCode = FIND_ALL_PARENTS_QUERY_TEMPLATE.replace("@IDS", ids);
-        return new HashSet<>(em.createNativeQuery(sqlCode, ExplicitGroup.class)
-            .getResultList());
+        return toGroups(getMemberships().findClosure(
+                seed.stream().map(ExplicitGroup::getId).collect( Collectors.toSet() )));
+    }
+    
+    /**
+     * The memberships of all the explicit groups, reloaded when the groups have
+     * changed - on this server or another one. See {@link VersionedCache}.
+     */
+    ExplicitGroupMemberships getMemberships() {
+        return memberships.get(cacheVersionSvc, txRegistry, version -> {
+            ExplicitGroupMemberships egm = loadMemberships(version);
+            logger.fine("Loaded the memberships of " + egm.size() + " explicit groups, groups version " + version);
+            return egm;
+        });
+    }
+    
+    private ExplicitGroupMemberships loadMemberships( long version ) {
+        ExplicitGroupMemberships.Builder builder = new ExplicitGroupMemberships.Builder();
+        for ( Object[] row : nativeRows("SELECT id, owner_id FROM explicitgroup") ) {
+            builder.addGroup(((Number) row[0]).longValue(), (row[1] != null) ? ((Number) row[1]).longValue() : null);
+        }
+        for ( Object[] row : nativeRows("SELECT explicitgroup_id, containedauthenticatedusers_id FROM explicitgroup_authenticateduser") ) {
+            builder.addAuthenticatedUser(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+        for ( Object[] row : nativeRows("SELECT explicitgroup_id, containedexplicitgroups_id FROM explicitgroup_explicitgroup") ) {
+            builder.addExplicitGroup(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+        for ( Object[] row : nativeRows("SELECT explicitgroup_id, containedroleassignees FROM explicitgroup_containedroleassignees") ) {
+            if ( row[0] != null && row[1] != null ) {
+                builder.addRoleAssignee(((Number) row[0]).longValue(), (String) row[1]);
+            }
+        }
+        return builder.build(version);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<Object[]> nativeRows( String sql ) {
+        return em.createNativeQuery(sql).getResultList();
+    }
+    
+    private Set<ExplicitGroup> toGroups( Collection<Long> ids ) {
+        if ( ids.isEmpty() ) {
+            return new HashSet<>();
+        }
+        return provider.updateProvider(new HashSet<>(em.createNamedQuery("ExplicitGroup.findByIds", ExplicitGroup.class)
+                .setParameter("ids", ids)
+                .getResultList()));
     }
     
     /**
@@ -278,7 +269,22 @@ public class ExplicitGroupServiceBean {
         } else if (assignee instanceof ExplicitGroup) {
             em.createNativeQuery("DELETE FROM explicitgroup_explicitgroup WHERE containedexplicitgroups_id=" + ((ExplicitGroup) assignee).getId()).executeUpdate();
         }
+        groupsChanged();
+    }
+
+    /**
+     * Has what was derived from the groups before the change forgotten, by
+     * this request now and by the others once the change is committed. To be
+     * called by code that changes memberships without {@link #persist}, too:
+     * through the entities, or directly in the database.
+     */
+    public void groupsChanged() {
+        memberships.invalidate(cacheVersionSvc, txRegistry);
+        try {
+            permissionDecisionCache.invalidate();
+        } catch (ContextNotActiveException ex) {
+            // not called by a request: nothing kept
+        }
     }
-    
     
 }
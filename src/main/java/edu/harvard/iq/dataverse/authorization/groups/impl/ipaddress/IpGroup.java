@@ -23,7 +23,9 @@ import javax.persistence.Transient;
     @NamedQuery(name="IpGroup.findAll",
                query="SELECT g FROM IpGroup g"),
     @NamedQuery(name="IpGroup.findByPersistedGroupAlias",
-               query="SELECT g FROM IpGroup g WHERE g.persistedGroupAlias=:persistedGroupAlias")
+               query="SELECT g FROM IpGroup g WHERE g.persistedGroupAlias=:persistedGroupAlias"),
+    @NamedQuery(name="IpGroup.findByIds",
+               query="SELECT DISTINCT g FROM IpGroup g LEFT JOIN FETCH g.ipv4Ranges LEFT JOIN FETCH g.ipv6Ranges WHERE g.id IN :ids")
 })
 @Entity
 public class IpGroup extends PersistedGlobalGroup {
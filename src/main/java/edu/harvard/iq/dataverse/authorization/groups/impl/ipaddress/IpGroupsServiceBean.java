@@ -3,19 +3,23 @@ package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
-import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
-import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+import edu.harvard.iq.dataverse.util.VersionedCache;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * Provides CRUD tools to efficiently manage IP groups in a Java EE container.
@@ -36,6 +40,17 @@ public class IpGroupsServiceBean {
 	
     @EJB
     RoleAssigneeServiceBean roleAssigneeSvc;
+
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+    
+    @Resource
+    TransactionSynchronizationRegistry txRegistry;
+    
+    static final long RANGE_INDEX_CHECK_INTERVAL_MILLIS = 1000;
+    
+    private static final VersionedCache<IpRangeIndex> rangeIndex
+            = new VersionedCache<>(GroupServiceBean.CACHE_NAME, RANGE_INDEX_CHECK_INTERVAL_MILLIS);
     
     /**
      * Stores (inserts/updates) the passed IP group.
@@ -50,6 +65,7 @@ public class IpGroupsServiceBean {
             alr.setInfo( grp.getDisplayName() );
         }
         alr.setInfo( alr.getInfo() + "// " + grp.getRanges() );
+        rangesChanged();
         
         if ( grp.getId() == null ) {
             if ( grp.getPersistedGroupAlias() != null ) {
@@ -97,27 +113,57 @@ public class IpGroupsServiceBean {
         return em.createNamedQuery("IpGroup.findAll", IpGroup.class).getResultList();
     }
     
+    /**
+     * Finds the groups with a range containing {@code ipa}, from the in-memory
+     * {@link IpRangeIndex} of all the ranges.
+     * @param ipa the address
+     * @return a new set of the groups containing the address
+     */
     public Set<IpGroup> findAllIncludingIp( IpAddress ipa ) {
-        if ( ipa instanceof IPv4Address ) {
-            IPv4Address ip4 = (IPv4Address) ipa;
-            List<IpGroup> groupList = em.createNamedQuery("IPv4Range.findGroupsContainingAddressAsLong", IpGroup.class)
-                    .setParameter("addressAsLong", ip4.toBigInteger()).getResultList();
-            return new HashSet<>(groupList);
-
-        } else if ( ipa instanceof IPv6Address ) {
-            IPv6Address ip6 = (IPv6Address) ipa;
-            long[] ip6arr = ip6.toLongArray();
-            List<IpGroup> groupList = em.createNamedQuery("IPv6Range.findGroupsContainingABCD", IpGroup.class)
-                    .setParameter("a", ip6arr[0])
-                    .setParameter("b", ip6arr[1])
-                    .setParameter("c", ip6arr[2])
-                    .setParameter("d", ip6arr[3])
-                    .getResultList();
-            return new HashSet<>(groupList);
-
-        } else {
-            throw new IllegalArgumentException( "Unknown IpAddress type: " + ipa.getClass() + " (for IpAddress:" + ipa + ")" );
+        List<Long> ids = new ArrayList<>();
+        getRangeIndex().forEachGroupIdContaining(ipa, ids::add);
+        if ( ids.isEmpty() ) {
+            return new HashSet<>();
         }
+        return new HashSet<>(em.createNamedQuery("IpGroup.findByIds", IpGroup.class)
+                .setParameter("ids", ids)
+                .getResultList());
+    }
+    
+    /**
+     * The index of the ranges, rebuilt when the groups have changed - on this
+     * server or another one. See {@link VersionedCache}.
+     */
+    IpRangeIndex getRangeIndex() {
+        return rangeIndex.get(cacheVersionSvc, txRegistry, version -> {
+            IpRangeIndex index = loadRangeIndex(version);
+            logger.fine("Loaded " + index.size() + " IP ranges, groups version " + version);
+            return index;
+        });
+    }
+    
+    private IpRangeIndex loadRangeIndex( long version ) {
+        IpRangeIndex.Builder builder = new IpRangeIndex.Builder();
+        List<Object[]> ipv4Rows = em.createQuery("SELECT r.owner.id, r.bottomAsLong, r.topAsLong FROM IPv4Range r", Object[].class)
+                .getResultList();
+        for ( Object[] row : ipv4Rows ) {
+            builder.addIpv4(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), ((Number) row[2]).longValue());
+        }
+        List<Object[]> ipv6Rows = em.createQuery("SELECT r.owner.id, r.bottomA, r.bottomB, r.bottomC, r.bottomD, "
+                + "r.topA, r.topB, r.topC, r.topD FROM IPv6Range r", Object[].class)
+                .getResultList();
+        for ( Object[] row : ipv6Rows ) {
+            builder.addIpv6(((Number) row[0]).longValue(),
+                    ((Number) row[1]).longValue(), ((Number) row[2]).longValue(),
+                    ((Number) row[3]).longValue(), ((Number) row[4]).longValue(),
+                    ((Number) row[5]).longValue(), ((Number) row[6]).longValue(),
+                    ((Number) row[7]).longValue(), ((Number) row[8]).longValue());
+        }
+        return builder.build(version);
+    }
+    
+    private void rangesChanged() {
+        rangeIndex.invalidate(cacheVersionSvc, txRegistry);
     }
     
     /**
@@ -131,6 +177,7 @@ public class IpGroupsServiceBean {
         alr.setInfo( grp.getIdentifier() );
         if ( roleAssigneeSvc.getAssignmentsFor(grp.getIdentifier()).isEmpty() ) {
             em.remove( grp );
+            rangesChanged();
             actionLogSvc.log(alr);
             
         } else {
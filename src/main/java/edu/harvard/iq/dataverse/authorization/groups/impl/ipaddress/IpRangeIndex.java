@@ -0,0 +1,177 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * The address ranges of all the IP groups, for finding the groups that contain
+ * an address in memory rather than with a query per request. Addresses are
+ * 128-bit unsigned numbers, kept as two {@code long}s (IPv4 addresses only use
+ * the low one), and each kind of ranges is sorted by bottom address, along
+ * with the highest top address so far: the ranges containing an address are
+ * found by a binary search for the last range starting at or before it, then
+ * walking back while the ranges so far may still reach it.
+ *
+ * Immutable once built, so a single index can be shared by all the requests.
+ *
+ * @see IpGroupsServiceBean#findAllIncludingIp(IpAddress)
+ */
+final class IpRangeIndex {
+
+    private final long version;
+    private final Ranges ipv4;
+    private final Ranges ipv6;
+
+    private IpRangeIndex(long version, Ranges ipv4, Ranges ipv6) {
+        this.version = version;
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    /**
+     * @return the version of the groups the index was built from.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return ipv4.size() + ipv6.size();
+    }
+
+    /**
+     * Passes the id of the group of each range containing {@code ipa} to
+     * {@code action} - more than once if more than one range of a group
+     * contains it.
+     */
+    void forEachGroupIdContaining(IpAddress ipa, LongConsumer action) {
+        if (ipa instanceof IPv4Address) {
+            IPv4Address ip4 = (IPv4Address) ipa;
+            long address = 0;
+            for (int i = 0; i < 4; i++) {
+                address = (address << 8) | (ip4.get(i) & 0xff);
+            }
+            ipv4.forEachGroupIdContaining(0, address, action);
+
+        } else if (ipa instanceof IPv6Address) {
+            IPv6Address ip6 = (IPv6Address) ipa;
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < 4; i++) {
+                high = (high << 16) | ip6.get(i);
+                low = (low << 16) | ip6.get(i + 4);
+            }
+            ipv6.forEachGroupIdContaining(high, low, action);
+
+        } else {
+            throw new IllegalArgumentException("Unknown IpAddress type: " + ipa.getClass() + " (for IpAddress:" + ipa + ")");
+        }
+    }
+
+    static class Builder {
+
+        private final List<long[]> ipv4 = new ArrayList<>();
+        private final List<long[]> ipv6 = new ArrayList<>();
+
+        /**
+         * Adds an IPv4 range, as stored in {@link edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range}.
+         */
+        Builder addIpv4(long groupId, long bottom, long top) {
+            ipv4.add(new long[]{groupId, 0, bottom, 0, top});
+            return this;
+        }
+
+        /**
+         * Adds an IPv6 range, as stored in {@link edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range}:
+         * each of the {@code long}s holds 32 bits of the address.
+         */
+        Builder addIpv6(long groupId, long bottomA, long bottomB, long bottomC, long bottomD,
+                long topA, long topB, long topC, long topD) {
+            ipv6.add(new long[]{groupId,
+                (bottomA << 32) | bottomB, (bottomC << 32) | bottomD,
+                (topA << 32) | topB, (topC << 32) | topD});
+            return this;
+        }
+
+        IpRangeIndex build(long version) {
+            return new IpRangeIndex(version, new Ranges(ipv4), new Ranges(ipv6));
+        }
+    }
+
+    /**
+     * Ranges of one kind of addresses, sorted by their bottom address.
+     */
+    private static class Ranges {
+
+        private final long[] groupIds;
+        private final long[] bottomHigh;
+        private final long[] bottomLow;
+        private final long[] topHigh;
+        private final long[] topLow;
+        // the highest top address of the ranges up to this one
+        private final long[] maxTopHigh;
+        private final long[] maxTopLow;
+
+        Ranges(List<long[]> ranges) {
+            long[][] sorted = ranges.toArray(new long[0][]);
+            Arrays.sort(sorted, (r1, r2) -> compare(r1[1], r1[2], r2[1], r2[2]));
+            int n = sorted.length;
+            groupIds = new long[n];
+            bottomHigh = new long[n];
+            bottomLow = new long[n];
+            topHigh = new long[n];
+            topLow = new long[n];
+            maxTopHigh = new long[n];
+            maxTopLow = new long[n];
+            for (int i = 0; i < n; i++) {
+                groupIds[i] = sorted[i][0];
+                bottomHigh[i] = sorted[i][1];
+                bottomLow[i] = sorted[i][2];
+                topHigh[i] = sorted[i][3];
+                topLow[i] = sorted[i][4];
+                if (i == 0 || compare(topHigh[i], topLow[i], maxTopHigh[i - 1], maxTopLow[i - 1]) > 0) {
+                    maxTopHigh[i] = topHigh[i];
+                    maxTopLow[i] = topLow[i];
+                } else {
+                    maxTopHigh[i] = maxTopHigh[i - 1];
+                    maxTopLow[i] = maxTopLow[i - 1];
+                }
+            }
+        }
+
+        int size() {
+            return groupIds.length;
+        }
+
+        void forEachGroupIdContaining(long high, long low, LongConsumer action) {
+            // the last range whose bottom is at or before the address
+            int lo = 0;
+            int hi = groupIds.length - 1;
+            int last = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(bottomHigh[mid], bottomLow[mid], high, low) <= 0) {
+                    last = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            for (int i = last; i >= 0 && compare(maxTopHigh[i], maxTopLow[i], high, low) >= 0; i--) {
+                if (compare(topHigh[i], topLow[i], high, low) >= 0) {
+                    action.accept(groupIds[i]);
+                }
+            }
+        }
+
+        private static int compare(long high1, long low1, long high2, long low2) {
+            int cmp = Long.compareUnsigned(high1, high2);
+            return (cmp != 0) ? cmp : Long.compareUnsigned(low1, low2);
+        }
+    }
+}
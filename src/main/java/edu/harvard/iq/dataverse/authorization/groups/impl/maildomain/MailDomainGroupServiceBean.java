@@ -2,8 +2,10 @@ package edu.harvard.iq.dataverse.authorization.groups.impl.maildomain;
 
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailServiceBean;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
 
 import java.util.*;
 import java.util.logging.Logger;
@@ -37,6 +39,8 @@ public class MailDomainGroupServiceBean {
     ConfirmEmailServiceBean confirmEmailSvc;
     @Inject
     ActionLogServiceBean actionLogSvc;
+    @Inject
+    CacheVersionServiceBean cacheVersionSvc;
 	
     MailDomainGroupProvider provider;
     List<MailDomainGroup> simpleGroups = Collections.EMPTY_LIST;
@@ -141,6 +145,7 @@ public class MailDomainGroupServiceBean {
     public MailDomainGroup saveOrUpdate(Optional<String> groupAlias, MailDomainGroup grp ) {
         ActionLogRecord alr = new ActionLogRecord(ActionLogRecord.ActionType.GlobalGroups, "mailDomainCreate");
         alr.setInfo(grp.getIdentifier());
+        cacheVersionSvc.bump(GroupServiceBean.CACHE_NAME);
         
         // groupAlias present means PUT means idempotence.
         if (groupAlias.isPresent()) {
@@ -182,6 +187,7 @@ public class MailDomainGroupServiceBean {
     
         Optional<MailDomainGroup> tbd = findByAlias(groupAlias);
         em.remove(tbd.orElseThrow(() -> new NotFoundException("Cannot find a group with alias "+groupAlias)));
+        cacheVersionSvc.bump(GroupServiceBean.CACHE_NAME);
         actionLogSvc.log( alr );
     }
     
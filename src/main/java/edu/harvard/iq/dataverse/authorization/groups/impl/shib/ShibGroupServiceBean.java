@@ -6,6 +6,7 @@ import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +40,8 @@ public class ShibGroupServiceBean {
     GroupServiceBean groupService;
     @EJB
     ActionLogServiceBean actionLogSvc;
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
 
     /**
      * @return A ShibGroup or null.
@@ -67,6 +70,7 @@ public class ShibGroupServiceBean {
         em.persist(institutionalGroup);
         em.flush();
         ShibGroup merged = em.merge(institutionalGroup);
+        cacheVersionSvc.bump(GroupServiceBean.CACHE_NAME);
 
         actionLogSvc.log(alr);
         return merged;
@@ -102,6 +106,7 @@ public class ShibGroupServiceBean {
         List<RoleAssignment> assignments = roleAssigneeSvc.getAssignmentsFor(doomed.getIdentifier());
         if (assignments.isEmpty()) {
             em.remove(doomed);
+            cacheVersionSvc.bump(GroupServiceBean.CACHE_NAME);
             actionLogSvc.log(alr);
             return true;
         } else {
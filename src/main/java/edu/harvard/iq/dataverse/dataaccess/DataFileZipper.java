@@ -19,22 +19,45 @@
 */
 package edu.harvard.iq.dataverse.dataaccess;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 
 
 import edu.harvard.iq.dataverse.DataFile;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
 
 
 /**
+ * Zips data files into an output stream, in the order they are added. 
+ * 
+ * Upcoming files are opened, read and compressed by a pool of threads 
+ * (dataverse.zipdownload.parallelism), ahead of the file currently being 
+ * written out; as long as the files read ahead fit in a memory budget 
+ * (dataverse.zipdownload.prefetch-size). A file bigger than that is not 
+ * opened until its turn comes, and is then streamed. Files in formats 
+ * that are already compressed are stored as they are. 
  *
  * @author Leonid Andreev
  */
@@ -43,8 +66,28 @@ public class DataFileZipper {
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     private static final String MANIFEST_FILE_NAME = "MANIFEST.TXT";
     
+    // compressing these again takes time, and saves next to nothing: 
+    private static final Set<String> COMPRESSED_MIME_TYPES = new HashSet<>(Arrays.asList(
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/vnd.rar",
+            "application/zstd",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "image/jpeg",
+            "image/png",
+            "image/gif",
+            "image/webp"
+    ));
+    
     private OutputStream outputStream = null; 
-    private ZipOutputStream zipOutputStream = null;
+    private ZipArchiveOutputStream zipOutputStream = null;
     
     private List<String> fileNameList = null; // the list of file names to check for duplicates
     private List<Long> zippedFilesList = null; // list of successfully zipped files, to update guestbooks and download counts (not yet implemented)
@@ -52,15 +95,26 @@ public class DataFileZipper {
     private String fileManifest = "";
     
     private Set<String> zippedFolders = null; 
+    
+    private final int parallelism; 
+    private final long prefetchSize; 
+    private ExecutorService executor = null; 
+    // files (and manifest lines) added, but not yet written out, in order: 
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    private long pendingBytes = 0L; 
 
     public DataFileZipper() {
-        fileNameList = new ArrayList<>();
-        zippedFilesList = new ArrayList<>(); 
-        zippedFolders = new HashSet<>();
+        this(null);
     }
     
     public DataFileZipper(OutputStream outputStream) {
+        this(outputStream, getZipDownloadParallelism(), getZipDownloadPrefetchSize());
+    }
+    
+    DataFileZipper(OutputStream outputStream, int parallelism, long prefetchSize) {
         this.outputStream = outputStream;
+        this.parallelism = parallelism;
+        this.prefetchSize = prefetchSize;
         fileNameList = new ArrayList<>();
         zippedFilesList = new ArrayList<>();
         zippedFolders = new HashSet<>();
@@ -86,123 +140,97 @@ public class DataFileZipper {
         if (outputStream == null) {
             throw new IOException("Attempted to create a ZipOutputStream from a NULL OutputStream.");
         }
-        this.zipOutputStream = new ZipOutputStream(outputStream);
+        this.zipOutputStream = new ZipArchiveOutputStream(outputStream);
     }
     
     public long addFileToZipStream(DataFile dataFile) throws IOException {
         return addFileToZipStream(dataFile, false);
     }
     
+    /**
+     * Adds a file to the zipped stream. With parallelism > 1, the file is 
+     * read (and compressed) in the background, and may be written to the 
+     * stream later on, by one of the next calls; or by finalizeZipStream().
+     * 
+     * @param dataFile the file
+     * @param getOriginal whether to zip the saved original of a tabular file
+     * @return the bytes (uncompressed) the file adds to the zipped stream: 
+     * the bytes written; or, if it is written later, its expected size. Plus,
+     * for the files added before that get written by this call, the 
+     * difference between the bytes written and their expected size (e.g. 
+     * minus the expected size of a file that couldn't be read). The values 
+     * returned add up to the size of the files zipped so far.
+     * @throws IOException if the stream can't be written, or if the zipping 
+     * of one of the files added before has failed.
+     */
     public long addFileToZipStream(DataFile dataFile, boolean getOriginal) throws IOException {
         if (zipOutputStream == null) {
             openZipStream();
         }
 
-        boolean createManifest = fileManifest != null;
-        
         DataAccessRequest daReq = new DataAccessRequest();
         StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
+        if (accessObject == null) {
+            return 0L;
+        }
+        
+        if (parallelism <= 1) {
+            return writeEntry(dataFile, prepareEntry(accessObject, getOriginal, -1L));
+        }
+        
+        // The entity is loaded here, on the request thread; the worker 
+        // threads only read it:
+        dataFile.getFileMetadata();
+        if (dataFile.isTabularData() && dataFile.getDataTable() != null) {
+            dataFile.getDataTable().getDataVariables().size();
+        }
+        
+        long expectedSize = dataFile.getFilesize();
+        if (getOriginal && dataFile.getOriginalFileSize() != null) {
+            expectedSize = dataFile.getOriginalFileSize();
+        }
+        long added = 0L;
+        if (expectedSize < 0 || expectedSize > prefetchSize) {
+            // too big to be held in memory: it will be opened, and streamed, 
+            // when its turn comes (rather than holding a connection to the 
+            // storage open, unread, in the meantime) 
+            pendingEntries.add(new PendingEntry(dataFile, accessObject, getOriginal, Math.max(expectedSize, 0L)));
+            added += Math.max(expectedSize, 0L);
+            return added + writeReadyEntries();
+        }
+        long bufferSize = expectedSize;
 
-        if (accessObject != null) {
-            Boolean gotOriginal = false;
-            if(getOriginal) {
-                StoredOriginalFile sof = new StoredOriginalFile();
-                StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
-                if(null != tempAccessObject) { //If there is an original, use it
-                    gotOriginal = true;
-                    accessObject = tempAccessObject; 
-                } 
-            }
-            if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
-                accessObject.open();
-            }
-
-            long byteSize = 0;
-
-            String fileName = accessObject.getFileName();
-            String mimeType = accessObject.getMimeType();
-            if (mimeType == null || mimeType.equals("")) {
-                mimeType = "application/octet-stream";
-            }
-
-            //if (sizeTotal + fileSize < sizeLimit) {
-            Boolean Success = true;
-
-            InputStream instream = accessObject.getInputStream();
-            if (instream == null) {
-                if (createManifest) {
-                    addToManifest(fileName
-                            + " (" + mimeType
-                            + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
-                }
-
-                Success = false;
-            } else {
-                // If any of the files have non-empty DirectoryLabels we'll 
-                // use them to re-create the folders in the Zipped bundle:
-                String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
-                if (folderName != null) {
-                    // If any of the saved folder names start with with slashes,
-                    // we want to remove them: 
-                    // (i.e., ///foo/bar will become foo/bar)
-                    while (folderName.startsWith("/")) {
-                        folderName = folderName.substring(1);
-                    }
-                    if (!"".equals(folderName)) {
-                        if (!zippedFolders.contains(folderName)) {
-                            ZipEntry d = new ZipEntry(folderName + "/");
-                            zipOutputStream.putNextEntry(d);
-                            zipOutputStream.closeEntry();
-                            zippedFolders.add(folderName);
-                        }
-                        fileName = folderName + "/" + fileName;
-                    }
-                }
-                
-                String zipEntryName = checkZipEntryName(fileName);
-                
-                ZipEntry e = new ZipEntry(zipEntryName);
-                logger.fine("created new zip entry for " + zipEntryName);
-
-                zipOutputStream.putNextEntry(e);
-
-                // before writing out any bytes from the input stream, flush
-                // any extra content, such as the variable header for the 
-                // subsettable files:
-                String varHeaderLine = accessObject.getVarHeader();
-                if (varHeaderLine != null) {
-                    zipOutputStream.write(varHeaderLine.getBytes());
-                    byteSize += (varHeaderLine.getBytes().length);
-                }
-
-                byte[] data = new byte[8192];
-
-                int i = 0;
-                while ((i = instream.read(data)) > 0) {
-                    zipOutputStream.write(data, 0, i);
-                    logger.fine("wrote " + i + " bytes;");
-
-                    byteSize += i;
-                    zipOutputStream.flush();
-                }
-                instream.close();
-                zipOutputStream.closeEntry();
-                logger.fine("closed zip entry for " + zipEntryName);
-
-                if (createManifest) {
-                    addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
-                }
-
-                if (byteSize > 0) {
-                    zippedFilesList.add(dataFile.getId());
-                }
-            }
-            //} else if (createManifest) {
-            //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
-            //}
-            return byteSize;
+        while (!pendingEntries.isEmpty() 
+                && (pendingEntries.size() >= 4 * parallelism || pendingBytes + bufferSize > prefetchSize)) {
+            added += writeNextPendingEntry();
+        }
+        
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism);
+        }
+        Future<ZipEntrySource> source = executor.submit(() -> prepareEntry(accessObject, getOriginal, bufferSize));
+        pendingEntries.add(new PendingEntry(dataFile, source, bufferSize));
+        pendingBytes += bufferSize;
+        added += bufferSize;
+        
+        return added + writeReadyEntries();
+    }
+    
+    /**
+     * Writes out the pending entries, in order, as long as the next one is 
+     * ready: read ahead, a manifest line, or a file whose turn it now is to 
+     * be opened and streamed.
+     * 
+     * @return the difference between the bytes written and the expected 
+     * sizes of the files written
+     */
+    private long writeReadyEntries() throws IOException {
+        long difference = 0L;
+        while (!pendingEntries.isEmpty() 
+                && (pendingEntries.peek().source == null || pendingEntries.peek().source.isDone())) {
+            difference += writeNextPendingEntry();
         }
-        return 0L;
+        return difference;
     }
     
     public void finalizeZipStream() throws IOException {
@@ -212,27 +240,255 @@ public class DataFileZipper {
             openZipStream();
         }
         
+        try {
+            while (!pendingEntries.isEmpty()) {
+                writeNextPendingEntry();
+            }
+        } finally {
+            discardPendingEntries();
+        }
+        
         if (createManifest) {
             String manifestEntry = MANIFEST_FILE_NAME; 
             while (fileNameList.contains(manifestEntry)) {
                 manifestEntry = "0".concat(manifestEntry); 
             }
             
-            ZipEntry e = new ZipEntry(manifestEntry);
+            ZipArchiveEntry e = new ZipArchiveEntry(manifestEntry);
 
-            zipOutputStream.putNextEntry(e);
+            zipOutputStream.putArchiveEntry(e);
             zipOutputStream.write(fileManifest.getBytes());
-            zipOutputStream.closeEntry();
+            zipOutputStream.closeArchiveEntry();
         }
 
         zipOutputStream.flush();
         zipOutputStream.close();
     }
     
+    /**
+     * Stops reading files ahead, and drops the files that have been added, 
+     * but not written out yet. finalizeZipStream() does it too; this is for 
+     * when the zipping is abandoned half way.
+     */
+    public void discardPendingEntries() {
+        for (PendingEntry pending : pendingEntries) {
+            if (pending.source != null && !pending.source.cancel(true)) {
+                try {
+                    ZipEntrySource source = pending.source.get();
+                    if (source != null) {
+                        IOUtils.closeQuietly(source.instream);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    // nothing to close
+                }
+            }
+        }
+        pendingEntries.clear();
+        pendingBytes = 0L;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
     public void addToManifest(String manifestEntry) {
+        if (pendingEntries.isEmpty()) {
+            appendToManifest(manifestEntry);
+        } else {
+            // the files added before it go first: 
+            pendingEntries.add(new PendingEntry(manifestEntry));
+        }
+    }
+    
+    private void appendToManifest(String manifestEntry) {
         this.fileManifest = this.fileManifest + manifestEntry; 
     }
     
+    /**
+     * @return the difference between the bytes written and the expected size
+     * of the file (0 for a manifest line)
+     */
+    private long writeNextPendingEntry() throws IOException {
+        PendingEntry pending = pendingEntries.poll();
+        pendingBytes -= pending.bufferSize;
+        if (pending.manifestEntry != null) {
+            appendToManifest(pending.manifestEntry);
+            return 0L;
+        }
+        if (pending.source == null) {
+            // its turn has come: 
+            return writeEntry(pending.dataFile, prepareEntry(pending.accessObject, pending.getOriginal, -1L)) - pending.expectedSize;
+        }
+        ZipEntrySource source;
+        try {
+            source = pending.source.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping datafile " + pending.dataFile.getId());
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException("Failed to zip datafile " + pending.dataFile.getId() + " (" + ee.getCause().getMessage() + ")", ee.getCause());
+        }
+        return writeEntry(pending.dataFile, source) - pending.expectedSize;
+    }
+    
+    /**
+     * Opens the file (or its saved original); and, if it's no bigger than 
+     * maxBufferedSize, reads it, compressing it unless it's in a compressed 
+     * format already. 
+     */
+    private ZipEntrySource prepareEntry(StorageIO<DataFile> accessObject, boolean getOriginal, long maxBufferedSize) throws IOException {
+        Boolean gotOriginal = false;
+        if(getOriginal) {
+            StoredOriginalFile sof = new StoredOriginalFile();
+            StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
+            if(null != tempAccessObject) { //If there is an original, use it
+                gotOriginal = true;
+                accessObject = tempAccessObject; 
+            } 
+        }
+        if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
+            accessObject.open();
+        }
+        
+        ZipEntrySource source = new ZipEntrySource();
+        source.fileName = accessObject.getFileName();
+        source.mimeType = accessObject.getMimeType();
+        if (source.mimeType == null || source.mimeType.equals("")) {
+            source.mimeType = "application/octet-stream";
+        }
+        source.compressed = isCompressedFormat(source.mimeType);
+        
+        // before writing out any bytes from the input stream, flush
+        // any extra content, such as the variable header for the 
+        // subsettable files:
+        String varHeaderLine = accessObject.getVarHeader();
+        if (varHeaderLine != null) {
+            source.varHeader = varHeaderLine.getBytes();
+        }
+
+        source.instream = accessObject.getInputStream();
+        long size = accessObject.getSize();
+        source.size = size < 0 ? -1L : size + source.varHeader.length;
+        if (source.instream == null || maxBufferedSize < 0 || size < 0 || size > maxBufferedSize) {
+            return source;
+        }
+        
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.max(size, 32));
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream in = source.instream;
+                OutputStream out = source.compressed ? buffer : new DeflaterOutputStream(buffer, deflater, 64 * 1024)) {
+            byte[] data = new byte[64 * 1024];
+            crc.update(source.varHeader);
+            out.write(source.varHeader);
+            long byteSize = source.varHeader.length;
+            int i;
+            while ((i = in.read(data)) > 0) {
+                crc.update(data, 0, i);
+                out.write(data, 0, i);
+                byteSize += i;
+            }
+            source.size = byteSize;
+        } finally {
+            deflater.end();
+        }
+        source.instream = null;
+        source.crc = crc.getValue();
+        source.data = buffer.toByteArray();
+        return source;
+    }
+    
+    /**
+     * @return the bytes written (uncompressed)
+     */
+    private long writeEntry(DataFile dataFile, ZipEntrySource source) throws IOException {
+        boolean createManifest = fileManifest != null;
+        String fileName = source.fileName;
+        
+        if (source.instream == null && source.data == null) {
+            if (createManifest) {
+                appendToManifest(fileName
+                        + " (" + source.mimeType
+                        + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
+            }
+            return 0L;
+        }
+        
+        // If any of the files have non-empty DirectoryLabels we'll 
+        // use them to re-create the folders in the Zipped bundle:
+        String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
+        if (folderName != null) {
+            // If any of the saved folder names start with with slashes,
+            // we want to remove them: 
+            // (i.e., ///foo/bar will become foo/bar)
+            while (folderName.startsWith("/")) {
+                folderName = folderName.substring(1);
+            }
+            if (!"".equals(folderName)) {
+                if (!zippedFolders.contains(folderName)) {
+                    ZipArchiveEntry d = new ZipArchiveEntry(folderName + "/");
+                    zipOutputStream.putArchiveEntry(d);
+                    zipOutputStream.closeArchiveEntry();
+                    zippedFolders.add(folderName);
+                }
+                fileName = folderName + "/" + fileName;
+            }
+        }
+
+        String zipEntryName = checkZipEntryName(fileName);
+
+        ZipArchiveEntry e = new ZipArchiveEntry(zipEntryName);
+        logger.fine("created new zip entry for " + zipEntryName);
+
+        long byteSize;
+        if (source.data != null) {
+            // read, and compressed, ahead:
+            e.setMethod(source.compressed ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            e.setSize(source.size);
+            e.setCompressedSize(source.data.length);
+            e.setCrc(source.crc);
+            zipOutputStream.addRawArchiveEntry(e, new ByteArrayInputStream(source.data));
+            byteSize = source.size;
+        } else {
+            // (STORED would need the CRC up front; deflating at level 0 
+            // costs next to nothing)
+            e.setMethod(ZipEntry.DEFLATED);
+            if (source.size >= 0) {
+                // (so that Zip64 extensions are used if needed)
+                e.setSize(source.size);
+            }
+            zipOutputStream.setLevel(source.compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zipOutputStream.putArchiveEntry(e);
+            zipOutputStream.write(source.varHeader);
+            byteSize = source.varHeader.length;
+            try (InputStream in = source.instream) {
+                byteSize += IOUtils.copyLarge(in, zipOutputStream, new byte[StorageIO.COPY_BUFFER_SIZE]);
+            }
+            zipOutputStream.closeArchiveEntry();
+        }
+        zipOutputStream.flush();
+        logger.fine("closed zip entry for " + zipEntryName + "; " + byteSize + " bytes");
+
+        if (createManifest) {
+            appendToManifest(zipEntryName + " (" + source.mimeType + ") " + byteSize + " bytes.\r\n");
+        }
+
+        if (byteSize > 0) {
+            zippedFilesList.add(dataFile.getId());
+        }
+        return byteSize;
+    }
+    
+    static boolean isCompressedFormat(String mimeType) {
+        return COMPRESSED_MIME_TYPES.contains(mimeType) 
+                || mimeType.matches("application/x-dvn-.*-zip")
+                || mimeType.startsWith("video/")
+                || mimeType.startsWith("audio/");
+    }
+    
     // check for and process duplicates:
     private String checkZipEntryName(String originalName) {
         String name = originalName;
@@ -249,4 +505,88 @@ public class DataFileZipper {
         fileNameList.add(name);
         return name;
     }
+    
+    private static int getZipDownloadParallelism() {
+        String parallelism = System.getProperty("dataverse.zipdownload.parallelism");
+        if (parallelism != null) {
+            try {
+                return Math.max(1, Integer.parseInt(parallelism));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of dataverse.zipdownload.parallelism: " + parallelism);
+            }
+        }
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
+    }
+    
+    private static long getZipDownloadPrefetchSize() {
+        String prefetchSize = System.getProperty("dataverse.zipdownload.prefetch-size");
+        if (prefetchSize != null) {
+            try {
+                return Math.max(0L, Long.parseLong(prefetchSize));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of dataverse.zipdownload.prefetch-size: " + prefetchSize);
+            }
+        }
+        // 64 MB by default
+        return 64 * 1024 * 1024L;
+    }
+    
+    /**
+     * A file, opened; and, if it was small enough, already read. 
+     */
+    private static class ZipEntrySource {
+        String fileName;
+        String mimeType;
+        boolean compressed;
+        byte[] varHeader = new byte[0];
+        // still to be read:
+        InputStream instream;
+        // or, read ahead: the (compressed, unless compressed == true) bytes
+        byte[] data;
+        // including the var header; -1 if unknown
+        long size;
+        long crc;
+    }
+    
+    private static class PendingEntry {
+        final DataFile dataFile;
+        final Future<ZipEntrySource> source;
+        final long bufferSize;
+        // as counted by addFileToZipStream, before the file was written
+        final long expectedSize;
+        final String manifestEntry;
+        // a file to be opened when its turn comes: 
+        final StorageIO<DataFile> accessObject;
+        final boolean getOriginal;
+
+        PendingEntry(DataFile dataFile, Future<ZipEntrySource> source, long bufferSize) {
+            this.dataFile = dataFile;
+            this.source = source;
+            this.bufferSize = bufferSize;
+            this.expectedSize = bufferSize;
+            this.manifestEntry = null;
+            this.accessObject = null;
+            this.getOriginal = false;
+        }
+
+        PendingEntry(DataFile dataFile, StorageIO<DataFile> accessObject, boolean getOriginal, long expectedSize) {
+            this.dataFile = dataFile;
+            this.source = null;
+            this.bufferSize = 0L;
+            this.expectedSize = expectedSize;
+            this.manifestEntry = null;
+            this.accessObject = accessObject;
+            this.getOriginal = getOriginal;
+        }
+
+        PendingEntry(String manifestEntry) {
+            this.dataFile = null;
+            this.source = null;
+            this.bufferSize = 0L;
+            this.expectedSize = 0L;
+            this.manifestEntry = manifestEntry;
+            this.accessObject = null;
+            this.getOriginal = false;
+        }
+    }
 }
@@ -41,9 +41,14 @@ import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.apache.commons.io.input.BoundedInputStream;
 import java.util.ArrayList;
 
 
@@ -641,6 +646,71 @@ public class FileAccessIO<T extends DvObject> extends StorageIO<T> {
         }
         return in;
     }
+    
+    @Override
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        Path path = getFileSystemPath();
+        if (path == null) {
+            throw new FileNotFoundException("FileAccessIO: Could not locate file.");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+    
+    /**
+     * Copies the range with positioned reads on the file channel; there is
+     * no skipping, so ranges may be copied in any order. When the output is
+     * itself a file, the bytes are transferred by the kernel
+     * ({@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}),
+     * without being copied through the heap at all. (The output stream of a 
+     * servlet response is not a channel; it gets one large buffer instead.)
+     */
+    @Override
+    public void copyRange(long offset, long length, OutputStream out) throws IOException {
+        Path path = getFileSystemPath();
+        if (path == null) {
+            throw new FileNotFoundException("FileAccessIO: Could not locate file.");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = offset;
+            long end = Math.min(offset + length, channel.size());
+            if (out instanceof FileOutputStream) {
+                FileChannel target = ((FileOutputStream) out).getChannel();
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("FileAccessIO: Failed to transfer bytes from " + position + " of " + path);
+                    }
+                    position += transferred;
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        throw new IOException("FileAccessIO: Failed to read bytes from " + position + " of " + path);
+                    }
+                    out.write(buffer.array(), 0, read);
+                    position += read;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (!this.isAuxObjectCached(auxItemTag)) {
+            return null;
+        }
+        // a real seek, rather than reading through the skipped bytes:
+        FileChannel channel = FileChannel.open(getAuxObjectAsPath(auxItemTag), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+    
     private String stripDriverId(String storageIdentifier) {
     	int separatorIndex = storageIdentifier.indexOf("://");
     	if(separatorIndex>0) {
@@ -38,11 +38,13 @@ import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import opennlp.tools.util.StringUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -52,11 +54,17 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
 
@@ -285,6 +293,74 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         return super.getInputStream();
     }
     
+    @Override
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        try {
+            // ranged GET; only the requested bytes are transferred:
+            return s3.getObject(new GetObjectRequest(bucketName, key).withRange(offset, offset + length - 1)).getObjectContent();
+        } catch (SdkClientException sce) {
+            throw new IOException("Cannot get S3 object " + key + " ("+sce.getMessage()+")");
+        }
+    }
+    
+    /**
+     * Copies the range with ranged GETs. If dataverse.files.<id>.download-parallelism
+     * is more than 1, a large range is requested in parts of 
+     * dataverse.files.<id>.download-part-size bytes, that many at a time, 
+     * so that the next parts are already being transferred while the 
+     * current one is written out (at the cost of holding that many parts
+     * in memory); otherwise, in a single GET. 
+     */
+    @Override
+    public void copyRange(long offset, long length, OutputStream out) throws IOException {
+        int parallelism = getDownloadParallelism(driverId);
+        long partSize = getDownloadPartSize(driverId);
+        if (parallelism <= 1 || length <= partSize) {
+            // (the whole object is read with a plain GET; a range of it, 
+            // even one from the start, with a ranged GET)
+            boolean wholeObject = offset == 0 && length >= getSize();
+            try (InputStream in = wholeObject ? getInputStream() : getInputStream(offset, length)) {
+                IOUtils.copyLarge(in, out, 0, length, new byte[COPY_BUFFER_SIZE]);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            Deque<Future<byte[]>> parts = new ArrayDeque<>();
+            long next = offset;
+            long end = offset + length;
+            while (next < end || !parts.isEmpty()) {
+                while (next < end && parts.size() < parallelism) {
+                    long partOffset = next;
+                    int partLength = (int) Math.min(partSize, end - next);
+                    parts.add(executor.submit(() -> readPart(partOffset, partLength)));
+                    next += partLength;
+                }
+                try {
+                    out.write(parts.poll().get());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading S3 object " + key);
+                } catch (ExecutionException ee) {
+                    throw new IOException("Cannot get S3 object " + key + " (" + ee.getCause().getMessage() + ")", ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] readPart(long offset, int length) throws IOException {
+        byte[] part = new byte[length];
+        try (InputStream in = getInputStream(offset, length)) {
+            IOUtils.readFully(in, part);
+        }
+        return part;
+    }
+
     @Override
     public Channel getChannel() throws IOException {
         if(super.getChannel()==null) {
@@ -769,6 +845,25 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         }
     }
 
+    @Override
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        String destinationKey = getDestinationKey(auxItemTag);
+        try {
+            // ranged GET; only the requested bytes are transferred:
+            S3Object s3object = s3.getObject(new GetObjectRequest(bucketName, destinationKey).withRange(offset, offset + length - 1));
+            if (s3object != null) {
+                return s3object.getObjectContent();
+            }
+            return null;
+        } catch (AmazonClientException ase) {
+            logger.fine("Caught an AmazonClientException in S3AccessIO.getAuxFileAsInputStream() (object not cached?):    " + ase.getMessage());
+            return null;
+        }
+    }
+
     // Rename this getAuxiliaryKey(), maybe? 
     String getDestinationKey(String auxItemTag) throws IOException {
         if (isDirectAccess() || dvObject instanceof DataFile) {
@@ -1068,6 +1163,32 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         return System.getProperty("dataverse.files." + driverId + ".bucket-name");
     }
     
+    private static int getDownloadParallelism(String driverId) {
+        String parallelism = System.getProperty("dataverse.files." + driverId + ".download-parallelism");
+        if (parallelism != null) {
+            try {
+                return Integer.parseInt(parallelism);
+            } catch (NumberFormatException nfe) {
+                logger.warning("Unable to parse dataverse.files." + driverId + ".download-parallelism as int: " + parallelism);
+            }
+        }
+        return 1;
+    }
+
+    private static long getDownloadPartSize(String driverId) {
+        // 16 MB by default; at least 1 MB
+        long partSize = 16 * 1024 * 1024l;
+        String partLength = System.getProperty("dataverse.files." + driverId + ".download-part-size");
+        if (partLength != null) {
+            try {
+                partSize = Math.max(1024 * 1024l, Long.parseLong(partLength));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Unable to parse dataverse.files." + driverId + ".download-part-size as long: " + partLength);
+            }
+        }
+        return partSize;
+    }
+
     private static long getMinPartSize(String driverId) {
         // as a default, pick 1 GB minimum part size for AWS S3 
         // (minimum allowed is 5*1024**2 but it probably isn't worth the complexity starting at ~5MB. Also -  confirmed that they use base 2 definitions)
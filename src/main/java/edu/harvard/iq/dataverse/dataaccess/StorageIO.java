@@ -37,6 +37,9 @@ import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
 
 //import org.apache.commons.httpclient.Header;
 //import org.apache.commons.httpclient.methods.GetMethod;
@@ -137,6 +140,32 @@ public abstract class StorageIO<T extends DvObject> {
     //This function retrieves auxiliary files related to datasets, and returns them as inputstream
     public abstract InputStream getAuxFileAsInputStream(String auxItemTag) throws IOException ;
     
+    /**
+     * Retrieves a byte range of an auxiliary object. This generic 
+     * implementation reads (and discards) the object up to the offset; 
+     * the drivers that can seek, or request a range from the storage 
+     * service, override it. 
+     * 
+     * @param auxItemTag String representing this Auxiliary type ("extension")
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @return InputStream of the range, or null if the object does not exist
+     * @throws IOException if anything goes wrong.
+     */
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        InputStream in = getAuxFileAsInputStream(auxItemTag);
+        if (in == null) {
+            return null;
+        }
+        try {
+            IOUtils.skipFully(in, offset);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return new BoundedInputStream(in, length);
+    }
+    
     public abstract Channel openAuxChannel(String auxItemTag, DataAccessOption... option) throws IOException;
     
     public abstract long getAuxObjectSize(String auxItemTag) throws IOException; 
@@ -183,6 +212,9 @@ public abstract class StorageIO<T extends DvObject> {
     public abstract void deleteAllAuxObjects() throws IOException;
 
     private DataAccessRequest req;
+    // buffer size for copying streams, in copyRange():
+    protected static final int COPY_BUFFER_SIZE = 256 * 1024;
+
     private InputStream in;
     private OutputStream out; 
     protected Channel channel;
@@ -285,7 +317,71 @@ public abstract class StorageIO<T extends DvObject> {
     public InputStream getInputStream() throws IOException {
         return in;
     }
+
+    /**
+     * Closes the InputStream of the main file, if one has been opened. 
+     * Unlike getInputStream().close(), this never opens the stream (on 
+     * S3, a GET of the entire object) just to close it. 
+     */
+    public void closeInputStream() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ioex) {
+                // nothing to do
+            }
+        }
+    }
     
+    /**
+     * Retrieves a byte range of the main file. The drivers that can seek 
+     * (FileAccessIO), or request a range from the storage service 
+     * (S3AccessIO), return a new stream of just that range; this generic 
+     * implementation skips into the stream returned by getInputStream() 
+     * instead - so it may only be used once, on a freshly opened StorageIO. 
+     * 
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @return InputStream of the range
+     * @throws IOException if anything goes wrong.
+     */
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        InputStream in = getInputStream();
+        if (in == null) {
+            throw new IOException("Could not skip into InputStream because it is null");
+        }
+        IOUtils.skipFully(in, offset);
+        return new BoundedInputStream(in, length);
+    }
+
+    /**
+     * Copies a byte range of the main file (not including any variable 
+     * header) to an output stream. The drivers that can, override this to 
+     * avoid copying the data through a byte buffer (FileAccessIO), or to 
+     * request the range directly from the storage service (S3AccessIO). 
+     * This generic implementation reads through the stream returned by 
+     * getInputStream(), from its current position - so consecutive calls 
+     * on the same StorageIO must be for ascending, non-overlapping ranges. 
+     * 
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @param out where to copy them
+     * @throws IOException if anything goes wrong; including when the range
+     * starts before the current position of the stream.
+     */
+    public void copyRange(long offset, long length, OutputStream out) throws IOException {
+        InputStream in = getInputStream();
+        if (in == null) {
+            throw new IOException("Could not copy from InputStream because it is null");
+        }
+        if (offset < this.offset) {
+            throw new IOException("Cannot seek backwards in InputStream (at " + this.offset + ", range starts at " + offset + ")");
+        }
+        IOUtils.skipFully(in, offset - this.offset);
+        long copied = IOUtils.copyLarge(in, out, 0, length, new byte[COPY_BUFFER_SIZE]);
+        this.offset = offset + copied;
+    }
+
     public OutputStream getOutputStream() throws IOException {
         return out; 
     }
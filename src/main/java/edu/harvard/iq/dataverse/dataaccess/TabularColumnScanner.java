@@ -0,0 +1,367 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads selected columns of a tab-delimited data file, line by line, straight
+ * out of a byte buffer. Unlike the {@code Scanner}/{@code String.split()}
+ * based subsetting methods in {@link TabularSubsetGenerator}, it does not
+ * create a String per line, nor a String array per line; numeric values are
+ * parsed directly from the bytes into primitive vectors.
+ *
+ * Values are interpreted exactly the same way as by the
+ * {@code TabularSubsetGenerator.parse*Entry()} methods: the common, simple
+ * decimal notations are converted on the fast path (where the result is
+ * guaranteed to be the correctly rounded one), anything else falls back to
+ * those methods.
+ */
+public class TabularColumnScanner implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final double[] DOUBLE_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private final InputStream in;
+    private final int[] slotOfColumn;
+    private final int maxColumn;
+    private final int[] fieldStart;
+    private final int[] fieldEnd;
+
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+    // results of the last call to parseDecimal():
+    private boolean decimalNegative;
+    private long decimalMantissa;
+    private int decimalDigits;
+    private int decimalExponent;
+
+    /**
+     * @param in the tab-delimited data
+     * @param columns the (0-based) columns to extract; the n-th of them is
+     * then accessed as slot n.
+     */
+    public TabularColumnScanner(InputStream in, int... columns) {
+        this(in, DEFAULT_BUFFER_SIZE, columns);
+    }
+
+    TabularColumnScanner(InputStream in, int bufferSize, int... columns) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+        int max = -1;
+        for (int column : columns) {
+            max = Math.max(max, column);
+        }
+        this.maxColumn = max;
+        this.slotOfColumn = new int[max + 1];
+        java.util.Arrays.fill(slotOfColumn, -1);
+        for (int slot = 0; slot < columns.length; slot++) {
+            slotOfColumn[columns[slot]] = slot;
+        }
+        this.fieldStart = new int[columns.length];
+        this.fieldEnd = new int[columns.length];
+    }
+
+    /**
+     * Advances to the next line (lines are separated by {@code \n} only).
+     * @return {@code false} if there are no more lines.
+     * @throws IOException if reading fails.
+     */
+    public boolean nextLine() throws IOException {
+        int searchFrom = position;
+        lineStart = position;
+        while (true) {
+            for (int i = searchFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineEnd = i;
+                    position = i + 1;
+                    splitFields();
+                    return true;
+                }
+            }
+            if (eof) {
+                if (lineStart >= limit) {
+                    return false;
+                }
+                // last line, without a trailing new line:
+                lineEnd = limit;
+                position = limit;
+                splitFields();
+                return true;
+            }
+            searchFrom = limit - lineStart;
+            fill();
+        }
+    }
+
+    /**
+     * Moves the current (partial) line to the beginning of the buffer,
+     * growing it if the line doesn't fit, and reads more bytes.
+     */
+    private void fill() throws IOException {
+        int partial = limit - lineStart;
+        if (lineStart > 0) {
+            System.arraycopy(buffer, lineStart, buffer, 0, partial);
+        } else if (partial == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, partial);
+            buffer = grown;
+        }
+        lineStart = 0;
+        position = 0;
+        limit = partial;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private void splitFields() {
+        java.util.Arrays.fill(fieldStart, -1);
+        int column = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= lineEnd && column <= maxColumn; i++) {
+            if (i == lineEnd || buffer[i] == '\t') {
+                int slot = slotOfColumn[column];
+                if (slot >= 0) {
+                    fieldStart[slot] = start;
+                    fieldEnd[slot] = i;
+                }
+                column++;
+                start = i + 1;
+            }
+        }
+    }
+
+    public boolean isLineEmpty() {
+        return lineEnd == lineStart;
+    }
+
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param slot the slot of the column
+     * @return the raw, still escaped, value of the column on the current line.
+     * @throws IOException if the line does not have that many columns.
+     */
+    public String getRawString(int slot) throws IOException {
+        checkField(slot);
+        return new String(buffer, fieldStart[slot], fieldEnd[slot] - fieldStart[slot], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the raw bytes of the column on the current line, as they are.
+     * @param slot the slot of the column
+     * @param out where to copy them
+     * @throws IOException if the line does not have that many columns, or writing fails.
+     */
+    public void copyRaw(int slot, OutputStream out) throws IOException {
+        checkField(slot);
+        out.write(buffer, fieldStart[slot], fieldEnd[slot] - fieldStart[slot]);
+    }
+
+    /**
+     * @param slot the slot of the column
+     * @return the value, as by {@link TabularSubsetGenerator#parseStringEntry(java.lang.String)}.
+     * @throws IOException if the line does not have that many columns.
+     */
+    public String getString(int slot) throws IOException {
+        return TabularSubsetGenerator.parseStringEntry(getRawString(slot));
+    }
+
+    public void readDouble(int slot, PrimitiveVector.Doubles vector, int row) throws IOException {
+        checkField(slot);
+        int start = fieldStart[slot];
+        int end = fieldEnd[slot];
+        if (start == end) {
+            vector.setMissing(row);
+            return;
+        }
+        if (parseDecimal(start, end) && decimalDigits <= 15 && Math.abs(decimalExponent) <= 22) {
+            // mantissa and power of ten are both exact; a single IEEE
+            // operation is then correctly rounded:
+            double value = decimalMantissa;
+            value = decimalExponent < 0 ? value / DOUBLE_POWERS_OF_TEN[-decimalExponent]
+                                        : value * DOUBLE_POWERS_OF_TEN[decimalExponent];
+            vector.set(row, decimalNegative ? -value : value);
+            return;
+        }
+        Double value = TabularSubsetGenerator.parseDoubleEntry(latin1(start, end));
+        if (value == null) {
+            vector.setMissing(row);
+        } else {
+            vector.set(row, value);
+        }
+    }
+
+    public void readFloat(int slot, PrimitiveVector.Floats vector, int row) throws IOException {
+        checkField(slot);
+        int start = fieldStart[slot];
+        int end = fieldEnd[slot];
+        if (start == end) {
+            vector.setMissing(row);
+            return;
+        }
+        if (parseDecimal(start, end) && decimalDigits <= 7 && Math.abs(decimalExponent) <= 10) {
+            float value = decimalMantissa;
+            value = decimalExponent < 0 ? value / FLOAT_POWERS_OF_TEN[-decimalExponent]
+                                        : value * FLOAT_POWERS_OF_TEN[decimalExponent];
+            vector.set(row, decimalNegative ? -value : value);
+            return;
+        }
+        Float value = TabularSubsetGenerator.parseFloatEntry(latin1(start, end));
+        if (value == null) {
+            vector.setMissing(row);
+        } else {
+            vector.set(row, value);
+        }
+    }
+
+    public void readLong(int slot, PrimitiveVector.Longs vector, int row) throws IOException {
+        checkField(slot);
+        int start = fieldStart[slot];
+        int end = fieldEnd[slot];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            // empty, or a lone sign: not a number, i.e. missing
+            vector.setMissing(row);
+            return;
+        }
+        if (end - i <= 18) {
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    vector.setMissing(row);
+                    return;
+                }
+                value = value * 10 + digit;
+            }
+            vector.set(row, negative ? -value : value);
+            return;
+        }
+        // long enough to overflow; let the JDK decide:
+        Long value = TabularSubsetGenerator.parseLongEntry(latin1(start, end));
+        if (value == null) {
+            vector.setMissing(row);
+        } else {
+            vector.set(row, value);
+        }
+    }
+
+    /**
+     * Tries to parse {@code [+-]digits[.digits][(e|E)[+-]digits]} into the
+     * {@code decimal*} fields, with at most 18 significant digits.
+     * @return {@code false} if the value is not in that simple notation.
+     */
+    private boolean parseDecimal(int start, int end) {
+        int i = start;
+        decimalNegative = false;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            decimalNegative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int anyDigits = 0;
+        int exponent = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                anyDigits++;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros are not significant
+                    if (dot) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (++digits > 18) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) {
+                    exponent--;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else if (b == 'e' || b == 'E') {
+                break;
+            } else {
+                return false;
+            }
+        }
+        if (anyDigits == 0) {
+            return false;
+        }
+        if (i < end) {
+            // exponent part
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            if (i == end || end - i > 4) {
+                return false;
+            }
+            int e = 0;
+            for (; i < end; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return false;
+                }
+                e = e * 10 + digit;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (mantissa == 0) {
+            // zero is zero, whatever the exponent:
+            exponent = 0;
+        }
+        decimalMantissa = mantissa;
+        decimalDigits = digits;
+        decimalExponent = exponent;
+        return true;
+    }
+
+    private String latin1(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private void checkField(int slot) throws IOException {
+        if (fieldStart[slot] < 0) {
+            throw new IOException("Tab file line has fewer columns than expected: " + getLine());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
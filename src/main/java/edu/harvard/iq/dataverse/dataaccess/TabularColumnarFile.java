@@ -0,0 +1,562 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * A columnar copy of an ingested tab-delimited file, saved next to it as an
+ * auxiliary object. The tab file is row-oriented, so getting at a single
+ * variable means reading, and splitting, the entire file. Here every variable
+ * has blocks of its own, and a subset, or a statistic, only reads the blocks
+ * of the variables involved - with ranged reads of the aux object, i.e. seeks
+ * on the filesystem and ranged GETs on S3.
+ *
+ * Layout (numbers are big-endian):
+ * <pre>
+ *   header:    magic ("DVCF"), format version, number of variables, number of cases (4 ints)
+ *   directory: per variable - type (byte), text format (byte), offset and length
+ *              of its text block, offset and length of its values block (4 longs)
+ *   blocks
+ * </pre>
+ * The text block has the raw, still escaped, values of the variable exactly
+ * as they appear in the tab file, one per line; so it can be read as a single
+ * column tab file. Numeric variables also have a values block: a bitmap of the
+ * missing values (bit i%8 of byte i/8 for case i), followed by fixed-width
+ * values (8-byte longs or doubles, 4-byte floats) - parsed by the
+ * {@link TabularColumnScanner}, i.e. the same way as for the summary
+ * statistics. Numeric variables whose text is just the values, formatted the
+ * way the ingest plugins write them (the usual case), get no text block; the
+ * text is regenerated from the values instead. Whether it can be is checked,
+ * value by value, when the file is written: the text is only kept for the
+ * variables where the formatted values would differ from it - e.g., the ones
+ * ingested from CSV, whose text is as typed, or the floats, which don't keep
+ * enough digits to reproduce the text parsed into them.
+ */
+public class TabularColumnarFile {
+
+    private static final Logger logger = Logger.getLogger(TabularColumnarFile.class.getCanonicalName());
+
+    public static final String AUX_TAG = "col";
+
+    public static final byte TYPE_TEXT = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_FLOAT = 2;
+    public static final byte TYPE_DOUBLE = 3;
+
+    static final int MAGIC = 0x44564346;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int DIRECTORY_ENTRY_SIZE = 2 + 4 * 8;
+
+    // the text of the variable is in its text block:
+    static final byte TEXT_STORED = 0;
+    // ... is regenerated with Long/Float/Double.toString (e.g., of the Stata ingest):
+    static final byte TEXT_CANONICAL = 1;
+    // ... is regenerated in plain notation, the way the SPSS ingest formats doubles:
+    static final byte TEXT_PLAIN = 2;
+
+    /*
+     * Rough per-value memory footprint while writing: the raw text (plus the
+     * new line), and a primitive, for a typical numeric column.
+     */
+    private static final long VALUE_SIZE = 16;
+
+    /**
+     * Where the blocks are read from: an aux object, or (in tests) a file.
+     */
+    interface BlockSource {
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    private final BlockSource source;
+    private final int varCount;
+    private final int caseCount;
+    private final byte[] types;
+    private final byte[] textFormats;
+    private final long[] textOffsets;
+    private final long[] textLengths;
+    private final long[] valuesOffsets;
+    private final long[] valuesLengths;
+
+    TabularColumnarFile(BlockSource source) throws IOException {
+        this.source = source;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source.open(0, HEADER_SIZE)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a columnar tabular file.");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported columnar tabular file version: " + version);
+            }
+            varCount = in.readInt();
+            caseCount = in.readInt();
+        }
+        types = new byte[varCount];
+        textFormats = new byte[varCount];
+        textOffsets = new long[varCount];
+        textLengths = new long[varCount];
+        valuesOffsets = new long[varCount];
+        valuesLengths = new long[varCount];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source.open(HEADER_SIZE, (long) varCount * DIRECTORY_ENTRY_SIZE)))) {
+            for (int i = 0; i < varCount; i++) {
+                types[i] = in.readByte();
+                textFormats[i] = in.readByte();
+                textOffsets[i] = in.readLong();
+                textLengths[i] = in.readLong();
+                valuesOffsets[i] = in.readLong();
+                valuesLengths[i] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * @param storageIO the (opened) StorageIO of an ingested tabular file
+     * @return the columnar copy of the file, or {@code null} if there isn't
+     * one (e.g., it was ingested before the columnar copies were introduced).
+     * @throws IOException if it exists, but can't be read.
+     */
+    public static TabularColumnarFile open(StorageIO<DataFile> storageIO) throws IOException {
+        if (!storageIO.isAuxObjectCached(AUX_TAG)) {
+            return null;
+        }
+        return new TabularColumnarFile((offset, length) -> {
+            InputStream in = storageIO.getAuxFileAsInputStream(AUX_TAG, offset, length);
+            if (in == null) {
+                throw new FileNotFoundException("Columnar aux object not found.");
+            }
+            return in;
+        });
+    }
+
+    static TabularColumnarFile open(File file) throws IOException {
+        return new TabularColumnarFile((offset, length) -> {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        });
+    }
+
+    public int getVarCount() {
+        return varCount;
+    }
+
+    public int getCaseCount() {
+        return caseCount;
+    }
+
+    public byte getType(int column) {
+        return types[column];
+    }
+
+    byte getTextFormat(int column) {
+        return textFormats[column];
+    }
+
+    /**
+     * @param column the (0-based) variable
+     * @return the raw values of the variable, one per line; the same as a
+     * tab file with just this one column.
+     * @throws IOException if the block can't be read.
+     */
+    public InputStream openText(int column) throws IOException {
+        if (textFormats[column] != TEXT_STORED) {
+            return new DerivedTextInputStream(readValues(column), textFormats[column]);
+        }
+        return source.open(textOffsets[column], textLengths[column]);
+    }
+
+    /**
+     * @param column the (0-based) variable
+     * @return the values of a numeric variable ({@link PrimitiveVector.Longs},
+     * {@link PrimitiveVector.Floats} or {@link PrimitiveVector.Doubles}, by
+     * its type), or {@code null} for a variable stored as text only.
+     * @throws IOException if the block can't be read.
+     */
+    public PrimitiveVector readValues(int column) throws IOException {
+        if (types[column] == TYPE_TEXT) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source.open(valuesOffsets[column], valuesLengths[column]), 64 * 1024))) {
+            byte[] bitmap = new byte[(caseCount + 7) / 8];
+            in.readFully(bitmap);
+            switch (types[column]) {
+                case TYPE_LONG:
+                    PrimitiveVector.Longs longs = new PrimitiveVector.Longs(caseCount);
+                    for (int i = 0; i < caseCount; i++) {
+                        longs.set(i, in.readLong());
+                    }
+                    return setMissing(longs, bitmap);
+                case TYPE_FLOAT:
+                    PrimitiveVector.Floats floats = new PrimitiveVector.Floats(caseCount);
+                    for (int i = 0; i < caseCount; i++) {
+                        floats.set(i, in.readFloat());
+                    }
+                    return setMissing(floats, bitmap);
+                case TYPE_DOUBLE:
+                    PrimitiveVector.Doubles doubles = new PrimitiveVector.Doubles(caseCount);
+                    for (int i = 0; i < caseCount; i++) {
+                        doubles.set(i, in.readDouble());
+                    }
+                    return setMissing(doubles, bitmap);
+                default:
+                    throw new IOException("Unknown column type " + types[column] + " of column " + column);
+            }
+        }
+    }
+
+    /**
+     * @param column the (0-based) variable
+     * @return the values of the variable as floats, the same as
+     * {@link TabularSubsetGenerator#subsetFloatColumn(java.io.InputStream, int, int)}
+     * would produce from the tab file.
+     * @throws IOException if the block can't be read.
+     */
+    public PrimitiveVector.Floats readFloatValues(int column) throws IOException {
+        if (types[column] == TYPE_FLOAT) {
+            return (PrimitiveVector.Floats) readValues(column);
+        }
+        if (types[column] == TYPE_LONG && textFormats[column] == TEXT_CANONICAL) {
+            // canonical integers; converting them is the same as parsing them:
+            PrimitiveVector.Longs longs = (PrimitiveVector.Longs) readValues(column);
+            PrimitiveVector.Floats floats = new PrimitiveVector.Floats(caseCount);
+            for (int i = 0; i < caseCount; i++) {
+                if (longs.isMissing(i)) {
+                    floats.setMissing(i);
+                } else {
+                    floats.set(i, (float) longs.get(i));
+                }
+            }
+            return floats;
+        }
+        // (a double, rounded again to a float, is not necessarily the same as
+        // the text parsed as a float)
+        return TabularSubsetGenerator.subsetFloatColumn(openText(column), 0, caseCount);
+    }
+
+    /**
+     * Writes a tab-delimited subset of the file, reading only the blocks of
+     * the variables requested.
+     *
+     * @param columns the (0-based) variables, in the order requested
+     * @param out where to write the subset; buffered by the caller
+     * @throws IOException if the blocks can't be read, or the subset written.
+     */
+    public void writeSubset(List<Integer> columns, OutputStream out) throws IOException {
+        InputStream[] texts = new InputStream[columns.size()];
+        try {
+            for (int k = 0; k < texts.length; k++) {
+                texts[k] = new BufferedInputStream(openText(columns.get(k)));
+            }
+            for (int caseIndex = 0; caseIndex < caseCount; caseIndex++) {
+                for (int k = 0; k < texts.length; k++) {
+                    if (k > 0) {
+                        out.write('\t');
+                    }
+                    copyLine(texts[k], out, columns.get(k));
+                }
+                out.write('\n');
+            }
+        } finally {
+            for (InputStream text : texts) {
+                if (text != null) {
+                    try {
+                        text.close();
+                    } catch (IOException ioex) {
+                        logger.fine("Failed to close a column block: " + ioex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void copyLine(InputStream in, OutputStream out, int column) throws IOException {
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Column " + column + ": columnar file has fewer values than the stored number of cases!");
+            }
+            out.write(b);
+        }
+    }
+
+    private static PrimitiveVector setMissing(PrimitiveVector vector, byte[] bitmap) {
+        for (int i = 0; i < vector.length(); i++) {
+            if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                vector.setMissing(i);
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * The number format of {@link #TEXT_PLAIN}; the same as the SPSS (and
+     * SPSS/POR) ingest uses, only with the decimal separator fixed to a dot.
+     * Not thread-safe; one per stream.
+     */
+    static NumberFormat newPlainFormat() {
+        DecimalFormat format = new DecimalFormat("0", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        format.setGroupingUsed(false);
+        format.setMaximumFractionDigits(340);
+        return format;
+    }
+
+    /**
+     * @return the text of a value, as it would be in the tab file if written in
+     * the given text format; an empty string for a missing value.
+     */
+    static String formatValue(PrimitiveVector values, int i, byte textFormat, NumberFormat plainFormat) {
+        if (values.isMissing(i)) {
+            return "";
+        }
+        if (values instanceof PrimitiveVector.Longs) {
+            return Long.toString(((PrimitiveVector.Longs) values).get(i));
+        } else if (values instanceof PrimitiveVector.Floats) {
+            return Float.toString(((PrimitiveVector.Floats) values).get(i));
+        }
+        double value = ((PrimitiveVector.Doubles) values).get(i);
+        return textFormat == TEXT_PLAIN ? plainFormat.format(value) : Double.toString(value);
+    }
+
+    /**
+     * Type of the values block of a variable; the same classification as the
+     * summary statistics use.
+     */
+    static byte typeOf(DataVariable var) {
+        if (var.isIntervalContinuous()) {
+            return "float".equals(var.getFormat()) ? TYPE_FLOAT : TYPE_DOUBLE;
+        } else if (var.isIntervalDiscrete() && var.isTypeNumeric()) {
+            return TYPE_LONG;
+        }
+        return TYPE_TEXT;
+    }
+
+    /**
+     * Writes the columnar copy of a tab file.
+     *
+     * @param tabFile the tab-delimited file produced by the ingest
+     * @param dataTable its data table
+     * @param columnarFile where to write the columnar copy
+     * @throws IOException if the tab file can't be read, or does not match the
+     * stored number of cases.
+     */
+    public static void write(File tabFile, DataTable dataTable, File columnarFile) throws IOException {
+        write(tabFile, dataTable, columnarFile, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Same as above; the columns are extracted in groups that fit into the
+     * memory budget, with one pass over the tab file per group.
+     */
+    static void write(File tabFile, DataTable dataTable, File columnarFile, long memoryBudget) throws IOException {
+        int varCount = dataTable.getVarQuantity().intValue();
+        int caseCount = dataTable.getCaseQuantity().intValue();
+        List<DataVariable> vars = dataTable.getDataVariables();
+        byte[] types = new byte[varCount];
+        for (int i = 0; i < varCount; i++) {
+            types[i] = typeOf(vars.get(i));
+        }
+
+        long columnSize = Math.max(1, tabFile.length() / Math.max(1, varCount) + (long) caseCount * VALUE_SIZE);
+        int groupSize = (int) Math.max(1, Math.min(varCount, memoryBudget / columnSize));
+
+        NumberFormat plainFormat = newPlainFormat();
+        ByteBuffer directory = ByteBuffer.allocate(HEADER_SIZE + varCount * DIRECTORY_ENTRY_SIZE);
+        directory.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(varCount).putInt(caseCount);
+
+        try (FileChannel out = FileChannel.open(columnarFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.position(directory.capacity());
+            OutputStream blocks = Channels.newOutputStream(out);
+
+            for (int first = 0; first < varCount; first += groupSize) {
+                int last = Math.min(varCount, first + groupSize);
+                int[] columns = new int[last - first];
+                ByteArrayOutputStream[] texts = new ByteArrayOutputStream[columns.length];
+                PrimitiveVector[] values = new PrimitiveVector[columns.length];
+                // whether the text still matches the values, in either format:
+                boolean[] canonical = new boolean[columns.length];
+                boolean[] plain = new boolean[columns.length];
+                for (int g = 0; g < columns.length; g++) {
+                    columns[g] = first + g;
+                    texts[g] = new ByteArrayOutputStream();
+                    switch (types[columns[g]]) {
+                        case TYPE_LONG:
+                            values[g] = new PrimitiveVector.Longs(caseCount);
+                            canonical[g] = true;
+                            break;
+                        case TYPE_FLOAT:
+                            values[g] = new PrimitiveVector.Floats(caseCount);
+                            canonical[g] = true;
+                            break;
+                        case TYPE_DOUBLE:
+                            values[g] = new PrimitiveVector.Doubles(caseCount);
+                            canonical[g] = true;
+                            plain[g] = true;
+                            break;
+                        default:
+                    }
+                }
+
+                try (TabularColumnScanner scanner = new TabularColumnScanner(new FileInputStream(tabFile), columns)) {
+                    for (int caseIndex = 0; caseIndex < caseCount; caseIndex++) {
+                        TabularSubsetGenerator.nextCase(scanner);
+                        for (int g = 0; g < columns.length; g++) {
+                            scanner.copyRaw(g, texts[g]);
+                            texts[g].write('\n');
+                            switch (types[columns[g]]) {
+                                case TYPE_LONG:
+                                    scanner.readLong(g, (PrimitiveVector.Longs) values[g], caseIndex);
+                                    break;
+                                case TYPE_FLOAT:
+                                    scanner.readFloat(g, (PrimitiveVector.Floats) values[g], caseIndex);
+                                    break;
+                                case TYPE_DOUBLE:
+                                    scanner.readDouble(g, (PrimitiveVector.Doubles) values[g], caseIndex);
+                                    break;
+                                default:
+                            }
+                            if (canonical[g] || plain[g]) {
+                                String raw = scanner.getRawString(g);
+                                if (canonical[g]) {
+                                    canonical[g] = raw.equals(formatValue(values[g], caseIndex, TEXT_CANONICAL, null));
+                                }
+                                if (plain[g]) {
+                                    plain[g] = raw.equals(formatValue(values[g], caseIndex, TEXT_PLAIN, plainFormat));
+                                }
+                            }
+                        }
+                    }
+                    TabularSubsetGenerator.checkNoMoreCases(scanner, first, caseCount);
+                }
+
+                for (int g = 0; g < columns.length; g++) {
+                    byte textFormat = canonical[g] ? TEXT_CANONICAL : plain[g] ? TEXT_PLAIN : TEXT_STORED;
+                    long textOffset = out.position();
+                    if (textFormat == TEXT_STORED) {
+                        texts[g].writeTo(blocks);
+                    }
+                    long valuesOffset = out.position();
+                    if (values[g] != null) {
+                        writeValues(values[g], out);
+                    }
+                    long end = out.position();
+                    directory.put(types[columns[g]]).put(textFormat);
+                    directory.putLong(textOffset).putLong(valuesOffset - textOffset);
+                    directory.putLong(valuesOffset).putLong(end - valuesOffset);
+                    // let the group go as soon as it's written
+                    texts[g] = null;
+                    values[g] = null;
+                }
+            }
+
+            directory.flip();
+            out.position(0);
+            writeFully(out, directory);
+        }
+        logger.fine("Columnar file of " + varCount + " variables written: " + columnarFile.length() + " bytes");
+    }
+
+    private static void writeValues(PrimitiveVector vector, FileChannel out) throws IOException {
+        int caseCount = vector.length();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int bit = 0;
+        byte bits = 0;
+        for (int i = 0; i < caseCount; i++) {
+            if (vector.isMissing(i)) {
+                bits |= 1 << bit;
+            }
+            if (++bit == 8) {
+                buffer = ensureRemaining(buffer, 1, out);
+                buffer.put(bits);
+                bits = 0;
+                bit = 0;
+            }
+        }
+        if (bit > 0) {
+            buffer = ensureRemaining(buffer, 1, out);
+            buffer.put(bits);
+        }
+        for (int i = 0; i < caseCount; i++) {
+            buffer = ensureRemaining(buffer, 8, out);
+            // missing values are stored as zeros:
+            boolean missing = vector.isMissing(i);
+            if (vector instanceof PrimitiveVector.Longs) {
+                buffer.putLong(missing ? 0L : ((PrimitiveVector.Longs) vector).get(i));
+            } else if (vector instanceof PrimitiveVector.Floats) {
+                buffer.putFloat(missing ? 0f : ((PrimitiveVector.Floats) vector).get(i));
+            } else {
+                buffer.putDouble(missing ? 0d : ((PrimitiveVector.Doubles) vector).get(i));
+            }
+        }
+        buffer.flip();
+        writeFully(out, buffer);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size, FileChannel out) throws IOException {
+        if (buffer.remaining() < size) {
+            buffer.flip();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * The text of a numeric column, regenerated from its values.
+     */
+    private static class DerivedTextInputStream extends InputStream {
+        private final PrimitiveVector values;
+        private final byte textFormat;
+        private final NumberFormat plainFormat = newPlainFormat();
+        private int caseIndex = 0;
+        private byte[] line = new byte[0];
+        private int linePosition = 0;
+
+        DerivedTextInputStream(PrimitiveVector values, byte textFormat) {
+            this.values = values;
+            this.textFormat = textFormat;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (linePosition == line.length) {
+                if (caseIndex == values.length()) {
+                    return -1;
+                }
+                String text = formatValue(values, caseIndex, textFormat, plainFormat);
+                line = (text + "\n").getBytes(StandardCharsets.UTF_8);
+                linePosition = 0;
+                caseIndex++;
+            }
+            return line[linePosition++];
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A row-offset index of an ingested tab-delimited file, saved next to it as
+ * an auxiliary object: the byte offsets of every K-th row (case) of the file.
+ * With it, rows N through M of the file can be read with a single ranged read
+ * - a seek on the filesystem, a ranged GET on S3 - of at most K-1 extra rows,
+ * rather than by streaming the file from the start.
+ *
+ * Layout (numbers are big-endian): magic ("DVRI"), format version, K, number
+ * of cases (4 ints), size of the tab file (long), then the offset of every
+ * K-th row, starting with row 0 (longs).
+ */
+public class TabularRowIndex {
+
+    public static final String AUX_TAG = "rowidx";
+
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    static final int MAGIC = 0x44565249;
+    static final int FORMAT_VERSION = 1;
+
+    private final int interval;
+    private final int caseCount;
+    private final long fileSize;
+    private final long[] offsets;
+
+    TabularRowIndex(int interval, int caseCount, long fileSize, long[] offsets) {
+        this.interval = interval;
+        this.caseCount = caseCount;
+        this.fileSize = fileSize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param storageIO the (opened) StorageIO of an ingested tabular file
+     * @return the row index of the file, or {@code null} if there isn't one.
+     * @throws IOException if it exists, but can't be read.
+     */
+    public static TabularRowIndex open(StorageIO<DataFile> storageIO) throws IOException {
+        if (!storageIO.isAuxObjectCached(AUX_TAG)) {
+            return null;
+        }
+        InputStream in = storageIO.getAuxFileAsInputStream(AUX_TAG);
+        if (in == null) {
+            return null;
+        }
+        return read(in);
+    }
+
+    static TabularRowIndex read(InputStream stream) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a tabular row index.");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported tabular row index version: " + version);
+            }
+            int interval = in.readInt();
+            int caseCount = in.readInt();
+            long fileSize = in.readLong();
+            long[] offsets = new long[sampleCount(caseCount, interval)];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new TabularRowIndex(interval, caseCount, fileSize, offsets);
+        }
+    }
+
+    private static int sampleCount(int caseCount, int interval) {
+        return (caseCount + interval - 1) / interval;
+    }
+
+    /**
+     * Writes the row index of a tab file.
+     *
+     * @param tabFile the tab-delimited file produced by the ingest
+     * @param caseCount its number of cases
+     * @param interval K, the number of rows between two indexed offsets
+     * @param indexFile where to write the index
+     * @throws IOException if the tab file can't be read, or has fewer rows
+     * than the number of cases.
+     */
+    public static void write(File tabFile, int caseCount, int interval, File indexFile) throws IOException {
+        long[] offsets = new long[sampleCount(caseCount, interval)];
+        try (InputStream in = new FileInputStream(tabFile)) {
+            byte[] buffer = new byte[64 * 1024];
+            long position = 0;
+            int row = 0;
+            boolean rowStart = true;
+            int read;
+            while (row < caseCount && (read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read && row < caseCount; i++) {
+                    if (rowStart) {
+                        if (row % interval == 0) {
+                            offsets[row / interval] = position + i;
+                        }
+                        rowStart = false;
+                    }
+                    if (buffer[i] == '\n') {
+                        row++;
+                        rowStart = true;
+                    }
+                }
+                position += read;
+            }
+            if (!rowStart) {
+                // last row, without a trailing new line
+                row++;
+            }
+            if (row < caseCount) {
+                throw new IOException("Tab file has fewer rows than the stored number of cases!");
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(interval);
+            out.writeInt(caseCount);
+            out.writeLong(tabFile.length());
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getCaseCount() {
+        return caseCount;
+    }
+
+    /**
+     * @param row a (0-based) row
+     * @return the offset of the last indexed row at or before it.
+     */
+    public long getStartOffset(int row) {
+        return offsets[row / interval];
+    }
+
+    /**
+     * @param row a (0-based) row
+     * @return the number of rows between {@link #getStartOffset(int)} and the row.
+     */
+    public int getRowsToSkip(int row) {
+        return row % interval;
+    }
+
+    /**
+     * @param lastRow a (0-based) row
+     * @return the offset of the first indexed row after it, or the end of
+     * the file.
+     */
+    public long getEndOffset(int lastRow) {
+        int sample = lastRow / interval + 1;
+        return sample < offsets.length ? offsets[sample] : fileSize;
+    }
+
+    /**
+     * Copies the rows {@code first} through {@code last} (0-based, inclusive)
+     * of the tab file, reading just the byte range that contains them.
+     *
+     * @param storageIO the (opened) StorageIO of the tab file
+     * @param first the first row
+     * @param last the last row
+     * @param columns the (0-based) columns to copy, in the order requested;
+     * or {@code null} for entire rows
+     * @param out where to copy them
+     * @throws IOException if the file can't be read.
+     */
+    public void copyRows(StorageIO<DataFile> storageIO, int first, int last, List<Integer> columns, OutputStream out) throws IOException {
+        long start = getStartOffset(first);
+        try (InputStream in = new BufferedInputStream(storageIO.getInputStream(start, getEndOffset(last) - start), 64 * 1024)) {
+            copyRows(in, getRowsToSkip(first), last - first + 1, columns, out);
+        }
+    }
+
+    /**
+     * Skips some rows of a tab file, then copies some.
+     *
+     * @param in the tab file (or some part of it), buffered by the caller
+     * @param skip the number of rows to skip
+     * @param count the number of rows to copy
+     * @param columns the (0-based) columns to copy, in the order requested;
+     * or {@code null} for entire rows
+     * @param out where to copy them
+     * @throws IOException if there are not enough rows, or columns.
+     */
+    public static void copyRows(InputStream in, int skip, int count, List<Integer> columns, OutputStream out) throws IOException {
+        for (int i = 0; i < skip; i++) {
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Tab file has fewer rows than requested!");
+                }
+            }
+        }
+        if (columns == null) {
+            copyLines(in, count, out);
+        } else {
+            copyColumns(in, columns, count, out);
+        }
+    }
+
+    private static void copyLines(InputStream in, int count, OutputStream out) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int b;
+            boolean empty = true;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    if (i == count - 1 && !empty) {
+                        // last row, without a trailing new line
+                        break;
+                    }
+                    throw new IOException("Tab file has fewer rows than requested!");
+                }
+                out.write(b);
+                empty = false;
+            }
+            out.write('\n');
+        }
+    }
+
+    private static void copyColumns(InputStream in, List<Integer> columns, int count, OutputStream out) throws IOException {
+        // the scanner takes each column once:
+        int[] distinct = columns.stream().mapToInt(Integer::intValue).distinct().toArray();
+        int[] slots = new int[columns.size()];
+        for (int k = 0; k < slots.length; k++) {
+            for (int slot = 0; slot < distinct.length; slot++) {
+                if (distinct[slot] == columns.get(k)) {
+                    slots[k] = slot;
+                }
+            }
+        }
+        // (not closing the scanner; the caller closes the stream)
+        TabularColumnScanner scanner = new TabularColumnScanner(in, distinct);
+        for (int i = 0; i < count; i++) {
+            TabularSubsetGenerator.nextCase(scanner);
+            for (int k = 0; k < slots.length; k++) {
+                if (k > 0) {
+                    out.write('\t');
+                }
+                scanner.copyRaw(slots[k], out);
+            }
+            out.write('\n');
+        }
+    }
+}
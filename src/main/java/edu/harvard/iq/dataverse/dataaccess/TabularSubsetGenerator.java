@@ -424,26 +424,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
             if (scanner.hasNext()) {
                 String[] line = (scanner.next()).split("\t", -1);
-
-                // Verified: new Double("nan") works correctly, 
-                // resulting in Double.NaN;
-                // Double("[+-]Inf") doesn't work however; 
-                // (the constructor appears to be expecting it
-                // to be spelled as "Infinity", "-Infinity", etc. 
-                if ("inf".equalsIgnoreCase(line[column]) || "+inf".equalsIgnoreCase(line[column])) {
-                    retVector[caseIndex] = java.lang.Double.POSITIVE_INFINITY;
-                } else if ("-inf".equalsIgnoreCase(line[column])) {
-                    retVector[caseIndex] = java.lang.Double.NEGATIVE_INFINITY;
-                } else if (line[column] == null || line[column].equals("")) {
-                    // missing value:
-                    retVector[caseIndex] = null;
-                } else {
-                    try {
-                        retVector[caseIndex] = new Double(line[column]);
-                    } catch (NumberFormatException ex) {
-                        retVector[caseIndex] = null; // missing value
-                    }
-                }
+                retVector[caseIndex] = parseDoubleEntry(line[column]);
 
             } else {
                 scanner.close();
@@ -478,25 +459,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
             if (scanner.hasNext()) {
                 String[] line = (scanner.next()).split("\t", -1);
-                // Verified: new Float("nan") works correctly, 
-                // resulting in Float.NaN;
-                // Float("[+-]Inf") doesn't work however; 
-                // (the constructor appears to be expecting it
-                // to be spelled as "Infinity", "-Infinity", etc. 
-                if ("inf".equalsIgnoreCase(line[column]) || "+inf".equalsIgnoreCase(line[column])) {
-                    retVector[caseIndex] = java.lang.Float.POSITIVE_INFINITY;
-                } else if ("-inf".equalsIgnoreCase(line[column])) {
-                    retVector[caseIndex] = java.lang.Float.NEGATIVE_INFINITY;
-                } else if (line[column] == null || line[column].equals("")) {
-                    // missing value:
-                    retVector[caseIndex] = null;
-                } else {
-                    try {
-                        retVector[caseIndex] = new Float(line[column]);
-                    } catch (NumberFormatException ex) {
-                        retVector[caseIndex] = null; // missing value
-                    }
-                }
+                retVector[caseIndex] = parseFloatEntry(line[column]);
             } else {
                 scanner.close();
                 throw new RuntimeException("Tab file has fewer rows than the stored number of cases!");
@@ -530,11 +493,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
             if (scanner.hasNext()) {
                 String[] line = (scanner.next()).split("\t", -1);
-                try {
-                    retVector[caseIndex] = new Long(line[column]);
-                } catch (NumberFormatException ex) {
-                    retVector[caseIndex] = null; // assume missing value
-                }
+                retVector[caseIndex] = parseLongEntry(line[column]);
             } else {
                 scanner.close();
                 throw new RuntimeException("Tab file has fewer rows than the stored number of cases!");
@@ -568,51 +527,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
             if (scanner.hasNext()) {
                 String[] line = (scanner.next()).split("\t", -1);
-                retVector[caseIndex] = line[column];
-                
-                
-                if ("".equals(line[column])) {
-                    // An empty string is a string missing value!
-                    // An empty string in quotes is an empty string!
-                    retVector[caseIndex] = null;
-                } else {
-                    // Strip the outer quotes:
-                    line[column] = line[column].replaceFirst("^\\\"", "");
-                    line[column] = line[column].replaceFirst("\\\"$", "");
-
-                    // We need to restore the special characters that 
-                    // are stored in tab files escaped - quotes, new lines 
-                    // and tabs. Before we do that however, we need to 
-                    // take care of any escaped backslashes stored in 
-                    // the tab file. I.e., "foo\t" should be transformed 
-                    // to "foo<TAB>"; but "foo\\t" should be transformed 
-                    // to "foo\t". This way new lines and tabs that were
-                    // already escaped in the original data are not 
-                    // going to be transformed to unescaped tab and 
-                    // new line characters!
-                    String[] splitTokens = line[column].split(Matcher.quoteReplacement("\\\\"), -2);
-
-                    // (note that it's important to use the 2-argument version 
-                    // of String.split(), and set the limit argument to a
-                    // negative value; otherwise any trailing backslashes 
-                    // are lost.)
-                    for (int i = 0; i < splitTokens.length; i++) {
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
-                    }
-                    // TODO: 
-                    // Make (some of?) the above optional; for ex., we 
-                    // do need to restore the newlines when calculating UNFs;
-                    // But if we are subsetting these vectors in order to 
-                    // create a new tab-delimited file, they will 
-                    // actually break things! -- L.A. Jul. 28 2014
-
-                    line[column] = StringUtils.join(splitTokens, '\\');
-
-                    retVector[caseIndex] = line[column];
-                }
+                retVector[caseIndex] = parseStringEntry(line[column]);
 
             } else {
                 scanner.close();
@@ -635,6 +550,173 @@ public class TabularSubsetGenerator implements SubsetGenerator {
 
     }
 
+    /*
+     * Primitive versions of the vector subsetting methods above: same 
+     * values, but stored in a primitive array plus a bitmap of the missing
+     * values, and parsed straight from the bytes of the file, without 
+     * creating a String (or a String array) for every line. 
+     */
+    
+    public static PrimitiveVector.Doubles subsetDoubleColumn(InputStream in, int column, int numCases) throws IOException {
+        PrimitiveVector.Doubles vector = new PrimitiveVector.Doubles(numCases);
+        try (TabularColumnScanner scanner = new TabularColumnScanner(in, column)) {
+            for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+                nextCase(scanner);
+                scanner.readDouble(0, vector, caseIndex);
+            }
+            checkNoMoreCases(scanner, column, numCases);
+        }
+        return vector;
+    }
+    
+    public static PrimitiveVector.Floats subsetFloatColumn(InputStream in, int column, int numCases) throws IOException {
+        PrimitiveVector.Floats vector = new PrimitiveVector.Floats(numCases);
+        try (TabularColumnScanner scanner = new TabularColumnScanner(in, column)) {
+            for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+                nextCase(scanner);
+                scanner.readFloat(0, vector, caseIndex);
+            }
+            checkNoMoreCases(scanner, column, numCases);
+        }
+        return vector;
+    }
+    
+    public static PrimitiveVector.Longs subsetLongColumn(InputStream in, int column, int numCases) throws IOException {
+        PrimitiveVector.Longs vector = new PrimitiveVector.Longs(numCases);
+        try (TabularColumnScanner scanner = new TabularColumnScanner(in, column)) {
+            for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+                nextCase(scanner);
+                scanner.readLong(0, vector, caseIndex);
+            }
+            checkNoMoreCases(scanner, column, numCases);
+        }
+        return vector;
+    }
+    
+    /**
+     * Advances the scanner to the next case (line) of a tab file.
+     * @param scanner the scanner
+     * @throws IOException if there are no more lines.
+     */
+    public static void nextCase(TabularColumnScanner scanner) throws IOException {
+        if (!scanner.nextLine()) {
+            throw new IOException("Tab file has fewer rows than the stored number of cases!");
+        }
+    }
+    
+    /**
+     * Makes sure that there's nothing but empty lines left in the file once
+     * all the cases have been read.
+     * @param scanner the scanner, positioned on the last case
+     * @param column column being subset, for the error message
+     * @param numCases expected number of cases
+     * @throws IOException if there are more nonempty lines.
+     */
+    public static void checkNoMoreCases(TabularColumnScanner scanner, int column, int numCases) throws IOException {
+        int tailIndex = numCases;
+        while (scanner.nextLine()) {
+            if (!scanner.isLineEmpty()) {
+                throw new IOException("Column " + column + ": tab file has more nonempty rows than the stored number of cases (" + numCases + ")! current index: " + tailIndex + ", line: " + scanner.getLine());
+            }
+            tailIndex++;
+        }
+    }
+
+    /*
+     * Single-entry parsers, shared by the vector subsetting methods above 
+     * and by anything else that needs to interpret the values stored in 
+     * the tab-delimited files the exact same way (the ingest summary 
+     * statistics and UNFs, for example).
+     */
+    
+    public static Double parseDoubleEntry(String entry) {
+        // Verified: new Double("nan") works correctly, 
+        // resulting in Double.NaN;
+        // Double("[+-]Inf") doesn't work however; 
+        // (the constructor appears to be expecting it
+        // to be spelled as "Infinity", "-Infinity", etc. 
+        if ("inf".equalsIgnoreCase(entry) || "+inf".equalsIgnoreCase(entry)) {
+            return java.lang.Double.POSITIVE_INFINITY;
+        } else if ("-inf".equalsIgnoreCase(entry)) {
+            return java.lang.Double.NEGATIVE_INFINITY;
+        } else if (entry == null || entry.equals("")) {
+            // missing value:
+            return null;
+        }
+        try {
+            return new Double(entry);
+        } catch (NumberFormatException ex) {
+            return null; // missing value
+        }
+    }
+    
+    public static Float parseFloatEntry(String entry) {
+        // Same as above: Float("[+-]Inf") needs special handling.
+        if ("inf".equalsIgnoreCase(entry) || "+inf".equalsIgnoreCase(entry)) {
+            return java.lang.Float.POSITIVE_INFINITY;
+        } else if ("-inf".equalsIgnoreCase(entry)) {
+            return java.lang.Float.NEGATIVE_INFINITY;
+        } else if (entry == null || entry.equals("")) {
+            // missing value:
+            return null;
+        }
+        try {
+            return new Float(entry);
+        } catch (NumberFormatException ex) {
+            return null; // missing value
+        }
+    }
+    
+    public static Long parseLongEntry(String entry) {
+        try {
+            return new Long(entry);
+        } catch (NumberFormatException ex) {
+            return null; // assume missing value
+        }
+    }
+    
+    public static String parseStringEntry(String entry) {
+        if ("".equals(entry)) {
+            // An empty string is a string missing value!
+            // An empty string in quotes is an empty string!
+            return null;
+        }
+        // Strip the outer quotes:
+        entry = entry.replaceFirst("^\\\"", "");
+        entry = entry.replaceFirst("\\\"$", "");
+
+        // We need to restore the special characters that 
+        // are stored in tab files escaped - quotes, new lines 
+        // and tabs. Before we do that however, we need to 
+        // take care of any escaped backslashes stored in 
+        // the tab file. I.e., "foo\t" should be transformed 
+        // to "foo<TAB>"; but "foo\\t" should be transformed 
+        // to "foo\t". This way new lines and tabs that were
+        // already escaped in the original data are not 
+        // going to be transformed to unescaped tab and 
+        // new line characters!
+        String[] splitTokens = entry.split(Matcher.quoteReplacement("\\\\"), -2);
+
+        // (note that it's important to use the 2-argument version 
+        // of String.split(), and set the limit argument to a
+        // negative value; otherwise any trailing backslashes 
+        // are lost.)
+        for (int i = 0; i < splitTokens.length; i++) {
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
+        }
+        // TODO: 
+        // Make (some of?) the above optional; for ex., we 
+        // do need to restore the newlines when calculating UNFs;
+        // But if we are subsetting these vectors in order to 
+        // create a new tab-delimited file, they will 
+        // actually break things! -- L.A. Jul. 28 2014
+
+        return StringUtils.join(splitTokens, '\\');
+    }
+
     /*
      * Straightforward method for subsetting a tab-delimited data file, extracting
      * all the columns representing continuous variables and returning them as 
@@ -22,9 +22,6 @@ import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import java.io.IOException;
 import java.util.logging.Logger;
-import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
-import java.util.concurrent.Future;
-import org.apache.solr.client.solrj.SolrServerException;
 
 /**
  *
@@ -106,15 +103,7 @@ public class DeaccessionDatasetVersionCommand extends AbstractCommand<DatasetVer
         DatasetVersion version = (DatasetVersion) r;
         Dataset dataset = version.getDataset();
 
-        try {
-            ctxt.index().indexDataset(dataset, true);
-            Future<String> indexString = ctxt.index().indexDataset(dataset, true);
-        } catch (IOException | SolrServerException e) {
-            String failureLogText = "Post-publication indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + dataset.getId().toString();
-            failureLogText += "\r\n" + e.getLocalizedMessage();
-            LoggingUtil.writeOnSuccessFailureLog(this, failureLogText, dataset);
-            retVal = false;
-        }
+        ctxt.index().queueIndexing(dataset);
         return retVal;
     }
 
@@ -6,7 +6,6 @@ import edu.harvard.iq.dataverse.FileMetadata;
 import edu.harvard.iq.dataverse.RoleAssignment;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.PrivateUrlUser;
-import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
 
 import edu.harvard.iq.dataverse.engine.command.AbstractVoidCommand;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
@@ -15,11 +14,9 @@ import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.IllegalCommandException;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrl;
-import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
-import org.apache.solr.client.solrj.SolrServerException;
 
 /**
  *
@@ -95,14 +92,7 @@ public class DeleteDatasetVersionCommand extends AbstractVoidCommand {
                         ctxt.roles().revoke(roleAssignment);
                     }
                 }
-                boolean doNormalSolrDocCleanUp = true;
-                try {
-                    ctxt.index().indexDataset(doomed, doNormalSolrDocCleanUp);
-                } catch (IOException | SolrServerException e) {
-                    String failureLogText = "Post delete version indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + doomed.getId().toString();
-                    failureLogText += "\r\n" + e.getLocalizedMessage();
-                    LoggingUtil.writeOnSuccessFailureLog(this, failureLogText, doomed);
-                }
+                ctxt.index().queueIndexing(doomed);
 
                 return;
             }
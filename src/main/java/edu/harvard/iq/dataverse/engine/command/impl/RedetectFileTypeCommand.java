@@ -82,12 +82,7 @@ public class RedetectFileTypeCommand extends AbstractCommand<DataFile> {
                 throw new CommandException("Exception while attempting to save the new file type: " + EjbUtil.ejbExceptionToString(ex), this);
             }
             Dataset dataset = fileToRedetect.getOwner();
-            try {
-                boolean doNormalSolrDocCleanUp = true;
-                ctxt.index().indexDataset(dataset, doNormalSolrDocCleanUp);
-            } catch (Exception ex) {
-                logger.info("Exception while reindexing files during file type redetection: " + ex.getLocalizedMessage());
-            }
+            ctxt.index().queueIndexing(dataset);
             try {
                 ExportService instance = ExportService.getInstance();
                 instance.exportAllFormats(dataset);
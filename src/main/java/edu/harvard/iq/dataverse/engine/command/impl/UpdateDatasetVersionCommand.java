@@ -3,7 +3,6 @@ package edu.harvard.iq.dataverse.engine.command.impl;
 import edu.harvard.iq.dataverse.*;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
-import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
@@ -11,16 +10,17 @@ import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.IllegalCommandException;
 import edu.harvard.iq.dataverse.util.FileMetadataUtil;
 
-import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Future;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.validation.ConstraintViolationException;
 
-import org.apache.solr.client.solrj.SolrServerException;
 
 /**
  *
@@ -117,6 +117,8 @@ public class UpdateDatasetVersionCommand extends AbstractDatasetCommand<Dataset>
             validateOrDie(getDataset().getEditVersion(fmVarMet), isValidateLenient());
 
             final DatasetVersion editVersion = getDataset().getEditVersion(fmVarMet);
+            // (as saved, to tell below whether the embargoes have changed)
+            final LocalDate savedNextEmbargoEnd = editVersion.getNextEmbargoEnd();
             
             tidyUpFields(editVersion);
 
@@ -247,6 +249,12 @@ public class UpdateDatasetVersionCommand extends AbstractDatasetCommand<Dataset>
 
             savedDataset = ctxt.em().merge(theDataset);
             ctxt.em().flush();
+            // (embargoes are assigned to files in the edit version, and saved here)
+            Date lastExportTime = savedDataset.getLastExportTime();
+            LocalDate lastExportDate = (lastExportTime != null) ? lastExportTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate() : null;
+            if (!Objects.equals(savedNextEmbargoEnd, savedDataset.getEditVersion().findNextEmbargoEnd(lastExportDate))) {
+                ctxt.datasets().updateNextEmbargoEnd(savedDataset.getId());
+            }
 
             updateDatasetUser(ctxt);
             if (clone != null) {
@@ -273,14 +281,7 @@ public class UpdateDatasetVersionCommand extends AbstractDatasetCommand<Dataset>
         boolean retVal = true;
         Dataset dataset = (Dataset) r;
 
-        try {
-            Future<String> indexString = ctxt.index().indexDataset(dataset, true);
-        } catch (IOException | SolrServerException e) {
-            String failureLogText = "Post update dataset indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + dataset.getId().toString();
-            failureLogText += "\r\n" + e.getLocalizedMessage();
-            LoggingUtil.writeOnSuccessFailureLog(this, failureLogText, dataset);
-            retVal = false;
-        }
+        ctxt.index().queueIndexing(dataset);
 
         return retVal;
 
@@ -16,6 +16,8 @@ import edu.harvard.iq.dataverse.datavariable.VariableMetadata;
 import edu.harvard.iq.dataverse.datavariable.CategoryMetadata;
 import edu.harvard.iq.dataverse.datavariable.VarGroup;
 import edu.harvard.iq.dataverse.dataaccess.DataConverter;
+import edu.harvard.iq.dataverse.dataaccess.StorageIO;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnarFile;
 
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.datavariable.VariableRange;
@@ -581,6 +583,14 @@ public class DDIExportServiceBean {
     private void calculateFrequencies(DataFile df, List<DataVariable> vars)
     {
         try {
+            // (reading the aux copy doesn't need the main file opened)
+            StorageIO<DataFile> storageIO = df.getStorageIO();
+            TabularColumnarFile columnarFile = TabularColumnarFile.open(storageIO);
+            if (columnarFile != null) {
+                // only the columns of the categorical variables are read:
+                ingestService.produceFrequencies(columnarFile, vars);
+                return;
+            }
             DataConverter dc = new DataConverter();
             File tabFile = dc.downloadFromStorageIO(df.getStorageIO());
 
@@ -1,9 +1,8 @@
 package edu.harvard.iq.dataverse.export;
 
 import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
-import edu.harvard.iq.dataverse.Embargo;
-import edu.harvard.iq.dataverse.FileMetadata;
 
 import static edu.harvard.iq.dataverse.GlobalIdServiceBean.logger;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
@@ -29,16 +28,28 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.inject.spi.CDI;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.io.IOUtils;
@@ -52,6 +63,15 @@ public class ExportService {
     private static ExportService service;
     private ServiceLoader<Exporter> loader;
 
+    /**
+     * Exports being generated right now, by dataset and format; concurrent
+     * requests for the same export wait for the one in progress, instead of
+     * running (and caching) it again.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> exportsInProgress = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, ExportTiming> exportTimings = new ConcurrentHashMap<>();
+
     private ExportService() {
         loader = ServiceLoader.load(Exporter.class);
     }
@@ -77,6 +97,10 @@ public class ExportService {
     }
 
     public InputStream getExport(Dataset dataset, String formatName) throws ExportException, IOException {
+        // if this export is being generated right now, its cached file may
+        // still be incomplete; wait for it:
+        awaitExportInProgress(dataset, formatName);
+
         // first we will try to locate an already existing, cached export 
         // for this format: 
         
@@ -85,45 +109,10 @@ public class ExportService {
         // The DDI export is limited for restricted and actively embargoed files (no
         // data/file description sections).and when an embargo ends, we need to refresh
         // this export.
-        boolean clearCachedExport = false;
         if (formatName.equals(DDIExporter.PROVIDER_NAME) && (exportInputStream != null)) {
             // We want ddi and there was a cached version
-            LocalDate exportLocalDate = null;
-            Date lastExportDate = dataset.getLastExportTime();
-            // if lastExportDate == null, assume it's not set because were exporting for the
-            // first time now (e.g. during publish) and therefore no changes are needed
-            if (lastExportDate != null) {
-                exportLocalDate = lastExportDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-                logger.fine("Last export date: " + exportLocalDate.toString());
-                // Track which embargoes we've already checked
-                Set<Long> embargoIds = new HashSet<Long>();
-                // Check for all files in the latest released version
-                for (FileMetadata fm : dataset.getLatestVersionForCopy().getFileMetadatas()) {
-                    // ToDo? This loop is necessary because we have not stored the date when the
-                    // next embargo in this datasetversion will end. If we knew that (another
-                    // dataset/datasetversion column), we could make
-                    // one check that nextembargoEnd exists and is after the last export and before
-                    // now versus scanning through files until we potentially find such an embargo.
-                    Embargo e = fm.getDataFile().getEmbargo();
-                    if(e!=null) {
-                    logger.fine("Datafile:  " + fm.getDataFile().getId());
-                    logger.fine("Embargo end date: "+ e.getFormattedDateAvailable());
-                    }
-                    if (e != null && !embargoIds.contains(e.getId()) && e.getDateAvailable().isAfter(exportLocalDate)
-                            && e.getDateAvailable().isBefore(LocalDate.now())) {
-                        logger.fine("Request that the ddi export be cleared.");
-                        // The file has been embargoed and the embargo ended after the last export and
-                        // before the current date, so we need to remove the cached DDI export and make
-                        // it refresh
-                        clearCachedExport = true;
-                        break;
-                    } else if(e!=null) {
-                        logger.fine("adding embargo to checked list: " + e.getId());
-                        embargoIds.add(e.getId());
-                    }
-                }
-            }
-            if (clearCachedExport) {
+            if (isEmbargoEndedSinceExport(dataset, LocalDate.now())) {
+                logger.fine("Request that the ddi export be cleared.");
                 try {
                     exportInputStream.close();
                     clearCachedExport(dataset, formatName);
@@ -140,9 +129,15 @@ public class ExportService {
             return exportInputStream;
         }
 
-        // if it doesn't exist, we'll try to run the export:
+        // if it doesn't exist, we'll try to run the export (or wait for 
+        // another request that is already running it):
         exportFormat(dataset, formatName);
 
+        if (formatName.equals(DDIExporter.PROVIDER_NAME)) {
+            // the DDI export is now current as of today:
+            updateNextEmbargoEnd(dataset);
+        }
+
         // and then try again:
         exportInputStream = getCachedExportFormat(dataset, formatName);
 
@@ -156,6 +151,29 @@ public class ExportService {
 
     }
 
+    /**
+     * Whether an embargo on a file of the dataset has ended since the dataset
+     * was last exported, so that its cached DDI export still leaves that file
+     * out.
+     */
+    static boolean isEmbargoEndedSinceExport(Dataset dataset, LocalDate today) {
+        Date lastExportDate = dataset.getLastExportTime();
+        // if lastExportDate == null, assume it's not set because were exporting for the
+        // first time now (e.g. during publish) and therefore no changes are needed
+        if (lastExportDate == null) {
+            return false;
+        }
+        logger.fine("Last export date: " + lastExportDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toString());
+        // The version stores the end date of its next embargo to end
+        // after the last export; if that date has passed, the cached
+        // export still leaves out files that are no longer embargoed
+        LocalDate nextEmbargoEnd = dataset.getLatestVersionForCopy().getNextEmbargoEnd();
+        if (nextEmbargoEnd != null) {
+            logger.fine("Next embargo end date: " + nextEmbargoEnd.toString());
+        }
+        return nextEmbargoEnd != null && nextEmbargoEnd.isBefore(today);
+    }
+
     public String getExportAsString(Dataset dataset, String formatName) {
         InputStream inputStream = null;
         InputStreamReader inp = null;
@@ -189,6 +207,9 @@ public class ExportService {
     // This method goes through all the Exporters and calls 
     // the "chacheExport()" method that will save the produced output  
     // in a file in the dataset directory, on each Exporter available. 
+    // The exporters run one after the other, unless 
+    // "dataverse.export.parallelism" is set higher than 1 (they then run 
+    // on the managed executor of the application server). 
     public void exportAllFormats(Dataset dataset) throws ExportException {
         try {
             clearAllCachedFormats(dataset);
@@ -202,17 +223,16 @@ public class ExportService {
                 throw new ExportException("No released version for dataset " + dataset.getGlobalId().toString());
             }
 
+            // (this is built once, on this thread, before any exporter runs)
             final JsonObjectBuilder datasetAsJsonBuilder = JsonPrinter.jsonAsDatasetDto(releasedVersion);
             JsonObject datasetAsJson = datasetAsJsonBuilder.build();
 
-            Iterator<Exporter> exporters = loader.iterator();
-            while (exporters.hasNext()) {
-                Exporter e = exporters.next();
-                String formatName = e.getProviderName();
-
-                cacheExport(releasedVersion, formatName, datasetAsJson, e);
+            List<Exporter> exporters = new ArrayList<>();
+            loader.iterator().forEachRemaining(exporters::add);
 
-            }
+            int parallelism = getExportParallelism();
+            runExporters(exporters, parallelism, (parallelism > 1) ? getExportExecutor() : null, e ->
+                    runExport(dataset, e.getProviderName(), false, () -> timedCacheExport(releasedVersion, e.getProviderName(), datasetAsJson, e)));
         } catch (ServiceConfigurationError serviceError) {
             throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
         } catch (Exception e) {
@@ -246,29 +266,253 @@ public class ExportService {
     // then produces the dataset metadata as a JsonObject, then calls
     // the "cacheExport()" method that will save the produced output  
     // in a file in the dataset directory. 
+    // If the same export is already being produced by another request, 
+    // this waits for it to finish instead.
     public void exportFormat(Dataset dataset, String formatName) throws ExportException {
-        try {
-            Iterator<Exporter> exporters = loader.iterator();
-            while (exporters.hasNext()) {
-                Exporter e = exporters.next();
-                if (e.getProviderName().equals(formatName)) {
-                    DatasetVersion releasedVersion = dataset.getReleasedVersion();
-                    if (releasedVersion == null) {
-                        throw new IllegalStateException("No Released Version");
+        runExport(dataset, formatName, true, () -> {
+            try {
+                Iterator<Exporter> exporters = loader.iterator();
+                while (exporters.hasNext()) {
+                    Exporter e = exporters.next();
+                    if (e.getProviderName().equals(formatName)) {
+                        DatasetVersion releasedVersion = dataset.getReleasedVersion();
+                        if (releasedVersion == null) {
+                            throw new IllegalStateException("No Released Version");
+                        }
+                        final JsonObjectBuilder datasetAsJsonBuilder = JsonPrinter.jsonAsDatasetDto(releasedVersion);
+                        timedCacheExport(releasedVersion, formatName, datasetAsJsonBuilder.build(), e);
                     }
-                    final JsonObjectBuilder datasetAsJsonBuilder = JsonPrinter.jsonAsDatasetDto(releasedVersion);
-                    cacheExport(releasedVersion, formatName, datasetAsJsonBuilder.build(), e);
                 }
+            } catch (ServiceConfigurationError serviceError) {
+                throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
+            } catch (IllegalStateException e) {
+                throw new ExportException("No published version found during export. " + dataset.getGlobalId().toString());
             }
-        } catch (ServiceConfigurationError serviceError) {
-            throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
-        } catch (IllegalStateException e) {
-            throw new ExportException("No published version found during export. " + dataset.getGlobalId().toString());
-        }
+        });
         
         //As with exportAll, we should update the lastexporttime for the dataset
         dataset.setLastExportTime(new Timestamp(new Date().getTime()));
     }
+
+    @FunctionalInterface
+    interface ExportTask {
+        void run() throws ExportException;
+    }
+
+    private static String exportKey(Dataset dataset, String formatName) {
+        return dataset.getId() + ":" + formatName;
+    }
+
+    /**
+     * Runs an export, unless the same export (same dataset, same format) is
+     * already running, in this or another thread of this server.
+     *
+     * @param joinInProgress if {@code true}, and the export is already 
+     * running, wait for it and reuse its result; if {@code false}, wait for
+     * it, then run the export again (e.g. because the dataset has just been
+     * published, and the one in progress may be of the previous version).
+     */
+    void runExport(Dataset dataset, String formatName, boolean joinInProgress, ExportTask task) throws ExportException {
+        String key = exportKey(dataset, formatName);
+        CompletableFuture<Void> export = new CompletableFuture<>();
+        CompletableFuture<Void> inProgress;
+        while ((inProgress = exportsInProgress.putIfAbsent(key, export)) != null) {
+            if (joinInProgress) {
+                awaitExport(inProgress, formatName);
+                return;
+            }
+            try {
+                awaitExport(inProgress, formatName);
+            } catch (ExportException ex) {
+                // the other export failed; we'll try ours anyway
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            task.run();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            exportsInProgress.remove(key, export);
+            if (failure == null) {
+                export.complete(null);
+            } else {
+                export.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void awaitExportInProgress(Dataset dataset, String formatName) throws ExportException {
+        CompletableFuture<Void> inProgress = exportsInProgress.get(exportKey(dataset, formatName));
+        if (inProgress != null) {
+            try {
+                awaitExport(inProgress, formatName);
+            } catch (ExportException ex) {
+                // nothing was cached then; the caller will find out
+                logger.fine(ex.getMessage());
+            }
+        }
+    }
+
+    private void awaitExport(CompletableFuture<Void> export, String formatName) throws ExportException {
+        try {
+            export.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExportException("Interrupted while waiting for the export as " + formatName);
+        } catch (ExecutionException ex) {
+            throw new ExportException("Failed to export the dataset as " + formatName + ": " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+
+    private void updateNextEmbargoEnd(Dataset dataset) {
+        try {
+            CDI.current().select(DatasetServiceBean.class).get().updateNextEmbargoEnd(dataset.getId(), LocalDate.now());
+        } catch (Exception ex) {
+            // not fatal; at worst, the DDI export will be refreshed again
+            logger.warning("Failed to update the next embargo end date of dataset " + dataset.getId() + ": " + ex.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    interface ExporterTask {
+        void run(Exporter exporter) throws ExportException;
+    }
+
+    /**
+     * Runs the task on each of the exporters; on the calling thread if
+     * {@code parallelism} is 1 or there is no {@code executor}, or on up to
+     * {@code parallelism} threads of the {@code executor} otherwise. Either
+     * way, a failing exporter ({@link ExportException} or runtime exception)
+     * is logged, and doesn't stop the others.
+     */
+    static void runExporters(List<Exporter> exporters, int parallelism, ExecutorService executor, ExporterTask task) throws ExportException {
+        int threads = Math.min(parallelism, exporters.size());
+        Queue<Exporter> toRun = new ConcurrentLinkedQueue<>(exporters);
+        Runnable worker = () -> {
+            Exporter e;
+            while ((e = toRun.poll()) != null) {
+                try {
+                    task.run(e);
+                } catch (ExportException | RuntimeException ex) {
+                    logger.log(Level.WARNING, "Failed to export as " + e.getProviderName() + ": " + ex.getMessage(), ex);
+                }
+            }
+        };
+        if (threads <= 1 || executor == null) {
+            worker.run();
+            return;
+        }
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(worker));
+            }
+            for (Future<?> w : workers) {
+                w.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExportException("Interrupted while running the exporters");
+        } catch (ExecutionException ex) {
+            // (the worker catches the failures of the exporters)
+            throw new ExportException("Failed to run the exporters: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            toRun.clear();
+            workers.forEach(w -> w.cancel(true));
+        }
+    }
+
+    /**
+     * @return the default managed executor of the application server, or
+     * {@code null} (the exporters then run on the calling thread) if there
+     * is none
+     */
+    private static ExecutorService getExportExecutor() {
+        try {
+            return InitialContext.<ManagedExecutorService>doLookup("java:comp/DefaultManagedExecutorService");
+        } catch (NamingException ex) {
+            logger.warning("No managed executor to run the exporters in parallel: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The exporters of a dataset run one after the other by default: they
+     * all read the same (managed, lazily loaded) version, which must not be
+     * walked by more than one thread unless it has been fully loaded first.
+     */
+    private static int getExportParallelism() {
+        String parallelism = System.getProperty("dataverse.export.parallelism");
+        if (parallelism != null) {
+            try {
+                return Math.max(1, Integer.parseInt(parallelism));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of dataverse.export.parallelism: " + parallelism);
+            }
+        }
+        return 1;
+    }
+
+    private void timedCacheExport(DatasetVersion version, String format, JsonObject datasetAsJson, Exporter exporter) throws ExportException {
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            cacheExport(version, format, datasetAsJson, exporter);
+            success = true;
+        } finally {
+            long millis = System.currentTimeMillis() - start;
+            exportTimings.computeIfAbsent(format, f -> new ExportTiming()).record(millis, success);
+            logger.fine("Exported dataset " + version.getDataset().getId() + " as " + format + " in " + millis + " ms");
+        }
+    }
+
+    /**
+     * @return the time spent producing each export format, on this server,
+     * since it was started; by format name.
+     */
+    public Map<String, ExportTiming> getExportTimings() {
+        return new TreeMap<>(exportTimings);
+    }
+
+    public static class ExportTiming {
+
+        private long count;
+        private long failures;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void record(long millis, boolean success) {
+            count++;
+            if (!success) {
+                failures++;
+            }
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public synchronized long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+    }
     
 
     public Exporter getExporter(String formatName) throws ExportException {
@@ -44,7 +44,10 @@ import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
+import edu.harvard.iq.dataverse.dataaccess.PrimitiveVector;
 import edu.harvard.iq.dataverse.dataaccess.S3AccessIO;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnarFile;
+import edu.harvard.iq.dataverse.dataaccess.TabularRowIndex;
 import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
 import edu.harvard.iq.dataverse.datavariable.SummaryStatistic;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
@@ -86,8 +89,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -143,8 +144,6 @@ public class IngestServiceBean {
     
 
     private static String timeFormat_hmsS = "HH:mm:ss.SSS";
-    private static String dateTimeFormat_ymdhmsS = "yyyy-MM-dd HH:mm:ss.SSS";
-    private static String dateFormat_ymd = "yyyy-MM-dd";
     
     // This method tries to permanently store new files on the filesystem. 
     // Then it adds the files that *have been successfully saved* to the 
@@ -568,110 +567,26 @@ public class IngestServiceBean {
         /*
         logger.info("Skipping summary statistics and UNF.");
          */
-        produceDiscreteNumericSummaryStatistics(dataFile, generatedTabularFile); 
-        produceContinuousSummaryStatistics(dataFile, generatedTabularFile);
-        produceCharacterSummaryStatistics(dataFile, generatedTabularFile);
+        // The summary statistics and UNFs for all the numeric and character 
+        // variables are calculated in one go; the engine reads the tab file 
+        // once (per group of columns that fits in memory), instead of once 
+        // per variable. 
+        List<SummaryStatisticsEngine.ColumnResult> results = new SummaryStatisticsEngine(generatedTabularFile, dataFile.getDataTable()).calculate();
         
-        recalculateDataFileUNF(dataFile);
-        recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
-    }
-    
-    public void produceContinuousSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-
-        /* 
-        // quick, but memory-inefficient way:
-        // - this method just loads the entire file-worth of continuous vectors 
-        // into a Double[][] matrix. 
-        //Double[][] variableVectors = subsetContinuousVectors(dataFile);
-        //calculateContinuousSummaryStatistics(dataFile, variableVectors);
-        
-        // A more sophisticated way: this subsets one column at a time, using 
-        // the new optimized subsetting that does not have to read any extra 
-        // bytes from the file to extract the column:
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
-                logger.fine("subsetting continuous vector");
-
-                if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                    logger.fine("Calculating summary statistics on a Float vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Float vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                } else {
-                    Double[] variableVector = TabularSubsetGenerator.subsetDoubleVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                    logger.fine("Calculating summary statistics on a Double vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Double vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                }
-                logger.fine("Done! (continuous);");
+        for (SummaryStatisticsEngine.ColumnResult result : results) {
+            DataVariable variable = dataFile.getDataTable().getDataVariables().get(result.getVarnum());
+            if (result.getSummaryStatistics() != null) {
+                assignContinuousSummaryStatistics(variable, result.getSummaryStatistics());
             }
-        }
-    }
-    
-    public void produceDiscreteNumericSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-        
-        //TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalDiscrete()
-                    && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
-                logger.fine("subsetting discrete-numeric vector");
-
-                Long[] variableVector = TabularSubsetGenerator.subsetLongVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                // We are discussing calculating the same summary stats for 
-                // all numerics (the same kind of sumstats that we've been calculating
-                // for numeric continuous type)  -- L.A. Jul. 2014
-                calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a Long vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (discrete numeric)");
-                variableVector = null; 
+            if (result.getUnf() != null) {
+                variable.setUnf(result.getUnf());
             }
         }
-    }
-    
-    public void produceCharacterSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-
-        /* 
-            At this point it's still not clear what kinds of summary stats we
-            want for character types. Though we are pretty confident we don't 
-            want to keep doing what we used to do in the past, i.e. simply 
-            store the total counts for all the unique values; even if it's a 
-            very long vector, and *every* value in it is unique. (As a result 
-            of this, our Categorical Variable Value table is the single 
-            largest in the production database. With no evidence whatsoever, 
-            that this information is at all useful. 
-                -- L.A. Jul. 2014 
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
         
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isTypeCharacter()) {
-
-                logger.fine("subsetting character vector");
-                String[] variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a String vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (character)");
-                variableVector = null; 
-            }
-        }
+        recalculateDataFileUNF(dataFile);
+        recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
     }
-
+    
     public static void produceFrequencyStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
 
         List<DataVariable> vars = dataFile.getDataTable().getDataVariables();
@@ -686,36 +601,104 @@ public class IngestServiceBean {
             Collection<VariableCategory> cats = vars.get(i).getCategories();
             int caseQuantity = vars.get(i).getDataTable().getCaseQuantity().intValue();
             boolean isNumeric = vars.get(i).isTypeNumeric();
-            Object[] variableVector = null;
             if (cats.size() > 0) {
                 if (isNumeric) {
-                    variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
-                }
-                else {
-                    variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
+                    assignNumericFrequencies(cats, TabularSubsetGenerator.subsetFloatColumn(new FileInputStream(generatedTabularFile), i, caseQuantity));
+                } else {
+                    assignStringFrequencies(cats, TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, caseQuantity));
                 }
-                if (variableVector != null) {
-                    Hashtable<Object, Double> freq = calculateFrequency(variableVector);
-                    for (VariableCategory cat : cats) {
-                        Object catValue;
-                        if (isNumeric) {
-                            catValue = new Float(cat.getValue());
-                        } else {
-                            catValue = cat.getValue();
-                        }
-                        Double numberFreq = freq.get(catValue);
-                        if (numberFreq != null) {
-                            cat.setFrequency(numberFreq);
-                        } else {
-                            cat.setFrequency(0D);
-                        }
-                    }
+            }
+        }
+    }
+    
+    /**
+     * Same as above, but only the columns of the categorical variables are 
+     * read, from the columnar copy of the tab file. 
+     */
+    public static void produceFrequencies(TabularColumnarFile columnarFile, List<DataVariable> vars) throws IOException {
+
+        for (int i = 0; i < vars.size(); i++) {
+
+            Collection<VariableCategory> cats = vars.get(i).getCategories();
+            if (cats.size() > 0) {
+                if (vars.get(i).isTypeNumeric()) {
+                    assignNumericFrequencies(cats, columnarFile.readFloatValues(i));
                 } else {
-                    logger.fine("variableVector is null for variable " + vars.get(i).getName());
+                    assignStringFrequencies(cats, TabularSubsetGenerator.subsetStringVector(columnarFile.openText(i), 0, columnarFile.getCaseCount()));
                 }
             }
         }
     }
+    
+    private static void assignNumericFrequencies(Collection<VariableCategory> cats, PrimitiveVector.Floats vector) {
+        // Numeric values are counted on a sorted primitive copy of 
+        // the vector, rather than in a hash table of boxed Floats:
+        float[] sortedValues = sortedValidValues(vector);
+        for (VariableCategory cat : cats) {
+            cat.setFrequency(countFrequency(sortedValues, new Float(cat.getValue())));
+        }
+    }
+    
+    private static void assignStringFrequencies(Collection<VariableCategory> cats, Object[] variableVector) {
+        Hashtable<Object, Double> freq = calculateFrequency(variableVector);
+        for (VariableCategory cat : cats) {
+            Double numberFreq = freq.get(cat.getValue());
+            if (numberFreq != null) {
+                cat.setFrequency(numberFreq);
+            } else {
+                cat.setFrequency(0D);
+            }
+        }
+    }
+    
+    /**
+     * @param vector a numeric vector
+     * @return the non-missing values of the vector, sorted.
+     */
+    static float[] sortedValidValues(PrimitiveVector.Floats vector) {
+        float[] values = new float[vector.length() - vector.getMissingCount()];
+        int c = 0;
+        for (int j = 0; j < vector.length(); j++) {
+            if (!vector.isMissing(j)) {
+                values[c++] = vector.get(j);
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+    
+    /**
+     * Counts the occurrences of a value in a sorted vector; values are
+     * compared as {@link Float#equals(java.lang.Object)} does.
+     * @param sortedValues vector sorted with {@link Arrays#sort(float[])}
+     * @param value value to count
+     * @return the number of occurrences.
+     */
+    static double countFrequency(float[] sortedValues, float value) {
+        int low = 0;
+        int high = sortedValues.length;
+        // first index not less than value:
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Float.compare(sortedValues[mid], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int first = low;
+        high = sortedValues.length;
+        // first index greater than value:
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Float.compare(sortedValues[mid], value) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - first;
+    }
 
     public static Hashtable<Object, Double> calculateFrequency( Object[] variableVector) {
         Hashtable<Object, Double> freq = new Hashtable<Object, Double>();
@@ -1022,6 +1005,12 @@ public class IngestServiceBean {
                     dataFile = fileService.save(dataFile);
                     logger.fine("saved data file after updating the size");
 
+                    // and the columnar copy, for the subsets and statistics 
+                    // that only need some of the variables:
+                    saveColumnarFile(dataAccess, tabFile, tabDataIngest.getDataTable());
+                    // and the row index, for the ones that only need some of the rows:
+                    saveRowIndex(dataAccess, tabFile, tabDataIngest.getDataTable());
+
                     // delete the temp tab-file:
                     tabFile.delete();
                     /*end of save as backup */
@@ -1069,6 +1058,51 @@ public class IngestServiceBean {
         return inputStream;
     }
 
+    /**
+     * Saves the columnar copy of the tab file as an aux object. Not having 
+     * one is not an ingest failure - the subsets and statistics fall back to 
+     * reading the tab file. 
+     */
+    private void saveColumnarFile(StorageIO<DataFile> dataAccess, File tabFile, DataTable dataTable) {
+        File columnarFile = null;
+        try {
+            columnarFile = File.createTempFile("tempColumnarFile", ".tmp");
+            TabularColumnarFile.write(tabFile, dataTable, columnarFile);
+            try (InputStream columnarStream = new FileInputStream(columnarFile)) {
+                dataAccess.saveInputStreamAsAux(columnarStream, TabularColumnarFile.AUX_TAG, columnarFile.length());
+            }
+            logger.fine("Saved the columnar copy of the tab file as aux file " + TabularColumnarFile.AUX_TAG);
+        } catch (IOException iox) {
+            logger.warning("Failed to save the columnar copy of the tab file: " + iox.getMessage());
+        } finally {
+            if (columnarFile != null) {
+                columnarFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Saves the row-offset index of the tab file as an aux object. As with
+     * the columnar copy, not having one is not an ingest failure. 
+     */
+    private void saveRowIndex(StorageIO<DataFile> dataAccess, File tabFile, DataTable dataTable) {
+        File indexFile = null;
+        try {
+            indexFile = File.createTempFile("tempRowIndexFile", ".tmp");
+            TabularRowIndex.write(tabFile, dataTable.getCaseQuantity().intValue(), TabularRowIndex.DEFAULT_INTERVAL, indexFile);
+            try (InputStream indexStream = new FileInputStream(indexFile)) {
+                dataAccess.saveInputStreamAsAux(indexStream, TabularRowIndex.AUX_TAG, indexFile.length());
+            }
+            logger.fine("Saved the row index of the tab file as aux file " + TabularRowIndex.AUX_TAG);
+        } catch (IOException iox) {
+            logger.warning("Failed to save the row index of the tab file: " + iox.getMessage());
+        } finally {
+            if (indexFile != null) {
+                indexFile.delete();
+            }
+        }
+    }
+
     private void restoreIngestedDataFile(DataFile dataFile, TabularDataIngest tabDataIngest, long originalSize, String originalFileName, String originalContentType) {
         dataFile.setDataTables(null);
         if (tabDataIngest != null && tabDataIngest.getDataTable() != null) {
@@ -1544,11 +1578,6 @@ public class IngestServiceBean {
         return contVarFields;
     }
     
-    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, Number[] dataVector) throws IOException {
-        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
-        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
-    }
-    
     private void assignContinuousSummaryStatistics(DataVariable variable, double[] sumStats) throws IOException {
         if (sumStats == null || sumStats.length != variableService.summaryStatisticTypes.length) {
             throw new IOException ("Wrong number of summary statistics types calculated! ("+sumStats.length+")");
@@ -1568,165 +1597,6 @@ public class IngestServiceBean {
 
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Double[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
-    private void calculateUNF(DataFile dataFile, int varnum, Long[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
-        }  catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
-    private void calculateUNF(DataFile dataFile, int varnum, String[] dataVector) throws IOException {
-        String unf = null;
-        
-        String[] dateFormats = null; 
-        
-        // Special handling for Character strings that encode dates and times:
-        
-        if ("time".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
-            dateFormats = new String[dataVector.length];
-            String savedDateTimeFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
-            String timeFormat = null;
-            if (savedDateTimeFormat != null && !savedDateTimeFormat.equals("")) {
-                timeFormat = savedDateTimeFormat;
-            } else {
-                timeFormat = dateTimeFormat_ymdhmsS;
-            }
-            
-            /* What follows is special handling of a special case of time values
-             * non-uniform precision; specifically, when some have if some have 
-             * milliseconds, and some don't. (and that in turn is only 
-             * n issue when the timezone is present... without the timezone
-             * the time string would still evaluate to the end, even if the 
-             * format has the .SSS part and the string does not.
-             * This case will be properly handled internally, once we permanently
-             * switch to UNF6.
-             * -- L.A. 4.0 beta 8
-             */
-            String simplifiedFormat = null;
-            SimpleDateFormat fullFormatParser = null;
-            SimpleDateFormat simplifiedFormatParser = null;
-            
-            if (timeFormat.matches(".*\\.SSS z$")) {
-                simplifiedFormat = timeFormat.replace(".SSS", "");
-                
-                fullFormatParser = new SimpleDateFormat(timeFormat);
-                simplifiedFormatParser = new SimpleDateFormat(simplifiedFormat);
-            } 
-            
-            for (int i = 0; i < dataVector.length; i++) {
-                if (dataVector[i] != null) {
-                    
-                    if (simplifiedFormatParser != null) {
-                        // first, try to parse the value against the "full" 
-                        // format (with the milliseconds part):
-                        fullFormatParser.setLenient(false);
-                    
-                        try {
-                            logger.fine("trying the \"full\" time format, with milliseconds: "+timeFormat+", "+dataVector[i]);
-                            fullFormatParser.parse(dataVector[i]);
-                         } catch (ParseException ex) {
-                            // try the simplified (no time zone) format instead:
-                            logger.fine("trying the simplified format: "+simplifiedFormat+", "+dataVector[i]);
-                            simplifiedFormatParser.setLenient(false);
-                            try {
-                                simplifiedFormatParser.parse(dataVector[i]);
-                                timeFormat = simplifiedFormat;
-                            } catch (ParseException ex1) {
-                                logger.warning("no parseable format found for time value "+i+" - "+dataVector[i]);
-                                throw new IOException("no parseable format found for time value "+i+" - "+dataVector[i]);
-                            }
-                        }
-
-                    } 
-                    dateFormats[i] = timeFormat;
-                }
-            }
-        } else if ("date".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
-            dateFormats = new String[dataVector.length];
-            String savedDateFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
-            for (int i = 0; i < dataVector.length; i++) {
-                if (dataVector[i] != null) {
-                    if (savedDateFormat != null && !savedDateFormat.equals("")) {
-                        dateFormats[i] = savedDateFormat;
-                    } else {
-                        dateFormats[i] = dateFormat_ymd;
-                    }
-                }
-            }
-        }
-                
-        try {
-            if (dateFormats == null) {
-                logger.fine("calculating the UNF value for string vector; first value: "+dataVector[0]);
-                unf = UNFUtil.calculateUNF(dataVector);
-            } else {
-                unf = UNFUtil.calculateUNF(dataVector, dateFormats);
-            }
-        } catch (IOException iex) {
-            logger.warning("IO exception thrown when attempted to calculate UNF signature for (character) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (character) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
-    // Calculating UNFs from *floats*, not *doubles* - this is to test dataverse
-    // 4.0 Ingest against DVN 3.*; because of the nature of the UNF bug, reading
-    // the tab file entry with 7+ digits of precision as a Double will result
-    // in a UNF signature *different* from what was produced by the v. 3.* ingest,
-    // from a STATA float value directly. 
-    // TODO: remove this from the final production 4.0!
-    // -- L.A., Jul 2014
-    
-    private void calculateUNF(DataFile dataFile, int varnum, Float[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable" + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
     // This method takes a list of file ids, checks the format type of the ingested 
     // original, and attempts to fix it if it's missing. 
     // Note the @Asynchronous attribute - this allows us to just kick off and run this 
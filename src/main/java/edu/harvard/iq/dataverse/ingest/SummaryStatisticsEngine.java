@@ -0,0 +1,393 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.dataaccess.PrimitiveVector;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnScanner;
+import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import org.dataverse.unf.UNFUtil;
+import org.dataverse.unf.UnfException;
+
+/**
+ * Calculates the summary statistics and the UNF signatures of all the variables
+ * of a freshly ingested tabular file.
+ *
+ * Instead of subsetting the generated tab-delimited file once per variable,
+ * the columns are split into groups whose vectors fit into a memory budget;
+ * the file is read once per group (i.e., just once, for all but the very
+ * largest files), and the groups are processed in parallel. Numeric columns
+ * are extracted into {@link PrimitiveVector}s by a {@link TabularColumnScanner};
+ * the values are interpreted the same way as by the {@link TabularSubsetGenerator}
+ * parsers, so the statistics and UNFs produced are exactly the same.
+ */
+public class SummaryStatisticsEngine {
+
+    private static final Logger logger = Logger.getLogger(SummaryStatisticsEngine.class.getCanonicalName());
+
+    private static final String dateTimeFormat_ymdhmsS = "yyyy-MM-dd HH:mm:ss.SSS";
+    private static final String dateFormat_ymd = "yyyy-MM-dd";
+
+    /*
+     * Rough per-value memory footprint of the extracted vectors: a primitive
+     * (plus a bit in the missing values bitmap), or a reference plus a short String.
+     */
+    private static final long NUMERIC_VALUE_SIZE = 9;
+    private static final long STRING_VALUE_SIZE = 64;
+
+    enum ColumnType {
+        FLOAT, DOUBLE, LONG, STRING
+    }
+
+    /**
+     * What got calculated for a single variable.
+     */
+    public static class ColumnResult {
+        private final int varnum;
+        private final double[] summaryStatistics;
+        private final String unf;
+
+        ColumnResult(int varnum, double[] summaryStatistics, String unf) {
+            this.varnum = varnum;
+            this.summaryStatistics = summaryStatistics;
+            this.unf = unf;
+        }
+
+        public int getVarnum() {
+            return varnum;
+        }
+
+        /**
+         * @return the summary statistics, in {@code VariableServiceBean.summaryStatisticTypes}
+         * order, or {@code null} for character variables.
+         */
+        public double[] getSummaryStatistics() {
+            return summaryStatistics;
+        }
+
+        /**
+         * @return the UNF of the variable, or {@code null} if it could not be calculated.
+         */
+        public String getUnf() {
+            return unf;
+        }
+    }
+
+    private final File tabFile;
+    private final int caseQuantity;
+    private final List<Integer> columns = new ArrayList<>();
+    private final List<ColumnType> columnTypes = new ArrayList<>();
+    private final List<String> formatCategories = new ArrayList<>();
+    private final List<String> formats = new ArrayList<>();
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    public SummaryStatisticsEngine(File tabFile, DataTable dataTable) {
+        this.tabFile = tabFile;
+        this.caseQuantity = dataTable.getCaseQuantity().intValue();
+
+        // Variable metadata is looked up here, on the calling thread, so that
+        // the worker threads never touch the entities:
+        List<DataVariable> vars = dataTable.getDataVariables();
+        for (int i = 0; i < dataTable.getVarQuantity(); i++) {
+            DataVariable var = vars.get(i);
+            ColumnType type = null;
+            if (var.isIntervalContinuous()) {
+                // Calculating UNFs from *floats*, not *doubles* for the variables
+                // stored as floats, for compatibility with the UNFs produced
+                // by the DVN v.3.* ingest. -- L.A., Jul 2014
+                type = "float".equals(var.getFormat()) ? ColumnType.FLOAT : ColumnType.DOUBLE;
+            } else if (var.isIntervalDiscrete() && var.isTypeNumeric()) {
+                type = ColumnType.LONG;
+            } else if (var.isTypeCharacter()) {
+                type = ColumnType.STRING;
+            }
+            if (type != null) {
+                columns.add(i);
+                columnTypes.add(type);
+                formatCategories.add(var.getFormatCategory());
+                formats.add(var.getFormat());
+            }
+        }
+    }
+
+    public SummaryStatisticsEngine setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    public SummaryStatisticsEngine setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Reads the tab file and calculates the statistics and UNFs.
+     *
+     * @return one result per numeric or character variable, in variable order.
+     * A variable whose UNF the UNF library fails to calculate gets a null UNF,
+     * as before; the other variables are not affected.
+     * @throws IOException if the file can't be read, does not match the stored
+     * number of cases, or contains unparseable time values.
+     */
+    public List<ColumnResult> calculate() throws IOException {
+        List<int[]> groups = planGroups();
+        List<ColumnResult> results = new ArrayList<>(columns.size());
+        logger.fine("Calculating statistics for " + columns.size() + " variables in " + groups.size() + " group(s)");
+
+        if (groups.size() == 1 || parallelism == 1) {
+            for (int[] group : groups) {
+                results.addAll(processGroup(group));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, groups.size()));
+            try {
+                List<Future<List<ColumnResult>>> futures = new ArrayList<>();
+                for (int[] group : groups) {
+                    futures.add(executor.submit(() -> processGroup(group)));
+                }
+                for (Future<List<ColumnResult>> future : futures) {
+                    results.addAll(future.get());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while calculating summary statistics", ie);
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof IOException) {
+                    throw (IOException) ee.getCause();
+                }
+                throw new IOException("Failed to calculate summary statistics: " + ee.getCause().getMessage(), ee.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        results.sort(Comparator.comparingInt(ColumnResult::getVarnum));
+        return results;
+    }
+
+    /**
+     * Splits the columns (as indexes into {@link #columns}) into groups, each
+     * of which fits into its share of the memory budget.
+     */
+    List<int[]> planGroups() {
+        long groupBudget = memoryBudget / parallelism;
+        List<int[]> groups = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        long currentSize = 0;
+        for (int c = 0; c < columns.size(); c++) {
+            long columnSize = (long) caseQuantity
+                    * (columnTypes.get(c) == ColumnType.STRING ? STRING_VALUE_SIZE : NUMERIC_VALUE_SIZE);
+            if (!current.isEmpty() && currentSize + columnSize > groupBudget) {
+                groups.add(current.stream().mapToInt(Integer::intValue).toArray());
+                current.clear();
+                currentSize = 0;
+            }
+            current.add(c);
+            currentSize += columnSize;
+        }
+        if (!current.isEmpty()) {
+            groups.add(current.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return groups;
+    }
+
+    private List<ColumnResult> processGroup(int[] group) throws IOException {
+        Object[] vectors = readColumns(group);
+        List<ColumnResult> results = new ArrayList<>(group.length);
+        for (int g = 0; g < group.length; g++) {
+            int c = group[g];
+            results.add(calculateColumn(c, vectors[g]));
+            // let the vector go as soon as we're done with it
+            vectors[g] = null;
+        }
+        return results;
+    }
+
+    /**
+     * Extracts the vectors of all the columns in the group in a single pass
+     * over the tab file.
+     */
+    private Object[] readColumns(int[] group) throws IOException {
+        Object[] vectors = new Object[group.length];
+        int[] fileColumns = new int[group.length];
+        for (int g = 0; g < group.length; g++) {
+            fileColumns[g] = columns.get(group[g]);
+            switch (columnTypes.get(group[g])) {
+                case FLOAT:
+                    vectors[g] = new PrimitiveVector.Floats(caseQuantity);
+                    break;
+                case DOUBLE:
+                    vectors[g] = new PrimitiveVector.Doubles(caseQuantity);
+                    break;
+                case LONG:
+                    vectors[g] = new PrimitiveVector.Longs(caseQuantity);
+                    break;
+                default:
+                    vectors[g] = new String[caseQuantity];
+            }
+        }
+
+        try (TabularColumnScanner scanner = new TabularColumnScanner(new FileInputStream(tabFile), fileColumns)) {
+            for (int caseIndex = 0; caseIndex < caseQuantity; caseIndex++) {
+                TabularSubsetGenerator.nextCase(scanner);
+                for (int g = 0; g < group.length; g++) {
+                    switch (columnTypes.get(group[g])) {
+                        case FLOAT:
+                            scanner.readFloat(g, (PrimitiveVector.Floats) vectors[g], caseIndex);
+                            break;
+                        case DOUBLE:
+                            scanner.readDouble(g, (PrimitiveVector.Doubles) vectors[g], caseIndex);
+                            break;
+                        case LONG:
+                            scanner.readLong(g, (PrimitiveVector.Longs) vectors[g], caseIndex);
+                            break;
+                        default:
+                            ((String[]) vectors[g])[caseIndex] = scanner.getString(g);
+                    }
+                }
+            }
+            TabularSubsetGenerator.checkNoMoreCases(scanner, fileColumns[0], caseQuantity);
+        }
+        return vectors;
+    }
+
+    private ColumnResult calculateColumn(int c, Object vector) throws IOException {
+        int varnum = columns.get(c);
+        double[] sumStats = null;
+        String unf = null;
+        String[] dateFormats = null;
+        if (columnTypes.get(c) == ColumnType.STRING) {
+            // (an unparseable time value fails the ingest, as it always has)
+            dateFormats = dateFormats((String[]) vector, formatCategories.get(c), formats.get(c));
+        }
+        try {
+            if (columnTypes.get(c) == ColumnType.STRING) {
+                String[] strings = (String[]) vector;
+                if (dateFormats == null) {
+                    unf = UNFUtil.calculateUNF(strings);
+                } else {
+                    unf = UNFUtil.calculateUNF(strings, dateFormats);
+                }
+            } else {
+                // (We are discussing calculating the same summary stats for
+                // all numerics (the same kind of sumstats that we've been calculating
+                // for numeric continuous type)  -- L.A. Jul. 2014)
+                PrimitiveVector numbers = (PrimitiveVector) vector;
+                sumStats = SumStatCalculator.calculateSummaryStatistics(numbers);
+                // The UNF library only takes missing values in the form of
+                // nulls in boxed vectors (and boxes primitive vectors
+                // internally anyway) - so this is the one place where a
+                // short-lived boxed copy of the vector is made:
+                unf = UNFUtil.calculateUNF(numbers.toBoxedArray());
+            }
+        } catch (UnfException uex) {
+            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for variable " + varnum);
+        } catch (IOException iex) {
+            // the variable is left without a UNF; the others still get theirs
+            logger.warning("exception thrown when attempted to calculate UNF signature for variable " + varnum);
+        }
+        if (unf == null) {
+            logger.warning("failed to calculate UNF signature for variable " + varnum);
+        }
+        return new ColumnResult(varnum, sumStats, unf);
+    }
+
+    /**
+     * @return the formats of the values of a character variable that encodes
+     * dates or times, for the UNF; null for any other character variable
+     * @throws IOException if a time value matches neither the full nor the
+     * simplified time format
+     */
+    private static String[] dateFormats(String[] dataVector, String formatCategory, String savedFormat) throws IOException {
+        String[] dateFormats = null;
+
+        // Special handling for Character strings that encode dates and times:
+        if ("time".equals(formatCategory)) {
+            dateFormats = new String[dataVector.length];
+            String timeFormat = null;
+            if (savedFormat != null && !savedFormat.equals("")) {
+                timeFormat = savedFormat;
+            } else {
+                timeFormat = dateTimeFormat_ymdhmsS;
+            }
+
+            /* What follows is special handling of a special case of time values
+             * non-uniform precision; specifically, when some have if some have
+             * milliseconds, and some don't. (and that in turn is only
+             * n issue when the timezone is present... without the timezone
+             * the time string would still evaluate to the end, even if the
+             * format has the .SSS part and the string does not.
+             * This case will be properly handled internally, once we permanently
+             * switch to UNF6.
+             * -- L.A. 4.0 beta 8
+             */
+            String simplifiedFormat = null;
+            SimpleDateFormat fullFormatParser = null;
+            SimpleDateFormat simplifiedFormatParser = null;
+
+            if (timeFormat.matches(".*\\.SSS z$")) {
+                simplifiedFormat = timeFormat.replace(".SSS", "");
+
+                fullFormatParser = new SimpleDateFormat(timeFormat);
+                simplifiedFormatParser = new SimpleDateFormat(simplifiedFormat);
+            }
+
+            for (int i = 0; i < dataVector.length; i++) {
+                if (dataVector[i] != null) {
+
+                    if (simplifiedFormatParser != null) {
+                        // first, try to parse the value against the "full"
+                        // format (with the milliseconds part):
+                        fullFormatParser.setLenient(false);
+
+                        try {
+                            logger.fine("trying the \"full\" time format, with milliseconds: " + timeFormat + ", " + dataVector[i]);
+                            fullFormatParser.parse(dataVector[i]);
+                        } catch (ParseException ex) {
+                            // try the simplified (no time zone) format instead:
+                            logger.fine("trying the simplified format: " + simplifiedFormat + ", " + dataVector[i]);
+                            simplifiedFormatParser.setLenient(false);
+                            try {
+                                simplifiedFormatParser.parse(dataVector[i]);
+                                timeFormat = simplifiedFormat;
+                            } catch (ParseException ex1) {
+                                logger.warning("no parseable format found for time value " + i + " - " + dataVector[i]);
+                                throw new IOException("no parseable format found for time value " + i + " - " + dataVector[i]);
+                            }
+                        }
+
+                    }
+                    dateFormats[i] = timeFormat;
+                }
+            }
+        } else if ("date".equals(formatCategory)) {
+            dateFormats = new String[dataVector.length];
+            for (int i = 0; i < dataVector.length; i++) {
+                if (dataVector[i] != null) {
+                    if (savedFormat != null && !savedFormat.equals("")) {
+                        dateFormats[i] = savedFormat;
+                    } else {
+                        dateFormats[i] = dateFormat_ymd;
+                    }
+                }
+            }
+        }
+
+        return dateFormats;
+    }
+}
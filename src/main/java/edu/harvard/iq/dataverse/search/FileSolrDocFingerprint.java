@@ -0,0 +1,133 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Fingerprints of the Solr document of a file, stored in the document itself,
+ * so that reindexing a dataset only sends the documents of the files that
+ * changed. A file document has two: one of the fields that come from the file
+ * and its metadata, {@link SearchFields#FILE_FINGERPRINT}; and one of the
+ * fields it shares with the other files of the dataset version (the title,
+ * citation and so on of the dataset), {@link SearchFields#DATASET_FIELDS_FINGERPRINT}.
+ * When only the latter changes, the shared fields are updated in place (an
+ * atomic update) instead of the document being rebuilt.
+ */
+final class FileSolrDocFingerprint {
+
+    /**
+     * The fields of a file document that have the same values for all the
+     * files of a dataset version.
+     */
+    static final Set<String> DATASET_FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            SearchFields.DATAVERSE_VERSION_INDEXED_BY,
+            SearchFields.PERSISTENT_URL,
+            SearchFields.CATEGORY_OF_DATAVERSE,
+            SearchFields.DATASET_VERSION_ID,
+            SearchFields.PUBLICATION_STATUS,
+            SearchFields.PUBLICATION_YEAR,
+            SearchFields.DATASET_PUBLICATION_DATE,
+            SearchFields.SUBTREE,
+            SearchFields.PARENT_IDENTIFIER,
+            SearchFields.PARENT_CITATION,
+            SearchFields.PARENT_NAME)));
+
+    private static final Set<String> NOT_FINGERPRINTED = new LinkedHashSet<>(Arrays.asList(
+            SearchFields.FILE_FINGERPRINT,
+            SearchFields.DATASET_FIELDS_FINGERPRINT,
+            SearchFields.FULL_TEXT));
+
+    /**
+     * What has to be sent to Solr for a file document.
+     */
+    enum Change {
+        NONE, DATASET_FIELDS, ALL
+    }
+
+    private FileSolrDocFingerprint() {
+    }
+
+    /**
+     * @param extra anything else the document depends on that isn't in its
+     * fields (yet), such as whether the full text of the file is indexed
+     * @return the fingerprint of the fields that come from the file
+     */
+    static String ofFileFields(SolrInputDocument doc, Object... extra) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : new TreeSet<>(doc.getFieldNames())) {
+            if (!DATASET_FIELDS.contains(field) && !NOT_FINGERPRINTED.contains(field)) {
+                append(sb, field, doc.getFieldValues(field));
+            }
+        }
+        append(sb, "", Arrays.asList(extra));
+        return DigestUtils.sha1Hex(sb.toString());
+    }
+
+    /**
+     * @return the fingerprint of the fields shared with the other files of
+     * the dataset version
+     */
+    static String ofDatasetFields(SolrInputDocument doc) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : DATASET_FIELDS) {
+            append(sb, field, doc.getFieldValues(field));
+        }
+        return DigestUtils.sha1Hex(sb.toString());
+    }
+
+    private static void append(StringBuilder sb, String field, Collection<Object> values) {
+        if (values == null) {
+            return;
+        }
+        sb.append(field).append('\u0001');
+        for (Object value : values) {
+            sb.append(value instanceof Date ? ((Date) value).getTime() : value).append('\u0002');
+        }
+        sb.append('\u0000');
+    }
+
+    /**
+     * @param indexed the document as it is in the index, with its
+     * fingerprints; or null if there is none
+     */
+    static Change compare(SolrDocument indexed, String fileFingerprint, String datasetFingerprint) {
+        if (indexed == null || !fileFingerprint.equals(indexed.getFieldValue(SearchFields.FILE_FINGERPRINT))) {
+            return Change.ALL;
+        }
+        if (!datasetFingerprint.equals(indexed.getFieldValue(SearchFields.DATASET_FIELDS_FINGERPRINT))) {
+            return Change.DATASET_FIELDS;
+        }
+        return Change.NONE;
+    }
+
+    /**
+     * @return an atomic update that sets the fields shared with the other
+     * files of the dataset version to their values in the document, and only
+     * applies if the document exists
+     */
+    static SolrInputDocument datasetFieldsUpdate(SolrInputDocument doc, String datasetFingerprint) {
+        SolrInputDocument update = new SolrInputDocument();
+        update.addField(SearchFields.ID, doc.getFieldValue(SearchFields.ID));
+        for (String field : DATASET_FIELDS) {
+            Collection<Object> values = doc.getFieldValues(field);
+            Object value = null;
+            if (values != null) {
+                value = values.size() == 1 ? values.iterator().next() : new ArrayList<>(values);
+            }
+            update.addField(field, Collections.singletonMap("set", value));
+        }
+        update.addField(SearchFields.DATASET_FIELDS_FINGERPRINT, Collections.singletonMap("set", datasetFingerprint));
+        // ("1" means: fail if there is no document to update)
+        update.addField(SolrUpdateBatcher.VERSION_FIELD, 1L);
+        return update;
+    }
+}
@@ -2,42 +2,61 @@ package edu.harvard.iq.dataverse.search;
 
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.RoleAssignment;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.logging.Level;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
-import javax.ejb.Asynchronous;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
+/**
+ * Has the permissions of the definition points of changed role assignments
+ * reindexed, by the {@link PermissionIndexQueue}, once the transaction that
+ * changed them is committed (and not at all if it's rolled back) - so the
+ * reindexing sees the changes without having to wait for them.
+ */
 @Stateless
 public class IndexAsync {
 
     private static final Logger logger = Logger.getLogger(IndexAsync.class.getCanonicalName());
 
     @EJB
-    SolrIndexServiceBean solrIndexService;
+    PermissionIndexQueue permissionIndexQueue;
+
+    @Resource
+    TransactionSynchronizationRegistry txRegistry;
 
-    @Asynchronous
     public void indexRole(RoleAssignment roleAssignment) {
-        try {
-            Thread.sleep(1000); //we wait to ensure a nested native query are up to date
-        } catch (InterruptedException ex) {
-            Logger.getLogger(IndexAsync.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        IndexResponse indexResponse = solrIndexService.indexPermissionsOnSelfAndChildren(roleAssignment.getDefinitionPoint());
-        logger.fine("output from indexing operations: " + indexResponse);
+        indexRoles(Collections.singleton(roleAssignment.getDefinitionPoint()));
     }
-    
-    @Asynchronous 
+
     public void indexRoles(Collection<DvObject> dvObjects) {
-        try {
-            Thread.sleep(1000); //we wait to ensure a nested native query are up to date
-        } catch (InterruptedException ex) {
-            Logger.getLogger(IndexAsync.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        List<Long> definitionPointIds = new ArrayList<>();
         for (DvObject dvObject : dvObjects) {
-            IndexResponse indexResponse = solrIndexService.indexPermissionsOnSelfAndChildren(dvObject);
-            logger.fine("output from permission indexing operations (dvobject " + dvObject.getId() + ": " + indexResponse);
+            definitionPointIds.add(dvObject.getId());
+        }
+        if (txRegistry != null && txRegistry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        permissionIndexQueue.request(definitionPointIds);
+                    } else {
+                        logger.fine(() -> "Not reindexing the permissions of " + definitionPointIds + ": the transaction was rolled back");
+                    }
+                }
+            });
+        } else {
+            permissionIndexQueue.request(definitionPointIds);
         }
     }
 
@@ -11,13 +11,20 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -48,6 +55,10 @@ public class IndexBatchServiceBean {
     DvObjectServiceBean dvObjectService;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    IndexRunServiceBean indexRunService;
+    @Resource
+    SessionContext sessionContext;
     
     @Asynchronous
     public Future<JsonObjectBuilder> indexStatus() {
@@ -73,7 +84,8 @@ public class IndexBatchServiceBean {
                 .add("contentInDatabaseButStaleInOrMissingFromIndex", contentInDatabaseButStaleInOrMissingFromSolr)
                 .add("contentInIndexButNotDatabase", contentInSolrButNotDatabase)
                 .add("permissionsInDatabaseButStaleInOrMissingFromIndex", permissionsInDatabaseButStaleInOrMissingFromSolr)
-                .add("permissionsInIndexButNotDatabase", permissionsInSolrButNotDatabase);
+                .add("permissionsInIndexButNotDatabase", permissionsInSolrButNotDatabase)
+                .add("indexRuns", indexRunService.getRecentRuns(10));
 
         logger.log(Level.INFO, "contentInDatabaseButStaleInOrMissingFromIndex: {0}", contentInDatabaseButStaleInOrMissingFromSolr);
         logger.log(Level.INFO, "contentInIndexButNotDatabase: {0}", contentInSolrButNotDatabase);
@@ -110,6 +122,7 @@ public class IndexBatchServiceBean {
 
     
     @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public Future<JsonObjectBuilder> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, boolean previewOnly) {
         JsonObjectBuilder response = Json.createObjectBuilder();
         indexAllOrSubset(numPartitions, partitionId, skipIndexed);
@@ -122,16 +135,17 @@ public class IndexBatchServiceBean {
         JsonObjectBuilder response = Json.createObjectBuilder();
         JsonObjectBuilder previewOfWorkload = Json.createObjectBuilder();
         JsonObjectBuilder dvContainerIds = Json.createObjectBuilder();
-        
-        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
+
+        Long interruptedRunId = skipIndexed ? indexRunService.findInterruptedRun(numPartitions, partitionId) : null;
+        Timestamp indexedBefore = interruptedRunId != null ? indexRunService.getIndexedBefore(interruptedRunId) : null;
+        List<Long> dataverseIds = findDataverseIdsToIndex(partitionId, skipIndexed, indexedBefore);
         
         JsonArrayBuilder dataverseIdsJson = Json.createArrayBuilder();
-        //List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
         for (Long id : dataverseIds) {
             dataverseIdsJson.add(id);
         }
         
-        List<Long> datasetIds = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
+        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(numPartitions, partitionId, skipIndexed, indexedBefore);
 
         JsonArrayBuilder datasetIdsJson = Json.createArrayBuilder();
         for (Long id : datasetIds) {
@@ -143,10 +157,21 @@ public class IndexBatchServiceBean {
         previewOfWorkload.add("dataverseCount", dataverseIds.size());
         previewOfWorkload.add("datasetCount", datasetIds.size());
         previewOfWorkload.add("partitionId", partitionId);
+        if (interruptedRunId != null) {
+            previewOfWorkload.add("resumesIndexRun", interruptedRunId);
+        }
         response.add("previewOfPartitionWorkload", previewOfWorkload);
         return response;
     }
 
+    /**
+     * Indexes the dataverses and datasets of a partition (all of them, with
+     * numPartitions=1), with dataverse.index.parallelism workers. The progress
+     * and failures of the run are recorded in the database, and reported by
+     * indexStatus. If skipIndexed is set ("continue") and the last run of the
+     * same partition was interrupted, picks up where that one stopped.
+     * Dataverses are indexed with partition 0.
+     */
     public Future<String> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed) {
         long indexAllTimeBegin = System.currentTimeMillis();
         String status;
@@ -179,55 +204,121 @@ public class IndexBatchServiceBean {
             resultOfClearingIndexTimes = "Solr index was not cleared before indexing.";
         }
 
-        // List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        // Note: no support for "partitions" in this experimental branch. 
-        // The method below returns the ids of all the unindexed dataverses.
-        List<Long> dataverseIds = dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
-        
-        int dataverseIndexCount = 0;
-        int dataverseFailureCount = 0;
-        //for (Dataverse dataverse : dataverses) {
-        for (Long id : dataverseIds) {
-            try {
-                dataverseIndexCount++;
-                Dataverse dataverse = dataverseService.find(id);
-                logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ", persistentId=" + dataverse.getAlias() + ")");
-                Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
-                dataverse = null;
-            } catch (Exception e) {
-                //We want to keep running even after an exception so throw some more info into the log
-                dataverseFailureCount++;
-                logger.info("FAILURE indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
+        // A full reindex redoes what was indexed before it started; if it's
+        // interrupted, "continue" does the same, for what is left.
+        Long interruptedRunId = null;
+        Timestamp indexedBefore = null;
+        if (!skipIndexed) {
+            indexedBefore = new Timestamp(indexAllTimeBegin);
+        } else {
+            interruptedRunId = indexRunService.findInterruptedRun(numPartitions, partitionId);
+            if (interruptedRunId != null) {
+                indexedBefore = indexRunService.getIndexedBefore(interruptedRunId);
+                logger.info("continuing interrupted index run " + interruptedRunId);
             }
         }
+        List<Long> dataverseIds = findDataverseIdsToIndex(partitionId, skipIndexed, indexedBefore);
+        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(numPartitions, partitionId, skipIndexed, indexedBefore);
 
-        int datasetIndexCount = 0;
-        int datasetFailureCount = 0;
-        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(skipIndexed);
-        for (Long id : datasetIds) {
-            try {
-                datasetIndexCount++;
-                logger.info("indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ")");
-                Future<String> result = indexService.indexDatasetInNewTransaction(id);
-            } catch (Exception e) {
-                //We want to keep running even after an exception so throw some more info into the log
-                datasetFailureCount++;
-                logger.info("FAILURE indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
+        int parallelism = getIndexParallelism();
+        IndexWorkload workload = new IndexWorkload(dataverseIds, datasetIds, parallelism);
+        long runId = indexRunService.start(numPartitions, partitionId, skipIndexed, indexedBefore, workload.getWorkers(), workload.getTotal(), interruptedRunId);
+        logger.info("index run " + runId + ": indexing " + dataverseIds.size() + " dataverses and " + datasetIds.size() + " datasets of partition "
+                + partitionId + " of " + numPartitions + " with " + workload.getWorkers() + " workers");
+
+        IndexBatchServiceBean self = sessionContext.getBusinessObject(IndexBatchServiceBean.class);
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < workload.getWorkers(); i++) {
+            workers.add(self.indexWorker(runId, workload, i));
+        }
+        for (Future<Void> worker : workers) {
+            boolean done = false;
+            while (!done) {
+                try {
+                    worker.get(IndexRunServiceBean.PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    done = true;
+                } catch (TimeoutException ex) {
+                    indexRunService.updateProgress(runId, workload.getIndexed(), workload.getFailed());
+                } catch (ExecutionException ex) {
+                    logger.log(Level.WARNING, "index run " + runId + ": worker failed", ex.getCause());
+                    done = true;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return new AsyncResult<>("index run " + runId + " interrupted");
+                }
             }
         }
-        logger.info("done iterating through all datasets");
+        indexRunService.finish(runId, workload.getIndexed(), workload.getFailed());
 
         long indexAllTimeEnd = System.currentTimeMillis();
         String timeElapsed = "index all took " + (indexAllTimeEnd - indexAllTimeBegin) + " milliseconds";
         logger.info(timeElapsed);
-        if (datasetFailureCount + dataverseFailureCount > 0){
-            String failureMessage = "There were index failures. " + dataverseFailureCount + " dataverse(s) and " + datasetFailureCount + " dataset(s) failed to index. Please check the log for more information.";
-            logger.info(failureMessage);            
+        if (workload.getFailed() > 0) {
+            String failureMessage = "There were index failures. " + workload.getFailed() + " dataverse(s) and dataset(s) failed to index. "
+                    + "See the failures of index run " + runId + " in the index status (api/admin/index/status?sync=true).";
+            logger.info(failureMessage);
         }
-        status = dataverseIndexCount + " dataverses and " + datasetIndexCount + " datasets indexed. " + timeElapsed + ". " + resultOfClearingIndexTimes + "\n";
+        status = workload.getIndexed() + " dataverses and datasets indexed by index run " + runId + " (" + workload.getStolen() + " taken over by another worker). "
+                + timeElapsed + ". " + resultOfClearingIndexTimes + "\n";
         logger.info(status);
         return new AsyncResult<>(status);
     }
+
+    /**
+     * Indexes the objects of the workload, taking them from the queue of this
+     * worker, then from the queues of the others, until none are left. Runs
+     * outside of a transaction: each object is indexed in its own.
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Future<Void> indexWorker(long runId, IndexWorkload workload, int worker) {
+        IndexWorkload.Task task;
+        while ((task = workload.next(worker)) != null) {
+            try {
+                if (task.isDataverse()) {
+                    logger.fine("index run " + runId + ": indexing dataverse " + task.getId());
+                    indexService.indexDataverseInNewTransaction(task.getId());
+                } else {
+                    logger.fine("index run " + runId + ": indexing dataset " + task.getId());
+                    indexService.indexDatasetInNewTransaction(task.getId());
+                }
+                workload.indexed();
+            } catch (Exception e) {
+                //We want to keep running even after an exception; the failure is recorded with the run
+                workload.failed();
+                Throwable cause = e;
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                try {
+                    indexRunService.addFailure(runId, task.getId(), task.isDataverse() ? "Dataverse" : "Dataset", e + (cause != e ? " caused by " + cause : ""));
+                } catch (Exception ex) {
+                    logger.info("FAILURE indexing " + (task.isDataverse() ? "dataverse " : "dataset ") + task.getId() + " (could not be recorded: " + ex + "): " + e);
+                }
+            }
+        }
+        return new AsyncResult<>(null);
+    }
+
+    private List<Long> findDataverseIdsToIndex(long partitionId, boolean skipIndexed, Timestamp indexedBefore) {
+        // (there are few, so they all go with the first partition)
+        if (partitionId != 0) {
+            return new ArrayList<>();
+        }
+        return dataverseService.findDataverseIdsForIndexing(skipIndexed, indexedBefore);
+    }
+
+    private static int getIndexParallelism() {
+        String parallelism = System.getProperty("dataverse.index.parallelism");
+        if (parallelism != null) {
+            try {
+                return Math.max(1, Integer.parseInt(parallelism));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of dataverse.index.parallelism: " + parallelism);
+            }
+        }
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
+    }
         
     @Asynchronous
     public void indexDataverseRecursively(Dataverse dataverse) {
@@ -0,0 +1,134 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Indexes the dataverses and datasets requested through
+ * {@link IndexServiceBean#queueIndexing}. The requests are stored in the
+ * database (see {@link IndexQueueServiceBean}), with the changes they are
+ * about, so none are lost when the application stops; and the requests for
+ * the same object collapse into one. An object is indexed once it hasn't
+ * been requested again for {@code dataverse.index.queue.delay} milliseconds
+ * (so that e.g. an edit followed by a publication is indexed once), or
+ * {@code dataverse.index.queue.max-delay} milliseconds after the first
+ * request. Every node of a cluster works on the queue; an object is only
+ * indexed by one of them at a time.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupFlywayMigrator")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class IndexQueue {
+
+    private static final Logger logger = Logger.getLogger(IndexQueue.class.getCanonicalName());
+
+    static final long DEFAULT_DELAY_MILLIS = 1000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    static final long POLL_INTERVAL_MILLIS = 1000;
+    static final int CLAIM_SIZE = 50;
+
+    @EJB
+    IndexQueueServiceBean indexQueueService;
+
+    @EJB
+    IndexServiceBean indexService;
+
+    @Resource
+    TimerService timerService;
+
+    long delayMillis = DEFAULT_DELAY_MILLIS;
+    long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        delayMillis = getOption("dataverse.index.queue.delay", DEFAULT_DELAY_MILLIS);
+        maxDelayMillis = Math.max(delayMillis, getOption("dataverse.index.queue.max-delay", DEFAULT_MAX_DELAY_MILLIS));
+        timerService.createIntervalTimer(POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, new TimerConfig("IndexQueue", false));
+    }
+
+    static long getOption(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    @Timeout
+    void drain() {
+        // (the next tick finds the queue being drained already)
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<long[]> claimed;
+            do {
+                claimed = indexQueueService.claim(CLAIM_SIZE, delayMillis, maxDelayMillis);
+                for (long[] request : claimed) {
+                    index(request[0], request[1]);
+                }
+            } while (claimed.size() == CLAIM_SIZE);
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Could not go through the index queue", ex);
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    private void index(long dvObjectId, long requestCount) {
+        long start = System.currentTimeMillis();
+        try {
+            indexService.indexDvObjectInNewTransaction(dvObjectId);
+        } catch (Exception ex) {
+            failed.incrementAndGet();
+            logger.log(Level.FINE, "Failed to index dvobject " + dvObjectId, ex);
+            Throwable cause = ex;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            indexQueueService.fail(dvObjectId, ex + (cause != ex ? " caused by " + cause : ""));
+            return;
+        }
+        indexed.incrementAndGet();
+        totalMillis.addAndGet(System.currentTimeMillis() - start);
+        indexQueueService.complete(dvObjectId, requestCount);
+    }
+
+    public JsonObjectBuilder getStatus() {
+        long count = indexed.get();
+        return indexQueueService.getStatus()
+                .add("indexedByThisNode", count)
+                .add("failedOnThisNode", failed.get())
+                .add("averageMillis", count == 0 ? 0 : totalMillis.get() / count)
+                .add("delayMillis", delayMillis)
+                .add("maxDelayMillis", maxDelayMillis);
+    }
+}
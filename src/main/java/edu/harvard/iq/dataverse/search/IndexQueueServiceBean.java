@@ -0,0 +1,134 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Named;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Access to the {@code indexqueue} table: the dataverses and datasets waiting
+ * to be indexed by {@link IndexQueue}. An object has at most one row, however
+ * many times it is requested; a request made while the object is being
+ * indexed keeps the row, so the object is indexed again once that's done.
+ */
+@Stateless
+@Named
+public class IndexQueueServiceBean {
+
+    private static final Logger logger = Logger.getLogger(IndexQueueServiceBean.class.getCanonicalName());
+
+    static final long CLAIM_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    /**
+     * Asks for the objects to be indexed. Part of the caller's transaction:
+     * the request only counts if the changes to index are committed.
+     *
+     * @param dvObjectIds ids of dataverses or datasets
+     */
+    public void enqueue(Collection<Long> dvObjectIds) {
+        for (Long id : dvObjectIds) {
+            em.createNativeQuery("INSERT INTO indexqueue (dvobject_id, firstrequesttime, requesttime) VALUES (?1, clock_timestamp(), clock_timestamp()) "
+                    + "ON CONFLICT (dvobject_id) DO UPDATE SET requestcount = indexqueue.requestcount + 1, requesttime = clock_timestamp()")
+                    .setParameter(1, id)
+                    .executeUpdate();
+        }
+        logger.fine(() -> "Queued for indexing: " + dvObjectIds);
+    }
+
+    /**
+     * Takes the objects that are due to be indexed: those not requested again
+     * for delayMillis, or first requested maxDelayMillis ago; and not being
+     * indexed (by this node or another) already.
+     *
+     * @return the ids of the objects, and their request counts, to pass to
+     * {@link #complete(long, long)}
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<long[]> claim(int max, long delayMillis, long maxDelayMillis) {
+        List<Object[]> rows = em.createNativeQuery("UPDATE indexqueue SET claimtime = clock_timestamp() WHERE dvobject_id IN ("
+                + "SELECT dvobject_id FROM indexqueue "
+                + "WHERE (claimtime IS NULL OR claimtime < clock_timestamp() - ?1 * INTERVAL '1 millisecond') "
+                + "AND (notbefore IS NULL OR notbefore < clock_timestamp()) "
+                + "AND (requesttime < clock_timestamp() - ?2 * INTERVAL '1 millisecond' OR firstrequesttime < clock_timestamp() - ?3 * INTERVAL '1 millisecond') "
+                + "ORDER BY firstrequesttime LIMIT ?4 FOR UPDATE SKIP LOCKED) "
+                + "RETURNING dvobject_id, requestcount")
+                .setParameter(1, CLAIM_TIMEOUT_MILLIS)
+                .setParameter(2, delayMillis)
+                .setParameter(3, maxDelayMillis)
+                .setParameter(4, max)
+                .getResultList();
+        List<long[]> claimed = new ArrayList<>();
+        for (Object[] row : rows) {
+            claimed.add(new long[]{((Number) row[0]).longValue(), ((Number) row[1]).longValue()});
+        }
+        return claimed;
+    }
+
+    /**
+     * Removes the request for an object that has been indexed - unless it was
+     * requested again in the meantime, in which case it's released, to be
+     * indexed once more.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void complete(long dvObjectId, long requestCount) {
+        int deleted = em.createNativeQuery("DELETE FROM indexqueue WHERE dvobject_id = ?1 AND requestcount = ?2")
+                .setParameter(1, dvObjectId)
+                .setParameter(2, requestCount)
+                .executeUpdate();
+        if (deleted == 0) {
+            em.createNativeQuery("UPDATE indexqueue SET claimtime = NULL, attempts = 0, notbefore = NULL, lasterror = NULL WHERE dvobject_id = ?1")
+                    .setParameter(1, dvObjectId)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Releases the request for an object that could not be indexed, to be
+     * retried after a delay that doubles with every attempt (from a minute,
+     * up to an hour).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void fail(long dvObjectId, String error) {
+        em.createNativeQuery("UPDATE indexqueue SET claimtime = NULL, attempts = attempts + 1, lasterror = ?1, "
+                + "notbefore = clock_timestamp() + LEAST(?2, 60000 * POWER(2, LEAST(attempts, 10))) * INTERVAL '1 millisecond' "
+                + "WHERE dvobject_id = ?3")
+                .setParameter(1, error)
+                .setParameter(2, MAX_RETRY_DELAY_MILLIS)
+                .setParameter(3, dvObjectId)
+                .executeUpdate();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        Object[] counts = (Object[]) em.createNativeQuery("SELECT COUNT(*), COUNT(claimtime), COUNT(lasterror), COALESCE(SUM(requestcount - 1), 0), "
+                + "COALESCE(EXTRACT(EPOCH FROM clock_timestamp() - MIN(firstrequesttime)), 0) FROM indexqueue")
+                .getSingleResult();
+        JsonObjectBuilder status = Json.createObjectBuilder()
+                .add("pending", ((Number) counts[0]).longValue())
+                .add("inProgress", ((Number) counts[1]).longValue())
+                .add("failing", ((Number) counts[2]).longValue())
+                .add("coalescedRequests", ((Number) counts[3]).longValue())
+                .add("oldestRequestSeconds", Math.round(((Number) counts[4]).doubleValue()));
+        List<Object[]> failing = em.createNativeQuery("SELECT dvobject_id, attempts, lasterror FROM indexqueue WHERE lasterror IS NOT NULL ORDER BY dvobject_id LIMIT 100")
+                .getResultList();
+        if (!failing.isEmpty()) {
+            JsonObjectBuilder errors = Json.createObjectBuilder();
+            for (Object[] row : failing) {
+                errors.add(row[0].toString(), "attempt " + row[1] + ": " + row[2]);
+            }
+            status.add("failures", errors);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,207 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.util.json.JsonPrinter;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Named;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Access to the {@code indexrun} and {@code indexrunfailure} tables, which
+ * record the progress of "index all" runs (see
+ * {@link IndexBatchServiceBean#indexAllOrSubset(long, long, boolean)}) and the
+ * objects they failed to index. Every method commits on its own, so the
+ * progress is visible - and survives - while the run goes on.
+ *
+ * A run whose progress hasn't been updated for {@link #STALE_AFTER_MILLIS}
+ * was interrupted (the application was stopped); "continue" picks it up.
+ */
+@Stateless
+@Named
+@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+public class IndexRunServiceBean {
+
+    private static final Logger logger = Logger.getLogger(IndexRunServiceBean.class.getCanonicalName());
+
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_INTERRUPTED = "interrupted";
+    public static final String STATUS_FINISHED = "finished";
+    public static final String STATUS_RESUMED = "resumed";
+
+    static final long PROGRESS_INTERVAL_MILLIS = 10000;
+    static final long STALE_AFTER_MILLIS = 5 * 60 * 1000;
+    static final int MAX_FAILURES_LISTED = 100;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    /**
+     * Records the start of a run.
+     *
+     * @param indexedBefore the objects indexed before this time (or never) are
+     * the ones the run indexes; a run that reindexes everything passes its
+     * start time, so that it can be resumed.
+     * @param resumedRunId the interrupted run this one continues, or null
+     * @return the id of the run
+     */
+    public long start(long numPartitions, long partitionId, boolean skipIndexed, Timestamp indexedBefore, int parallelism, long total, Long resumedRunId) {
+        if (resumedRunId != null) {
+            em.createNativeQuery("UPDATE indexrun SET status = ?1, endtime = now() WHERE id = ?2")
+                    .setParameter(1, STATUS_RESUMED)
+                    .setParameter(2, resumedRunId)
+                    .executeUpdate();
+        }
+        Number id = (Number) em.createNativeQuery("INSERT INTO indexrun (status, numpartitions, partitionid, skipindexed, indexedbefore, parallelism, starttime, lastupdate, total) "
+                + "VALUES (?1, ?2, ?3, ?4, ?5, ?6, now(), now(), ?7) RETURNING id")
+                .setParameter(1, STATUS_RUNNING)
+                .setParameter(2, numPartitions)
+                .setParameter(3, partitionId)
+                .setParameter(4, skipIndexed)
+                .setParameter(5, indexedBefore)
+                .setParameter(6, parallelism)
+                .setParameter(7, total)
+                .getSingleResult();
+        return id.longValue();
+    }
+
+    public void updateProgress(long runId, long indexed, long failed) {
+        em.createNativeQuery("UPDATE indexrun SET indexed = ?1, failed = ?2, lastupdate = now() WHERE id = ?3")
+                .setParameter(1, indexed)
+                .setParameter(2, failed)
+                .setParameter(3, runId)
+                .executeUpdate();
+    }
+
+    public void finish(long runId, long indexed, long failed) {
+        em.createNativeQuery("UPDATE indexrun SET status = ?1, indexed = ?2, failed = ?3, lastupdate = now(), endtime = now() WHERE id = ?4")
+                .setParameter(1, STATUS_FINISHED)
+                .setParameter(2, indexed)
+                .setParameter(3, failed)
+                .setParameter(4, runId)
+                .executeUpdate();
+    }
+
+    public void addFailure(long runId, long dvObjectId, String dtype, String message) {
+        em.createNativeQuery("INSERT INTO indexrunfailure (indexrun_id, dvobject_id, dtype, message, failuretime) VALUES (?1, ?2, ?3, ?4, now())")
+                .setParameter(1, runId)
+                .setParameter(2, dvObjectId)
+                .setParameter(3, dtype)
+                .setParameter(4, message)
+                .executeUpdate();
+        logger.fine(() -> "Failed to index " + dtype + " " + dvObjectId + " in index run " + runId + ": " + message);
+    }
+
+    /**
+     * @return the id of the latest run of the partition, if it was interrupted;
+     * or null.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public Long findInterruptedRun(long numPartitions, long partitionId) {
+        List<?> res = em.createNativeQuery("SELECT id FROM indexrun WHERE numpartitions = ?1 AND partitionid = ?2 AND status = ?3 "
+                + "AND lastupdate < ?4 ORDER BY id DESC LIMIT 1")
+                .setParameter(1, numPartitions)
+                .setParameter(2, partitionId)
+                .setParameter(3, STATUS_RUNNING)
+                .setParameter(4, new Timestamp(System.currentTimeMillis() - STALE_AFTER_MILLIS))
+                .getResultList();
+        if (res.isEmpty()) {
+            return null;
+        }
+        return ((Number) res.get(0)).longValue();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public Timestamp getIndexedBefore(long runId) {
+        List<?> res = em.createNativeQuery("SELECT indexedbefore FROM indexrun WHERE id = ?1")
+                .setParameter(1, runId)
+                .getResultList();
+        return res.isEmpty() ? null : (Timestamp) res.get(0);
+    }
+
+    /**
+     * @param limit the number of runs
+     * @return the latest runs, with their throughput, the time they should
+     * take to finish (while running), and the objects they failed to index
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public JsonArrayBuilder getRecentRuns(int limit) {
+        List<Object[]> runs = em.createNativeQuery("SELECT id, status, numpartitions, partitionid, skipindexed, indexedbefore, parallelism, "
+                + "starttime, lastupdate, endtime, total, indexed, failed FROM indexrun ORDER BY id DESC LIMIT ?1")
+                .setParameter(1, limit)
+                .getResultList();
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        long staleBefore = System.currentTimeMillis() - STALE_AFTER_MILLIS;
+        for (Object[] run : runs) {
+            long id = ((Number) run[0]).longValue();
+            String status = (String) run[1];
+            Timestamp start = (Timestamp) run[7];
+            Timestamp lastUpdate = (Timestamp) run[8];
+            Timestamp end = (Timestamp) run[9];
+            long total = ((Number) run[10]).longValue();
+            long indexed = ((Number) run[11]).longValue();
+            long failed = ((Number) run[12]).longValue();
+            if (STATUS_RUNNING.equals(status) && lastUpdate.getTime() < staleBefore) {
+                status = STATUS_INTERRUPTED;
+            }
+            JsonObjectBuilder json = Json.createObjectBuilder()
+                    .add("id", id)
+                    .add("status", status)
+                    .add("numPartitions", ((Number) run[2]).longValue())
+                    .add("partitionId", ((Number) run[3]).longValue())
+                    .add("skipIndexed", (Boolean) run[4])
+                    .add("parallelism", ((Number) run[6]).intValue())
+                    .add("startTime", JsonPrinter.format(start))
+                    .add("lastUpdate", JsonPrinter.format(lastUpdate))
+                    .add("total", total)
+                    .add("indexed", indexed)
+                    .add("failed", failed);
+            if (run[5] != null) {
+                json.add("indexedBefore", JsonPrinter.format((Timestamp) run[5]));
+            }
+            if (end != null) {
+                json.add("endTime", JsonPrinter.format(end));
+            }
+            double seconds = ((end != null ? end : lastUpdate).getTime() - start.getTime()) / 1000.0;
+            if (seconds > 0) {
+                double perSecond = (indexed + failed) / seconds;
+                json.add("objectsPerSecond", Math.round(perSecond * 100) / 100.0);
+                if (STATUS_RUNNING.equals(status) && perSecond > 0) {
+                    json.add("etaSeconds", Math.round((total - indexed - failed) / perSecond));
+                }
+            }
+            if (failed > 0) {
+                json.add("failures", getFailures(id));
+            }
+            result.add(json);
+        }
+        return result;
+    }
+
+    private JsonArrayBuilder getFailures(long runId) {
+        List<Object[]> failures = em.createNativeQuery("SELECT dvobject_id, dtype, message, failuretime FROM indexrunfailure "
+                + "WHERE indexrun_id = ?1 ORDER BY id LIMIT ?2")
+                .setParameter(1, runId)
+                .setParameter(2, MAX_FAILURES_LISTED)
+                .getResultList();
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        for (Object[] failure : failures) {
+            JsonObjectBuilder json = Json.createObjectBuilder()
+                    .add("id", ((Number) failure[0]).longValue())
+                    .add("type", failure[1] == null ? "" : (String) failure[1])
+                    .add("time", JsonPrinter.format((Timestamp) failure[3]));
+            if (failure[2] != null) {
+                json.add("message", (String) failure[2]);
+            }
+            result.add(json);
+        }
+        return result;
+    }
+}
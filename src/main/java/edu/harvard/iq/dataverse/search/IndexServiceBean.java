@@ -42,10 +42,12 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -57,7 +59,6 @@ import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.ejb.AsyncResult;
-import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
@@ -74,7 +75,6 @@ import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
@@ -122,6 +122,10 @@ public class IndexServiceBean {
     @EJB
     SolrClientService solrClientService;
     @EJB
+    SolrUpdateBatcher solrUpdateBatcher;
+    @EJB
+    IndexQueueServiceBean indexQueueService;
+    @EJB
     DataFileServiceBean dataFileService;
 
     @EJB
@@ -179,7 +183,13 @@ public class IndexServiceBean {
     public Future<String> indexDataverseInNewTransaction(Dataverse dataverse) throws SolrServerException, IOException{
         return indexDataverse(dataverse, false);
     }
-    
+
+    @TransactionAttribute(REQUIRES_NEW)
+    public Future<String> indexDataverseInNewTransaction(Long dataverseId) throws SolrServerException, IOException {
+        Dataverse dataverse = em.find(Dataverse.class, dataverseId);
+        return indexDataverse(dataverse, false);
+    }
+
     public Future<String> indexDataverse(Dataverse dataverse) throws SolrServerException, IOException {
        return  indexDataverse(dataverse, true);
     }
@@ -301,7 +311,7 @@ public class IndexServiceBean {
         String status;
         try {
             if (dataverse.getId() != null) {
-                solrClientService.getSolrClient().add(docs);
+                solrUpdateBatcher.add(docs);
             } else {
                 logger.info("WARNING: indexing of a dataverse with no id attempted");
             }
@@ -310,13 +320,6 @@ public class IndexServiceBean {
             logger.info(status);
             return new AsyncResult<>(status);
         }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
-            logger.info(status);
-            return new AsyncResult<>(status);
-        }
 
         dvObjectService.updateContentIndexTime(dataverse);
         IndexResponse indexResponse = solrIndexService.indexPermissionsForOneDvObject(dataverse);
@@ -344,16 +347,61 @@ public class IndexServiceBean {
         return ret;
     }
 
-    @Asynchronous
+    /**
+     * Same as {@link #queueIndexing(DvObject)}.
+     */
     public Future<String> asyncIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
-        return indexDataset(dataset, doNormalSolrDocCleanUp);
+        queueIndexing(dataset);
+        return new AsyncResult<>("queued dataset " + dataset.getId() + " for indexing");
     }
     
-    @Asynchronous
+    /**
+     * Same as {@link #queueIndexing(Collection)}.
+     */
     public void asyncIndexDatasetList(List<Dataset> datasets, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
-        for(Dataset dataset : datasets) {
-            indexDataset(dataset, true);
+        queueIndexing(datasets);
+    }
+
+    /**
+     * Has the dataverse or dataset (the dataset of a file) indexed soon, by
+     * {@link IndexQueue}, once the current transaction commits. Requests made
+     * for the same object before it's indexed count as one.
+     */
+    public void queueIndexing(DvObject dvObject) {
+        queueIndexing(Collections.singletonList(dvObject));
+    }
+
+    public void queueIndexing(Collection<? extends DvObject> dvObjects) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (DvObject dvObject : dvObjects) {
+            if (dvObject.isInstanceofDataFile()) {
+                dvObject = dvObject.getOwner();
+            }
+            if (dvObject != null && dvObject.getId() != null) {
+                ids.add(dvObject.getId());
+            }
+        }
+        indexQueueService.enqueue(ids);
+    }
+
+    /**
+     * Indexes a dataverse, or a dataset with all its files, as requested
+     * through {@link #queueIndexing(DvObject)}.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public Future<String> indexDvObjectInNewTransaction(Long dvObjectId) throws SolrServerException, IOException {
+        DvObject dvObject = em.find(DvObject.class, dvObjectId);
+        if (dvObject == null) {
+            // (deleted since; and removed from the index then)
+            return new AsyncResult<>("dvobject " + dvObjectId + " not found");
+        }
+        if (dvObject.isInstanceofDataFile()) {
+            dvObject = dvObject.getOwner();
+        }
+        if (dvObject.isInstanceofDataset()) {
+            return indexDataset((Dataset) dvObject, true);
         }
+        return indexDataverse((Dataverse) dvObject);
     }
     
     public Future<String> indexDvObject(DvObject objectIn) throws  SolrServerException, IOException {
@@ -447,6 +495,9 @@ public class IndexServiceBean {
             debug.append("- files: " + numFiles + " " + fileInfo.toString() + "\n");
         }
         debug.append("numPublishedVersions: " + numPublishedVersions + "\n");
+        // (the documents of the files in the released version and the draft
+        // are only replaced, or deleted, if they changed: see addOrUpdateDataset)
+        solrIdsOfFilesToDelete.removeAll(findFileSolrDocIdsToReindex(dataset));
         if (doNormalSolrDocCleanUp) {
             IndexResponse resultOfAttemptToPremptivelyDeletePublishedFiles = solrIndexService.deleteMultipleSolrIds(solrIdsOfFilesToDelete);
             debug.append("result of attempt to premptively deleted published files before reindexing: " + resultOfAttemptToPremptivelyDeletePublishedFiles + "\n");
@@ -948,8 +999,15 @@ public class IndexServiceBean {
         long maxSize = maxFTIndexingSize != null ? maxFTIndexingSize.longValue() : Long.MAX_VALUE;
 
         List<String> filesIndexed = new ArrayList<>();
+        List<String> filesUpdated = new ArrayList<>();
+        int filesUnchanged = 0;
+        // (what's left in here once the files are indexed is out of date)
+        Map<String, SolrDocument> indexedFileDocs = new HashMap<>();
         if (datasetVersion != null) {
             List<FileMetadata> fileMetadatas = datasetVersion.getFileMetadatas();
+            if (indexableDataset.isFilesShouldBeIndexed()) {
+                indexedFileDocs = findIndexedFileDocs(fileMetadatas, state);
+            }
             List<FileMetadata> releasedFileMetadatas = new ArrayList<>();
             Map<Long, FileMetadata> fileMap = new HashMap<>();
             boolean checkForDuplicateMetadata = false;
@@ -1006,55 +1064,6 @@ public class IndexServiceBean {
                         datafileSolrInputDocument.addField(SearchFields.EMBARGO_END_DATE, end.toEpochDay()); 
                     }
                     
-                    /* Full-text indexing using Apache Tika */
-                    if (doFullTextIndexing) {
-                        if (!dataset.isHarvested() && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage()) {
-                            StorageIO<DataFile> accessObject = null;
-                            InputStream instream = null;
-                            ContentHandler textHandler = null;
-                            try {
-                                accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
-                                        new DataAccessRequest());
-                                if (accessObject != null) {
-                                    accessObject.open();
-                                    // If the size is >max, we don't use the stream. However, for S3, the stream is
-                                    // currently opened in the call above (see
-                                    // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
-                                    // we can close it below.
-                                    instream = accessObject.getInputStream();
-                                    if (accessObject.getSize() <= maxSize) {
-                                        AutoDetectParser autoParser = new AutoDetectParser();
-                                        textHandler = new BodyContentHandler(-1);
-                                        Metadata metadata = new Metadata();
-                                        ParseContext context = new ParseContext();
-                                        /*
-                                         * Try parsing the file. Note that, other than by limiting size, there's been no
-                                         * check see whether this file is a good candidate for text extraction (e.g.
-                                         * based on type).
-                                         */
-                                        autoParser.parse(instream, textHandler, metadata, context);
-                                        datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
-                                                textHandler.toString());
-                                    }
-                                }
-                            } catch (Exception e) {
-                                // Needs better logging of what went wrong in order to
-                                // track down "bad" documents.
-                                logger.warning(String.format("Full-text indexing for %s failed",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                                e.printStackTrace();
-                                continue;
-                            } catch (OutOfMemoryError e) {
-                                textHandler = null;
-                                logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                                continue;
-                            } finally {
-                                IOUtils.closeQuietly(instream);
-                            }
-                        }
-                    }
-
                     String filenameCompleteFinal = "";
                     if (fileMetadata != null) {
                         String filenameComplete = fileMetadata.getLabel();
@@ -1270,8 +1279,73 @@ public class IndexServiceBean {
                     }
 
                     if (indexableDataset.isFilesShouldBeIndexed()) {
-                        filesIndexed.add(fileSolrDocId);
-                        docs.add(datafileSolrInputDocument);
+                        boolean fullTextIndexed = doFullTextIndexing && !dataset.isHarvested()
+                                && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage();
+                        String fileFingerprint = FileSolrDocFingerprint.ofFileFields(datafileSolrInputDocument, fullTextIndexed, fullTextIndexed ? maxSize : null);
+                        String datasetFieldsFingerprint = FileSolrDocFingerprint.ofDatasetFields(datafileSolrInputDocument);
+                        FileSolrDocFingerprint.Change change = FileSolrDocFingerprint.compare(indexedFileDocs.get(fileSolrDocId), fileFingerprint, datasetFieldsFingerprint);
+                        if (change == FileSolrDocFingerprint.Change.DATASET_FIELDS && fullTextIndexed) {
+                            // (the full text isn't stored, so an atomic update would lose it)
+                            change = FileSolrDocFingerprint.Change.ALL;
+                        }
+                        if (change == FileSolrDocFingerprint.Change.NONE) {
+                            filesUnchanged++;
+                        } else if (change == FileSolrDocFingerprint.Change.DATASET_FIELDS) {
+                            filesUpdated.add(fileSolrDocId);
+                            docs.add(FileSolrDocFingerprint.datasetFieldsUpdate(datafileSolrInputDocument, datasetFieldsFingerprint));
+                        } else {
+                            /* Full-text indexing using Apache Tika */
+                            if (fullTextIndexed) {
+                                StorageIO<DataFile> accessObject = null;
+                                InputStream instream = null;
+                                ContentHandler textHandler = null;
+                                try {
+                                    accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
+                                            new DataAccessRequest());
+                                    if (accessObject != null) {
+                                        accessObject.open();
+                                        // If the size is >max, we don't use the stream. However, for S3, the stream is
+                                        // currently opened in the call above (see
+                                        // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
+                                        // we can close it below.
+                                        instream = accessObject.getInputStream();
+                                        if (accessObject.getSize() <= maxSize) {
+                                            AutoDetectParser autoParser = new AutoDetectParser();
+                                            textHandler = new BodyContentHandler(-1);
+                                            Metadata metadata = new Metadata();
+                                            ParseContext context = new ParseContext();
+                                            /*
+                                             * Try parsing the file. Note that, other than by limiting size, there's been no
+                                             * check see whether this file is a good candidate for text extraction (e.g.
+                                             * based on type).
+                                             */
+                                            autoParser.parse(instream, textHandler, metadata, context);
+                                            datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
+                                                    textHandler.toString());
+                                        }
+                                    }
+                                } catch (Exception e) {
+                                    // Needs better logging of what went wrong in order to
+                                    // track down "bad" documents.
+                                    logger.warning(String.format("Full-text indexing for %s failed",
+                                            fileMetadata.getDataFile().getDisplayName()));
+                                    e.printStackTrace();
+                                    continue;
+                                } catch (OutOfMemoryError e) {
+                                    textHandler = null;
+                                    logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
+                                            fileMetadata.getDataFile().getDisplayName()));
+                                    continue;
+                                } finally {
+                                    IOUtils.closeQuietly(instream);
+                                }
+                            }
+                            datafileSolrInputDocument.addField(SearchFields.FILE_FINGERPRINT, fileFingerprint);
+                            datafileSolrInputDocument.addField(SearchFields.DATASET_FIELDS_FINGERPRINT, datasetFieldsFingerprint);
+                            filesIndexed.add(fileSolrDocId);
+                            docs.add(datafileSolrInputDocument);
+                        }
+                        indexedFileDocs.remove(fileSolrDocId);
                     }
                 }
             }
@@ -1281,8 +1355,8 @@ public class IndexServiceBean {
         }
 
         try {
-            solrClientService.getSolrClient().add(docs);
-            solrClientService.getSolrClient().commit();
+            solrUpdateBatcher.add(docs);
+            solrUpdateBatcher.deleteById(new ArrayList<>(indexedFileDocs.keySet()));
         } catch (SolrServerException | IOException ex) {
             if (ex.getCause() instanceof SolrServerException) {
                 throw new SolrServerException(ex);
@@ -1302,7 +1376,54 @@ public class IndexServiceBean {
         dvObjectToModify = em.merge(dvObjectToModify);
         dvObjectToModify = null;
 
-        return "indexed dataset " + dsId + " as " + datasetSolrDocId + ". filesIndexed: " + filesIndexed;
+        return "indexed dataset " + dsId + " as " + datasetSolrDocId + ". filesIndexed: " + filesIndexed
+                + " filesUpdated: " + filesUpdated + " filesUnchanged: " + filesUnchanged + " filesDeleted: " + indexedFileDocs.keySet();
+    }
+
+    private static String getFileSolrDocId(FileMetadata fileMetadata, IndexableDataset.DatasetState state) {
+        String fileSolrDocId = solrDocIdentifierFile + fileMetadata.getDataFile().getId();
+        if (state.equals(IndexableDataset.DatasetState.WORKING_COPY)) {
+            fileSolrDocId += state.getSuffix();
+        }
+        return fileSolrDocId;
+    }
+
+    /**
+     * @return the ids of the Solr documents of the files of the released
+     * version and the draft, which addOrUpdateDataset replaces if they changed
+     */
+    private Set<String> findFileSolrDocIdsToReindex(Dataset dataset) {
+        Set<String> ids = new HashSet<>();
+        DatasetVersion releasedVersion = dataset.getReleasedVersion();
+        if (releasedVersion != null) {
+            for (FileMetadata fileMetadata : releasedVersion.getFileMetadatas()) {
+                ids.add(getFileSolrDocId(fileMetadata, IndexableDataset.DatasetState.PUBLISHED));
+            }
+        }
+        DatasetVersion latestVersion = dataset.getLatestVersion();
+        if (latestVersion.isWorkingCopy()) {
+            for (FileMetadata fileMetadata : latestVersion.getFileMetadatas()) {
+                ids.add(getFileSolrDocId(fileMetadata, IndexableDataset.DatasetState.WORKING_COPY));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the Solr documents of the files, with their fingerprints, that
+     * are in the index (or about to be)
+     */
+    private Map<String, SolrDocument> findIndexedFileDocs(List<FileMetadata> fileMetadatas, IndexableDataset.DatasetState state) {
+        List<String> ids = new ArrayList<>();
+        for (FileMetadata fileMetadata : fileMetadatas) {
+            ids.add(getFileSolrDocId(fileMetadata, state));
+        }
+        try {
+            return solrUpdateBatcher.getLatest(ids, SearchFields.FILE_FINGERPRINT, SearchFields.DATASET_FIELDS_FINGERPRINT);
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            logger.fine("could not look up the indexed files, indexing all of them: " + ex);
+            return new HashMap<>();
+        }
     }
 
     /**
@@ -1495,6 +1616,8 @@ public class IndexServiceBean {
         SolrQuery solrQuery = new SolrQuery();
         solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, object.getId().toString()));
 
+        // (the documents are read back from Solr, so they must be there)
+        solrUpdateBatcher.flushAndCommit();
         QueryResponse res = solrClientService.getSolrClient().query(solrQuery);
         
         if (!res.getResults().isEmpty()) {            
@@ -1510,8 +1633,7 @@ public class IndexServiceBean {
 
             sid.removeField(SearchFields.SUBTREE);
             sid.addField(SearchFields.SUBTREE, paths);
-            UpdateResponse addResponse = solrClientService.getSolrClient().add(sid);
-            UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
+            solrUpdateBatcher.add(sid);
             if (object.isInstanceofDataset()) {
                 for (DataFile df : datasetService.find(object.getId()).getFiles()) {
                     solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, df.getId().toString()));
@@ -1524,8 +1646,7 @@ public class IndexServiceBean {
                         }
                         sid.removeField(SearchFields.SUBTREE);
                         sid.addField(SearchFields.SUBTREE, paths);
-                        addResponse = solrClientService.getSolrClient().add(sid);
-                        commitResponse = solrClientService.getSolrClient().commit();
+                        solrUpdateBatcher.add(sid);
                     }
                 }
             }
@@ -1560,18 +1681,12 @@ public class IndexServiceBean {
 
     public String delete(Dataverse doomed) {
         logger.fine("deleting Solr document for dataverse " + doomed.getId());
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(solrDocIdentifierDataverse + doomed.getId());
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
         try {
-            solrClientService.getSolrClient().commit();
+            solrUpdateBatcher.deleteById(solrDocIdentifierDataverse + doomed.getId());
         } catch (SolrServerException | IOException ex) {
             return ex.toString();
         }
-        String response = "Successfully deleted dataverse " + doomed.getId() + " from Solr index. updateReponse was: " + updateResponse.toString();
+        String response = "Successfully deleted dataverse " + doomed.getId() + " from Solr index.";
         logger.fine(response);
         return response;
     }
@@ -1585,18 +1700,12 @@ public class IndexServiceBean {
     public String removeSolrDocFromIndex(String doomed) {
 
         logger.fine("deleting Solr document: " + doomed);
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(doomed);
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
         try {
-            solrClientService.getSolrClient().commit();
+            solrUpdateBatcher.deleteById(doomed);
         } catch (SolrServerException | IOException ex) {
             return ex.toString();
         }
-        String response = "Attempted to delete " + doomed + " from Solr index. updateReponse was: " + updateResponse.toString();
+        String response = "Attempted to delete " + doomed + " from Solr index.";
         logger.fine(response);
         return response;
     }
@@ -1860,6 +1969,8 @@ public class IndexServiceBean {
         List<String> dvObjectInSolrOnly = new ArrayList<>();
         QueryResponse queryResponse = null;
         try {
+            // (the queued documents of the files must be searchable too)
+            solrUpdateBatcher.flushAndCommit();
             queryResponse = solrClientService.getSolrClient().query(solrQuery);
         } catch (SolrServerException | IOException ex) {
             throw new SearchException("Error searching Solr for dataset parent id " + parentDatasetId, ex);
@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The dataverses and datasets of one "index all" run, shared by the workers
+ * indexing them (see {@link IndexBatchServiceBean#indexWorker}). The ids are
+ * dealt out to the workers in turns, in the order given (datasets with the
+ * fewest files first); each worker takes from the front of its own queue,
+ * and, once that's empty, from the back of the longest queue of the others -
+ * so the workers stuck with the biggest datasets don't hold up the end of the
+ * run.
+ */
+public class IndexWorkload {
+
+    public static class Task {
+        private final long id;
+        private final boolean dataverse;
+
+        Task(long id, boolean dataverse) {
+            this.id = id;
+            this.dataverse = dataverse;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public boolean isDataverse() {
+            return dataverse;
+        }
+    }
+
+    private final BlockingDeque<Task>[] queues;
+    private final long total;
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong stolen = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public IndexWorkload(List<Long> dataverseIds, List<Long> datasetIds, int workers) {
+        queues = new BlockingDeque[Math.max(1, workers)];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new LinkedBlockingDeque<>();
+        }
+        int next = 0;
+        for (Long id : dataverseIds) {
+            queues[next++ % queues.length].add(new Task(id, true));
+        }
+        for (Long id : datasetIds) {
+            queues[next++ % queues.length].add(new Task(id, false));
+        }
+        total = dataverseIds.size() + datasetIds.size();
+    }
+
+    public int getWorkers() {
+        return queues.length;
+    }
+
+    /**
+     * @param worker the number of the worker, from 0
+     * @return the next object for the worker to index, or null when there are
+     * none left
+     */
+    public Task next(int worker) {
+        Task task = queues[worker].pollFirst();
+        while (task == null) {
+            BlockingDeque<Task> longest = null;
+            for (BlockingDeque<Task> queue : queues) {
+                if (longest == null || queue.size() > longest.size()) {
+                    longest = queue;
+                }
+            }
+            if (longest.isEmpty()) {
+                return null;
+            }
+            task = longest.pollLast();
+            if (task != null) {
+                stolen.incrementAndGet();
+            }
+        }
+        return task;
+    }
+
+    public void indexed() {
+        indexed.incrementAndGet();
+    }
+
+    public void failed() {
+        failed.incrementAndGet();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return how many objects were taken from the queue of another worker
+     */
+    public long getStolen() {
+        return stolen.get();
+    }
+}
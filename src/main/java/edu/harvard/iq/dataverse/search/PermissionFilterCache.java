@@ -0,0 +1,65 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.util.function.Supplier;
+
+/**
+ * The groups part of the permission filter query of searches (see
+ * {@link SearchServiceBean}), by user and IP address - the inputs of the
+ * group memberships of a request. Working the memberships out takes a few
+ * queries, and is the same for every page, facet click, etc. of a user's
+ * searches. An entry is dropped once it's older than the time to live, or
+ * when groups have changed (the version of the
+ * {@link edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean#CACHE_NAME}
+ * cache moved), so a change of memberships that isn't recorded as a change of
+ * groups (the email address of a user, say) shows after at most the time to
+ * live.
+ */
+class PermissionFilterCache {
+
+    static final long DEFAULT_TTL_SECONDS = 60;
+    static final long DEFAULT_MAX_SIZE = 10000;
+
+    private final LruCache<String, Entry> cache = new LruCache<>();
+    private final long ttlMillis;
+
+    private static class Entry {
+
+        final String value;
+        final long groupsVersion;
+        final long expires;
+
+        Entry(String value, long groupsVersion, long expires) {
+            this.value = value;
+            this.groupsVersion = groupsVersion;
+            this.expires = expires;
+        }
+    }
+
+    PermissionFilterCache(long ttlMillis, long maxSize) {
+        this.ttlMillis = ttlMillis;
+        cache.setMaxSize(maxSize);
+    }
+
+    /**
+     * @param key see {@link #key(String, Object)}
+     * @param groupsVersion the current version of the groups
+     * @param compute works the value out, if there's no valid one
+     * @return the value for the key
+     */
+    String get(String key, long groupsVersion, long now, Supplier<String> compute) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.groupsVersion == groupsVersion && entry.expires > now) {
+            return entry.value;
+        }
+        String value = compute.get();
+        if (ttlMillis > 0) {
+            cache.put(key, new Entry(value, groupsVersion, now + ttlMillis));
+        }
+        return value;
+    }
+
+    static String key(String userIdentifier, Object sourceAddress) {
+        return userIdentifier + "@" + sourceAddress;
+    }
+}
@@ -0,0 +1,197 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Reindexes the permissions of the definition points of changed role
+ * assignments (see {@link IndexAsync}), once the changes are committed. The
+ * requests for the same definition point collapse into one, carried out once
+ * it hasn't been requested again for
+ * {@code dataverse.index.permissions.delay} milliseconds, or
+ * {@code dataverse.index.permissions.max-delay} milliseconds after the first
+ * request; and a definition point whose permissions are reindexed along with
+ * those of its dataverse or dataset is skipped. The reindexing is done by one
+ * timer thread, one definition point after the other, so a bulk change of role
+ * assignments doesn't tie up the threads of the EJB container.
+ *
+ * Unlike the {@link IndexQueue}, the requests are only kept in memory: those
+ * pending when the application stops are lost.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class PermissionIndexQueue {
+
+    private static final Logger logger = Logger.getLogger(PermissionIndexQueue.class.getCanonicalName());
+
+    static final long DEFAULT_DELAY_MILLIS = 500;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    static final long POLL_INTERVAL_MILLIS = 250;
+
+    @EJB
+    SolrIndexServiceBean solrIndexService;
+
+    @EJB
+    DvObjectServiceBean dvObjectService;
+
+    @Resource
+    TimerService timerService;
+
+    long delayMillis = DEFAULT_DELAY_MILLIS;
+    long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    /**
+     * The time of the first and of the last request, by definition point id.
+     */
+    private final Map<Long, long[]> pending = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong reindexed = new AtomicLong();
+    private final AtomicLong covered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        delayMillis = IndexQueue.getOption("dataverse.index.permissions.delay", DEFAULT_DELAY_MILLIS);
+        maxDelayMillis = Math.max(delayMillis, IndexQueue.getOption("dataverse.index.permissions.max-delay", DEFAULT_MAX_DELAY_MILLIS));
+        timerService.createIntervalTimer(POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, new TimerConfig("PermissionIndexQueue", false));
+    }
+
+    /**
+     * Asks for the permissions of the definition points, and of their
+     * children, to be reindexed. To be called once the changes are committed.
+     */
+    public void request(Collection<Long> definitionPointIds) {
+        long now = System.currentTimeMillis();
+        for (Long id : definitionPointIds) {
+            requested.incrementAndGet();
+            pending.merge(id, new long[]{now, now}, (times, newTimes) -> new long[]{times[0], now});
+        }
+        logger.fine(() -> "Queued for permission indexing: " + definitionPointIds);
+    }
+
+    @Timeout
+    void drain() {
+        if (pending.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Long> ids = takeDue(System.currentTimeMillis());
+            if (ids.isEmpty()) {
+                return;
+            }
+            List<DvObject> definitionPoints = new ArrayList<>();
+            for (Long id : ids) {
+                DvObject definitionPoint = dvObjectService.findDvObject(id);
+                // (null if it was deleted in the meantime)
+                if (definitionPoint != null) {
+                    definitionPoints.add(definitionPoint);
+                }
+            }
+            List<DvObject> toReindex = removeCovered(definitionPoints);
+            covered.addAndGet(definitionPoints.size() - toReindex.size());
+            for (DvObject definitionPoint : toReindex) {
+                reindex(definitionPoint);
+            }
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Could not go through the permission index queue", ex);
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    /**
+     * @return the ids of the definition points that are due, which are no
+     * longer pending (unless requested again in the meantime)
+     */
+    List<Long> takeDue(long now) {
+        List<Long> due = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : pending.entrySet()) {
+            long[] times = entry.getValue();
+            if ((times[1] <= now - delayMillis || times[0] <= now - maxDelayMillis) && pending.remove(entry.getKey(), times)) {
+                due.add(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    private void reindex(DvObject definitionPoint) {
+        long start = System.currentTimeMillis();
+        try {
+            IndexResponse indexResponse = solrIndexService.indexPermissionsOnSelfAndChildren(definitionPoint);
+            logger.fine(() -> "output from permission indexing operations (dvobject " + definitionPoint.getId() + "): " + indexResponse);
+        } catch (RuntimeException ex) {
+            failed.incrementAndGet();
+            logger.log(Level.WARNING, "Could not index the permissions of dvobject " + definitionPoint.getId(), ex);
+            return;
+        }
+        reindexed.incrementAndGet();
+        totalMillis.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Leaves out the definition points whose permissions are reindexed with
+     * those of another one: reindexing a dataverse covers its datasets and
+     * their files, and reindexing a dataset covers its files.
+     */
+    static List<DvObject> removeCovered(Collection<DvObject> definitionPoints) {
+        Set<Long> ids = new HashSet<>();
+        for (DvObject definitionPoint : definitionPoints) {
+            ids.add(definitionPoint.getId());
+        }
+        List<DvObject> notCovered = new ArrayList<>();
+        for (DvObject definitionPoint : definitionPoints) {
+            DvObject owner = definitionPoint.isInstanceofDataverse() ? null : definitionPoint.getOwner();
+            boolean isCovered = owner != null && ids.contains(owner.getId());
+            if (!isCovered && owner != null && definitionPoint.isInstanceofDataFile()) {
+                isCovered = owner.getOwner() != null && ids.contains(owner.getOwner().getId());
+            }
+            if (!isCovered) {
+                notCovered.add(definitionPoint);
+            }
+        }
+        return notCovered;
+    }
+
+    public JsonObjectBuilder getStatus() {
+        long count = reindexed.get();
+        return Json.createObjectBuilder()
+                .add("pending", pending.size())
+                .add("requested", requested.get())
+                .add("reindexed", count)
+                .add("coveredByOthers", covered.get())
+                .add("failed", failed.get())
+                .add("averageMillis", count == 0 ? 0 : totalMillis.get() / count)
+                .add("delayMillis", delayMillis)
+                .add("maxDelayMillis", maxDelayMillis);
+    }
+}
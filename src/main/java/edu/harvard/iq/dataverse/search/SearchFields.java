@@ -183,6 +183,12 @@ public class SearchFields {
      * Internal boolean indicating that the file has been deleted in the draft version.
      */
     public static final String FILE_DELETED = "fileDeleted";
+    /**
+     * Internal fingerprints of the fields of a file document, to skip
+     * reindexing the files that haven't changed. See FileSolrDocFingerprint.
+     */
+    public static final String FILE_FINGERPRINT = "fileFingerprint";
+    public static final String DATASET_FIELDS_FINGERPRINT = "datasetFieldsFingerprint";
     /*
      * (tabular) Data Tags are indexed as a string, since we are only planning to
      * use these in facet-like, exact searches:
@@ -12,6 +12,7 @@ import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseFacet;
 import edu.harvard.iq.dataverse.DataversePage;
+import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DataverseSession;
 import edu.harvard.iq.dataverse.DvObject;
@@ -21,6 +22,7 @@ import edu.harvard.iq.dataverse.PermissionsWrapper;
 import edu.harvard.iq.dataverse.SettingsWrapper;
 import edu.harvard.iq.dataverse.ThumbnailServiceWrapper;
 import edu.harvard.iq.dataverse.WidgetWrapper;
+import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import java.time.LocalDate;
@@ -28,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -67,6 +70,8 @@ public class SearchIncludeFragment implements java.io.Serializable {
     @Inject
     DataverseSession session;
     @Inject
+    DataverseRequestServiceBean dvRequestService;
+    @Inject
     SettingsWrapper settingsWrapper;
     @Inject
     PermissionsWrapper permissionsWrapper;
@@ -406,6 +411,10 @@ public class SearchIncludeFragment implements java.io.Serializable {
              * solrSearchResult.setCitation method but only the dataset card in
              * the UI (currently) shows this "citation" field.
              */
+            // (the cards of each type are filled in with one lookup for the page)
+            List<SolrSearchResult> dataverseResults = new ArrayList<>();
+            List<SolrSearchResult> datasetResults = new ArrayList<>();
+            List<SolrSearchResult> fileResults = new ArrayList<>();
             for (SolrSearchResult solrSearchResult : searchResults) {
                 if (solrSearchResult.getEntityId() == null) {
                     // avoiding EJBException a la https://redmine.hmdc.harvard.edu/issues/3809
@@ -418,7 +427,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
                 // (we'll review this later!)
                 
                 if (solrSearchResult.getType().equals("dataverses")) {
-                    dataverseService.populateDvSearchCard(solrSearchResult);
+                    dataverseResults.add(solrSearchResult);
                     
                     /*
                     Dataverses cannot be harvested yet.
@@ -427,7 +436,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
                     }*/
 
                 } else if (solrSearchResult.getType().equals("datasets")) {
-                    datasetVersionService.populateDatasetSearchCard(solrSearchResult);
+                    datasetResults.add(solrSearchResult);
 
                     // @todo - the 3 lines below, should they be moved inside
                     // searchServiceBean.search()?
@@ -437,13 +446,16 @@ public class SearchIncludeFragment implements java.io.Serializable {
                     }
                     
                 } else if (solrSearchResult.getType().equals("files")) {
-                    dataFileService.populateFileSearchCard(solrSearchResult);
+                    fileResults.add(solrSearchResult);
 
                     /**
                      * @todo: show DataTable variables
                      */
                 }
             }
+            dataverseService.populateDvSearchCards(dataverseResults);
+            datasetVersionService.populateDatasetSearchCards(datasetResults);
+            dataFileService.populateFileSearchCards(fileResults);
 
             // populate preview counts: https://redmine.hmdc.harvard.edu/issues/3560
             previewCountbyType.put(BundleUtil.getStringFromBundle("dataverses"), 0L);
@@ -1275,6 +1287,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
     public void setDisplayCardValues() {
 
         Set<Long> harvestedDatasetIds = null;
+        List<DvObject> datasetsWithExternalStatus = new ArrayList<>();
         for (SolrSearchResult result : searchResultsList) {
             //logger.info("checking DisplayImage for the search result " + i++);
             if (result.getType().equals("dataverses")) {
@@ -1289,6 +1302,9 @@ public class SearchIncludeFragment implements java.io.Serializable {
             } else if (result.getType().equals("datasets")) {
                 if (result.getEntity() != null) {
                     result.setImageUrl(thumbnailServiceWrapper.getDatasetCardImageAsBase64Url(result));
+                    if (result.getExternalStatus() != null && !result.getExternalStatus().isEmpty()) {
+                        datasetsWithExternalStatus.add(result.getEntity());
+                    }
                 }
                 
                 if (result.isHarvested()) {
@@ -1309,6 +1325,13 @@ public class SearchIncludeFragment implements java.io.Serializable {
         }
         
         thumbnailServiceWrapper.resetObjectMaps();
+
+        // The cards of datasets with an external status check whether they
+        // can be published (see canPublishDataset): have the permissions
+        // over all of them worked out at once, and kept for the request.
+        if (!datasetsWithExternalStatus.isEmpty()) {
+            permissionService.hasPermissionsForEach(dvRequestService.getDataverseRequest(), datasetsWithExternalStatus, EnumSet.of(Permission.PublishDataset));
+        }
         
         // Now, make another pass, and add the remote archive descriptions to the 
         // harvested dataset and datafile cards (at the expense of one extra 
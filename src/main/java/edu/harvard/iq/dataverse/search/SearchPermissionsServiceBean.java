@@ -10,6 +10,7 @@ import edu.harvard.iq.dataverse.PermissionServiceBean;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.RoleAssignment;
 import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
+import edu.harvard.iq.dataverse.authorization.DataverseRole;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
 import edu.harvard.iq.dataverse.authorization.groups.Group;
@@ -17,7 +18,10 @@ import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -100,6 +104,57 @@ public class SearchPermissionsServiceBean {
         return permStrings;
     }
 
+    /**
+     * The permission strings the datasets in {@code owner} inherit: those of
+     * the role assignments on the owner and its ancestors (up to the
+     * permission root) that allow seeing unpublished datasets. Together with
+     * {@link #findDirectDatasetPerms(Collection)}, this gives the same
+     * strings as {@link #findDvObjectPerms(DvObject)} for each dataset, with
+     * a couple of queries for all of them.
+     */
+    public List<String> findInheritedDatasetPerms(DvObject owner) {
+        Set<String> permStrings = new LinkedHashSet<>();
+        resetRoleAssigneeCache();
+        for (RoleAssignment roleAssignment : rolesSvc.rolesAssignments(owner)) {
+            if (roleAssignment.getRole().permissions().contains(Permission.ViewUnpublishedDataset)) {
+                String indexableUserOrGroupPermissionString = getIndexableStringForUserOrGroup(getRoleAssignee(roleAssignment.getAssigneeIdentifier()));
+                if (indexableUserOrGroupPermissionString != null) {
+                    permStrings.add(indexableUserOrGroupPermissionString);
+                }
+            }
+        }
+        resetRoleAssigneeCache();
+        return new ArrayList<>(permStrings);
+    }
+
+    /**
+     * The permission strings of the role assignments directly on the datasets
+     * that allow seeing them unpublished. The datasets are not loaded.
+     *
+     * @return the strings, by dataset id (datasets without any are left out)
+     */
+    public Map<Long, List<String>> findDirectDatasetPerms(Collection<Long> datasetIds) {
+        Map<Long, List<String>> permStrings = new HashMap<>();
+        Map<Long, Boolean> rolesAllowingSearch = new HashMap<>();
+        resetRoleAssigneeCache();
+        for (Object[] roleAssignment : rolesSvc.directRoleAssignmentIds(datasetIds)) {
+            Long datasetId = ((Number) roleAssignment[0]).longValue();
+            Long roleId = ((Number) roleAssignment[2]).longValue();
+            boolean allowsSearch = rolesAllowingSearch.computeIfAbsent(roleId, id -> {
+                DataverseRole role = rolesSvc.find(id);
+                return role != null && role.permissions().contains(Permission.ViewUnpublishedDataset);
+            });
+            if (allowsSearch) {
+                String indexableUserOrGroupPermissionString = getIndexableStringForUserOrGroup(getRoleAssignee((String) roleAssignment[1]));
+                if (indexableUserOrGroupPermissionString != null) {
+                    permStrings.computeIfAbsent(datasetId, id -> new ArrayList<>()).add(indexableUserOrGroupPermissionString);
+                }
+            }
+        }
+        resetRoleAssigneeCache();
+        return permStrings;
+    }
+
     private void resetRoleAssigneeCache() {
         roleAssigneeCache.clear();
     }
@@ -172,17 +227,13 @@ public class SearchPermissionsServiceBean {
     }
 
     public Map<DatasetVersion.VersionState, Boolean> getDesiredCards(Dataset dataset) {
-        Map<DatasetVersion.VersionState, Boolean> desiredCards = new LinkedHashMap<>();
         DatasetVersion latestVersion = dataset.getLatestVersion();
-        DatasetVersion.VersionState latestVersionState = latestVersion.getVersionState();
         DatasetVersion releasedVersion = dataset.getReleasedVersion();
-        boolean atLeastOnePublishedVersion = false;
-        if (releasedVersion != null) {
-            atLeastOnePublishedVersion = true;
-        } else {
-            atLeastOnePublishedVersion = false;
-        }
+        return getDesiredCards(latestVersion.getVersionState(), releasedVersion != null);
+    }
 
+    public Map<DatasetVersion.VersionState, Boolean> getDesiredCards(DatasetVersion.VersionState latestVersionState, boolean atLeastOnePublishedVersion) {
+        Map<DatasetVersion.VersionState, Boolean> desiredCards = new LinkedHashMap<>();
         if (atLeastOnePublishedVersion == false) {
             if (latestVersionState.equals(DatasetVersion.VersionState.DRAFT)) {
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, true);
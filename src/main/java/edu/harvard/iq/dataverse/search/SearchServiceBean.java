@@ -7,6 +7,7 @@ import edu.harvard.iq.dataverse.DatasetFieldType;
 import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseFacet;
+import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.Group;
 import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
@@ -16,6 +17,7 @@ import edu.harvard.iq.dataverse.authorization.users.PrivateUrlUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.util.BundleUtil;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
 import java.lang.reflect.Field;
@@ -26,11 +28,13 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.MissingResourceException;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
@@ -49,6 +53,7 @@ import org.apache.solr.client.solrj.response.RangeFacet;
 import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 
 @Stateless
 @Named
@@ -75,6 +80,27 @@ public class SearchServiceBean {
     SystemConfig systemConfig;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+
+    /**
+     * See {@code dataverse.search.permission-filter-cache.ttl} in the
+     * installation guide.
+     */
+    private static final PermissionFilterCache permissionFilterCache = new PermissionFilterCache(
+            getPermissionFilterCacheTtlSeconds() * 1000, PermissionFilterCache.DEFAULT_MAX_SIZE);
+
+    private static long getPermissionFilterCacheTtlSeconds() {
+        String ttl = System.getProperty("dataverse.search.permission-filter-cache.ttl");
+        if (ttl != null) {
+            try {
+                return Math.max(0, Long.parseLong(ttl));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid dataverse.search.permission-filter-cache.ttl: " + ttl + ", using default");
+            }
+        }
+        return PermissionFilterCache.DEFAULT_TTL_SECONDS;
+    }
     
     /**
      * Import note: "onlyDatatRelatedToMe" relies on filterQueries for providing
@@ -117,11 +143,30 @@ public class SearchServiceBean {
      * @param paginationStart
      * @param onlyDatatRelatedToMe
      * @param numResultsPerPage
-     * @param retrieveEntities - look up dvobject entities with .find() (potentially expensive!)
+     * @param retrieveEntities - look up the dvobject entities (with one query for the page)
      * @return
      * @throws SearchException
      */
     public SolrQueryResponse search(DataverseRequest dataverseRequest, List<Dataverse> dataverses, String query, List<String> filterQueries, String sortField, String sortOrder, int paginationStart, boolean onlyDatatRelatedToMe, int numResultsPerPage, boolean retrieveEntities) throws SearchException {
+        return search(dataverseRequest, dataverses, query, filterQueries, sortField, sortOrder, paginationStart, null, onlyDatatRelatedToMe, numResultsPerPage, retrieveEntities);
+    }
+
+    /**
+     * A page of a search that goes through all the results (an export, say),
+     * with Solr's deep paging: each page costs the same, where the cost of a
+     * page asked for with paginationStart grows with the start. There are no
+     * facets or highlights. The next page is asked for with the
+     * {@link SolrQueryResponse#getNextCursorMark()} of this one; there are no
+     * more results once that is the cursor mark that was asked for.
+     *
+     * @param cursorMark {@link CursorMarkParams#CURSOR_MARK_START} for the
+     * first page
+     */
+    public SolrQueryResponse searchWithCursor(DataverseRequest dataverseRequest, List<Dataverse> dataverses, String query, List<String> filterQueries, String sortField, String sortOrder, String cursorMark, int numResultsPerPage, boolean retrieveEntities) throws SearchException {
+        return search(dataverseRequest, dataverses, query, filterQueries, sortField, sortOrder, 0, cursorMark, false, numResultsPerPage, retrieveEntities);
+    }
+
+    private SolrQueryResponse search(DataverseRequest dataverseRequest, List<Dataverse> dataverses, String query, List<String> filterQueries, String sortField, String sortOrder, int paginationStart, String cursorMark, boolean onlyDatatRelatedToMe, int numResultsPerPage, boolean retrieveEntities) throws SearchException {
 
         if (paginationStart < 0) {
             throw new IllegalArgumentException("paginationStart must be 0 or greater");
@@ -137,6 +182,10 @@ public class SearchServiceBean {
 //        if (query.equals("*") || query.equals("*:*")) {
 //            solrQuery.setSort(new SortClause(SearchFields.NAME_SORT, SolrQuery.ORDER.asc));
         solrQuery.setSort(new SortClause(sortField, sortOrder));
+        if (cursorMark != null && !SearchFields.ID.equals(sortField)) {
+            // (deep paging needs the sort to be on the unique key in the end)
+            solrQuery.addSort(SearchFields.ID, SolrQuery.ORDER.asc);
+        }
 //        } else {
 //            solrQuery.setSort(sortClause);
 //        }
@@ -298,6 +347,11 @@ public class SearchServiceBean {
 //        solrQuery.addNumericRangeFacet(SearchFields.PRODUCTION_DATE_YEAR_ONLY, citationYearRangeStart, citationYearRangeEnd, citationYearRangeSpan);
 //        solrQuery.addNumericRangeFacet(SearchFields.DISTRIBUTION_DATE_YEAR_ONLY, citationYearRangeStart, citationYearRangeEnd, citationYearRangeSpan);
         solrQuery.setRows(numResultsPerPage);
+        if (cursorMark != null) {
+            solrQuery.setFacet(false);
+            solrQuery.setHighlight(false);
+            solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        }
         logger.fine("Solr query:" + solrQuery);
 
         // -----------------------------------
@@ -395,7 +449,7 @@ public class SearchServiceBean {
             Map<SolrField, Highlight> highlightsMap = new HashMap<>();
             Map<SolrField, List<String>> highlightsMap2 = new HashMap<>();
             Map<String, Highlight> highlightsMap3 = new HashMap<>();
-            if (queryResponse.getHighlighting().get(id) != null) {
+            if (queryResponse.getHighlighting() != null && queryResponse.getHighlighting().get(id) != null) {
                 for (Map.Entry<String, String> entry : solrFieldsToHightlightOnMap.entrySet()) {
                     String field = entry.getKey();
                     String displayName = entry.getValue();
@@ -435,9 +489,6 @@ public class SearchServiceBean {
 //            logger.info(id + ": " + description);
             solrSearchResult.setId(id);
             solrSearchResult.setEntityId(entityid);
-            if (retrieveEntities) {
-                solrSearchResult.setEntity(dvObjectService.findDvObject(entityid));
-            }
             solrSearchResult.setIdentifier(identifier);
             solrSearchResult.setPersistentUrl(persistentUrl);
             solrSearchResult.setType(type);
@@ -467,6 +518,8 @@ public class SearchServiceBean {
             if (type.equals("dataverses")) {
                 solrSearchResult.setName(name);
                 solrSearchResult.setHtmlUrl(baseUrl + SystemConfig.DATAVERSE_PATH + identifier);
+                solrSearchResult.setDataverseAlias(identifier);
+                solrSearchResult.setDataverseAffiliation((String) solrDocument.getFieldValue(SearchFields.DATAVERSE_AFFILIATION));
                 // Do not set the ImageUrl, let the search include fragment fill in
                 // the thumbnail, similarly to how the dataset and datafile cards
                 // are handled.
@@ -580,6 +633,22 @@ public class SearchServiceBean {
             solrSearchResult.setParent(parent);
             solrSearchResults.add(solrSearchResult);
         }
+        if (retrieveEntities) {
+            // (one query for the whole page)
+            Set<Long> entityIds = new HashSet<>();
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                if (solrSearchResult.getEntityId() != null) {
+                    entityIds.add(solrSearchResult.getEntityId());
+                }
+            }
+            Map<Long, DvObject> entities = new HashMap<>();
+            for (DvObject entity : dvObjectService.findDvObjects(entityIds)) {
+                entities.put(entity.getId(), entity);
+            }
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                solrSearchResult.setEntity(entities.get(solrSearchResult.getEntityId()));
+            }
+        }
         Map<String, List<String>> spellingSuggestionsByToken = new HashMap<>();
         SpellCheckResponse spellCheckResponse = queryResponse.getSpellCheckResponse();
         if (spellCheckResponse != null) {
@@ -596,7 +665,10 @@ public class SearchServiceBean {
         boolean unpublishedAvailable = false;
         boolean deaccessionedAvailable = false;
         boolean hideMetadataSourceFacet = true;
-        for (FacetField facetField : queryResponse.getFacetFields()) {
+        // (no facets with a cursor mark)
+        List<FacetField> facetFields = queryResponse.getFacetFields() != null ? queryResponse.getFacetFields() : Collections.emptyList();
+        List<RangeFacet> facetRanges = queryResponse.getFacetRanges() != null ? queryResponse.getFacetRanges() : Collections.emptyList();
+        for (FacetField facetField : facetFields) {
             FacetCategory facetCategory = new FacetCategory();
             List<FacetLabel> facetLabelList = new ArrayList<>();
             int numMetadataSources = 0;
@@ -738,7 +810,7 @@ public class SearchServiceBean {
         }
 
         // for now the only range facet is citation year
-        for (RangeFacet<String, String> rangeFacet : queryResponse.getFacetRanges()) {
+        for (RangeFacet<String, String> rangeFacet : facetRanges) {
             FacetCategory facetCategory = new FacetCategory();
             List<FacetLabel> facetLabelList = new ArrayList<>();
             for (Object rfObj : rangeFacet.getCounts()) {
@@ -776,6 +848,7 @@ public class SearchServiceBean {
         solrQueryResponse.setTypeFacetCategories(typeFacetCategories);
         solrQueryResponse.setNumResultsFound(queryResponse.getResults().getNumFound());
         solrQueryResponse.setResultsStart(queryResponse.getResults().getStart());
+        solrQueryResponse.setNextCursorMark(queryResponse.getNextCursorMark());
         solrQueryResponse.setDatasetfieldFriendlyNamesBySolrField(datasetfieldFriendlyNamesBySolrField);
         solrQueryResponse.setStaticSolrFieldFriendlyNamesBySolrField(staticSolrFieldFriendlyNamesBySolrField);
         String[] filterQueriesArray = solrQuery.getFilterQueries();
@@ -845,7 +918,8 @@ public class SearchServiceBean {
          */
 //        String allUsersString = IndexServiceBean.getGroupPrefix() + AllUsers.get().getAlias();
 //        String publicOnly = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + " OR " + allUsersString + ")";
-        String publicOnly = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + ")";
+        boolean denormalized = systemConfig.isSolrDenormalizedPermissions();
+        String publicOnly = getDiscoverableByFilter(IndexServiceBean.getPublicGroupString(), denormalized);
 //        String publicOnly = "{!join from=" + SearchFields.GROUPS + " to=" + SearchFields.PERMS + "}id:" + IndexServiceBean.getPublicGroupString();
         // initialize to public only to be safe
         String dangerZoneNoSolrJoin = null;
@@ -859,21 +933,10 @@ public class SearchServiceBean {
         // Yes, see if GuestUser is part of any groups such as IP Groups.
         // ----------------------------------------------------
         if (user instanceof GuestUser) {
-            String groupsFromProviders = "";
-            Set<Group> groups = groupService.collectAncestors(groupService.groupsFor(dataverseRequest));
-            StringBuilder sb = new StringBuilder();
-            for (Group group : groups) {
-                logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
-                String groupAlias = group.getAlias();
-                if (groupAlias != null && !groupAlias.isEmpty()) {
-                    sb.append(" OR ");
-                    // i.e. group_builtIn/all-users, ip/ipGroup3
-                    sb.append(IndexServiceBean.getGroupPrefix()).append(groupAlias);
-                }
-            }
-            groupsFromProviders = sb.toString();
+            // i.e. group_builtIn/all-users, ip/ipGroup3
+            String groupsFromProviders = getGroupsFromProviders(dataverseRequest);
             logger.fine("groupsFromProviders:" + groupsFromProviders);
-            String guestWithGroups = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + groupsFromProviders + ")";
+            String guestWithGroups = getDiscoverableByFilter(IndexServiceBean.getPublicGroupString() + groupsFromProviders, denormalized);
             logger.fine(guestWithGroups);
             return guestWithGroups;
         }
@@ -950,26 +1013,15 @@ public class SearchServiceBean {
          * A JOIN on "permission documents" will determine if the user can find
          * a given "content document" (dataset version, etc) in Solr.
          */
-        String groupsFromProviders = "";
-        Set<Group> groups = groupService.collectAncestors(groupService.groupsFor(dataverseRequest));
-        StringBuilder sb = new StringBuilder();
-        for (Group group : groups) {
-            logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
-            String groupAlias = group.getAlias();
-            if (groupAlias != null && !groupAlias.isEmpty()) {
-                sb.append(" OR ");
-                // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
-                sb.append(IndexServiceBean.getGroupPrefix() + groupAlias);
-            }
-        }
-        groupsFromProviders = sb.toString();
+        // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
+        String groupsFromProviders = getGroupsFromProviders(dataverseRequest);
 
         logger.fine(groupsFromProviders);
         if (true) {
             /**
              * @todo get rid of "experimental" in name
              */
-            String experimentalJoin = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + " OR " + IndexServiceBean.getGroupPerUserPrefix() + au.getId() + groupsFromProviders + ")";
+            String experimentalJoin = getDiscoverableByFilter(IndexServiceBean.getPublicGroupString() + " OR " + IndexServiceBean.getGroupPerUserPrefix() + au.getId() + groupsFromProviders, denormalized);
             publicPlusUserPrivateGroup = experimentalJoin;
         }
 
@@ -980,5 +1032,45 @@ public class SearchServiceBean {
 
     }
 
+    /**
+     * @param terms the permission strings, joined with " OR "
+     * @param denormalized whether the content documents carry their
+     * permissions (see :SolrDenormalizedPermissions); if not, they are found
+     * through the permission documents, with a join
+     */
+    static String getDiscoverableByFilter(String terms, boolean denormalized) {
+        String discoverableBy = SearchFields.DISCOVERABLE_BY + ":(" + terms + ")";
+        if (denormalized) {
+            return discoverableBy;
+        }
+        return "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + discoverableBy;
+    }
+
+    /**
+     * The groups the request is part of, as " OR group_..." terms of the
+     * permission filter query. They are sorted, so the filter query is the
+     * same string from one search to the next and Solr's filter cache is
+     * reused; and cached (see {@link PermissionFilterCache}).
+     */
+    private String getGroupsFromProviders(DataverseRequest dataverseRequest) {
+        String key = PermissionFilterCache.key(dataverseRequest.getUser().getIdentifier(), dataverseRequest.getSourceAddress());
+        return permissionFilterCache.get(key, cacheVersionSvc.getVersion(GroupServiceBean.CACHE_NAME), System.currentTimeMillis(), () -> {
+            Set<Group> groups = groupService.collectAncestors(groupService.groupsFor(dataverseRequest));
+            Set<String> groupStrings = new TreeSet<>();
+            for (Group group : groups) {
+                logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
+                String groupAlias = group.getAlias();
+                if (groupAlias != null && !groupAlias.isEmpty()) {
+                    groupStrings.add(IndexServiceBean.getGroupPrefix() + groupAlias);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String groupString : groupStrings) {
+                sb.append(" OR ").append(groupString);
+            }
+            return sb.toString();
+        });
+    }
+
 }
 
@@ -3,6 +3,8 @@ package edu.harvard.iq.dataverse.search;
 import edu.harvard.iq.dataverse.api.Util;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
 import org.apache.commons.lang3.StringUtils;
@@ -57,6 +59,22 @@ public class SearchUtil {
         return solrInputDocument;
     }
 
+    /**
+     * @param permissionDoc a permission document, see
+     * {@link #createSolrDoc(DvObjectSolrDoc)}
+     * @return an atomic update copying its permissions onto the content
+     * document it is about, if that exists
+     */
+    public static SolrInputDocument createDiscoverableByUpdate(SolrInputDocument permissionDoc) {
+        SolrInputDocument update = new SolrInputDocument();
+        update.addField(SearchFields.ID, permissionDoc.getFieldValue(SearchFields.DEFINITION_POINT));
+        Collection<Object> perms = permissionDoc.getFieldValues(SearchFields.DISCOVERABLE_BY);
+        update.addField(SearchFields.DISCOVERABLE_BY, Collections.singletonMap("set", perms == null ? null : new ArrayList<>(perms)));
+        // (a positive version: the document has to exist)
+        update.addField(SolrUpdateBatcher.VERSION_FIELD, 1L);
+        return update;
+    }
+
     public static String getTimestampOrNull(Timestamp timestamp) {
         if (timestamp == null) {
             return null;
@@ -15,20 +15,25 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrInputDocument;
 
 @Named
@@ -53,6 +58,17 @@ public class SolrIndexServiceBean {
     IndexServiceBean indexService;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    SolrUpdateBatcher solrUpdateBatcher;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    /**
+     * The number of datasets, or of files, handled at a time when reindexing
+     * the permissions of a dataverse or dataset and its children.
+     */
+    static final int PERMISSION_PAGE_SIZE = 1000;
 
     public static String numRowsClearedByClearAllIndexTimes = "numRowsClearedByClearAllIndexTimes";
     public static String messageString = "message";
@@ -357,11 +373,33 @@ public class SolrIndexServiceBean {
             return;
         }
         logger.fine("persisting to Solr...");
-        /**
-         * @todo Do something with these responses from Solr.
-         */
-        UpdateResponse addResponse = solrClientService.getSolrClient().add(docs);
-        UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
+        solrUpdateBatcher.add(docs);
+        if (systemConfig.isSolrDenormalizedPermissions()) {
+            solrUpdateBatcher.add(createDiscoverableByUpdates(docs));
+        }
+    }
+
+    /**
+     * With :SolrDenormalizedPermissions, the permissions of the permission
+     * documents are also set on the content documents they are about, so
+     * that searches can filter on them without a join. Content documents not
+     * indexed (yet) are left alone: the permissions are indexed after the
+     * content anyway.
+     */
+    private List<SolrInputDocument> createDiscoverableByUpdates(Collection<SolrInputDocument> permissionDocs) throws SolrServerException, IOException {
+        Set<String> contentIds = new LinkedHashSet<>();
+        for (SolrInputDocument permissionDoc : permissionDocs) {
+            contentIds.add((String) permissionDoc.getFieldValue(SearchFields.DEFINITION_POINT));
+        }
+        Set<String> indexed = solrUpdateBatcher.getLatest(contentIds, SearchFields.ID).keySet();
+        List<SolrInputDocument> updates = new ArrayList<>();
+        for (SolrInputDocument permissionDoc : permissionDocs) {
+            if (indexed.contains((String) permissionDoc.getFieldValue(SearchFields.DEFINITION_POINT))) {
+                updates.add(SearchUtil.createDiscoverableByUpdate(permissionDoc));
+            }
+        }
+        logger.fine(() -> "copying the permissions onto " + updates.size() + " of " + contentIds.size() + " content documents");
+        return updates;
     }
 
     public IndexResponse indexPermissionsOnSelfAndChildren(long definitionPointId) {
@@ -379,8 +417,7 @@ public class SolrIndexServiceBean {
      * inheritance
      */
     public IndexResponse indexPermissionsOnSelfAndChildren(DvObject definitionPoint) {
-        List<DvObject> dvObjectsToReindexPermissionsFor = new ArrayList<>();
-        List<DataFile> filesToReindexAsBatch = new ArrayList<>();
+        int numDvObjects = 0;
         /**
          * @todo Re-indexing the definition point itself seems to be necessary
          * for revoke but not necessarily grant.
@@ -391,109 +428,193 @@ public class SolrIndexServiceBean {
         if (definitionPoint.isInstanceofDataverse()) {
             Dataverse selfDataverse = (Dataverse) definitionPoint;
             if (!selfDataverse.equals(dataverseService.findRootDataverse())) {
-                dvObjectsToReindexPermissionsFor.add(definitionPoint);
-            }
-            List<Dataset> directChildDatasetsOfDvDefPoint = datasetService.findByOwnerId(selfDataverse.getId());
-            for (Dataset dataset : directChildDatasetsOfDvDefPoint) {
-                dvObjectsToReindexPermissionsFor.add(dataset);
-                for (DataFile datafile : filesToReIndexPermissionsFor(dataset)) {
-                    filesToReindexAsBatch.add(datafile);
-                }
+                indexPermissionsForOneDvObject(definitionPoint);
+                numDvObjects++;
             }
+            numDvObjects += indexDatasetAndFilePermissions(selfDataverse, null);
         } else if (definitionPoint.isInstanceofDataset()) {
-            dvObjectsToReindexPermissionsFor.add(definitionPoint);
-            // index files
-            Dataset dataset = (Dataset) definitionPoint;
-            for (DataFile datafile : filesToReIndexPermissionsFor(dataset)) {
-                filesToReindexAsBatch.add(datafile);
-            }
+            numDvObjects += indexDatasetAndFilePermissions(null, (Dataset) definitionPoint);
         } else {
-            dvObjectsToReindexPermissionsFor.add(definitionPoint);
+            indexPermissionsForOneDvObject(definitionPoint);
+            numDvObjects++;
         }
 
-        /**
-         * @todo Error handling? What to do with response?
-         *
-         * @todo Should update timestamps, probably, even thought these are
-         * files, see https://github.com/IQSS/dataverse/issues/2421
-         */
-        String response = reindexFilesInBatches(filesToReindexAsBatch);
-
-        for (DvObject dvObject : dvObjectsToReindexPermissionsFor) {
-            /**
-             * @todo do something with this response
-             */
-            IndexResponse indexResponse = indexPermissionsForOneDvObject(dvObject);
-        }
-        
         return new IndexResponse("Number of dvObject permissions indexed for " + definitionPoint
-                + ": " + dvObjectsToReindexPermissionsFor.size()
+                + ": " + numDvObjects
         );
     }
 
-    private String reindexFilesInBatches(List<DataFile> filesToReindexPermissionsFor) {
+    /**
+     * Indexes the permissions of the datasets of a dataverse (or of one
+     * dataset) and of their files. Rather than loading the datasets and files,
+     * this works from their ids and version states, fetched with native
+     * queries a page at a time, so the memory used doesn't grow with the
+     * number of datasets or files; and the permission strings are determined
+     * once per dataset version.
+     *
+     * @param owner the dataverse whose datasets to index, or null
+     * @param dataset the dataset to index, or null
+     * @return the number of datasets indexed
+     */
+    private int indexDatasetAndFilePermissions(Dataverse owner, Dataset dataset) {
+        List<String> inheritedPerms = searchPermissionsService.findInheritedDatasetPerms(owner != null ? owner : dataset.getOwner());
         List<SolrInputDocument> docs = new ArrayList<>();
-        Map<Long, List<Long>> byParentId = new HashMap<>();
-        Map<Long, List<String>> permStringByDatasetVersion = new HashMap<>();
-        for (DataFile file : filesToReindexPermissionsFor) {
-            Dataset dataset = (Dataset) file.getOwner();
-            Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(dataset);
-            for (DatasetVersion datasetVersionFileIsAttachedTo : datasetVersionsToBuildCardsFor(dataset)) {
-                boolean cardShouldExist = desiredCards.get(datasetVersionFileIsAttachedTo.getVersionState());
-                if (cardShouldExist) {
-                    List<String> cachedPermission = permStringByDatasetVersion.get(datasetVersionFileIsAttachedTo.getId());
-                    if (cachedPermission == null) {
-                        logger.fine("no cached permission! Looking it up...");
-                        List<DvObjectSolrDoc> fileSolrDocs = constructDatafileSolrDocs((DataFile) file, permStringByDatasetVersion);
-                        for (DvObjectSolrDoc fileSolrDoc : fileSolrDocs) {
-                            Long datasetVersionId = fileSolrDoc.getDatasetVersionId();
-                            if (datasetVersionId != null) {
-                                permStringByDatasetVersion.put(datasetVersionId, fileSolrDoc.getPermissions());
-                                SolrInputDocument solrDoc = SearchUtil.createSolrDoc(fileSolrDoc);
-                                docs.add(solrDoc);
-                            }
+        int numDatasets = 0;
+        int numFiles = 0;
+        try {
+            List<DatasetCards> page;
+            long lastDatasetId = 0;
+            do {
+                page = owner != null ? findDatasetCards(owner.getId(), lastDatasetId) : Collections.singletonList(new DatasetCards(dataset));
+                if (page.isEmpty()) {
+                    break;
+                }
+                List<Long> datasetIds = page.stream().map(cards -> cards.datasetId).collect(Collectors.toList());
+                Map<Long, List<String>> directPerms = searchPermissionsService.findDirectDatasetPerms(datasetIds);
+                for (DatasetCards cards : page) {
+                    // (a dataset is never a permission root)
+                    Set<String> datasetPerms = new LinkedHashSet<>(directPerms.getOrDefault(cards.datasetId, Collections.emptyList()));
+                    datasetPerms.addAll(inheritedPerms);
+                    Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(cards.latestVersionState, cards.releasedVersionId != null);
+                    for (Map.Entry<Long, DatasetVersion.VersionState> version : cards.getVersionsToBuildCardsFor().entrySet()) {
+                        DatasetVersion.VersionState state = version.getValue();
+                        if (!Boolean.TRUE.equals(desiredCards.get(state))) {
+                            continue;
                         }
-                    } else {
-                        logger.fine("cached permission is " + cachedPermission);
-                        List<DvObjectSolrDoc> fileSolrDocsBasedOnCachedPermissions = constructDatafileSolrDocs((DataFile) file, permStringByDatasetVersion);
-                        for (DvObjectSolrDoc fileSolrDoc : fileSolrDocsBasedOnCachedPermissions) {
-                            SolrInputDocument solrDoc = SearchUtil.createSolrDoc(fileSolrDoc);
-                            docs.add(solrDoc);
+                        List<String> perms = new ArrayList<>();
+                        if (state.equals(DatasetVersion.VersionState.RELEASED)) {
+                            perms.add(IndexServiceBean.getPublicGroupString());
+                        }
+                        if (!state.equals(DatasetVersion.VersionState.RELEASED) || !unpublishedDataRelatedToMeModeEnabled) {
+                            perms.addAll(datasetPerms);
                         }
+                        String solrIdEnd = getDatasetOrDataFileSolrEnding(state);
+                        docs.add(SearchUtil.createSolrDoc(new DvObjectSolrDoc(cards.datasetId.toString(),
+                                IndexServiceBean.solrDocIdentifierDataset + cards.datasetId + solrIdEnd, version.getKey(), null, perms)));
+                        List<Long> fileIds;
+                        long lastFileId = 0;
+                        do {
+                            fileIds = findFileIds(version.getKey(), lastFileId);
+                            for (Long fileId : fileIds) {
+                                docs.add(SearchUtil.createSolrDoc(new DvObjectSolrDoc(fileId.toString(),
+                                        IndexServiceBean.solrDocIdentifierFile + fileId + solrIdEnd, version.getKey(), null, perms)));
+                                lastFileId = fileId;
+                            }
+                            numFiles += fileIds.size();
+                            if (docs.size() >= PERMISSION_PAGE_SIZE) {
+                                persistToSolr(docs);
+                                docs = new ArrayList<>();
+                            }
+                        } while (fileIds.size() == PERMISSION_PAGE_SIZE);
                     }
+                    lastDatasetId = cards.datasetId;
                 }
-            }
-            Long parent = file.getOwner().getId();
-            List<Long> existingList = byParentId.get(parent);
-            if (existingList == null) {
-                List<Long> empty = new ArrayList<>();
-                byParentId.put(parent, empty);
-            } else {
-                List<Long> updatedList = existingList;
-                updatedList.add(file.getId());
-                byParentId.put(parent, updatedList);
-            }
-        }
-        try {
-            persistToSolr(docs);
-            return " " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents ";
+                persistToSolr(docs);
+                docs = new ArrayList<>();
+                updatePermissionIndexTimes(datasetIds);
+                numDatasets += page.size();
+            } while (owner != null && page.size() == PERMISSION_PAGE_SIZE);
         } catch (SolrServerException | IOException ex) {
-            return " tried to reindex " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents but caught exception: " + ex;
+            /**
+             * @todo Error handling? The permission index times of the datasets
+             * not indexed are left as they were.
+             */
+            logger.log(Level.WARNING, "Could not index the permissions of " + (owner != null ? owner : dataset)
+                    + " after " + numDatasets + " datasets and " + numFiles + " files", ex);
         }
+        logger.fine("indexed the permissions of " + numDatasets + " datasets and " + numFiles + " files of " + (owner != null ? owner : dataset));
+        return numDatasets;
     }
 
-    private List<DataFile> filesToReIndexPermissionsFor(Dataset dataset) {
-        List<DataFile> filesToReindexPermissionsFor = new ArrayList<>();
-        Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(dataset);
-        for (DatasetVersion version : datasetVersionsToBuildCardsFor(dataset)) {
-            boolean cardShouldExist = desiredCards.get(version.getVersionState());
-            if (cardShouldExist) {
-                for (FileMetadata fileMetadata : version.getFileMetadatas()) {
-                    filesToReindexPermissionsFor.add(fileMetadata.getDataFile());
-                }
+    /**
+     * @return the next page of the datasets of a dataverse, by id, with the
+     * versions their cards are built for
+     */
+    private List<DatasetCards> findDatasetCards(long ownerId, long afterDatasetId) {
+        List<?> datasetIds = em.createNativeQuery("SELECT id FROM dvobject "
+                + "WHERE owner_id = ?1 AND dtype = 'Dataset' AND id > ?2 ORDER BY id LIMIT ?3")
+                .setParameter(1, ownerId)
+                .setParameter(2, afterDatasetId)
+                .setParameter(3, PERMISSION_PAGE_SIZE)
+                .getResultList();
+        if (datasetIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, DatasetCards> cardsById = new LinkedHashMap<>();
+        for (Object datasetId : datasetIds) {
+            Long id = ((Number) datasetId).longValue();
+            cardsById.put(id, new DatasetCards(id));
+        }
+        String ids = cardsById.keySet().stream().map(String::valueOf).collect(Collectors.joining(","));
+        // (the same order as Dataset.getVersions(): the latest version first)
+        List<Object[]> versions = em.createNativeQuery("SELECT dataset_id, id, versionstate FROM datasetversion WHERE dataset_id IN (" + ids + ") "
+                + "ORDER BY dataset_id, versionnumber DESC NULLS FIRST, minorversionnumber DESC NULLS FIRST")
+                .getResultList();
+        for (Object[] row : versions) {
+            cardsById.get(((Number) row[0]).longValue()).addVersion(((Number) row[1]).longValue(), DatasetVersion.VersionState.valueOf((String) row[2]));
+        }
+        // (a dataset without versions has no cards)
+        cardsById.values().removeIf(cards -> cards.latestVersionId == null);
+        return new ArrayList<>(cardsById.values());
+    }
+
+    private List<Long> findFileIds(long datasetVersionId, long afterFileId) {
+        List<?> ids = em.createNativeQuery("SELECT datafile_id FROM filemetadata WHERE datasetversion_id = ?1 AND datafile_id > ?2 ORDER BY datafile_id LIMIT ?3")
+                .setParameter(1, datasetVersionId)
+                .setParameter(2, afterFileId)
+                .setParameter(3, PERMISSION_PAGE_SIZE)
+                .getResultList();
+        return ids.stream().map(id -> ((Number) id).longValue()).collect(Collectors.toList());
+    }
+
+    private void updatePermissionIndexTimes(List<Long> dvObjectIds) {
+        String ids = dvObjectIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        em.createNativeQuery("UPDATE dvobject SET permissionindextime = now() WHERE id IN (" + ids + ")").executeUpdate();
+    }
+
+    /**
+     * The versions of a dataset the Solr cards are built for - the latest and
+     * the released one - by id and state; see datasetVersionsToBuildCardsFor.
+     */
+    private static class DatasetCards {
+
+        final Long datasetId;
+        Long latestVersionId;
+        DatasetVersion.VersionState latestVersionState;
+        Long releasedVersionId;
+
+        DatasetCards(Long datasetId) {
+            this.datasetId = datasetId;
+        }
+
+        DatasetCards(Dataset dataset) {
+            this(dataset.getId());
+            for (DatasetVersion version : dataset.getVersions()) {
+                addVersion(version.getId(), version.getVersionState());
             }
         }
-        return filesToReindexPermissionsFor;
+
+        /**
+         * @param versionId the versions have to be added latest first
+         */
+        void addVersion(Long versionId, DatasetVersion.VersionState state) {
+            if (latestVersionId == null) {
+                latestVersionId = versionId;
+                latestVersionState = state;
+            }
+            if (releasedVersionId == null && state.equals(DatasetVersion.VersionState.RELEASED)) {
+                releasedVersionId = versionId;
+            }
+        }
+
+        Map<Long, DatasetVersion.VersionState> getVersionsToBuildCardsFor() {
+            Map<Long, DatasetVersion.VersionState> versions = new LinkedHashMap<>();
+            versions.put(latestVersionId, latestVersionState);
+            if (releasedVersionId != null) {
+                versions.put(releasedVersionId, DatasetVersion.VersionState.RELEASED);
+            }
+            return versions;
+        }
     }
 
     public IndexResponse deleteMultipleSolrIds(List<String> solrIdsToDelete) {
@@ -501,24 +622,21 @@ public class SolrIndexServiceBean {
             return new IndexResponse("nothing to delete");
         }
         try {
-            solrClientService.getSolrClient().deleteById(solrIdsToDelete);
+            solrUpdateBatcher.deleteById(solrIdsToDelete);
         } catch (SolrServerException | IOException ex) {
             /**
              * @todo mark these for re-deletion
              */
             return new IndexResponse("problem deleting the following documents from Solr: " + solrIdsToDelete);
         }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            return new IndexResponse("problem committing deletion of the following documents from Solr: " + solrIdsToDelete);
-        }
         return new IndexResponse("no known problem deleting the following documents from Solr:" + solrIdsToDelete);
     }
 
     public JsonObjectBuilder deleteAllFromSolrAndResetIndexTimes() throws SolrServerException, IOException {
         JsonObjectBuilder response = Json.createObjectBuilder();
         logger.info("attempting to delete all Solr documents before a complete re-index");
+        // (so that no queued update lands after the delete)
+        solrUpdateBatcher.flush();
         solrClientService.getSolrClient().deleteByQuery("*:*");
         solrClientService.getSolrClient().commit();
         int numRowsAffected = dvObjectService.clearAllIndexTimes();
@@ -24,6 +24,7 @@ public class SolrQueryResponse {
     private Map<String, String> staticSolrFieldFriendlyNamesBySolrField;
     private List<String> filterQueriesActual = new ArrayList<String>();
     private String error;
+    private String nextCursorMark;
     private Map<String, Long> dvObjectCounts = new HashMap<>();
     private Map<String, Long> publicationStatusCounts = new HashMap<>();
 
@@ -39,6 +40,18 @@ public class SolrQueryResponse {
 
 
     
+    /**
+     * @return the cursor mark of the next page, for a search with a cursor
+     * mark (see {@link SearchServiceBean#searchWithCursor})
+     */
+    public String getNextCursorMark() {
+        return nextCursorMark;
+    }
+
+    public void setNextCursorMark(String nextCursorMark) {
+        this.nextCursorMark = nextCursorMark;
+    }
+
     public List<SolrSearchResult> getSolrSearchResults() {
         return solrSearchResults;
     }
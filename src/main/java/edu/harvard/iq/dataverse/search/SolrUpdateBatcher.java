@@ -0,0 +1,642 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * Sends the documents added to, and deleted from, the Solr index by the
+ * indexing code in batches, instead of one request and one hard commit per
+ * dataverse, dataset or permission change. The updates are sent when
+ * {@code dataverse.solr.batch-size} of them are queued, or when the oldest
+ * has waited {@code dataverse.solr.batch-max-wait} milliseconds, and are made
+ * visible by Solr within {@code dataverse.solr.commit-within} milliseconds
+ * (a soft commit) of being sent. Updates of the same Solr id are coalesced:
+ * only the last one queued is sent.
+ *
+ * If Solr can't be reached the updates stay queued and are retried, with an
+ * increasing delay; once {@code dataverse.solr.max-pending} updates are
+ * queued, the indexing calls fail as they did before. Whatever is queued is
+ * sent when the application shuts down.
+ *
+ * The indexing code sets the index time of an object once its documents are
+ * queued, not once Solr has taken them. The index times of the objects whose
+ * documents Solr refuses, or which are still queued at shutdown with Solr
+ * down, are therefore cleared again, so that "continue" indexing picks them
+ * up. This is done by the timer, after the rejection: the transaction that
+ * queued the document (and may have had it sent, if the batch filled up) has
+ * set the index time by then.
+ *
+ * Code that has to see its own changes in search results (e.g. queries Solr
+ * for the documents it just indexed) calls {@link #flushAndCommit()} first.
+ * A batch size of 0 sends every update right away, with a hard commit.
+ *
+ * Partial documents (atomic updates, whose values are maps such as
+ * {@code {"set": value}}) are applied to the document queued for the same id,
+ * if any, rather than replacing it.
+ */
+@Singleton
+@Startup
+@DependsOn("SolrClientService")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SolrUpdateBatcher {
+
+    private static final Logger logger = Logger.getLogger(SolrUpdateBatcher.class.getCanonicalName());
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final long DEFAULT_MAX_WAIT_MILLIS = 500;
+    static final int DEFAULT_COMMIT_WITHIN_MILLIS = 1000;
+    static final int DEFAULT_MAX_PENDING = 20000;
+    static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    static final int GET_BATCH_SIZE = 1000;
+    static final String VERSION_FIELD = "_version_";
+
+    @EJB
+    SolrClientService solrClientService;
+
+    @Resource
+    TimerService timerService;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    int batchSize = DEFAULT_BATCH_SIZE;
+    long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    int commitWithinMillis = DEFAULT_COMMIT_WITHIN_MILLIS;
+    int maxPending = DEFAULT_MAX_PENDING;
+
+    // the queued updates; an id is either added or deleted, never both:
+    private final Object queueLock = new Object();
+    private Map<String, SolrInputDocument> pendingAdds = new LinkedHashMap<>();
+    private Set<String> pendingDeletes = new LinkedHashSet<>();
+    private long oldestPending = 0;
+    // the objects whose index times are to be cleared:
+    private final Set<Long> rejectedDvObjectIds = new LinkedHashSet<>();
+
+    // only one batch is sent at a time:
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long retryAfter = 0;
+    private volatile int consecutiveFailures = 0;
+
+    // statistics (updated with the flush lock held):
+    private volatile long batches = 0;
+    private volatile long documentsSent = 0;
+    private volatile long deletesSent = 0;
+    private volatile long failedBatches = 0;
+    private volatile long rejectedUpdates = 0;
+    private volatile long lastBatchSize = 0;
+    private volatile long lastBatchMillis = 0;
+    private volatile long maxBatchMillis = 0;
+    private volatile long totalBatchMillis = 0;
+    private volatile String lastError = null;
+    private volatile long coalesced = 0;
+
+    @PostConstruct
+    void init() {
+        batchSize = (int) getOption("dataverse.solr.batch-size", DEFAULT_BATCH_SIZE);
+        maxWaitMillis = getOption("dataverse.solr.batch-max-wait", DEFAULT_MAX_WAIT_MILLIS);
+        commitWithinMillis = (int) getOption("dataverse.solr.commit-within", DEFAULT_COMMIT_WITHIN_MILLIS);
+        maxPending = (int) Math.max(batchSize, getOption("dataverse.solr.max-pending", DEFAULT_MAX_PENDING));
+        if (batchSize > 0) {
+            long interval = Math.max(50, maxWaitMillis / 2);
+            timerService.createIntervalTimer(interval, interval, new TimerConfig("SolrUpdateBatcher", false));
+        }
+    }
+
+    private static long getOption(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid value of " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    public void add(SolrInputDocument doc) throws SolrServerException, IOException {
+        add(Collections.singletonList(doc));
+    }
+
+    public void add(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+        if (docs.isEmpty()) {
+            return;
+        }
+        if (batchSize == 0) {
+            solrClientService.getSolrClient().add(docs);
+            solrClientService.getSolrClient().commit();
+            return;
+        }
+        makeRoom();
+        synchronized (queueLock) {
+            for (SolrInputDocument doc : docs) {
+                Object id = doc.getFieldValue(SearchFields.ID);
+                if (id == null) {
+                    throw new IllegalArgumentException("Solr document without " + SearchFields.ID + ": " + doc);
+                }
+                if (queueAdd(id.toString(), doc)) {
+                    coalesced++;
+                }
+            }
+            queued();
+        }
+        flushIfFull();
+    }
+
+    public void deleteById(String id) throws SolrServerException, IOException {
+        deleteById(Collections.singletonList(id));
+    }
+
+    public void deleteById(List<String> ids) throws SolrServerException, IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (batchSize == 0) {
+            solrClientService.getSolrClient().deleteById(ids);
+            solrClientService.getSolrClient().commit();
+            return;
+        }
+        makeRoom();
+        synchronized (queueLock) {
+            for (String id : ids) {
+                if (pendingAdds.remove(id) != null | !pendingDeletes.add(id)) {
+                    coalesced++;
+                }
+            }
+            queued();
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Sends the queued updates to Solr now. They become visible within
+     * {@code dataverse.solr.commit-within} milliseconds.
+     */
+    public void flush() throws SolrServerException, IOException {
+        flushLock.lock();
+        try {
+            send();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the queued updates to Solr, and makes them visible before
+     * returning (with a soft commit).
+     */
+    public void flushAndCommit() throws SolrServerException, IOException {
+        if (batchSize == 0) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (send()) {
+                solrClientService.getSolrClient().commit(true, true, true);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Looks up the documents with the given ids as they will be once the
+     * queued updates are sent: the documents in the index (with a real-time
+     * get, which also sees the updates Solr hasn't committed yet), with the
+     * queued updates applied.
+     *
+     * @param fields the stored fields to return
+     * @return the documents that exist, by id
+     */
+    public Map<String, SolrDocument> getLatest(Collection<String> ids, String... fields) throws SolrServerException, IOException {
+        Map<String, SolrDocument> found = new HashMap<>();
+        if (ids.isEmpty()) {
+            return found;
+        }
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.FL, SearchFields.ID + "," + String.join(",", fields));
+        List<String> idList = new ArrayList<>(ids);
+        // (a batch being sent would be neither in the index nor in the queue)
+        flushLock.lock();
+        try {
+            for (int i = 0; i < idList.size(); i += GET_BATCH_SIZE) {
+                List<String> chunk = idList.subList(i, Math.min(idList.size(), i + GET_BATCH_SIZE));
+                for (SolrDocument doc : solrClientService.getSolrClient().getById(chunk, params)) {
+                    found.put(doc.getFieldValue(SearchFields.ID).toString(), doc);
+                }
+            }
+            synchronized (queueLock) {
+                for (String id : idList) {
+                    if (pendingDeletes.contains(id)) {
+                        found.remove(id);
+                    } else if (pendingAdds.containsKey(id)) {
+                        found.put(id, apply(found.get(id), pendingAdds.get(id), fields));
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        return found;
+    }
+
+    @Timeout
+    void flushIfDue() {
+        clearRejectedIndexTimes();
+        long now = System.currentTimeMillis();
+        if (now < retryAfter) {
+            return;
+        }
+        synchronized (queueLock) {
+            if (oldestPending == 0 || (now - oldestPending < maxWaitMillis && pendingCount() < batchSize)) {
+                return;
+            }
+        }
+        // (if a batch is being sent already, the next tick will do)
+        if (flushLock.tryLock()) {
+            try {
+                send();
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                // logged by send(); retried later
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    @PreDestroy
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    void shutdown() {
+        try {
+            flush();
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            // Solr is gone; the objects have to be indexed again once it's back:
+            synchronized (queueLock) {
+                rejectedDvObjectIds.addAll(dvObjectIds(pendingAdds.values()));
+                logger.severe("Could not send " + pendingAdds.size() + " added and " + pendingDeletes.size() + " deleted Solr documents at shutdown. "
+                        + "Deleted ids: " + pendingDeletes);
+            }
+        }
+        clearRejectedIndexTimes();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        JsonObjectBuilder status = Json.createObjectBuilder();
+        synchronized (queueLock) {
+            status.add("pendingAdds", pendingAdds.size());
+            status.add("pendingDeletes", pendingDeletes.size());
+            status.add("oldestPendingMillis", oldestPending == 0 ? 0 : System.currentTimeMillis() - oldestPending);
+        }
+        long sent = batches;
+        status.add("batches", sent)
+                .add("documentsSent", documentsSent)
+                .add("deletesSent", deletesSent)
+                .add("coalesced", coalesced)
+                .add("failedBatches", failedBatches)
+                .add("consecutiveFailures", consecutiveFailures)
+                .add("rejectedUpdates", rejectedUpdates)
+                .add("lastBatchSize", lastBatchSize)
+                .add("lastBatchMillis", lastBatchMillis)
+                .add("averageBatchMillis", sent == 0 ? 0 : totalBatchMillis / sent)
+                .add("maxBatchMillis", maxBatchMillis);
+        if (lastError != null) {
+            status.add("lastError", lastError);
+        }
+        status.add("batchSize", batchSize)
+                .add("batchMaxWaitMillis", maxWaitMillis)
+                .add("commitWithinMillis", commitWithinMillis)
+                .add("maxPending", maxPending);
+        return status;
+    }
+
+    /**
+     * @return the number of updates queued (for tests)
+     */
+    int getPendingCount() {
+        synchronized (queueLock) {
+            return pendingCount();
+        }
+    }
+
+    private int pendingCount() {
+        return pendingAdds.size() + pendingDeletes.size();
+    }
+
+    /**
+     * Queues a document, or applies it to the one queued for the same id if
+     * it is a partial document. Must be called with the queue lock held.
+     *
+     * @return whether an update of the same id was queued already
+     */
+    private boolean queueAdd(String id, SolrInputDocument doc) {
+        if (isPartial(doc)) {
+            if (pendingDeletes.contains(id)) {
+                // (there is nothing left to update)
+                return true;
+            }
+            SolrInputDocument previous = pendingAdds.get(id);
+            if (previous != null) {
+                pendingAdds.put(id, merge(previous, doc));
+                return true;
+            }
+        }
+        return pendingAdds.put(id, doc) != null | pendingDeletes.remove(id);
+    }
+
+    static boolean isPartial(SolrInputDocument doc) {
+        for (SolrInputField field : doc.values()) {
+            if (field.getValue() instanceof Map) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the document, with the "set" operations of the partial document
+     * applied to it; or both partial documents combined
+     */
+    static SolrInputDocument merge(SolrInputDocument doc, SolrInputDocument partial) {
+        SolrInputDocument merged = doc.deepCopy();
+        boolean full = !isPartial(doc);
+        for (String field : partial.getFieldNames()) {
+            Object value = partial.getField(field).getValue();
+            if (!full) {
+                merged.setField(field, value);
+            } else if (value instanceof Map) {
+                Object set = ((Map<?, ?>) value).get("set");
+                if (set == null) {
+                    merged.removeField(field);
+                } else {
+                    merged.setField(field, set);
+                }
+            } else if (!field.equals(VERSION_FIELD)) {
+                merged.setField(field, value);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the stored fields of a document once the (full or partial)
+     * update is applied to it
+     */
+    private static SolrDocument apply(SolrDocument doc, SolrInputDocument update, String... fields) {
+        boolean partial = isPartial(update);
+        SolrDocument result = new SolrDocument();
+        result.setField(SearchFields.ID, update.getFieldValue(SearchFields.ID));
+        for (String field : fields) {
+            SolrInputField updated = update.getField(field);
+            Object value = updated == null ? null : updated.getValue();
+            if (value instanceof Map) {
+                value = ((Map<?, ?>) value).get("set");
+            } else if (partial && value == null && doc != null) {
+                value = doc.getFieldValue(field);
+            }
+            if (value != null) {
+                result.setField(field, value);
+            }
+        }
+        return result;
+    }
+
+    private void queued() {
+        if (oldestPending == 0) {
+            oldestPending = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * When the queue is full (Solr has been failing), tries to send it before
+     * queueing more; failing as a direct update would have.
+     */
+    private void makeRoom() throws SolrServerException, IOException {
+        synchronized (queueLock) {
+            if (pendingCount() < maxPending) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    private void flushIfFull() {
+        synchronized (queueLock) {
+            if (pendingCount() < batchSize || System.currentTimeMillis() < retryAfter) {
+                return;
+            }
+        }
+        try {
+            flush();
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            // logged by send(); the updates stay queued and are retried
+        }
+    }
+
+    /**
+     * Sends everything queued, as one update request. Must be called with the
+     * flush lock held.
+     *
+     * @return whether anything was sent
+     */
+    private boolean send() throws SolrServerException, IOException {
+        Map<String, SolrInputDocument> adds;
+        Set<String> deletes;
+        long oldest;
+        synchronized (queueLock) {
+            if (oldestPending == 0) {
+                return false;
+            }
+            adds = pendingAdds;
+            deletes = pendingDeletes;
+            oldest = oldestPending;
+            pendingAdds = new LinkedHashMap<>();
+            pendingDeletes = new LinkedHashSet<>();
+            oldestPending = 0;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            try {
+                process(adds.values(), deletes);
+            } catch (SolrException ex) {
+                // Solr answered, but refused the batch: most likely because of
+                // one bad document, which would fail every retry.
+                if (ex.code() < 400 || ex.code() >= 500) {
+                    throw ex;
+                }
+                logger.log(Level.WARNING, "Solr refused a batch of " + (adds.size() + deletes.size()) + " updates; sending them one by one", ex);
+                sendOneByOne(adds.values(), deletes);
+            }
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            requeue(adds, deletes, oldest);
+            failedBatches++;
+            consecutiveFailures++;
+            retryAfter = System.currentTimeMillis() + Math.min(MAX_RETRY_DELAY_MILLIS, maxWaitMillis << Math.min(consecutiveFailures, 16));
+            lastError = ex.toString();
+            logger.log(consecutiveFailures == 1 ? Level.WARNING : Level.FINE,
+                    "Could not send " + (adds.size() + deletes.size()) + " updates to Solr (failure " + consecutiveFailures + "); will retry", ex);
+            throw ex;
+        }
+        long millis = System.currentTimeMillis() - start;
+        if (consecutiveFailures > 0) {
+            logger.info("Sent the queued Solr updates after " + consecutiveFailures + " failures");
+        }
+        consecutiveFailures = 0;
+        retryAfter = 0;
+        batches++;
+        documentsSent += adds.size();
+        deletesSent += deletes.size();
+        lastBatchSize = adds.size() + deletes.size();
+        lastBatchMillis = millis;
+        totalBatchMillis += millis;
+        maxBatchMillis = Math.max(maxBatchMillis, millis);
+        logger.fine("Sent " + adds.size() + " documents and " + deletes.size() + " deletes to Solr in " + millis + " ms");
+        return true;
+    }
+
+    private void process(Collection<SolrInputDocument> adds, Collection<String> deletes) throws SolrServerException, IOException {
+        UpdateRequest request = new UpdateRequest();
+        if (!adds.isEmpty()) {
+            request.add(adds);
+        }
+        if (!deletes.isEmpty()) {
+            request.deleteById(new ArrayList<>(deletes));
+        }
+        request.setCommitWithin(commitWithinMillis);
+        request.process(solrClientService.getSolrClient());
+    }
+
+    /**
+     * Clears the index times of the objects whose documents were refused by
+     * Solr, or could not be sent at shutdown.
+     */
+    private void clearRejectedIndexTimes() {
+        Set<Long> ids;
+        synchronized (queueLock) {
+            if (rejectedDvObjectIds.isEmpty()) {
+                return;
+            }
+            ids = new LinkedHashSet<>(rejectedDvObjectIds);
+            rejectedDvObjectIds.clear();
+        }
+        try {
+            em.createQuery("UPDATE DvObject o SET o.indexTime = NULL, o.permissionIndexTime = NULL WHERE o.id IN :ids")
+                    .setParameter("ids", ids)
+                    .executeUpdate();
+            logger.warning("Cleared the index times of the objects whose Solr documents were not indexed: " + ids);
+        } catch (RuntimeException ex) {
+            synchronized (queueLock) {
+                rejectedDvObjectIds.addAll(ids);
+            }
+            logger.log(Level.WARNING, "Could not clear the index times of " + ids, ex);
+        }
+    }
+
+    /**
+     * @return the ids of the objects the documents index: the object itself,
+     * the dataset of a file, or the definition point of a permission document
+     */
+    static Set<Long> dvObjectIds(Collection<SolrInputDocument> docs) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (SolrInputDocument doc : docs) {
+            Object id = doc.getFieldValue(SearchFields.ENTITY_ID);
+            if (id == null) {
+                id = doc.getFieldValue(SearchFields.DEFINITION_POINT_DVOBJECT_ID);
+            }
+            addId(ids, id);
+            // ("continue" indexing goes by the index time of the dataset)
+            if ("files".equals(doc.getFieldValue(SearchFields.TYPE))) {
+                addId(ids, doc.getFieldValue(SearchFields.PARENT_ID));
+            }
+        }
+        return ids;
+    }
+
+    private static void addId(Set<Long> ids, Object id) {
+        if (id != null) {
+            try {
+                ids.add(Long.valueOf(id.toString()));
+            } catch (NumberFormatException nfe) {
+                // not a DvObject document
+            }
+        }
+    }
+
+    private void sendOneByOne(Collection<SolrInputDocument> adds, Collection<String> deletes) throws SolrServerException, IOException {
+        if (!deletes.isEmpty()) {
+            process(Collections.emptyList(), deletes);
+        }
+        for (SolrInputDocument doc : adds) {
+            try {
+                process(Collections.singletonList(doc), Collections.emptyList());
+            } catch (SolrException ex) {
+                if (ex.code() < 400 || ex.code() >= 500) {
+                    throw ex;
+                }
+                rejectedUpdates++;
+                lastError = ex.toString();
+                logger.log(Level.SEVERE, "Solr refused document " + doc.getFieldValue(SearchFields.ID), ex);
+                synchronized (queueLock) {
+                    rejectedDvObjectIds.addAll(dvObjectIds(Collections.singletonList(doc)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts back the updates of a batch that could not be sent, unless the
+     * same ids have been updated again since.
+     */
+    private void requeue(Map<String, SolrInputDocument> adds, Set<String> deletes, long oldest) {
+        synchronized (queueLock) {
+            Map<String, SolrInputDocument> newerAdds = pendingAdds;
+            Set<String> newerDeletes = pendingDeletes;
+            pendingAdds = adds;
+            pendingDeletes = deletes;
+            for (String id : newerDeletes) {
+                pendingAdds.remove(id);
+                pendingDeletes.add(id);
+            }
+            for (Map.Entry<String, SolrInputDocument> newer : newerAdds.entrySet()) {
+                queueAdd(newer.getKey(), newer.getValue());
+            }
+            oldestPending = oldest;
+        }
+    }
+}
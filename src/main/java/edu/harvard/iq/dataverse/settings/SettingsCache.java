@@ -0,0 +1,159 @@
+package edu.harvard.iq.dataverse.settings;
+
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * A read-through, in-memory copy of the {@code setting} table, used by
+ * {@link SettingsServiceBean} so that settings lookups don't hit the database.
+ * 
+ * All rows are loaded at startup. Local changes mark the copy stale (both
+ * immediately and again once the changing transaction completes, so values
+ * from a rolled back transaction never stick). Changes made on other nodes are
+ * picked up by polling the {@code settings} row of the {@code cacheversion}
+ * table every {@code dataverse.settings.cache.poll-interval} seconds.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupFlywayMigrator")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SettingsCache {
+
+    private static final Logger logger = Logger.getLogger(SettingsCache.class.getCanonicalName());
+
+    public static final String CACHE_NAME = "settings";
+    static final long DEFAULT_POLL_INTERVAL_SECONDS = 10;
+
+    @PersistenceContext
+    EntityManager em;
+
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+
+    @Resource
+    TransactionSynchronizationRegistry txRegistry;
+
+    private volatile Map<String, String> values = new HashMap<>();
+    private volatile boolean stale = true;
+    private volatile long loadedVersion = -1;
+    private volatile long lastPoll = 0;
+    long pollIntervalMillis = DEFAULT_POLL_INTERVAL_SECONDS * 1000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    void setup() {
+        String interval = System.getProperty("dataverse.settings.cache.poll-interval");
+        if (interval != null) {
+            try {
+                pollIntervalMillis = Long.parseLong(interval) * 1000;
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid dataverse.settings.cache.poll-interval: " + interval + ", using default");
+            }
+        }
+        reload();
+    }
+
+    /**
+     * @param name name of the setting
+     * @param lang language of the setting, or {@code null} for the non-localized value
+     * @return the content of the setting, or {@code null}.
+     */
+    public String get(String name, String lang) {
+        ensureFresh();
+        return values.get(key(name, lang));
+    }
+
+    /**
+     * Marks the cached copy stale, and has it marked stale again once the current
+     * transaction (if any) completes.
+     */
+    public void invalidate() {
+        stale = true;
+        if (txRegistry != null && txRegistry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    stale = true;
+                }
+            });
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public long getLoadedVersion() {
+        return loadedVersion;
+    }
+
+    private void ensureFresh() {
+        if (!stale) {
+            long now = System.currentTimeMillis();
+            if (now - lastPoll > pollIntervalMillis) {
+                lastPoll = now;
+                if (cacheVersionSvc.getVersion(CACHE_NAME) != loadedVersion) {
+                    stale = true;
+                }
+            }
+        }
+        if (stale) {
+            misses.incrementAndGet();
+            reload();
+        } else {
+            hits.incrementAndGet();
+        }
+    }
+
+    private synchronized void reload() {
+        // read the version first: a change committed while we load the rows
+        // will then be seen on the next poll.
+        long version = cacheVersionSvc.getVersion(CACHE_NAME);
+        stale = false;
+        Map<String, String> loaded = new HashMap<>();
+        for (Setting s : em.createNamedQuery("Setting.findAll", Setting.class).getResultList()) {
+            if (s.getContent() != null) {
+                loaded.put(key(s.getName(), s.getLang()), s.getContent());
+            }
+        }
+        values = loaded;
+        loadedVersion = version;
+        lastPoll = System.currentTimeMillis();
+        logger.fine(() -> "Loaded " + loaded.size() + " settings, version " + version);
+    }
+
+    static String key(String name, String lang) {
+        return (lang == null) ? name : name + '\u0000' + lang;
+    }
+}
@@ -3,6 +3,7 @@ package edu.harvard.iq.dataverse.settings;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.api.ApiBlockingFilter;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
 import edu.harvard.iq.dataverse.util.StringUtil;
 
 import javax.ejb.EJB;
@@ -107,6 +108,12 @@ public class SettingsServiceBean {
          * Experimental: Use Solr to power the file listing on the dataset page.
          */
         FilesOnDatasetPageFromSolr,
+        /**
+         * Copy the permissions of the Solr permission documents onto the
+         * content documents, and filter searches on them directly instead of
+         * with a join.
+         */
+        SolrDenormalizedPermissions,
 
         /**
          * API endpoints that are not accessible. Comma separated list.
@@ -505,20 +512,20 @@ public class SettingsServiceBean {
     @EJB
     ActionLogServiceBean actionLogSvc;
     
+    @EJB
+    SettingsCache settingsCache;
+    
+    @EJB
+    CacheVersionServiceBean cacheVersionSvc;
+    
     /**
      * Basic functionality - get the name, return the setting, or {@code null}.
+     * Served from the in-memory {@link SettingsCache}.
      * @param name of the setting
      * @return the actual setting, or {@code null}.
      */
     public String get( String name ) {
-        List<Setting> tokens = em.createNamedQuery("Setting.findByName", Setting.class)
-                .setParameter("name", name )
-                .getResultList();
-        String val = null;
-        if(tokens.size() > 0) {
-            val = tokens.get(0).getContent();
-        }
-        return (val!=null) ? val : null;
+        return settingsCache.get(name, null);
     }
     
     /**
@@ -611,14 +618,7 @@ public class SettingsServiceBean {
     }
 
     public String get(String name, String lang, String defaultValue ) {
-        List<Setting> tokens = em.createNamedQuery("Setting.findByNameAndLang", Setting.class)
-                .setParameter("name", name )
-                .setParameter("lang", lang )
-                .getResultList();
-        String val = null;
-        if(tokens.size() > 0) {
-            val = tokens.get(0).getContent();
-        }
+        String val = settingsCache.get(name, lang);
         return (val!=null) ? val : defaultValue;
     }
     
@@ -648,6 +648,7 @@ public class SettingsServiceBean {
         }
         
         s = em.merge(s);
+        settingsChanged();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                             .setInfo(name + ": " + content));
         return s;
@@ -672,6 +673,7 @@ public class SettingsServiceBean {
         }
         
         em.merge(s);
+        settingsChanged();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                 .setInfo(name + ": " +lang + ": " + content));
         return s;
@@ -711,6 +713,7 @@ public class SettingsServiceBean {
         em.createNamedQuery("Setting.deleteByName")
                 .setParameter("name", name)
                 .executeUpdate();
+        settingsChanged();
     }
 
     public void delete( String name, String lang ) {
@@ -720,11 +723,21 @@ public class SettingsServiceBean {
                 .setParameter("name", name)
                 .setParameter("lang", lang)
                 .executeUpdate();
+        settingsChanged();
     }
     
     public Set<Setting> listAll() {
         return new HashSet<>(em.createNamedQuery("Setting.findAll", Setting.class).getResultList());
     }
     
+    /**
+     * Drops the local settings cache and lets the other nodes know (via the
+     * {@code cacheversion} table) that theirs are out of date, too.
+     */
+    private void settingsChanged() {
+        settingsCache.invalidate();
+        cacheVersionSvc.bump(SettingsCache.CACHE_NAME);
+    }
+    
     
 }
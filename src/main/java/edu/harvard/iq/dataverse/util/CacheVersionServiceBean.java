@@ -0,0 +1,55 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Access to the {@code cacheversion} table, which holds one monotonically
+ * increasing counter per named in-memory cache. Nodes that modify the data
+ * behind a cache bump its counter in the same transaction as the modification;
+ * the other nodes of a cluster compare the counter with the version they loaded
+ * and reload their copy when it moved.
+ */
+@Stateless
+@Named
+public class CacheVersionServiceBean {
+
+    private static final Logger logger = Logger.getLogger(CacheVersionServiceBean.class.getCanonicalName());
+
+    @PersistenceContext
+    EntityManager em;
+
+    /**
+     * @param name name of the cache
+     * @return The current version of the cache, or {@code 0} if the cache has never been bumped.
+     */
+    public long getVersion(String name) {
+        List<?> res = em.createNativeQuery("SELECT version FROM cacheversion WHERE name = ?1")
+                .setParameter(1, name)
+                .getResultList();
+        if (res.isEmpty() || res.get(0) == null) {
+            return 0L;
+        }
+        return ((Number) res.get(0)).longValue();
+    }
+
+    /**
+     * Increments the version of the named cache, creating the row if needed.
+     * Participates in the caller's transaction, so the new version only becomes
+     * visible to other nodes when the change it describes is committed.
+     *
+     * @param name name of the cache
+     */
+    public void bump(String name) {
+        em.createNativeQuery("INSERT INTO cacheversion (name, version) VALUES (?1, 1) "
+                + "ON CONFLICT (name) DO UPDATE SET version = cacheversion.version + 1")
+                .setParameter(1, name)
+                .executeUpdate();
+        logger.fine(() -> "Bumped version of cache " + name);
+    }
+
+}
@@ -19,6 +19,7 @@
 */
 
 package edu.harvard.iq.dataverse.util;
+import edu.harvard.iq.dataverse.dataaccess.PrimitiveVector;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -76,6 +77,42 @@ public class SumStatCalculator {
         return nx;
     }  
 
+    /**
+     * Same as {@link #calculateSummaryStatistics(java.lang.Number[])}, for a
+     * primitive vector; no boxing involved.
+     * @param x the vector
+     * @return the summary statistics, in the same order.
+     */
+    public static double[] calculateSummaryStatistics(PrimitiveVector x){
+        logger.fine("entering calculate summary statistics ("+x.length()+" primitive values);");
+        
+        double[] nx = new double[8];
+        
+        // collect the valid values (neither missing, nor NaN):
+        double[] valid = new double[x.length() - x.getMissingCount()];
+        int c = 0;
+        for (int i = 0; i < x.length(); i++) {
+            if (!x.isMissing(i)) {
+                double xvalue = x.doubleValue(i);
+                if (!Double.isNaN(xvalue)) {
+                    valid[c++] = xvalue;
+                }
+            }
+        }
+        double[] newx = (c == valid.length) ? valid : Arrays.copyOf(valid, c);
+        
+        nx[4] = x.length() - c;
+        nx[3] = c;
+        
+        nx[0] = calculateMean(newx);
+        nx[1] = calculateMedian(newx);
+        nx[2] = 0.0;
+        nx[5] = StatUtils.min(newx);
+        nx[6] = StatUtils.max(newx);
+        nx[7] = Math.sqrt(StatUtils.variance(newx));
+        return nx;
+    }
+
     private static double[] prepareForSummaryStats(Number[] x) {
         Double[] z = numberToDouble(x);
         return removeInvalidValues(z);
@@ -571,6 +571,11 @@ public class SystemConfig {
         return settingsService.isTrueForKey(SettingsServiceBean.Key.FilesOnDatasetPageFromSolr, safeDefaultIfKeyNotFound);
     }
 
+    public boolean isSolrDenormalizedPermissions() {
+        boolean safeDefaultIfKeyNotFound = false;
+        return settingsService.isTrueForKey(SettingsServiceBean.Key.SolrDenormalizedPermissions, safeDefaultIfKeyNotFound);
+    }
+
     public Long getMaxFileUploadSizeForStore(String driverId){
          return settingsService.getValueForCompoundKeyAsLong(SettingsServiceBean.Key.MaxFileUploadSizeInBytes, driverId);
      }
@@ -0,0 +1,137 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.function.LongFunction;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * A value derived from database rows, kept in memory and shared by all the
+ * requests of this server, for a cache whose version is kept by
+ * {@link CacheVersionServiceBean}. The value is reloaded when that version
+ * has moved, which is checked at most every {@code checkIntervalMillis}, so
+ * changes committed by other servers are picked up too.
+ *
+ * A change made on this server ({@link #invalidate}) drops the value right
+ * away, and again once the changing transaction completes. Until then, that
+ * transaction gets a copy of its own, loaded from what it sees (including its
+ * uncommitted rows), which is never shared with the other requests.
+ *
+ * @param <T> type of the value
+ */
+public class VersionedCache<T> {
+
+    private final String name;
+    private final long checkIntervalMillis;
+
+    private volatile Loaded<T> loaded;
+    private volatile long checkedAt;
+    /** Incremented by each invalidation; a value loaded across one is not kept. */
+    private long invalidations;
+
+    /**
+     * @param name name of the cache, in the {@code cacheversion} table
+     * @param checkIntervalMillis how long a loaded value is used before its
+     * version is checked again
+     */
+    public VersionedCache(String name, long checkIntervalMillis) {
+        this.name = name;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * @param cacheVersionSvc to read the current version of the cache
+     * @param txRegistry the registry of the caller's transaction, if any
+     * @param loader loads the value, given the version it is loaded for
+     * @return the current value
+     */
+    public T get(CacheVersionServiceBean cacheVersionSvc, TransactionSynchronizationRegistry txRegistry, LongFunction<T> loader) {
+        if (isActive(txRegistry)) {
+            Object own = txRegistry.getResource(this);
+            if (own != null) {
+                // this transaction changed the data behind the cache
+                if (own instanceof Loaded) {
+                    @SuppressWarnings("unchecked")
+                    T value = ((Loaded<T>) own).value;
+                    return value;
+                }
+                long version = cacheVersionSvc.getVersion(name);
+                Loaded<T> ownLoaded = new Loaded<>(loader.apply(version), version);
+                txRegistry.putResource(this, ownLoaded);
+                return ownLoaded.value;
+            }
+        }
+
+        Loaded<T> current = loaded;
+        long now = System.currentTimeMillis();
+        if (current != null && now - checkedAt < checkIntervalMillis) {
+            return current.value;
+        }
+        long invalidationsBefore;
+        synchronized (this) {
+            invalidationsBefore = invalidations;
+        }
+        long version = cacheVersionSvc.getVersion(name);
+        if (current == null || current.version != version) {
+            current = new Loaded<>(loader.apply(version), version);
+        }
+        synchronized (this) {
+            if (invalidations == invalidationsBefore) {
+                loaded = current;
+                checkedAt = now;
+            }
+        }
+        return current.value;
+    }
+
+    /**
+     * Bumps the version of the cache, in the current transaction, and drops
+     * the value, now and again once the transaction completes.
+     *
+     * @param cacheVersionSvc to bump the version of the cache
+     * @param txRegistry the registry of the caller's transaction, if any
+     */
+    public void invalidate(CacheVersionServiceBean cacheVersionSvc, TransactionSynchronizationRegistry txRegistry) {
+        cacheVersionSvc.bump(name);
+        drop();
+        if (isActive(txRegistry)) {
+            if (txRegistry.getResource(this) == null) {
+                txRegistry.registerInterposedSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        drop();
+                    }
+                });
+            }
+            // (also forgets the transaction's own copy, if it had loaded one)
+            txRegistry.putResource(this, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Drops the value, so that the next {@link #get} loads it again.
+     */
+    public synchronized void drop() {
+        invalidations++;
+        loaded = null;
+    }
+
+    private static boolean isActive(TransactionSynchronizationRegistry txRegistry) {
+        return txRegistry != null && txRegistry.getTransactionStatus() == Status.STATUS_ACTIVE;
+    }
+
+    private static class Loaded<T> {
+
+        final T value;
+        final long version;
+
+        Loaded(T value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
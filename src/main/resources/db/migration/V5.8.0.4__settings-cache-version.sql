@@ -0,0 +1,9 @@
+-- A small table of monotonically increasing version counters, one row per
+-- in-memory cache. A node that changes cached data bumps the counter in the
+-- same transaction; the other nodes poll the counter and reload on change.
+CREATE TABLE IF NOT EXISTS cacheversion (
+    name VARCHAR(255) PRIMARY KEY,
+    version BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO cacheversion (name, version) VALUES ('settings', 0) ON CONFLICT DO NOTHING;
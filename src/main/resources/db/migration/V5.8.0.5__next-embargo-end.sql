@@ -0,0 +1,17 @@
+-- The end date of the next embargo to end, among the files of each dataset
+-- version, after the last export of the dataset; used to tell when the
+-- cached DDI export needs to be refreshed without going through all the 
+-- files. See DatasetServiceBean.updateNextEmbargoEnd().
+ALTER TABLE datasetversion ADD COLUMN IF NOT EXISTS nextembargoend DATE;
+
+-- backfill, for the versions that have embargoed files:
+UPDATE datasetversion v SET nextembargoend = (
+    SELECT MIN(e.dateavailable) FROM filemetadata fm
+    JOIN datafile df ON df.id = fm.datafile_id
+    JOIN embargo e ON e.id = df.embargo_id
+    WHERE fm.datasetversion_id = v.id
+    AND e.dateavailable > COALESCE((SELECT CAST(d.lastexporttime AS DATE) FROM dataset d WHERE d.id = v.dataset_id), DATE '-infinity'))
+WHERE v.id IN (
+    SELECT DISTINCT fm.datasetversion_id FROM filemetadata fm
+    JOIN datafile df ON df.id = fm.datafile_id
+    WHERE df.embargo_id IS NOT NULL);
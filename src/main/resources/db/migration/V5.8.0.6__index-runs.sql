@@ -0,0 +1,29 @@
+-- Runs of "index all" (or of a partition of it), with their progress, so
+-- that an interrupted full reindex can be continued, and the objects that
+-- could not be indexed. See IndexRunServiceBean.
+CREATE TABLE IF NOT EXISTS indexrun (
+    id SERIAL PRIMARY KEY,
+    status VARCHAR(16) NOT NULL,
+    numpartitions BIGINT NOT NULL,
+    partitionid BIGINT NOT NULL,
+    skipindexed BOOLEAN NOT NULL,
+    indexedbefore TIMESTAMP,
+    parallelism INTEGER NOT NULL,
+    starttime TIMESTAMP NOT NULL,
+    lastupdate TIMESTAMP NOT NULL,
+    endtime TIMESTAMP,
+    total BIGINT NOT NULL DEFAULT 0,
+    indexed BIGINT NOT NULL DEFAULT 0,
+    failed BIGINT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS indexrunfailure (
+    id SERIAL PRIMARY KEY,
+    indexrun_id INTEGER NOT NULL REFERENCES indexrun(id) ON DELETE CASCADE,
+    dvobject_id BIGINT NOT NULL,
+    dtype VARCHAR(31),
+    message TEXT,
+    failuretime TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS index_indexrunfailure_indexrun_id ON indexrunfailure (indexrun_id);
@@ -0,0 +1,14 @@
+-- Requests to (re)index a dataverse or dataset, one row per object however
+-- many times it was requested before being indexed. See IndexQueue.
+CREATE TABLE IF NOT EXISTS indexqueue (
+    dvobject_id BIGINT PRIMARY KEY,
+    requestcount BIGINT NOT NULL DEFAULT 1,
+    firstrequesttime TIMESTAMP NOT NULL,
+    requesttime TIMESTAMP NOT NULL,
+    claimtime TIMESTAMP,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    notbefore TIMESTAMP,
+    lasterror TEXT
+);
+
+CREATE INDEX IF NOT EXISTS index_indexqueue_firstrequesttime ON indexqueue (firstrequesttime);
@@ -0,0 +1,148 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.util.testing.NativeQueryEntityManager;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks how the next embargo end date of the dataset versions (see
+ * {@link DatasetVersion#getNextEmbargoEnd()}) is kept, and backfilled by its
+ * migration, against PostgreSQL ({@code mvn -Ptc verify}), with the columns
+ * of the tables as created by the application.
+ */
+@Tag("testcontainers")
+@Testcontainers
+public class DatasetServiceBeanIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "9.6"));
+
+    Connection connection;
+    DatasetServiceBean datasetService;
+    // (as the database has it)
+    LocalDate today;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        execute("DROP TABLE IF EXISTS dataset, datasetversion, datafile, embargo, filemetadata",
+                "CREATE TABLE dataset (id BIGINT PRIMARY KEY, lastexporttime TIMESTAMP)",
+                "CREATE TABLE datasetversion (id SERIAL PRIMARY KEY, versionstate VARCHAR(255), dataset_id BIGINT, nextembargoend DATE)",
+                "CREATE TABLE datafile (id BIGINT PRIMARY KEY, embargo_id BIGINT)",
+                "CREATE TABLE embargo (id SERIAL PRIMARY KEY, dateavailable DATE NOT NULL, reason TEXT)",
+                "CREATE TABLE filemetadata (id SERIAL PRIMARY KEY, label VARCHAR(255) NOT NULL, datafile_id BIGINT NOT NULL, "
+                + "datasetversion_id BIGINT NOT NULL)");
+
+        execute(// 10 was exported 10 days ago, 11 never
+                "INSERT INTO dataset (id, lastexporttime) VALUES (10, CURRENT_DATE - 10), (11, NULL)",
+                "INSERT INTO datasetversion (id, versionstate, dataset_id) VALUES "
+                + "(100, 'RELEASED', 10), (101, 'DRAFT', 10), (110, 'RELEASED', 11)",
+                "INSERT INTO embargo (id, dateavailable) VALUES "
+                + "(1, CURRENT_DATE - 20), (2, CURRENT_DATE - 5), (3, CURRENT_DATE + 30)",
+                "INSERT INTO datafile (id, embargo_id) VALUES "
+                // ended before the last export
+                + "(1000, 1), "
+                // ended since the last export
+                + "(1001, 2), "
+                // still to end
+                + "(1002, 3), "
+                // never embargoed
+                + "(1003, NULL), "
+                + "(1100, 3)",
+                "INSERT INTO filemetadata (label, datafile_id, datasetversion_id) VALUES "
+                + "('1000', 1000, 100), ('1001', 1001, 100), ('1002', 1002, 100), ('1003', 1003, 100), "
+                // (the embargoes have been removed from the files of the draft)
+                + "('1003', 1003, 101), "
+                + "('1100', 1100, 110)");
+
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT CURRENT_DATE")) {
+            rs.next();
+            today = rs.getDate(1).toLocalDate();
+        }
+
+        datasetService = new DatasetServiceBean();
+        datasetService.em = NativeQueryEntityManager.create(connection);
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private void execute(String... sqls) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private Map<Long, LocalDate> nextEmbargoEnds() throws SQLException {
+        Map<Long, LocalDate> ends = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT id, nextembargoend FROM datasetversion")) {
+            while (rs.next()) {
+                ends.put(rs.getLong(1), (rs.getDate(2) != null) ? rs.getDate(2).toLocalDate() : null);
+            }
+        }
+        return ends;
+    }
+
+    @Test
+    public void testUpdateNextEmbargoEnd() throws SQLException {
+        datasetService.updateNextEmbargoEnd(10L);
+        datasetService.updateNextEmbargoEnd(11L);
+
+        Map<Long, LocalDate> ends = nextEmbargoEnds();
+        // an embargo has ended since the last export: the cached DDI export
+        // is stale (see ExportService.isEmbargoEndedSinceExport)
+        assertEquals(today.minusDays(5), ends.get(100L));
+        // no embargo
+        assertNull(ends.get(101L));
+        // never exported
+        assertEquals(today.plusDays(30), ends.get(110L));
+    }
+
+    @Test
+    public void testUpdateNextEmbargoEndAfterDdiExport() throws SQLException {
+        datasetService.updateNextEmbargoEnd(10L);
+        // the DDI export has been refreshed today
+        datasetService.updateNextEmbargoEnd(10L, today);
+
+        Map<Long, LocalDate> ends = nextEmbargoEnds();
+        assertEquals(today.plusDays(30), ends.get(100L));
+        assertNull(ends.get(101L));
+        // (another dataset)
+        assertNull(ends.get(110L));
+    }
+
+    @Test
+    public void testMigrationBackfill() throws Exception {
+        execute("ALTER TABLE datasetversion DROP COLUMN nextembargoend",
+                new String(Files.readAllBytes(Paths.get("src/main/resources/db/migration/V5.8.0.5__next-embargo-end.sql")), "UTF-8"));
+
+        Map<Long, LocalDate> ends = nextEmbargoEnds();
+        assertEquals(today.minusDays(5), ends.get(100L));
+        assertNull(ends.get(101L));
+        assertEquals(today.plusDays(30), ends.get(110L));
+    }
+}
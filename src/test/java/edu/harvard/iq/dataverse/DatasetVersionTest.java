@@ -7,6 +7,8 @@ import java.io.StringReader;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -84,6 +86,31 @@ public class DatasetVersionTest {
         assertFalse(nonDraft.isInReview());
     }
 
+    @Test
+    public void testContainsDataFile() {
+        DatasetVersion version = new DatasetVersion();
+        DataFile file = new DataFile();
+        file.setId(1L);
+        DataFile otherFile = new DataFile();
+        otherFile.setId(2L);
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setDataFile(file);
+        version.getFileMetadatas().add(fileMetadata);
+
+        assertTrue(version.containsDataFile(file));
+        assertFalse(version.containsDataFile(otherFile));
+        assertFalse(version.containsDataFile(new DataFile()));
+
+        // a file added since the last check
+        FileMetadata otherFileMetadata = new FileMetadata();
+        otherFileMetadata.setDataFile(otherFile);
+        version.getFileMetadatas().add(otherFileMetadata);
+        assertTrue(version.containsDataFile(otherFile));
+
+        version.setFileMetadatas(new ArrayList<>(Arrays.asList(otherFileMetadata)));
+        assertFalse(version.containsDataFile(file));
+    }
+
     /**
      * See also SchemaDotOrgExporterTest.java for more extensive tests.
      */
@@ -197,4 +224,24 @@ public class DatasetVersionTest {
         assertEquals("LibraScholar", obj.getJsonObject("includedInDataCatalog").getString("name"));
     }
 
+    @Test
+    public void testFindNextEmbargoEnd() {
+        LocalDate lastExport = LocalDate.of(2022, 3, 15);
+        DatasetVersion version = new DatasetVersion();
+        version.setFileMetadatas(new ArrayList<>());
+        for (LocalDate end : Arrays.asList(lastExport.minusDays(1), lastExport.plusDays(20), lastExport.plusDays(5), null)) {
+            DataFile file = new DataFile();
+            if (end != null) {
+                file.setEmbargo(new Embargo(end, "reason"));
+            }
+            FileMetadata fm = new FileMetadata();
+            fm.setDataFile(file);
+            version.getFileMetadatas().add(fm);
+        }
+        assertEquals(lastExport.plusDays(5), version.findNextEmbargoEnd(lastExport));
+        // never exported
+        assertEquals(lastExport.minusDays(1), version.findNextEmbargoEnd(null));
+        assertEquals(null, version.findNextEmbargoEnd(lastExport.plusDays(20)));
+    }
+
 }
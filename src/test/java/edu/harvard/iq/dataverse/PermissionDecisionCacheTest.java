@@ -0,0 +1,90 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PermissionDecisionCacheTest {
+
+    static final String KEY = PermissionDecisionCache.key("@user", "127.0.0.1", 1L);
+
+    AtomicInteger computed;
+    Supplier<Set<Permission>> compute;
+
+    @BeforeEach
+    void setUp() {
+        computed = new AtomicInteger();
+        compute = () -> {
+            computed.incrementAndGet();
+            return EnumSet.of(Permission.ViewUnpublishedDataset);
+        };
+    }
+
+    @Test
+    void testRequestScoped() {
+        PermissionDecisionCache cache = cache(new PermissionDecisionCache.Shared(0, 10), 1, 1);
+
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset), cache.get(KEY, compute));
+        cache.get(KEY, compute);
+        // another dvObject
+        cache.get(PermissionDecisionCache.key("@user", "127.0.0.1", 2L), compute);
+        assertEquals(2, computed.get());
+        // the shared cache is disabled: the versions aren't needed
+        verifyZeroInteractions(cache.cacheVersionSvc);
+        assertThrows(UnsupportedOperationException.class, () -> cache.get(KEY, compute).add(Permission.EditDataset));
+
+        cache.invalidate();
+        cache.get(KEY, compute);
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    void testShared() {
+        PermissionDecisionCache.Shared shared = new PermissionDecisionCache.Shared(60000, 10);
+        cache(shared, 1, 1).get(KEY, compute);
+        cache(shared, 1, 1).get(KEY, compute);
+        assertEquals(1, computed.get());
+        // role assignments changed
+        cache(shared, 1, 2).get(KEY, compute);
+        assertEquals(2, computed.get());
+        // groups changed
+        cache(shared, 2, 2).get(KEY, compute);
+        assertEquals(3, computed.get());
+        assertEquals(1, shared.sharedHits.get());
+        assertEquals(3, shared.misses.get());
+
+        PermissionDecisionCache cache = cache(shared, 2, 2);
+        cache.invalidate();
+        cache.get(KEY, compute);
+        assertEquals(4, computed.get());
+    }
+
+    @Test
+    void testExpiry() {
+        PermissionDecisionCache.Shared shared = new PermissionDecisionCache.Shared(1000, 10);
+        shared.get(KEY, 1, 1, 0, compute);
+        shared.get(KEY, 1, 1, 999, compute);
+        assertEquals(1, computed.get());
+        shared.get(KEY, 1, 1, 1000, compute);
+        assertEquals(2, computed.get());
+    }
+
+    private static PermissionDecisionCache cache(PermissionDecisionCache.Shared shared, long groupsVersion, long roleAssignmentsVersion) {
+        PermissionDecisionCache cache = new PermissionDecisionCache();
+        cache.shared = shared;
+        cache.cacheVersionSvc = mock(CacheVersionServiceBean.class);
+        when(cache.cacheVersionSvc.getVersion(GroupServiceBean.CACHE_NAME)).thenReturn(groupsVersion);
+        when(cache.cacheVersionSvc.getVersion(DataverseRoleServiceBean.CACHE_NAME)).thenReturn(roleAssignmentsVersion);
+        return cache;
+    }
+}
@@ -0,0 +1,166 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.util.testing.NativeQueryEntityManager;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks the query that finds the publicly downloadable files against
+ * PostgreSQL ({@code mvn -Ptc verify}), with the columns of the tables as
+ * created by the application.
+ */
+@Tag("testcontainers")
+@Testcontainers
+public class PermissionServiceBeanIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "9.6"));
+
+    Connection connection;
+    PermissionServiceBean permissionService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        execute("DROP TABLE IF EXISTS datasetversion, datafile, embargo, filemetadata",
+                "CREATE TABLE datasetversion (id SERIAL PRIMARY KEY, versionnumber BIGINT, minorversionnumber BIGINT, versionstate VARCHAR(255), "
+                + "dataset_id BIGINT)",
+                "CREATE TABLE datafile (id BIGINT PRIMARY KEY, restricted BOOLEAN, embargo_id BIGINT)",
+                "CREATE TABLE embargo (id SERIAL PRIMARY KEY, dateavailable DATE NOT NULL, reason TEXT)",
+                "CREATE TABLE filemetadata (id SERIAL PRIMARY KEY, label VARCHAR(255) NOT NULL, datafile_id BIGINT NOT NULL, "
+                + "datasetversion_id BIGINT NOT NULL)");
+
+        execute("INSERT INTO datasetversion (id, versionnumber, minorversionnumber, versionstate, dataset_id) VALUES "
+                + "(1000, 1, 0, 'RELEASED', 10), (1001, 2, 0, 'RELEASED', 10), (1002, NULL, NULL, 'DRAFT', 10), "
+                + "(1100, NULL, NULL, 'DRAFT', 11)",
+                "INSERT INTO embargo (id, dateavailable) VALUES (1, CURRENT_DATE + 30), (2, CURRENT_DATE - 1)",
+                "INSERT INTO datafile (id, restricted, embargo_id) VALUES "
+                // unrestricted
+                + "(100, false, NULL), "
+                // restricted
+                + "(101, true, NULL), "
+                // only in the draft
+                + "(102, false, NULL), "
+                // under an embargo that has yet to end
+                + "(103, false, 1), "
+                // under an embargo that has ended
+                + "(104, false, 2), "
+                // removed since the first release
+                + "(105, false, NULL), "
+                // of a dataset never released
+                + "(110, false, NULL)",
+                "INSERT INTO filemetadata (label, datafile_id, datasetversion_id) VALUES "
+                + "('100', 100, 1000), ('100', 100, 1001), ('100', 100, 1002), "
+                + "('101', 101, 1001), ('101', 101, 1002), "
+                + "('102', 102, 1002), "
+                + "('103', 103, 1001), ('103', 103, 1002), "
+                + "('104', 104, 1001), ('104', 104, 1002), "
+                + "('105', 105, 1000), "
+                + "('110', 110, 1100)");
+
+        permissionService = new PermissionServiceBean();
+        permissionService.em = NativeQueryEntityManager.create(connection);
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private void execute(String... sqls) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private static List<DataFile> files(Long... ids) {
+        List<DataFile> files = new ArrayList<>();
+        for (Long id : ids) {
+            DataFile file = new DataFile();
+            file.setId(id);
+            files.add(file);
+        }
+        return files;
+    }
+
+    @Test
+    public void testFindPublicallyDownloadableFileIds() {
+        assertEquals(new HashSet<>(Arrays.asList(100L, 104L)),
+                permissionService.findPublicallyDownloadableFileIds(Arrays.asList(100L, 101L, 102L, 103L, 104L, 105L, 110L)));
+        assertEquals(Collections.singleton(100L), permissionService.findPublicallyDownloadableFileIds(Arrays.asList(100L, 101L)));
+        assertTrue(permissionService.findPublicallyDownloadableFileIds(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testFindDownloadableFileIds() {
+        PermissionServiceBean permissions = spy(permissionService);
+        // the user has a role that lets them download 101 and 103
+        List<Collection<? extends DvObject>> checked = new ArrayList<>();
+        doAnswer(invocation -> {
+            Collection<? extends DvObject> dvos = invocation.getArgument(1);
+            checked.add(dvos);
+            Map<Long, Boolean> decisions = new HashMap<>();
+            for (DvObject dvo : dvos) {
+                decisions.put(dvo.getId(), dvo.getId() == 101L || dvo.getId() == 103L);
+            }
+            return decisions;
+        }).when(permissions).hasPermissionsForEach(any(DataverseRequest.class), anyCollection(), eq(EnumSet.of(Permission.DownloadFile)));
+        DataverseRequest request = MocksFactory.makeRequest(MocksFactory.makeAuthenticatedUser("Jane", "Doe"));
+
+        Set<Long> downloadable = permissions.findDownloadableFileIds(request, files(100L, 101L, 102L, 103L, 104L, 105L));
+
+        assertEquals(new HashSet<>(Arrays.asList(100L, 101L, 103L, 104L)), downloadable);
+        // only the files that aren't public are checked against the roles
+        assertEquals(1, checked.size());
+        assertEquals(new HashSet<>(Arrays.asList(101L, 102L, 103L, 105L)),
+                checked.get(0).stream().map(DvObject::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testFindDownloadableFileIdsForSuperuser() {
+        PermissionServiceBean permissions = spy(permissionService);
+        AuthenticatedUser superuser = MocksFactory.makeAuthenticatedUser("Super", "User");
+        superuser.setSuperuser(true);
+
+        Set<Long> downloadable = permissions.findDownloadableFileIds(MocksFactory.makeRequest(superuser), files(101L, 102L, 103L));
+
+        assertEquals(new HashSet<>(Arrays.asList(101L, 102L, 103L)), downloadable);
+        verify(permissions, never()).findPublicallyDownloadableFileIds(anyCollection());
+    }
+}
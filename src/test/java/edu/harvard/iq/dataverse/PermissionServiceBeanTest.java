@@ -0,0 +1,92 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.DataverseRole;
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroup;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PermissionServiceBeanTest {
+
+    PermissionServiceBean permissionService;
+    AuthenticatedUser user;
+    DataverseRequest request;
+    Dataverse root;
+    Dataverse subDataverse;
+    Dataset datasetInSub;
+    Dataset datasetInRoot;
+
+    @BeforeEach
+    void setUp() {
+        root = MocksFactory.makeDataverse();
+        subDataverse = MocksFactory.makeDataverse();
+        subDataverse.setOwner(root);
+        subDataverse.setPermissionRoot(false);
+        datasetInSub = MocksFactory.makeDataset();
+        datasetInSub.setOwner(subDataverse);
+        datasetInRoot = MocksFactory.makeDataset();
+        datasetInRoot.setOwner(root);
+
+        user = MocksFactory.makeAuthenticatedUser("Jane", "Doe");
+        request = MocksFactory.makeRequest(user);
+
+        // a group of the sub-dataverse, to which a role is assigned on the root
+        ExplicitGroup group = mock(ExplicitGroup.class);
+        when(group.getIdentifier()).thenReturn("&explicit/group");
+        when(group.getOwner()).thenReturn(subDataverse);
+        DataverseRole editor = MocksFactory.makeRole("editor");
+        DataverseRole viewer = new DataverseRole();
+        viewer.setId(MocksFactory.nextId());
+        viewer.addPermission(Permission.ViewUnpublishedDataset);
+
+        permissionService = new PermissionServiceBean();
+        permissionService.groupService = mock(GroupServiceBean.class);
+        when(permissionService.groupService.groupsFor(request)).thenReturn(Collections.singleton(group));
+        permissionService.roleService = mock(DataverseRoleServiceBean.class);
+        when(permissionService.roleService.directRoleAssignmentIds(anySet(), anyCollection())).thenReturn(Arrays.asList(
+                new Object[]{root.getId(), "&explicit/group", editor.getId()},
+                new Object[]{datasetInRoot.getId(), user.getIdentifier(), viewer.getId()}));
+        when(permissionService.roleService.find(editor.getId())).thenReturn(editor);
+        when(permissionService.roleService.find(viewer.getId())).thenReturn(viewer);
+        permissionService.permissionDecisionCache = new PermissionDecisionCache();
+    }
+
+    @Test
+    void testHasPermissionsForEach() {
+        Map<Long, Boolean> canEdit = permissionService.hasPermissionsForEach(request, Arrays.asList(datasetInSub, datasetInRoot), EnumSet.of(Permission.EditDataset));
+        assertTrue(canEdit.get(datasetInSub.getId()));
+        // the group doesn't count outside of its dataverse
+        assertFalse(canEdit.get(datasetInRoot.getId()));
+
+        Map<Long, Boolean> canView = permissionService.hasPermissionsForEach(request, Arrays.asList(datasetInSub, datasetInRoot), EnumSet.of(Permission.ViewUnpublishedDataset));
+        assertTrue(canView.get(datasetInSub.getId()));
+        assertTrue(canView.get(datasetInRoot.getId()));
+        verify(permissionService.roleService, times(2)).directRoleAssignmentIds(anySet(), anyCollection());
+
+        // kept for the checks made one object at a time
+        assertTrue(permissionService.hasPermissionsFor(request, datasetInSub, EnumSet.of(Permission.EditDataset)));
+        verify(permissionService.groupService, never()).groupsFor(request, datasetInSub);
+    }
+
+    @Test
+    void testSuperuser() {
+        user.setSuperuser(true);
+        Map<Long, Boolean> canEdit = permissionService.hasPermissionsForEach(request, Arrays.asList(datasetInSub, datasetInRoot), EnumSet.of(Permission.EditDataset));
+        assertTrue(canEdit.get(datasetInSub.getId()));
+        assertTrue(canEdit.get(datasetInRoot.getId()));
+        verifyZeroInteractions(permissionService.roleService);
+    }
+}
@@ -0,0 +1,264 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.search.SolrSearchResult;
+import edu.harvard.iq.dataverse.util.testing.NativeQueryEntityManager;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the search result cards filled in for a whole page
+ * ({@code populate...SearchCards}) are the same as those filled in one at a
+ * time ({@code populate...SearchCard}). Runs against PostgreSQL
+ * ({@code mvn -Ptc verify}), with the columns of the tables as created by
+ * the application.
+ */
+@Tag("testcontainers")
+@Testcontainers
+public class SearchCardsIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "9.6"));
+
+    Connection connection;
+    DataverseServiceBean dataverseService;
+    DatasetVersionServiceBean datasetVersionService;
+    DataFileServiceBean dataFileService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        execute("DROP TABLE IF EXISTS dvobject, dataverse, dataset, datasetversion, datafile, datatable, datafiletag",
+                "CREATE TABLE dvobject (id SERIAL PRIMARY KEY, dtype VARCHAR(31), authority VARCHAR(255), createdate TIMESTAMP NOT NULL DEFAULT now(), "
+                + "identifier VARCHAR(255), indextime TIMESTAMP, modificationtime TIMESTAMP NOT NULL DEFAULT now(), permissionindextime TIMESTAMP, "
+                + "permissionmodificationtime TIMESTAMP, previewimageavailable BOOLEAN, protocol VARCHAR(255), publicationdate TIMESTAMP, "
+                + "storageidentifier VARCHAR(255), creator_id BIGINT, owner_id BIGINT, releaseuser_id BIGINT)",
+                "CREATE TABLE dataverse (id BIGINT PRIMARY KEY, affiliation VARCHAR(255), alias VARCHAR(255) NOT NULL UNIQUE)",
+                "CREATE TABLE dataset (id BIGINT PRIMARY KEY, usegenericthumbnail BOOLEAN, thumbnailfile_id BIGINT)",
+                "CREATE TABLE datasetversion (id SERIAL PRIMARY KEY, versionstate VARCHAR(255), dataset_id BIGINT)",
+                "CREATE TABLE datafile (id BIGINT PRIMARY KEY, checksumtype VARCHAR(255) NOT NULL, checksumvalue VARCHAR(255) NOT NULL, "
+                + "contenttype VARCHAR(255) NOT NULL, filesize BIGINT, ingeststatus CHAR(1), previousdatafileid BIGINT, restricted BOOLEAN, "
+                + "rootdatafileid BIGINT NOT NULL)",
+                "CREATE TABLE datatable (id SERIAL PRIMARY KEY, casequantity BIGINT, originalfileformat VARCHAR(255), originalfilesize BIGINT, "
+                + "unf VARCHAR(255) NOT NULL, varquantity BIGINT, datafile_id BIGINT NOT NULL)",
+                "CREATE TABLE datafiletag (id SERIAL PRIMARY KEY, type INTEGER NOT NULL, datafile_id BIGINT NOT NULL)");
+
+        execute("INSERT INTO dvobject (id, dtype, owner_id) VALUES (1, 'Dataverse', NULL), (2, 'Dataverse', 1), (3, 'Dataverse', 2)",
+                "INSERT INTO dataverse (id, affiliation, alias) VALUES (1, NULL, 'root'), (2, 'Harvard', 'sub'), (3, NULL, 'subsub')",
+                "INSERT INTO dvobject (id, dtype, owner_id, protocol, authority, identifier, storageidentifier) VALUES "
+                + "(10, 'Dataset', 2, 'doi', '10.5072', 'FK2/AAAAAA', 'file://10.5072/FK2/AAAAAA'), "
+                + "(11, 'Dataset', 3, 'doi', '10.5072', 'FK2/BBBBBB', 's3://bucket:10.5072/FK2/BBBBBB'), "
+                + "(12, 'Dataset', 2, 'doi', '10.5072', 'FK2/CCCCCC', NULL)",
+                "INSERT INTO dataset (id, usegenericthumbnail, thumbnailfile_id) VALUES (10, false, 100), (11, true, NULL), (12, NULL, NULL)",
+                "INSERT INTO datasetversion (id, versionstate, dataset_id) VALUES (1000, 'RELEASED', 10), (1100, 'DEACCESSIONED', 11), (1200, 'DRAFT', 12)",
+                "INSERT INTO dvobject (id, dtype, owner_id, storageidentifier, protocol, authority, identifier, previewimageavailable) VALUES "
+                + "(100, 'DataFile', 10, 'file://100', 'doi', '10.5072', 'FK2/AAAAAA/1', true), "
+                + "(101, 'DataFile', 10, 'file://101', NULL, NULL, NULL, NULL), "
+                + "(102, 'DataFile', 11, 'file://102', NULL, NULL, NULL, NULL), "
+                + "(103, 'DataFile', 12, 'file://103', NULL, NULL, NULL, NULL)",
+                "INSERT INTO datafile (id, checksumtype, checksumvalue, contenttype, filesize, ingeststatus, previousdatafileid, restricted, rootdatafileid) VALUES "
+                + "(100, 'MD5', 'md5-100', 'image/png', 1000, 'A', NULL, false, -1), "
+                + "(101, 'SHA1', 'sha1-101', 'text/tsv', 1010, 'A', 99, true, 99), "
+                + "(102, 'MD5', 'md5-102', 'text/tab-separated-values', 1020, 'A', NULL, false, -1), "
+                + "(103, 'MD5', 'md5-103', 'text/tsv', 1030, 'E', NULL, false, -1)",
+                "INSERT INTO datatable (casequantity, originalfileformat, originalfilesize, unf, varquantity, datafile_id) VALUES "
+                + "(10, 'text/csv', 2000, 'UNF:6:101', 3, 101), (20, NULL, NULL, 'UNF:6:102', 4, 102)",
+                // (Survey and Panel)
+                "INSERT INTO datafiletag (type, datafile_id) VALUES (0, 101), (2, 101)");
+
+        dataverseService = new DataverseServiceBean();
+        dataverseService.em = NativeQueryEntityManager.create(connection);
+        dataFileService = new DataFileServiceBean();
+        dataFileService.em = NativeQueryEntityManager.create(connection);
+        datasetVersionService = new DatasetVersionServiceBean();
+        datasetVersionService.em = NativeQueryEntityManager.create(connection);
+        datasetVersionService.datafileService = dataFileService;
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private void execute(String... sqls) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * @return a search result, with the fields taken from the Solr document
+     * by SearchServiceBean
+     */
+    private static SolrSearchResult result(Long entityId, String parentId) {
+        // (the constructor is package-private)
+        SolrSearchResult result = Mockito.mock(SolrSearchResult.class, Mockito.CALLS_REAL_METHODS);
+        result.setEntityId(entityId);
+        Map<String, String> parent = new HashMap<>();
+        if (parentId != null) {
+            parent.put("id", parentId);
+        }
+        result.setParent(parent);
+        result.setPublicationStatuses(new ArrayList<>());
+        return result;
+    }
+
+    private static List<SolrSearchResult> dataverseResults() {
+        List<SolrSearchResult> results = new ArrayList<>();
+        String[][] solrDocs = {
+            // entity id, parent id, alias, affiliation
+            {"1", null, "root", null},
+            {"2", "1", "sub", "Harvard"},
+            {"3", "2", "subsub", null},
+            // (deleted since it was indexed)
+            {"99", "2", "gone", "Gone"}
+        };
+        for (String[] solrDoc : solrDocs) {
+            SolrSearchResult result = result(Long.valueOf(solrDoc[0]), solrDoc[1]);
+            result.setDataverseAlias(solrDoc[2]);
+            result.setDataverseAffiliation(solrDoc[3]);
+            results.add(result);
+        }
+        return results;
+    }
+
+    @Test
+    public void testDataverseCards() {
+        List<SolrSearchResult> oneByOne = dataverseResults();
+        oneByOne.forEach(dataverseService::populateDvSearchCard);
+        List<SolrSearchResult> batched = dataverseResults();
+        dataverseService.populateDvSearchCards(batched);
+
+        for (int i = 0; i < batched.size(); i++) {
+            SolrSearchResult expected = oneByOne.get(i);
+            SolrSearchResult actual = batched.get(i);
+            String card = "dataverse " + actual.getEntityId();
+            assertEquals(expected.getDataverseAlias(), actual.getDataverseAlias(), card);
+            assertEquals(expected.getDataverseAffiliation(), actual.getDataverseAffiliation(), card);
+            assertEquals(expected.getDataverseParentAlias(), actual.getDataverseParentAlias(), card);
+        }
+        assertEquals("sub", batched.get(2).getDataverseParentAlias());
+        assertNull(batched.get(0).getDataverseParentAlias());
+    }
+
+    private static List<SolrSearchResult> datasetResults() {
+        List<SolrSearchResult> results = new ArrayList<>();
+        Object[][] solrDocs = {
+            // entity id, version id, parent id, dataverse alias, identifier, publication statuses
+            {10L, 1000L, "2", "sub", "doi:10.5072/FK2/AAAAAA", Arrays.asList(IndexServiceBean.getPUBLISHED_STRING())},
+            {11L, 1100L, "3", "subsub", "doi:10.5072/FK2/BBBBBB", Arrays.asList(IndexServiceBean.getDEACCESSIONED_STRING())},
+            {12L, 1200L, "2", "sub", "doi:10.5072/FK2/CCCCCC", Arrays.asList(IndexServiceBean.getUNPUBLISHED_STRING(), IndexServiceBean.getDRAFT_STRING())}
+        };
+        for (Object[] solrDoc : solrDocs) {
+            SolrSearchResult result = result((Long) solrDoc[0], (String) solrDoc[2]);
+            result.setDatasetVersionId((Long) solrDoc[1]);
+            result.setIdentifierOfDataverse((String) solrDoc[3]);
+            result.setIdentifier((String) solrDoc[4]);
+            @SuppressWarnings("unchecked")
+            List<String> statuses = (List<String>) solrDoc[5];
+            result.setPublicationStatuses(statuses);
+            results.add(result);
+        }
+        return results;
+    }
+
+    @Test
+    public void testDatasetCards() {
+        List<SolrSearchResult> oneByOne = datasetResults();
+        oneByOne.forEach(datasetVersionService::populateDatasetSearchCard);
+        List<SolrSearchResult> batched = datasetResults();
+        datasetVersionService.populateDatasetSearchCards(batched);
+
+        for (int i = 0; i < batched.size(); i++) {
+            SolrSearchResult expected = oneByOne.get(i);
+            SolrSearchResult actual = batched.get(i);
+            String card = "dataset " + actual.getEntityId();
+            assertEquals(expected.isDeaccessionedState(), actual.isDeaccessionedState(), card);
+            assertEquals(expected.getDataverseAlias(), actual.getDataverseAlias(), card);
+            Dataset expectedDataset = (Dataset) expected.getEntity();
+            Dataset actualDataset = (Dataset) actual.getEntity();
+            assertEquals(expectedDataset.getGlobalId().asString(), actualDataset.getGlobalId().asString(), card);
+            assertEquals(expectedDataset.getStorageIdentifier(), actualDataset.getStorageIdentifier(), card);
+            assertEquals(expectedDataset.isUseGenericThumbnail(), actualDataset.isUseGenericThumbnail(), card);
+            assertEquals(expectedDataset.getThumbnailFile() == null ? null : expectedDataset.getThumbnailFile().getId(),
+                    actualDataset.getThumbnailFile() == null ? null : actualDataset.getThumbnailFile().getId(), card);
+        }
+        assertTrue(batched.get(1).isDeaccessionedState());
+        assertEquals(100L, ((Dataset) batched.get(0).getEntity()).getThumbnailFile().getId());
+        assertTrue(((Dataset) batched.get(1).getEntity()).isUseGenericThumbnail());
+    }
+
+    @Test
+    public void testFileCards() {
+        List<SolrSearchResult> batched = new ArrayList<>();
+        for (long id : new long[]{101, 100, 102, 103, 999}) {
+            batched.add(result(id, null));
+        }
+        dataFileService.populateFileSearchCards(batched);
+
+        DataFile tabular = (DataFile) batched.get(0).getEntity();
+        assertEquals(101L, tabular.getId());
+        assertEquals("text/tsv", tabular.getContentType());
+        assertEquals(1010L, tabular.getFilesize());
+        assertEquals(DataFile.ChecksumType.SHA1, tabular.getChecksumType());
+        assertEquals("sha1-101", tabular.getChecksumValue());
+        assertTrue(tabular.isRestricted());
+        assertEquals(99L, tabular.getPreviousDataFileId());
+        assertEquals(10L, tabular.getOwner().getId());
+        assertEquals("FK2/AAAAAA", tabular.getOwner().getIdentifier());
+        assertEquals("UNF:6:101", tabular.getDataTable().getUnf());
+        assertEquals(10L, tabular.getDataTable().getCaseQuantity());
+        assertEquals(3L, tabular.getDataTable().getVarQuantity());
+        assertEquals("text/csv", tabular.getDataTable().getOriginalFileFormat());
+        assertEquals(2000L, tabular.getDataTable().getOriginalFileSize());
+        assertEquals(Arrays.asList("Survey", "Panel"), tabular.getTagLabels());
+
+        DataFile image = (DataFile) batched.get(1).getEntity();
+        assertEquals("image/png", image.getContentType());
+        assertTrue(image.isPreviewImageAvailable());
+        assertEquals("doi:10.5072/FK2/AAAAAA/1", image.getGlobalId().asString());
+        assertNull(image.getDataTable());
+        assertTrue(image.getTagLabels().isEmpty());
+
+        // (the other spelling of the tabular content type)
+        DataFile tabularAlt = (DataFile) batched.get(2).getEntity();
+        assertEquals("UNF:6:102", tabularAlt.getDataTable().getUnf());
+        assertTrue(tabularAlt.getTagLabels().isEmpty());
+        assertEquals(11L, tabularAlt.getOwner().getId());
+
+        // ingest failed: tabular content type, but no data table
+        DataFile failed = (DataFile) batched.get(3).getEntity();
+        assertNull(failed.getDataTable());
+        assertFalse(failed.isRestricted());
+
+        assertNull(batched.get(4).getEntity());
+
+        // a single card gets the same file:
+        SolrSearchResult single = result(101L, null);
+        dataFileService.populateFileSearchCard(single);
+        assertEquals("UNF:6:101", ((DataFile) single.getEntity()).getDataTable().getUnf());
+        assertEquals(Arrays.asList("Survey", "Panel"), ((DataFile) single.getEntity()).getTagLabels());
+    }
+}
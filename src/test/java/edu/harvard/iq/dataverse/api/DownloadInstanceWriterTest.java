@@ -1,9 +1,17 @@
 package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.dataaccess.Range;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import org.apache.commons.io.IOUtils;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -76,14 +84,34 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
-    // Attempt to get invalid range (multiple ranges).
+    // Multiple ranges.
+    @Test
+    public void testGetRangeMultipleRanges() {
+        List<Range> ranges = diw.getRanges("bytes=0-9,90-", 100);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+        assertEquals(90, ranges.get(1).getStart());
+        assertEquals(99, ranges.get(1).getEnd());
+        assertEquals(10, ranges.get(1).getLength());
+    }
+
+    // Attempt to get invalid range (multiple ranges, overlapping or out of order).
     @Test
     public void testGetRangeInvalidMultipleRanges() {
         Exception expectedException = null;
         try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 100);
+            List<Range> ranges = diw.getRanges("bytes=0-9,5-19", 100);
+        } catch (Exception ex) {
+            // "Multiple ranges must be in ascending order and must not overlap."
+            System.out.println("exception: " + ex);
+            expectedException = ex;
+        }
+        assertNotNull(expectedException);
+        expectedException = null;
+        try {
+            List<Range> ranges = diw.getRanges("bytes=90-99,0-9", 100);
         } catch (Exception ex) {
-            // "Only one range is allowed."
             System.out.println("exception: " + ex);
             expectedException = ex;
         }
@@ -97,8 +125,7 @@ public class DownloadInstanceWriterTest {
         try {
             List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 40);
         } catch (Exception ex) {
-            // "Only one range is allowed."
-            // We report the multiple ranges error before reporting the "beyond filesize" error.
+            // "Start is larger than end or size of file." (for the second range)
             System.out.println("exception: " + ex);
             expectedException = ex;
         }
@@ -145,4 +172,63 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
+    // Rows 101 through 200 (1-based, in the parameter; 0-based in the range).
+    @Test
+    public void testGetRowRange101to200of1000() {
+        Range rows = DownloadInstanceWriter.getRowRange("101-200", 1000);
+        assertEquals(100, rows.getStart());
+        assertEquals(199, rows.getEnd());
+        assertEquals(100, rows.getLength());
+    }
+
+    // From row 901 to the end.
+    @Test
+    public void testGetRowRange901toNullof1000() {
+        Range rows = DownloadInstanceWriter.getRowRange("901-", 1000);
+        assertEquals(900, rows.getStart());
+        assertEquals(999, rows.getEnd());
+    }
+
+    // The last 10 rows; and more rows than there are.
+    @Test
+    public void testGetRowRangeLastRows() {
+        Range rows = DownloadInstanceWriter.getRowRange("-10", 1000);
+        assertEquals(990, rows.getStart());
+        assertEquals(999, rows.getEnd());
+        rows = DownloadInstanceWriter.getRowRange("-10", 5);
+        assertEquals(0, rows.getStart());
+        assertEquals(4, rows.getEnd());
+    }
+
+    // Rows beyond the end are cut off, like bytes.
+    @Test
+    public void testGetRowRangeBeyondCaseCount() {
+        Range rows = DownloadInstanceWriter.getRowRange("10-20", 15);
+        assertEquals(9, rows.getStart());
+        assertEquals(14, rows.getEnd());
+    }
+
+    @Test
+    public void testGetRowRangeInvalid() {
+        for (String invalid : new String[]{"junk", "-", "0-10", "20-10", "16-20", "1-2,5-6", "-0"}) {
+            Exception expectedException = null;
+            try {
+                DownloadInstanceWriter.getRowRange(invalid, 15);
+            } catch (Exception ex) {
+                expectedException = ex;
+            }
+            assertNotNull(invalid, expectedException);
+        }
+    }
+
+    @Test
+    public void testOpenTempFileDeletesItOnClose() throws IOException {
+        File tempFile = File.createTempFile("tempRowsFile", ".tmp");
+        Files.write(tempFile.toPath(), "1\t2\n".getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = DownloadInstanceWriter.openTempFile(tempFile)) {
+            assertEquals("1\t2\n", new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+            assertTrue(tempFile.exists());
+        }
+        assertFalse(tempFile.exists());
+    }
 }
@@ -16,8 +16,11 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
 import javax.json.JsonArray;
 import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
 import org.hamcrest.CoreMatchers;
 import static org.junit.Assert.assertFalse;
@@ -730,6 +733,45 @@ public class SearchIT {
 
     }
 
+    @Test
+    public void testSearchExport() {
+
+        Response createUser = UtilIT.createRandomUser();
+        createUser.prettyPrint();
+        String apiToken = UtilIT.getApiTokenFromResponse(createUser);
+
+        Response createDataverseResponse = UtilIT.createRandomDataverse(apiToken);
+        createDataverseResponse.prettyPrint();
+        String dataverseAlias = UtilIT.getAliasFromResponse(createDataverseResponse);
+
+        for (int i = 0; i < 3; i++) {
+            Response createDatasetResponse = UtilIT.createRandomDatasetViaNativeApi(dataverseAlias, apiToken);
+            createDatasetResponse.then().assertThat()
+                    .statusCode(CREATED.getStatusCode());
+        }
+
+        String subtree = "&subtree=" + dataverseAlias + "&type=dataset";
+        assertTrue(UtilIT.sleepForSearch("*", apiToken, subtree, UtilIT.MAXIMUM_INGEST_LOCK_DURATION));
+
+        // pages of 2 datasets: the export goes on to the second page
+        Response export = UtilIT.searchExport("*", apiToken, subtree + "&per_page=2&show_entity_ids=true");
+        export.then().assertThat()
+                .statusCode(OK.getStatusCode());
+        String[] lines = export.getBody().asString().trim().split("\n");
+        assertEquals(3, lines.length);
+        Set<Integer> entityIds = new HashSet<>();
+        for (String line : lines) {
+            JsonPath item = JsonPath.from(line);
+            assertEquals("dataset", item.getString("type"));
+            entityIds.add(item.getInt("entity_id"));
+        }
+        assertEquals(3, entityIds.size());
+
+        Response badQuery = UtilIT.searchExport(":", apiToken, subtree);
+        badQuery.then().assertThat()
+                .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
     @Test
     public void testNestedSubtree() {
         Response createUser = UtilIT.createRandomUser();
@@ -1791,6 +1791,15 @@ public class UtilIT {
         return search(query, apiToken, "");
     }
 
+    static Response searchExport(String query, String apiToken, String parameterString) {
+        RequestSpecification requestSpecification = given();
+        if (apiToken != null) {
+            requestSpecification = given()
+                    .header(UtilIT.API_TOKEN_HTTP_HEADER, apiToken);
+        }
+        return requestSpecification.get("/api/search/export?q=" + query + parameterString);
+    }
+
     static Response searchAndShowFacets(String query, String apiToken) {
         RequestSpecification requestSpecification = given();
         if (apiToken != null) {
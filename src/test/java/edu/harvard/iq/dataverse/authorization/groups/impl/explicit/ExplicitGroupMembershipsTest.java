@@ -0,0 +1,96 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.authorization.groups.impl.builtin.AuthenticatedUsers;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplicitGroupMembershipsTest {
+
+    Dataverse root;
+    Dataverse sub;
+    Dataset dataset;
+    AuthenticatedUser user;
+    ExplicitGroup parent;
+    ExplicitGroup child;
+    ExplicitGroup grandChild;
+    ExplicitGroupMemberships memberships;
+
+    @BeforeEach
+    void setUp() {
+        root = MocksFactory.makeDataverse();
+        sub = MocksFactory.makeDataverse();
+        sub.setOwner(root);
+        dataset = MocksFactory.makeDataset();
+        dataset.setOwner(sub);
+        user = MocksFactory.makeAuthenticatedUser("Jane", "Doe");
+        parent = MocksFactory.makeExplicitGroup("parent", null);
+        child = MocksFactory.makeExplicitGroup("child", null);
+        grandChild = MocksFactory.makeExplicitGroup("grandChild", null);
+
+        // grandChild is in child, which is in parent; parent is defined in the sub dataverse.
+        memberships = new ExplicitGroupMemberships.Builder()
+                .addGroup(parent.getId(), sub.getId())
+                .addGroup(child.getId(), root.getId())
+                .addGroup(grandChild.getId(), root.getId())
+                .addExplicitGroup(parent.getId(), child.getId())
+                .addExplicitGroup(child.getId(), grandChild.getId())
+                .addAuthenticatedUser(grandChild.getId(), user.getId())
+                .addRoleAssignee(child.getId(), AuthenticatedUsers.get().getIdentifier())
+                .build(3);
+    }
+
+    @Test
+    void testDirectlyContainingGroups() {
+        assertEquals(3, memberships.getVersion());
+        assertEquals(ids(grandChild), memberships.findDirectlyContainingGroupIds(user));
+        assertEquals(ids(child), memberships.findDirectlyContainingGroupIds(grandChild));
+        assertEquals(ids(parent), memberships.findDirectlyContainingGroupIds(child));
+        assertEquals(ids(), memberships.findDirectlyContainingGroupIds(parent));
+        assertEquals(ids(child), memberships.findDirectlyContainingGroupIds(AuthenticatedUsers.get()));
+        assertEquals(ids(), memberships.findDirectlyContainingGroupIds(MocksFactory.makeAuthenticatedUser("John", "Doe")));
+    }
+
+    @Test
+    void testClosure() {
+        assertEquals(ids(grandChild, child, parent), memberships.findClosure(memberships.findDirectlyContainingGroupIds(user)));
+        assertEquals(ids(child, parent), memberships.findClosure(ids(child)));
+        assertEquals(ids(), memberships.findClosure(Collections.emptySet()));
+    }
+
+    @Test
+    void testClosureWithCycle() {
+        ExplicitGroupMemberships cyclic = new ExplicitGroupMemberships.Builder()
+                .addGroup(parent.getId(), root.getId())
+                .addGroup(child.getId(), root.getId())
+                .addExplicitGroup(parent.getId(), child.getId())
+                .addExplicitGroup(child.getId(), parent.getId())
+                .build(1);
+        assertEquals(ids(child, parent), cyclic.findClosure(ids(child)));
+    }
+
+    @Test
+    void testIsAvailableIn() {
+        assertTrue(memberships.isAvailableIn(parent.getId(), dataset));
+        assertTrue(memberships.isAvailableIn(parent.getId(), sub));
+        assertFalse(memberships.isAvailableIn(parent.getId(), root));
+        assertTrue(memberships.isAvailableIn(child.getId(), dataset));
+        assertFalse(memberships.isAvailableIn(MocksFactory.nextId(), dataset));
+    }
+
+    private static Set<Long> ids(ExplicitGroup... groups) {
+        Set<Long> ids = new HashSet<>();
+        Arrays.stream(groups).forEach(g -> ids.add(g.getId()));
+        return ids;
+    }
+}
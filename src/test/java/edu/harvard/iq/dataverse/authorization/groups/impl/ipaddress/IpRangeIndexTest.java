@@ -0,0 +1,110 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpRangeIndexTest {
+
+    @Test
+    void testIpv4() {
+        IpRangeIndex index = new IpRangeIndex.Builder()
+                .addIpv4(1, asLong("0.0.0.0"), asLong("255.255.255.255"))
+                .addIpv4(2, asLong("10.0.0.0"), asLong("10.0.255.255"))
+                .addIpv4(3, asLong("10.0.1.0"), asLong("10.0.1.255"))
+                .addIpv4(3, asLong("192.168.0.1"), asLong("192.168.0.1"))
+                .build(7);
+
+        assertEquals(7, index.getVersion());
+        assertEquals(4, index.size());
+        assertEquals(set(1, 2, 3), groupIds(index, "10.0.1.7"));
+        assertEquals(set(1, 2), groupIds(index, "10.0.2.7"));
+        assertEquals(set(1, 3), groupIds(index, "192.168.0.1"));
+        assertEquals(set(1), groupIds(index, "192.168.0.2"));
+        assertEquals(set(1), groupIds(index, "255.255.255.255"));
+        // no IPv6 ranges
+        assertEquals(set(), groupIds(index, "::1"));
+    }
+
+    @Test
+    void testIpv6() {
+        IpRangeIndex.Builder builder = new IpRangeIndex.Builder();
+        addIpv6(builder, 1, "2001:db8::", "2001:db8::ffff");
+        addIpv6(builder, 2, "ffff::", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+        addIpv6(builder, 3, "::1", "::1");
+        IpRangeIndex index = builder.build(1);
+
+        assertEquals(set(1), groupIds(index, "2001:db8::abc"));
+        assertEquals(set(), groupIds(index, "2001:db8::1:0"));
+        assertEquals(set(2), groupIds(index, "ffff::1"));
+        assertEquals(set(3), groupIds(index, "::1"));
+        // no IPv4 ranges
+        assertEquals(set(), groupIds(index, "127.0.0.1"));
+    }
+
+    @Test
+    void testSameAsRanges() {
+        Random random = new Random(42);
+        List<IPv4Range> ranges = new ArrayList<>();
+        IpRangeIndex.Builder builder = new IpRangeIndex.Builder();
+        for (int i = 0; i < 200; i++) {
+            IPv4Address a = randomIpv4(random);
+            IPv4Address b = randomIpv4(random);
+            IPv4Range range = (a.compareTo(b) <= 0) ? new IPv4Range(a, b) : new IPv4Range(b, a);
+            ranges.add(range);
+            builder.addIpv4(i, range.getBottomAsLong().longValue(), range.getTopAsLong().longValue());
+        }
+        IpRangeIndex index = builder.build(1);
+
+        for (int i = 0; i < 1000; i++) {
+            IPv4Address address = randomIpv4(random);
+            Set<Long> expected = new HashSet<>();
+            for (int r = 0; r < ranges.size(); r++) {
+                if (ranges.get(r).contains(address)) {
+                    expected.add((long) r);
+                }
+            }
+            Set<Long> found = new HashSet<>();
+            index.forEachGroupIdContaining(address, found::add);
+            assertEquals(expected, found, address.toString());
+        }
+    }
+
+    private static Set<Long> groupIds(IpRangeIndex index, String address) {
+        Set<Long> ids = new HashSet<>();
+        index.forEachGroupIdContaining(IpAddress.valueOf(address), ids::add);
+        return ids;
+    }
+
+    private static Set<Long> set(long... ids) {
+        Set<Long> set = new HashSet<>();
+        Arrays.stream(ids).forEach(set::add);
+        return set;
+    }
+
+    private static long asLong(String address) {
+        return IPv4Address.valueOf(address).toBigInteger().longValue();
+    }
+
+    private static IPv4Address randomIpv4(Random random) {
+        return new IPv4Address(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static void addIpv6(IpRangeIndex.Builder builder, long groupId, String bottom, String top) {
+        IPv6Range range = new IPv6Range(IPv6Address.valueOf(bottom), IPv6Address.valueOf(top));
+        builder.addIpv6(groupId, range.getBottomA(), range.getBottomB(), range.getBottomC(), range.getBottomD(),
+                range.getTopA(), range.getTopB(), range.getTopC(), range.getTopD());
+    }
+}
@@ -0,0 +1,121 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Download throughput of a (multi-GB) local file: the old loop through a 32KB
+ * array, as DownloadInstanceWriter used to do, vs. FileAccessIO.copyRange();
+ * into a stream that discards the bytes (standing in for the servlet
+ * response), and into a file. Not run by default; to run it:
+ *
+ * mvn test -Dtest=CopyRangeBenchmarkTest -Ddataverse.benchmark=true [-Ddataverse.benchmark.size-mb=4096]
+ *
+ * (Reading the same file over and over, this measures the copy from the page
+ * cache rather than the disk; which is the point.)
+ */
+@EnabledIfSystemProperty(named = "dataverse.benchmark", matches = "true")
+class CopyRangeBenchmarkTest {
+
+    static final int RUNS = 3;
+
+    @TempDir
+    static Path tempDir;
+
+    static File file;
+    static long size;
+
+    @BeforeAll
+    static void createFile() throws IOException {
+        size = Long.getLong("dataverse.benchmark.size-mb", 2048) * 1024 * 1024;
+        file = tempDir.resolve("benchmark.bin").toFile();
+        byte[] block = new byte[8 * 1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    interface Copy {
+        void copy(OutputStream out) throws IOException;
+    }
+
+    static void oldLoop(OutputStream out) throws IOException {
+        byte[] bffr = new byte[4 * 8192];
+        int bufsize;
+        try (InputStream instream = new FileInputStream(file)) {
+            while ((bufsize = instream.read(bffr)) != -1) {
+                out.write(bffr, 0, bufsize);
+            }
+        }
+    }
+
+    static void copyRange(OutputStream out) throws IOException {
+        FileAccessIO<DataFile> fileAccess = new FileAccessIO<>(file.getAbsolutePath(), "file");
+        fileAccess.copyRange(0, size, out);
+    }
+
+    static class DiscardingOutputStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    static void measure(String name, Copy copy, boolean toFile) throws IOException {
+        // one warm-up run, then the best of RUNS:
+        double best = 0;
+        for (int run = 0; run <= RUNS; run++) {
+            File target = tempDir.resolve("target.bin").toFile();
+            long start = System.nanoTime();
+            if (toFile) {
+                try (FileOutputStream out = new FileOutputStream(target)) {
+                    copy.copy(out);
+                }
+                assertEquals(size, target.length());
+                target.delete();
+            } else {
+                DiscardingOutputStream out = new DiscardingOutputStream();
+                copy.copy(out);
+                assertEquals(size, out.count);
+            }
+            double mbPerSecond = size / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+            if (run > 0) {
+                best = Math.max(best, mbPerSecond);
+            }
+        }
+        System.out.printf("%-40s %10.1f MB/s%n", name, best);
+    }
+
+    @Test
+    void benchmark() throws IOException {
+        System.out.println("Copying " + size / 1024 / 1024 + " MB:");
+        measure("32KB loop, to a stream", CopyRangeBenchmarkTest::oldLoop, false);
+        measure("FileAccessIO.copyRange, to a stream", CopyRangeBenchmarkTest::copyRange, false);
+        measure("32KB loop, to a file", CopyRangeBenchmarkTest::oldLoop, true);
+        measure("FileAccessIO.copyRange, to a file", CopyRangeBenchmarkTest::copyRange, true);
+    }
+}
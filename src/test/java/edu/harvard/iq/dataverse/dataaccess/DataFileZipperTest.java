@@ -0,0 +1,176 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataFileZipperTest {
+
+    static final String DRIVER_ID = "ziptest";
+
+    @TempDir
+    Path tempDir;
+
+    Dataset dataset;
+    List<DataFile> dataFiles;
+
+    @BeforeEach
+    void setup() throws IOException {
+        System.setProperty("dataverse.files." + DRIVER_ID + ".type", "file");
+        System.setProperty("dataverse.files." + DRIVER_ID + ".directory", tempDir.toString());
+
+        dataset = MocksFactory.makeDataset();
+        dataset.setAuthority("10.5072");
+        dataset.setIdentifier("FK2/ZIPTEST");
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append(" of a text file\n");
+        }
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+
+        dataFiles = new ArrayList<>();
+        addFile("a.txt", null, "text/plain", text.toString().getBytes(StandardCharsets.UTF_8));
+        addFile("b.zip", null, "application/zip", random);
+        addFile("a.txt", null, "text/plain", "another a.txt\n".getBytes(StandardCharsets.UTF_8));
+        addFile("c.txt", "/folder", "text/plain", text.toString().getBytes(StandardCharsets.UTF_8));
+        addFile("empty.txt", "folder", "text/plain", new byte[0]);
+    }
+
+    @AfterEach
+    void cleanup() {
+        System.clearProperty("dataverse.files." + DRIVER_ID + ".type");
+        System.clearProperty("dataverse.files." + DRIVER_ID + ".directory");
+    }
+
+    private void addFile(String label, String directoryLabel, String contentType, byte[] content) throws IOException {
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier(DRIVER_ID + "://" + dataFile.getId());
+        dataFile.setContentType(contentType);
+        dataFile.setFilesize(content.length);
+        dataFile.getFileMetadata().setLabel(label);
+        dataFile.getFileMetadata().setDirectoryLabel(directoryLabel);
+
+        FileAccessIO<DataFile> fileAccess = (FileAccessIO<DataFile>) DataAccess.getStorageIO(dataFile);
+        Path path = fileAccess.getFileSystemPath();
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+        dataFiles.add(dataFile);
+    }
+
+    private byte[] zip(int parallelism, long prefetchSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, parallelism, prefetchSize);
+        try {
+            for (int i = 0; i < dataFiles.size(); i++) {
+                zipper.addFileToZipStream(dataFiles.get(i));
+                if (i == 1) {
+                    zipper.addToManifest("SOMETHING ELSE IS RESTRICTED\r\n");
+                }
+            }
+            zipper.finalizeZipStream();
+        } finally {
+            zipper.discardPendingEntries();
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> entries(byte[] zip) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.add(entry.getName() + ": " + new String(IOUtils.toByteArray(in), StandardCharsets.ISO_8859_1));
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    void testParallelZipIsTheSame() throws IOException {
+        List<String> expected = entries(zip(1, 0));
+        List<String> names = new ArrayList<>();
+        for (String entry : expected) {
+            names.add(entry.substring(0, entry.indexOf(": ")));
+        }
+        assertEquals(Arrays.asList("a.txt", "b.zip", "a_1.txt", "folder/", "folder/c.txt", "folder/empty.txt", "MANIFEST.TXT"), names);
+
+        // everything read ahead; and the text files too big for that:
+        assertEquals(expected, entries(zip(4, 64 * 1024 * 1024)));
+        assertEquals(expected, entries(zip(4, 10000)));
+        assertEquals(expected, entries(zip(2, 0)));
+    }
+
+    @Test
+    void testManifestOrder() throws IOException {
+        List<String> entries = entries(zip(4, 64 * 1024 * 1024));
+        String manifest = entries.get(entries.size() - 1);
+        assertTrue(manifest.startsWith("MANIFEST.TXT: a.txt (text/plain) "));
+        String[] lines = manifest.split("\r\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[1].startsWith("b.zip (application/zip) 4096 bytes."));
+        assertEquals("SOMETHING ELSE IS RESTRICTED", lines[2]);
+        assertTrue(lines[3].startsWith("a_1.txt (text/plain) 14 bytes."));
+    }
+
+    @Test
+    void testCompressedFormatsAreStored() throws IOException {
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip(4, 64 * 1024 * 1024)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertEquals(entry.getName().equals("b.zip") ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod(), entry.getName());
+            }
+        }
+        assertTrue(DataFileZipper.isCompressedFormat("image/jpeg"));
+        assertTrue(DataFileZipper.isCompressedFormat("application/x-dvn-stata-zip"));
+        assertFalse(DataFileZipper.isCompressedFormat("text/tab-separated-values"));
+    }
+
+    @Test
+    void testAddedSizesAddUpToTheBytesZipped() throws IOException {
+        long zipped = 0L;
+        for (DataFile dataFile : dataFiles) {
+            zipped += dataFile.getFilesize();
+        }
+        // the size saved for one of the files is wrong
+        dataFiles.get(2).setFilesize(1000000);
+
+        // written one at a time; or opened, and written, when their turn
+        // comes, which is right away (as nothing is read ahead)
+        for (int parallelism : new int[]{1, 4}) {
+            DataFileZipper zipper = new DataFileZipper(new ByteArrayOutputStream(), parallelism, 0);
+            long added = 0L;
+            try {
+                for (DataFile dataFile : dataFiles) {
+                    added += zipper.addFileToZipStream(dataFile);
+                }
+                zipper.finalizeZipStream();
+            } finally {
+                zipper.discardPendingEntries();
+            }
+            assertEquals(zipped, added);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import edu.harvard.iq.dataverse.mocks.MocksFactory;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -285,4 +286,20 @@ public class FileAccessIOTest {
         }
         assertEquals("This is a test string\n", sb.toString());
     }
+
+    /**
+     * Test of copyRange method, of class FileAccessIO.
+     *
+     * @throws java.io.IOException if test is broken
+     */
+    @Test
+    public void testCopyRange() throws IOException {
+        FileAccessIO<DataFile> fileAccess = new FileAccessIO<>(fileSystemPath.toString(), dummyDriverId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // in any order, and past the end of the file:
+        fileAccess.copyRange(10, 4, out);
+        fileAccess.copyRange(0, 4, out);
+        fileAccess.copyRange(15, 100, out);
+        assertEquals("testThisstring", out.toString("UTF-8"));
+    }
 }
@@ -242,4 +242,15 @@ public class StorageIOTest {
         assertEquals("Random	Random\n", instance.generateVariableHeader(dvs));
         assertEquals(null, instance.generateVariableHeader(null));
     }
+
+    @Test
+    public void testCopyRange() throws IOException {
+        InputStreamIO streamIO = new InputStreamIO(new ByteArrayInputStream("0123456789".getBytes()), 10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamIO.copyRange(2, 3, out);
+        streamIO.copyRange(7, 10, out);
+        assertEquals("23478", out.toString());
+        // the generic implementation can only move forward in the stream:
+        assertThrows(IOException.class, () -> streamIO.copyRange(0, 1, out));
+    }
 }
@@ -0,0 +1,81 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TabularColumnScannerTest {
+
+    private static final String[] NUMBERS = {
+        "0", "-0", "1", "+1", "-17", "1.5", "-0.25", ".5", "1.", "0.001", "000123.4500",
+        "3.14159265358979", "3.141592653589793238", "0.1", "0.3", "123456789012345678",
+        "9223372036854775807", "9223372036854775808", "-9223372036854775808",
+        "1e5", "1E-5", "2.5e+10", "1e400", "1e-400", "0e999", "1e", "e5",
+        "inf", "+Inf", "-INF", "NaN", "Infinity", "", "abc", "1.2.3", "-", "+", ".",
+        " 1", "1d", "16777217", "0.000000000000000000001", "12345.678e-3"
+    };
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testNumbersMatchBoxedParsers() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String number : NUMBERS) {
+            content.append("x\t").append(number).append('\n');
+        }
+        int numCases = NUMBERS.length;
+
+        PrimitiveVector.Doubles doubles = TabularSubsetGenerator.subsetDoubleColumn(stream(content.toString()), 1, numCases);
+        PrimitiveVector.Floats floats = TabularSubsetGenerator.subsetFloatColumn(stream(content.toString()), 1, numCases);
+        PrimitiveVector.Longs longs = TabularSubsetGenerator.subsetLongColumn(stream(content.toString()), 1, numCases);
+
+        Double[] boxedDoubles = TabularSubsetGenerator.subsetDoubleVector(stream(content.toString()), 1, numCases);
+        Float[] boxedFloats = TabularSubsetGenerator.subsetFloatVector(stream(content.toString()), 1, numCases);
+        Long[] boxedLongs = TabularSubsetGenerator.subsetLongVector(stream(content.toString()), 1, numCases);
+
+        assertArrayEquals(boxedDoubles, doubles.toBoxedArray());
+        assertArrayEquals(boxedFloats, floats.toBoxedArray());
+        assertArrayEquals(boxedLongs, longs.toBoxedArray());
+    }
+
+    @Test
+    void testLinesAcrossBufferBoundaries() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(i).append('\t').append("\"a long-ish string value number ").append(i).append("\"\t").append(i * 0.5).append('\n');
+        }
+        // a buffer much smaller than a line forces both compaction and growth:
+        try (TabularColumnScanner scanner = new TabularColumnScanner(stream(content.toString()), 8, 2, 1)) {
+            PrimitiveVector.Doubles vector = new PrimitiveVector.Doubles(200);
+            for (int i = 0; i < 200; i++) {
+                assertTrue(scanner.nextLine());
+                scanner.readDouble(0, vector, i);
+                assertEquals(i * 0.5, vector.get(i));
+                assertEquals("a long-ish string value number " + i, scanner.getString(1));
+            }
+            assertFalse(scanner.nextLine());
+        }
+    }
+
+    @Test
+    void testLastLineWithoutNewLine() throws IOException {
+        PrimitiveVector.Longs vector = TabularSubsetGenerator.subsetLongColumn(stream("1\t2\n3\t4"), 1, 2);
+        assertEquals(2L, vector.get(0));
+        assertEquals(4L, vector.get(1));
+    }
+
+    @Test
+    void testCaseCountChecks() {
+        assertThrows(IOException.class, () -> TabularSubsetGenerator.subsetLongColumn(stream("1\n2\n"), 0, 3));
+        assertThrows(IOException.class, () -> TabularSubsetGenerator.subsetLongColumn(stream("1\n2\n3\n"), 0, 2));
+        assertThrows(IOException.class, () -> TabularSubsetGenerator.subsetLongColumn(stream("1\n2\n"), 1, 2));
+        assertDoesNotThrow(() -> TabularSubsetGenerator.subsetLongColumn(stream("1\n2\n\n\n"), 0, 2));
+    }
+}
@@ -0,0 +1,192 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TabularColumnarFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    File tabFile;
+    DataTable dataTable;
+
+    static final String[] LINES = {
+        "1\t1.5\t\"a\"\t2.25\t7",
+        "2\t\t\"b\\tc\"\t-inf\t08",
+        "\tNaN\t\t3.5\t9",
+        "-4\t4.25\t\"\"\t0.125\t"
+    };
+
+    @BeforeEach
+    void setup() throws IOException {
+        tabFile = tempDir.resolve("test.tab").toFile();
+        Files.write(tabFile.toPath(), (String.join("\n", LINES) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        dataTable = new DataTable();
+        List<DataVariable> vars = new ArrayList<>();
+        vars.add(variable(true, false, null));   // discrete numeric, canonical integers
+        vars.add(variable(false, true, null));   // continuous double
+        vars.add(variable(false, false, null));  // character
+        vars.add(variable(false, true, "float")); // continuous float
+        vars.add(variable(true, false, null));   // discrete numeric, with a leading zero
+        dataTable.setDataVariables(vars);
+        dataTable.setVarQuantity((long) vars.size());
+        dataTable.setCaseQuantity((long) LINES.length);
+    }
+
+    private DataVariable variable(boolean discrete, boolean continuous, String format) {
+        DataVariable var = new DataVariable();
+        if (discrete) {
+            var.setIntervalDiscrete();
+            var.setTypeNumeric();
+        } else if (continuous) {
+            var.setIntervalContinuous();
+            var.setTypeNumeric();
+        } else {
+            var.setIntervalDiscrete();
+            var.setTypeCharacter();
+        }
+        var.setFormat(format);
+        return var;
+    }
+
+    private TabularColumnarFile write(long memoryBudget) throws IOException {
+        File columnarFile = tempDir.resolve("test.col." + memoryBudget).toFile();
+        TabularColumnarFile.write(tabFile, dataTable, columnarFile, memoryBudget);
+        return TabularColumnarFile.open(columnarFile);
+    }
+
+    private String subset(TabularColumnarFile columnarFile, Integer... columns) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        columnarFile.writeSubset(Arrays.asList(columns), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String expectedSubset(int... columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : LINES) {
+            String[] values = line.split("\t", -1);
+            for (int k = 0; k < columns.length; k++) {
+                sb.append(k > 0 ? "\t" : "").append(values[columns[k]]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testSubsetMatchesTabFile() throws IOException {
+        TabularColumnarFile columnarFile = write(Long.MAX_VALUE);
+        assertEquals(5, columnarFile.getVarCount());
+        assertEquals(4, columnarFile.getCaseCount());
+
+        assertEquals(expectedSubset(0, 1, 2, 3, 4), subset(columnarFile, 0, 1, 2, 3, 4));
+        assertEquals(expectedSubset(4, 0, 2), subset(columnarFile, 4, 0, 2));
+        assertEquals(expectedSubset(0), subset(columnarFile, 0));
+        assertEquals(expectedSubset(2, 2), subset(columnarFile, 2, 2));
+    }
+
+    @Test
+    void testValuesMatchTabFile() throws IOException {
+        TabularColumnarFile columnarFile = write(Long.MAX_VALUE);
+
+        assertEquals(TabularColumnarFile.TYPE_LONG, columnarFile.getType(0));
+        assertEquals(TabularColumnarFile.TYPE_DOUBLE, columnarFile.getType(1));
+        assertEquals(TabularColumnarFile.TYPE_TEXT, columnarFile.getType(2));
+        assertEquals(TabularColumnarFile.TYPE_FLOAT, columnarFile.getType(3));
+        assertNull(columnarFile.readValues(2));
+
+        assertArrayEquals(TabularSubsetGenerator.subsetLongColumn(new FileInputStream(tabFile), 0, 4).toBoxedArray(),
+                columnarFile.readValues(0).toBoxedArray());
+        assertArrayEquals(TabularSubsetGenerator.subsetDoubleColumn(new FileInputStream(tabFile), 1, 4).toBoxedArray(),
+                columnarFile.readValues(1).toBoxedArray());
+        assertArrayEquals(TabularSubsetGenerator.subsetFloatColumn(new FileInputStream(tabFile), 3, 4).toBoxedArray(),
+                columnarFile.readValues(3).toBoxedArray());
+        assertArrayEquals(TabularSubsetGenerator.subsetLongColumn(new FileInputStream(tabFile), 4, 4).toBoxedArray(),
+                columnarFile.readValues(4).toBoxedArray());
+
+        for (int column : new int[]{0, 1, 3, 4}) {
+            assertArrayEquals(TabularSubsetGenerator.subsetFloatColumn(new FileInputStream(tabFile), column, 4).toBoxedArray(),
+                    columnarFile.readFloatValues(column).toBoxedArray(), "column " + column);
+        }
+    }
+
+    @Test
+    void testTextOnlyStoredWhenNeeded() throws IOException {
+        TabularColumnarFile columnarFile = write(Long.MAX_VALUE);
+
+        assertEquals(TabularColumnarFile.TEXT_CANONICAL, columnarFile.getTextFormat(0));
+        assertEquals(TabularColumnarFile.TEXT_CANONICAL, columnarFile.getTextFormat(1));
+        assertEquals(TabularColumnarFile.TEXT_STORED, columnarFile.getTextFormat(2));
+        // "-inf"
+        assertEquals(TabularColumnarFile.TEXT_STORED, columnarFile.getTextFormat(3));
+        // "08"
+        assertEquals(TabularColumnarFile.TEXT_STORED, columnarFile.getTextFormat(4));
+    }
+
+    @Test
+    void testTextRegeneratedFromValues() throws IOException {
+        String[] lines = {
+            // as written by the Stata ingest, the SPSS ingest, as typed in a CSV; floats
+            "1.0E-4\t0.0001\t1.50\t0.1",
+            "100.0\t100\t100\t2.5",
+            "\t\t\t",
+            "-2.5\t-2.5\t-2.5\tNaN",
+            "123456.789\t123456.789\t123456.789\t1.0E10"
+        };
+        Files.write(tabFile.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        List<DataVariable> vars = new ArrayList<>();
+        vars.add(variable(false, true, null));
+        vars.add(variable(false, true, null));
+        vars.add(variable(false, true, null));
+        vars.add(variable(false, true, "float"));
+        dataTable.setDataVariables(vars);
+        dataTable.setVarQuantity((long) vars.size());
+        dataTable.setCaseQuantity((long) lines.length);
+
+        TabularColumnarFile columnarFile = write(Long.MAX_VALUE);
+
+        assertEquals(TabularColumnarFile.TEXT_CANONICAL, columnarFile.getTextFormat(0));
+        assertEquals(TabularColumnarFile.TEXT_PLAIN, columnarFile.getTextFormat(1));
+        assertEquals(TabularColumnarFile.TEXT_STORED, columnarFile.getTextFormat(2));
+        assertEquals(TabularColumnarFile.TEXT_CANONICAL, columnarFile.getTextFormat(3));
+        assertEquals(String.join("\n", lines) + "\n", subset(columnarFile, 0, 1, 2, 3));
+        for (int column = 0; column < 4; column++) {
+            assertArrayEquals(TabularSubsetGenerator.subsetFloatColumn(new FileInputStream(tabFile), column, lines.length).toBoxedArray(),
+                    columnarFile.readFloatValues(column).toBoxedArray(), "column " + column);
+        }
+    }
+
+    @Test
+    void testGroupedWriteIsTheSame() throws IOException {
+        write(Long.MAX_VALUE);
+        write(1);
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("test.col." + Long.MAX_VALUE)),
+                Files.readAllBytes(tempDir.resolve("test.col.1")));
+    }
+
+    @Test
+    void testCaseCountMismatch() {
+        dataTable.setCaseQuantity(5L);
+        assertThrows(IOException.class, () -> write(Long.MAX_VALUE));
+        dataTable.setCaseQuantity(3L);
+        assertThrows(IOException.class, () -> write(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TabularRowIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    static final String[] LINES = {
+        "1\t\"a\"\t1.5",
+        "22\t\"bb\"\t",
+        "\t\t",
+        "4444\t\"dddd\"\t4.25",
+        "5\t\"e\"\t-inf",
+        "66\t\"ff\"\t6"
+    };
+
+    private TabularRowIndex index(String content, int interval) throws IOException {
+        File tabFile = tempDir.resolve("test.tab").toFile();
+        Files.write(tabFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        File indexFile = tempDir.resolve("test.rowidx").toFile();
+        TabularRowIndex.write(tabFile, LINES.length, interval, indexFile);
+        return TabularRowIndex.read(new FileInputStream(indexFile));
+    }
+
+    /**
+     * Reads rows the way copyRows(StorageIO, ...) does: just the byte range
+     * the index points at.
+     */
+    private String rows(TabularRowIndex index, int first, int last, List<Integer> columns) throws IOException {
+        long start = index.getStartOffset(first);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new FileInputStream(tempDir.resolve("test.tab").toFile())) {
+            IOUtils.skipFully(in, start);
+            TabularRowIndex.copyRows(new BufferedInputStream(new BoundedInputStream(in, index.getEndOffset(last) - start)),
+                    index.getRowsToSkip(first), last - first + 1, columns, out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String expectedRows(int first, int last, int... columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            if (columns.length == 0) {
+                sb.append(LINES[i]);
+            } else {
+                String[] values = LINES[i].split("\t", -1);
+                for (int k = 0; k < columns.length; k++) {
+                    sb.append(k > 0 ? "\t" : "").append(values[columns[k]]);
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testOffsets() throws IOException {
+        TabularRowIndex index = index(String.join("\n", LINES) + "\n", 2);
+        assertEquals(2, index.getInterval());
+        assertEquals(6, index.getCaseCount());
+
+        assertEquals(0, index.getStartOffset(0));
+        assertEquals(0, index.getStartOffset(1));
+        long row2 = (LINES[0] + "\n" + LINES[1] + "\n").length();
+        assertEquals(row2, index.getStartOffset(2));
+        assertEquals(1, index.getRowsToSkip(3));
+        assertEquals(row2, index.getEndOffset(1));
+        assertEquals(tempDir.resolve("test.tab").toFile().length(), index.getEndOffset(5));
+    }
+
+    @Test
+    void testCopyRows() throws IOException {
+        for (int interval : new int[]{1, 2, 4, 1000}) {
+            TabularRowIndex index = index(String.join("\n", LINES) + "\n", interval);
+            for (int first = 0; first < LINES.length; first++) {
+                for (int last = first; last < LINES.length; last++) {
+                    assertEquals(expectedRows(first, last), rows(index, first, last, null));
+                    assertEquals(expectedRows(first, last, 2, 0, 2), rows(index, first, last, Arrays.asList(2, 0, 2)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLastRowWithoutNewLine() throws IOException {
+        TabularRowIndex index = index(String.join("\n", LINES), 4);
+        assertEquals(expectedRows(3, 5), rows(index, 3, 5, null));
+        assertEquals(expectedRows(4, 5, 1), rows(index, 4, 5, Arrays.asList(1)));
+    }
+
+    @Test
+    void testFewerRowsThanCases() {
+        assertThrows(IOException.class, () -> index(LINES[0] + "\n" + LINES[1] + "\n", 2));
+    }
+}
@@ -64,6 +64,10 @@ public class ReturnDatasetToAuthorCommandTest {
                     public Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) {
                         return null;
                     }
+
+                    @Override
+                    public void queueIndexing(DvObject dvObject) {
+                    }
                 };
             }
 
@@ -63,6 +63,10 @@ public class SubmitDatasetForReviewCommandTest {
                     public Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) {
                         return null;
                     }
+
+                    @Override
+                    public void queueIndexing(DvObject dvObject) {
+                    }
                 };
             }
 
@@ -0,0 +1,179 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.export.spi.Exporter;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class ExportServiceTest {
+
+    // (stands for the managed executor of the application server)
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static List<Exporter> exporters(String... names) {
+        List<Exporter> exporters = new ArrayList<>();
+        for (String name : names) {
+            Exporter e = Mockito.mock(Exporter.class);
+            Mockito.when(e.getProviderName()).thenReturn(name);
+            exporters.add(e);
+        }
+        return exporters;
+    }
+
+    @Test
+    public void testRunExportersSequentially() throws ExportException {
+        List<String> run = new ArrayList<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ExportService.runExporters(exporters("ddi", "dcterms", "oai_ore"), 1, executor, e -> {
+            threads.add(Thread.currentThread());
+            run.add(e.getProviderName());
+        });
+        assertEquals(List.of("ddi", "dcterms", "oai_ore"), run);
+        assertEquals(Set.of(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void testRunExportersInParallel() throws ExportException {
+        Set<String> run = ConcurrentHashMap.newKeySet();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        // each exporter waits for the others to start, which only works if they run at the same time
+        CountDownLatch started = new CountDownLatch(3);
+        ExportService.runExporters(exporters("ddi", "dcterms", "oai_ore"), 3, executor, e -> {
+            threads.add(Thread.currentThread());
+            started.countDown();
+            try {
+                if (!started.await(10, TimeUnit.SECONDS)) {
+                    throw new ExportException("exporters did not run in parallel");
+                }
+            } catch (InterruptedException ex) {
+                throw new ExportException("interrupted");
+            }
+            run.add(e.getProviderName());
+        });
+        assertEquals(Set.of("ddi", "dcterms", "oai_ore"), run);
+        assertEquals(3, threads.size());
+        assertTrue(!threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testRunExportersWithoutExecutor() throws ExportException {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ExportService.runExporters(exporters("ddi", "dcterms", "oai_ore"), 3, null, e -> threads.add(Thread.currentThread()));
+        assertEquals(Set.of(Thread.currentThread()), threads);
+    }
+
+    private static void failSome(Exporter e, Set<String> run) throws ExportException {
+        if (e.getProviderName().equals("dcterms")) {
+            throw new ExportException("failed");
+        }
+        if (e.getProviderName().equals("oai_ore")) {
+            throw new IllegalStateException("failed too");
+        }
+        run.add(e.getProviderName());
+    }
+
+    @Test
+    public void testRunExportersSequentiallyContinuesAfterFailure() throws ExportException {
+        Set<String> run = ConcurrentHashMap.newKeySet();
+        ExportService.runExporters(exporters("ddi", "dcterms", "oai_ore", "schema.org"), 1, executor, e -> failSome(e, run));
+        assertEquals(Set.of("ddi", "schema.org"), run);
+    }
+
+    @Test
+    public void testRunExportersInParallelContinuesAfterFailure() throws ExportException {
+        Set<String> run = ConcurrentHashMap.newKeySet();
+        ExportService.runExporters(exporters("ddi", "dcterms", "oai_ore", "schema.org"), 2, executor, e -> failSome(e, run));
+        assertEquals(Set.of("ddi", "schema.org"), run);
+    }
+
+    @Test
+    public void testConcurrentExportsRunOnce() throws Exception {
+        Dataset dataset = new Dataset();
+        dataset.setId(42L);
+        // (stands for the cached exports)
+        Map<String, String> cache = new ConcurrentHashMap<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExportService.ExportTask export = () -> {
+            started.countDown();
+            try {
+                finish.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new ExportException("interrupted");
+            }
+            cache.put("ddi", "export " + runs.incrementAndGet());
+        };
+
+        Future<String> first = executor.submit(() -> {
+            ExportService.getInstance().runExport(dataset, "ddi", true, export);
+            return cache.get("ddi");
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        AtomicReference<Thread> secondThread = new AtomicReference<>();
+        Future<String> second = executor.submit(() -> {
+            secondThread.set(Thread.currentThread());
+            ExportService.getInstance().runExport(dataset, "ddi", true, export);
+            return cache.get("ddi");
+        });
+        // let the first export finish once the second caller waits for it
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((secondThread.get() == null || secondThread.get().getState() != Thread.State.WAITING) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        finish.countDown();
+
+        assertEquals("export 1", first.get(10, TimeUnit.SECONDS));
+        assertEquals("export 1", second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testIsEmbargoEndedSinceExport() {
+        LocalDate today = LocalDate.of(2022, 3, 15);
+        Dataset dataset = new Dataset();
+        // never exported
+        dataset.getLatestVersionForCopy().setNextEmbargoEnd(today.minusDays(1));
+        assertFalse(ExportService.isEmbargoEndedSinceExport(dataset, today));
+
+        dataset.setLastExportTime(Timestamp.valueOf(today.minusDays(10).atStartOfDay()));
+        // an embargo has ended since: the cached DDI export is regenerated
+        assertTrue(ExportService.isEmbargoEndedSinceExport(dataset, today));
+        // the next embargo ends later
+        dataset.getLatestVersionForCopy().setNextEmbargoEnd(today.plusDays(1));
+        assertFalse(ExportService.isEmbargoEndedSinceExport(dataset, today));
+        // no embargo
+        dataset.getLatestVersionForCopy().setNextEmbargoEnd(null);
+        assertFalse(ExportService.isEmbargoEndedSinceExport(dataset, today));
+    }
+
+}
@@ -0,0 +1,137 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+import org.dataverse.unf.UNFUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummaryStatisticsEngineTest {
+
+    @TempDir
+    Path tempDir;
+
+    File tabFile;
+    DataTable dataTable;
+
+    @BeforeEach
+    void setup() throws IOException {
+        tabFile = tempDir.resolve("test.tab").toFile();
+        Files.write(tabFile.toPath(), (
+                "1\t1.5\t\"a\"\t2.25\t7\n" +
+                "2\t\t\"b\\tc\"\t-inf\t8\n" +
+                "\tNaN\t\t3.5\t9\n" +
+                "4\t4.25\t\"\"\t0.125\t10\n").getBytes(StandardCharsets.UTF_8));
+
+        dataTable = new DataTable();
+        List<DataVariable> vars = new ArrayList<>();
+        vars.add(variable(true, false, null));   // discrete numeric
+        vars.add(variable(false, true, null));   // continuous double
+        vars.add(variable(false, false, null));  // character
+        vars.add(variable(false, true, "float")); // continuous float
+        vars.add(variable(true, false, null));   // discrete numeric
+        dataTable.setDataVariables(vars);
+        dataTable.setVarQuantity((long) vars.size());
+        dataTable.setCaseQuantity(4L);
+    }
+
+    private DataVariable variable(boolean discrete, boolean continuous, String format) {
+        DataVariable var = new DataVariable();
+        if (discrete) {
+            var.setIntervalDiscrete();
+            var.setTypeNumeric();
+        } else if (continuous) {
+            var.setIntervalContinuous();
+            var.setTypeNumeric();
+        } else {
+            var.setIntervalDiscrete();
+            var.setTypeCharacter();
+        }
+        var.setFormat(format);
+        return var;
+    }
+
+    @Test
+    void testMatchesPerColumnCalculation() throws Exception {
+        List<SummaryStatisticsEngine.ColumnResult> results = new SummaryStatisticsEngine(tabFile, dataTable).calculate();
+        assertEquals(5, results.size());
+
+        Long[] longs = {1L, 2L, null, 4L};
+        assertEquals(0, results.get(0).getVarnum());
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(longs), results.get(0).getSummaryStatistics());
+        assertEquals(UNFUtil.calculateUNF(longs), results.get(0).getUnf());
+
+        Double[] doubles = {1.5, null, Double.NaN, 4.25};
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(doubles), results.get(1).getSummaryStatistics());
+        assertEquals(UNFUtil.calculateUNF(doubles), results.get(1).getUnf());
+
+        String[] strings = {"a", "b\tc", null, ""};
+        assertNull(results.get(2).getSummaryStatistics());
+        assertEquals(UNFUtil.calculateUNF(strings), results.get(2).getUnf());
+
+        Float[] floats = {2.25f, Float.NEGATIVE_INFINITY, 3.5f, 0.125f};
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(floats), results.get(3).getSummaryStatistics());
+        assertEquals(UNFUtil.calculateUNF(floats), results.get(3).getUnf());
+    }
+
+    @Test
+    void testGroupedParallelRunGivesSameResults() throws Exception {
+        List<SummaryStatisticsEngine.ColumnResult> single = new SummaryStatisticsEngine(tabFile, dataTable).calculate();
+
+        // a budget this small puts every column in a group of its own
+        SummaryStatisticsEngine engine = new SummaryStatisticsEngine(tabFile, dataTable)
+                .setParallelism(3)
+                .setMemoryBudget(1);
+        assertEquals(5, engine.planGroups().size());
+        List<SummaryStatisticsEngine.ColumnResult> grouped = engine.calculate();
+
+        assertEquals(single.size(), grouped.size());
+        for (int i = 0; i < single.size(); i++) {
+            assertEquals(single.get(i).getVarnum(), grouped.get(i).getVarnum());
+            assertEquals(single.get(i).getUnf(), grouped.get(i).getUnf());
+            assertArrayEquals(single.get(i).getSummaryStatistics(), grouped.get(i).getSummaryStatistics());
+        }
+    }
+
+    @Test
+    void testUnparseableTimeValueFails() {
+        // (as it did when each variable was subset on its own)
+        dataTable.getDataVariables().get(2).setFormatCategory("time");
+        dataTable.getDataVariables().get(2).setFormat("yyyy-MM-dd HH:mm:ss.SSS z");
+        assertThrows(IOException.class, () -> new SummaryStatisticsEngine(tabFile, dataTable).calculate());
+    }
+
+    @Test
+    void testUnparseableDateValueOnlyAffectsItsVariable() throws Exception {
+        // the UNF library logs the values it can't parse as dates, and goes on
+        dataTable.getDataVariables().get(2).setFormatCategory("date");
+        dataTable.getDataVariables().get(2).setFormat("yyyy-MM-dd");
+        List<SummaryStatisticsEngine.ColumnResult> results = new SummaryStatisticsEngine(tabFile, dataTable).calculate();
+        assertEquals(5, results.size());
+
+        String[] strings = {"a", "b\tc", null, ""};
+        String[] dateFormats = {"yyyy-MM-dd", "yyyy-MM-dd", null, "yyyy-MM-dd"};
+        assertEquals(UNFUtil.calculateUNF(strings, dateFormats), results.get(2).getUnf());
+        assertEquals(UNFUtil.calculateUNF(new Long[]{1L, 2L, null, 4L}), results.get(0).getUnf());
+    }
+
+    @Test
+    void testCaseCountMismatch() {
+        dataTable.setCaseQuantity(5L);
+        assertThrows(IOException.class, () -> new SummaryStatisticsEngine(tabFile, dataTable).calculate());
+        dataTable.setCaseQuantity(3L);
+        assertThrows(IOException.class, () -> new SummaryStatisticsEngine(tabFile, dataTable).calculate());
+    }
+}
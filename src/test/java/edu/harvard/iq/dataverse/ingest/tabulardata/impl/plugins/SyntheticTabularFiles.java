@@ -0,0 +1,559 @@
+package edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins;
+
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReaderSpi;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.dta.NewDTAFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.por.PORFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.por.PORFileReaderSpi;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReaderSpi;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.xlsx.XLSXFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.xlsx.XLSXFileReaderSpi;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes synthetic data files in the formats of the tabular ingest plugins,
+ * for benchmarking the readers (see TabularDataFileReaderBenchmark) on files
+ * of any size. The files are the simplest ones each reader accepts: no value
+ * labels, no missing value definitions, no dates. Every 3rd column is an
+ * integer, a decimal number, and a string (of up to 8 characters, the
+ * longest string that fits into one SAV "OBS" value); the values come from
+ * a seeded Random, so the same arguments produce the same file.
+ */
+public class SyntheticTabularFiles {
+
+    public enum Format {
+        CSV("csv"),
+        XLSX("xlsx"),
+        DTA("dta"),
+        SAV("sav"),
+        POR("por");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public TabularDataFileReader newReader() {
+            switch (this) {
+                case CSV:
+                    return new CSVFileReader(new CSVFileReaderSpi(), ',');
+                case XLSX:
+                    return new XLSXFileReader(new XLSXFileReaderSpi());
+                case DTA:
+                    return new NewDTAFileReader(null, 117);
+                case SAV:
+                    return new SAVFileReader(new SAVFileReaderSpi());
+                default:
+                    return new PORFileReader(new PORFileReaderSpi());
+            }
+        }
+    }
+
+    static final int INTEGER = 0;
+    static final int DECIMAL = 1;
+    static final int STRING = 2;
+
+    static final int STRING_POOL_SIZE = 1000;
+
+    public static void write(Format format, File file, int rows, int columns, long seed) throws IOException {
+        if (columns < 1 || columns > 702) {
+            // (702, because the XLSX reader only knows 2-letter column names)
+            throw new IllegalArgumentException("Unsupported number of columns: " + columns);
+        }
+        Values values = new Values(seed);
+        switch (format) {
+            case CSV:
+                writeCsv(file, rows, columns, values);
+                break;
+            case XLSX:
+                writeXlsx(file, rows, columns, values);
+                break;
+            case DTA:
+                writeDta(file, rows, columns, values);
+                break;
+            case SAV:
+                writeSav(file, rows, columns, values);
+                break;
+            case POR:
+                writePor(file, rows, columns, values);
+                break;
+        }
+    }
+
+    static int columnType(int column) {
+        return column % 3;
+    }
+
+    static String variableName(int column) {
+        return "V" + (column + 1);
+    }
+
+    /**
+     * The values, row by row. Strings are drawn from a pool (as values of
+     * real string variables tend to repeat), so that the XLSX shared strings
+     * table stays small.
+     */
+    static class Values {
+        final Random random;
+        final String[] pool;
+
+        Values(long seed) {
+            random = new Random(seed);
+            pool = new String[STRING_POOL_SIZE];
+            for (int i = 0; i < pool.length; i++) {
+                char[] chars = new char[1 + random.nextInt(8)];
+                // starting with an "x", so that no string can be taken for a
+                // number, or for "NA", "NaN", "Inf" etc.
+                chars[0] = 'x';
+                for (int k = 1; k < chars.length; k++) {
+                    chars[k] = (char) ('a' + random.nextInt(26));
+                }
+                pool[i] = new String(chars);
+            }
+        }
+
+        long nextInteger() {
+            return random.nextInt(2000000) - 1000000;
+        }
+
+        double nextDecimal() {
+            return Math.round(random.nextGaussian() * 1000000) / 1000.0;
+        }
+
+        int nextStringIndex() {
+            return random.nextInt(pool.length);
+        }
+
+        String nextString() {
+            return pool[nextStringIndex()];
+        }
+    }
+
+    static void writeCsv(File file, int rows, int columns, Values values) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (int column = 0; column < columns; column++) {
+                out.write(column > 0 ? "," : "");
+                out.write(variableName(column));
+            }
+            out.write('\n');
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    out.write(column > 0 ? "," : "");
+                    switch (columnType(column)) {
+                        case INTEGER:
+                            out.write(Long.toString(values.nextInteger()));
+                            break;
+                        case DECIMAL:
+                            out.write(Double.toString(values.nextDecimal()));
+                            break;
+                        default:
+                            out.write(values.nextString());
+                    }
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * A minimal Office Open XML workbook, written directly - rather than
+     * with POI, that would build the whole sheet in memory first. The reader
+     * only looks at the first sheet, and needs the shared strings table and
+     * the "spans" attribute of the first row.
+     */
+    static void writeXlsx(File file, int rows, int columns, Values values) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            Writer out = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            putEntry(zip, out, "[Content_Types].xml",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                    + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                    + "<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>"
+                    + "</Types>");
+            putEntry(zip, out, "_rels/.rels",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                    + "</Relationships>");
+            putEntry(zip, out, "xl/workbook.xml",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+                    + "<sheets><sheet name=\"Sheet1\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+                    + "</workbook>");
+            putEntry(zip, out, "xl/_rels/workbook.xml.rels",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/>"
+                    + "</Relationships>");
+
+            // shared strings: the variable names, then the string pool
+            zip.putNextEntry(new ZipEntry("xl/sharedStrings.xml"));
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" uniqueCount=\""
+                    + (columns + values.pool.length) + "\">");
+            for (int column = 0; column < columns; column++) {
+                out.write("<si><t>" + variableName(column) + "</t></si>");
+            }
+            for (String value : values.pool) {
+                out.write("<si><t>" + value + "</t></si>");
+            }
+            out.write("</sst>");
+            out.flush();
+            zip.closeEntry();
+
+            String[] columnLetters = new String[columns];
+            for (int column = 0; column < columns; column++) {
+                columnLetters[column] = column < 26 ? String.valueOf((char) ('A' + column))
+                        : String.valueOf((char) ('A' + column / 26 - 1)) + (char) ('A' + column % 26);
+            }
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+            for (int row = 0; row <= rows; row++) {
+                out.write("<row r=\"" + (row + 1) + "\" spans=\"1:" + columns + "\">");
+                for (int column = 0; column < columns; column++) {
+                    String ref = columnLetters[column] + (row + 1);
+                    if (row == 0) {
+                        out.write("<c r=\"" + ref + "\" t=\"s\"><v>" + column + "</v></c>");
+                        continue;
+                    }
+                    switch (columnType(column)) {
+                        case INTEGER:
+                            out.write("<c r=\"" + ref + "\"><v>" + values.nextInteger() + "</v></c>");
+                            break;
+                        case DECIMAL:
+                            out.write("<c r=\"" + ref + "\"><v>" + values.nextDecimal() + "</v></c>");
+                            break;
+                        default:
+                            out.write("<c r=\"" + ref + "\" t=\"s\"><v>" + (columns + values.nextStringIndex()) + "</v></c>");
+                    }
+                }
+                out.write("</row>");
+            }
+            out.write("</sheetData></worksheet>");
+            out.flush();
+            zip.closeEntry();
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zip, Writer out, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.flush();
+        zip.closeEntry();
+    }
+
+    /**
+     * Stata 13 (release 117) file, least significant byte first. Integers
+     * are stored as "long" (4 bytes), decimals as "double"; strings as str8.
+     */
+    static void writeDta(File file, int rows, int columns, Values values) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+            ascii(out, "<stata_dta><header><release>117</release><byteorder>LSF</byteorder><K>");
+            out.write(buffer.putShort(0, (short) columns).array(), 0, 2);
+            ascii(out, "</K><N>");
+            out.write(buffer.putInt(0, rows).array(), 0, 4);
+            ascii(out, "</N><label>");
+            out.write(0);
+            ascii(out, "</label><timestamp>");
+            out.write(17);
+            ascii(out, "01 Jan 2022 12:00</timestamp></header>");
+
+            // (the reader doesn't use the offsets in the map)
+            ascii(out, "<map>");
+            out.write(new byte[14 * 8]);
+            ascii(out, "</map>");
+
+            ascii(out, "<variable_types>");
+            for (int column = 0; column < columns; column++) {
+                int type = columnType(column) == INTEGER ? 65528 : columnType(column) == DECIMAL ? 65526 : 8;
+                out.write(buffer.putShort(0, (short) type).array(), 0, 2);
+            }
+            ascii(out, "</variable_types><varnames>");
+            for (int column = 0; column < columns; column++) {
+                fixed(out, variableName(column), 33);
+            }
+            ascii(out, "</varnames><sortlist>");
+            out.write(new byte[(columns + 1) * 2]);
+            ascii(out, "</sortlist><formats>");
+            for (int column = 0; column < columns; column++) {
+                fixed(out, columnType(column) == INTEGER ? "%12.0g" : columnType(column) == DECIMAL ? "%10.0g" : "%8s", 49);
+            }
+            ascii(out, "</formats><value_label_names>");
+            out.write(new byte[columns * 33]);
+            ascii(out, "</value_label_names><variable_labels>");
+            out.write(new byte[columns * 81]);
+            ascii(out, "</variable_labels><characteristics></characteristics>");
+
+            ascii(out, "<data>");
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    switch (columnType(column)) {
+                        case INTEGER:
+                            out.write(buffer.putInt(0, (int) values.nextInteger()).array(), 0, 4);
+                            break;
+                        case DECIMAL:
+                            out.write(buffer.putDouble(0, values.nextDecimal()).array(), 0, 8);
+                            break;
+                        default:
+                            fixed(out, values.nextString(), 8);
+                    }
+                }
+            }
+            ascii(out, "</data><strls></strls><value_labels></value_labels></stata_dta>");
+        }
+    }
+
+    /**
+     * SPSS system file, little endian, with the (usual) bytecode compression
+     * of the data.
+     */
+    static void writeSav(File file, int rows, int columns, Values values) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+            // Record type 1, the file header:
+            ascii(out, "$FL2");
+            padded(out, "@(#) SPSS DATA FILE MS Windows Release 15.0", 60);
+            out.write(buffer.putInt(0, 2).array(), 0, 4); // layout code
+            out.write(buffer.putInt(0, columns).array(), 0, 4); // OBS per case; one per variable
+            out.write(buffer.putInt(0, 1).array(), 0, 4); // compressed
+            out.write(buffer.putInt(0, 0).array(), 0, 4); // no weight variable
+            out.write(buffer.putInt(0, rows).array(), 0, 4);
+            out.write(buffer.putDouble(0, 100.0).array(), 0, 8); // compression bias
+            ascii(out, "01 Jan 2212:00:00");
+            padded(out, "", 64); // file label
+            out.write(new byte[3]);
+
+            // Record type 2, one per variable:
+            for (int column = 0; column < columns; column++) {
+                boolean string = columnType(column) == STRING;
+                int format = string ? (1 << 16 | 8 << 8) : (5 << 16 | 10 << 8 | (columnType(column) == DECIMAL ? 3 : 0));
+                out.write(buffer.putInt(0, 2).array(), 0, 4);
+                out.write(buffer.putInt(0, string ? 8 : 0).array(), 0, 4);
+                out.write(buffer.putInt(0, 0).array(), 0, 4); // no label
+                out.write(buffer.putInt(0, 0).array(), 0, 4); // no missing values
+                out.write(buffer.putInt(0, format).array(), 0, 4); // print format
+                out.write(buffer.putInt(0, format).array(), 0, 4); // write format
+                padded(out, variableName(column), 8);
+            }
+
+            // Record type 999, end of the dictionary:
+            out.write(buffer.putInt(0, 999).array(), 0, 4);
+            out.write(buffer.putInt(0, 0).array(), 0, 4);
+
+            // The data: blocks of 8 command bytes, each followed by the
+            // uncompressed values (code 253) it refers to.
+            byte[] commands = new byte[8];
+            byte[] data = new byte[64];
+            int command = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    int code;
+                    switch (columnType(column)) {
+                        case INTEGER:
+                        case DECIMAL:
+                            double value = columnType(column) == INTEGER ? values.nextInteger() : values.nextDecimal();
+                            if (value == Math.rint(value) && value >= -99 && value <= 151) {
+                                code = (int) value + 100;
+                            } else {
+                                code = 253;
+                                buffer.putDouble(0, value);
+                                System.arraycopy(buffer.array(), 0, data, command * 8, 8);
+                            }
+                            break;
+                        default:
+                            code = 253;
+                            byte[] string = Arrays.copyOf(values.nextString().getBytes(StandardCharsets.US_ASCII), 8);
+                            for (int k = 0; k < 8; k++) {
+                                data[command * 8 + k] = string[k] == 0 ? (byte) ' ' : string[k];
+                            }
+                    }
+                    commands[command] = (byte) code;
+                    if (code != 253) {
+                        Arrays.fill(data, command * 8, command * 8 + 8, (byte) 0);
+                    }
+                    if (++command == 8) {
+                        writeSavBlock(out, commands, data, 8);
+                        command = 0;
+                    }
+                }
+            }
+            commands[command] = (byte) 252;
+            Arrays.fill(commands, command + 1, 8, (byte) 0);
+            writeSavBlock(out, commands, data, command);
+        }
+    }
+
+    private static void writeSavBlock(OutputStream out, byte[] commands, byte[] data, int count) throws IOException {
+        out.write(commands);
+        for (int i = 0; i < count; i++) {
+            if ((commands[i] & 0xFF) == 253) {
+                out.write(data, i * 8, 8);
+            }
+        }
+    }
+
+    /**
+     * SPSS portable file: 80 character lines of base-30 numbers and
+     * length-prefixed strings.
+     */
+    static void writePor(File file, int rows, int columns, Values values) throws IOException {
+        try (PorWriter out = new PorWriter(file)) {
+            // 5 x 40 characters of vendor header, and a 256 character
+            // translation table (which the reader doesn't use):
+            for (int i = 0; i < 5; i++) {
+                out.write(String.format("%-40s", "ASCII SPSS PORT FILE"));
+            }
+            char[] table = new char[256];
+            Arrays.fill(table, '0');
+            out.write(new String(table));
+            out.write("SPSSPORT");
+            out.write("A8/202201016/120000");
+
+            out.write("1");
+            out.writeString("DATAVERSE SYNTHETIC DATA");
+            out.write("4");
+            out.writeNumber(columns);
+            out.write("5");
+            out.writeNumber(11);
+            for (int column = 0; column < columns; column++) {
+                boolean string = columnType(column) == STRING;
+                out.write("7");
+                out.writeNumber(string ? 8 : 0);
+                out.writeString(variableName(column));
+                for (int i = 0; i < 2; i++) {
+                    out.writeNumber(string ? 1 : 5);
+                    out.writeNumber(string ? 8 : 10);
+                    out.writeNumber(columnType(column) == DECIMAL ? 3 : 0);
+                }
+            }
+
+            out.write("F");
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    switch (columnType(column)) {
+                        case INTEGER:
+                            out.writeNumber(values.nextInteger());
+                            break;
+                        case DECIMAL:
+                            out.writeNumber(values.nextDecimal());
+                            break;
+                        default:
+                            out.writeString(values.nextString());
+                    }
+                }
+            }
+            out.write("Z");
+        }
+    }
+
+    static class PorWriter implements AutoCloseable {
+        static final int LINE_LENGTH = 80;
+
+        final Writer out;
+        int column = 0;
+
+        PorWriter(File file) throws IOException {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII));
+        }
+
+        void write(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+                if (++column == LINE_LENGTH) {
+                    out.write('\n');
+                    column = 0;
+                }
+            }
+        }
+
+        void writeNumber(long value) throws IOException {
+            write(Long.toString(value, 30).toUpperCase() + "/");
+        }
+
+        void writeNumber(double value) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            if (value < 0) {
+                sb.append('-');
+                value = -value;
+            }
+            long integerPart = (long) value;
+            sb.append(Long.toString(integerPart, 30).toUpperCase());
+            double fraction = value - integerPart;
+            if (fraction > 0) {
+                sb.append('.');
+                for (int i = 0; i < 10 && fraction > 0; i++) {
+                    fraction *= 30;
+                    int digit = (int) fraction;
+                    sb.append(Character.toUpperCase(Character.forDigit(digit, 30)));
+                    fraction -= digit;
+                }
+            }
+            write(sb.append('/').toString());
+        }
+
+        void writeString(String value) throws IOException {
+            write(Long.toString(value.length(), 30).toUpperCase() + "/" + value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the last line is padded with Z's, the end-of-data marker
+            while (column != 0) {
+                write("Z");
+            }
+            out.close();
+        }
+    }
+
+    private static void ascii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the string into a null-padded field of the given length.
+     */
+    private static void fixed(OutputStream out, String s, int length) throws IOException {
+        out.write(Arrays.copyOf(s.getBytes(StandardCharsets.US_ASCII), length));
+    }
+
+    /**
+     * Writes the string into a space-padded field of the given length.
+     */
+    private static void padded(OutputStream out, String s, int length) throws IOException {
+        byte[] field = new byte[length];
+        Arrays.fill(field, (byte) ' ');
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, field, 0, Math.min(bytes.length, length));
+        out.write(field);
+    }
+}
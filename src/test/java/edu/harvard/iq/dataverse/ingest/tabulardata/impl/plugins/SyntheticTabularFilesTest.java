@@ -0,0 +1,84 @@
+package edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataIngest;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.SyntheticTabularFiles.Format;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The synthetic files used by TabularDataFileReaderBenchmark must be
+ * readable by the plugins - or the benchmark would measure how fast they fail.
+ */
+class SyntheticTabularFilesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @EnumSource(Format.class)
+    void testIngest(Format format) throws IOException {
+        // (enough rows and columns for the data to span several SAV blocks
+        // and POR lines, and for 2-letter XLSX column names)
+        int rows = 57;
+        int columns = 29;
+        File file = tempDir.resolve("synthetic." + format.getExtension()).toFile();
+        SyntheticTabularFiles.write(format, file, rows, columns, 42);
+
+        TabularDataIngest ingest;
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ingest = format.newReader().read(in, null);
+        }
+        DataTable table = ingest.getDataTable();
+        assertEquals(columns, table.getVarQuantity().intValue());
+        assertEquals(rows, table.getCaseQuantity().intValue());
+
+        List<DataVariable> variables = table.getDataVariables();
+        assertEquals(columns, variables.size());
+        for (int i = 0; i < columns; i++) {
+            assertEquals("V" + (i + 1), variables.get(i).getName());
+            assertEquals(i % 3 != 2, variables.get(i).isTypeNumeric(), variables.get(i).getName());
+        }
+
+        List<String> lines = Files.readAllLines(ingest.getTabDelimitedFile().toPath());
+        ingest.getTabDelimitedFile().delete();
+        assertEquals(rows, lines.size());
+        for (String line : lines) {
+            assertEquals(columns, line.split("\t", -1).length);
+        }
+    }
+
+    @Test
+    void testSameData() throws IOException {
+        // the plugins for the binary formats all write the values the same way:
+        List<String> expected = null;
+        for (Format format : new Format[]{Format.DTA, Format.SAV, Format.POR}) {
+            File file = tempDir.resolve("synthetic." + format.getExtension()).toFile();
+            SyntheticTabularFiles.write(format, file, 20, 9, 42);
+            TabularDataIngest ingest;
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                ingest = format.newReader().read(in, null);
+            }
+            List<String> lines = Files.readAllLines(ingest.getTabDelimitedFile().toPath());
+            ingest.getTabDelimitedFile().delete();
+            if (expected == null) {
+                expected = lines;
+            } else {
+                assertEquals(expected, lines, format.name());
+            }
+        }
+    }
+}
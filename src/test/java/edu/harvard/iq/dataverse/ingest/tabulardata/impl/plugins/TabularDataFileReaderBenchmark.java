@@ -0,0 +1,89 @@
+package edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins;
+
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataIngest;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.SyntheticTabularFiles.Format;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the tabular ingest readers, on synthetic files (see
+ * {@link SyntheticTabularFiles}) of each format, size and number of
+ * columns. Besides the files read per second, this reports "megabytes"
+ * (MB/s of the original file), and - with the profilers the benchmark
+ * profile adds - the allocation rate (gc.alloc.rate) and the peak heap
+ * usage (peak.heap). To run it:
+ *
+ * mvn -Pbenchmark test -Dbenchmark.includes=TabularDataFileReaderBenchmark [-Dbenchmark.args="-p format=SAV,POR -p rows=1000"]
+ *
+ * R data files are not included: RDATAFileReader needs an Rserve.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TabularDataFileReaderBenchmark {
+
+    @Param({"CSV", "XLSX", "DTA", "SAV", "POR"})
+    public Format format;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"10", "100"})
+    public int columns;
+
+    File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("benchmark.", "." + format.getExtension());
+        SyntheticTabularFiles.write(format, file, rows, columns, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class BytesRead {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Benchmark
+    public TabularDataIngest read(BytesRead bytesRead) throws IOException {
+        TabularDataIngest ingest;
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ingest = format.newReader().read(in, null);
+        }
+        ingest.getTabDelimitedFile().delete();
+        bytesRead.megabytes += file.length() / 1024.0 / 1024.0;
+        return ingest;
+    }
+}
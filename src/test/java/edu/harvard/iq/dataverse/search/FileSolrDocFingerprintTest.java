@@ -0,0 +1,81 @@
+package edu.harvard.iq.dataverse.search;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSolrDocFingerprintTest {
+
+    @Test
+    void testFileFieldsOnly() {
+        SolrInputDocument doc = fileDoc("data.csv", "Title");
+        String fileFingerprint = FileSolrDocFingerprint.ofFileFields(doc, false);
+        String datasetFingerprint = FileSolrDocFingerprint.ofDatasetFields(doc);
+
+        // another dataset title leaves the fingerprint of the file fields alone:
+        SolrInputDocument retitled = fileDoc("data.csv", "New title");
+        assertEquals(fileFingerprint, FileSolrDocFingerprint.ofFileFields(retitled, false));
+        assertNotEquals(datasetFingerprint, FileSolrDocFingerprint.ofDatasetFields(retitled));
+
+        SolrInputDocument renamed = fileDoc("data2.csv", "Title");
+        assertNotEquals(fileFingerprint, FileSolrDocFingerprint.ofFileFields(renamed, false));
+        assertEquals(datasetFingerprint, FileSolrDocFingerprint.ofDatasetFields(renamed));
+
+        // whether the full text is indexed counts too:
+        assertNotEquals(fileFingerprint, FileSolrDocFingerprint.ofFileFields(doc, true));
+
+        // the order of the fields doesn't:
+        SolrInputDocument reordered = new SolrInputDocument();
+        reordered.addField(SearchFields.PARENT_NAME, "Title");
+        reordered.addField(SearchFields.RELEASE_OR_CREATE_DATE, new Date(1000));
+        reordered.addField(SearchFields.NAME, "data.csv");
+        reordered.addField(SearchFields.SUBTREE, Arrays.asList("/1", "/1/2"));
+        reordered.addField(SearchFields.ID, "datafile_3");
+        assertEquals(fileFingerprint, FileSolrDocFingerprint.ofFileFields(reordered, false));
+        assertEquals(datasetFingerprint, FileSolrDocFingerprint.ofDatasetFields(reordered));
+    }
+
+    @Test
+    void testCompare() {
+        SolrDocument indexed = new SolrDocument();
+        indexed.setField(SearchFields.FILE_FINGERPRINT, "f");
+        indexed.setField(SearchFields.DATASET_FIELDS_FINGERPRINT, "d");
+        assertEquals(FileSolrDocFingerprint.Change.NONE, FileSolrDocFingerprint.compare(indexed, "f", "d"));
+        assertEquals(FileSolrDocFingerprint.Change.DATASET_FIELDS, FileSolrDocFingerprint.compare(indexed, "f", "d2"));
+        assertEquals(FileSolrDocFingerprint.Change.ALL, FileSolrDocFingerprint.compare(indexed, "f2", "d"));
+        assertEquals(FileSolrDocFingerprint.Change.ALL, FileSolrDocFingerprint.compare(null, "f", "d"));
+        // (indexed before there were fingerprints)
+        assertEquals(FileSolrDocFingerprint.Change.ALL, FileSolrDocFingerprint.compare(new SolrDocument(), "f", "d"));
+    }
+
+    @Test
+    void testDatasetFieldsUpdate() {
+        SolrInputDocument doc = fileDoc("data.csv", "Title");
+        SolrInputDocument update = FileSolrDocFingerprint.datasetFieldsUpdate(doc, "d");
+        assertEquals("datafile_3", update.getFieldValue(SearchFields.ID));
+        assertNull(update.getField(SearchFields.NAME));
+        assertEquals("Title", ((Map<?, ?>) update.getFieldValue(SearchFields.PARENT_NAME)).get("set"));
+        assertEquals(Arrays.asList("/1", "/1/2"), ((Map<?, ?>) update.getField(SearchFields.SUBTREE).getValue()).get("set"));
+        // fields the file no longer has are removed:
+        assertTrue(((Map<?, ?>) update.getFieldValue(SearchFields.PARENT_CITATION)).containsKey("set"));
+        assertNull(((Map<?, ?>) update.getFieldValue(SearchFields.PARENT_CITATION)).get("set"));
+        assertEquals("d", ((Map<?, ?>) update.getFieldValue(SearchFields.DATASET_FIELDS_FINGERPRINT)).get("set"));
+        assertTrue(SolrUpdateBatcher.isPartial(update));
+    }
+
+    private static SolrInputDocument fileDoc(String name, String datasetTitle) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, "datafile_3");
+        doc.addField(SearchFields.NAME, name);
+        doc.addField(SearchFields.RELEASE_OR_CREATE_DATE, new Date(1000));
+        doc.addField(SearchFields.SUBTREE, Arrays.asList("/1", "/1/2"));
+        doc.addField(SearchFields.PARENT_NAME, datasetTitle);
+        return doc;
+    }
+}
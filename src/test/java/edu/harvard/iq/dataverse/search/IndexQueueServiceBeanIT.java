@@ -0,0 +1,173 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.util.testing.NativeQueryEntityManager;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.json.JsonObject;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the queries of {@link IndexQueueServiceBean} against PostgreSQL
+ * ({@code mvn -Ptc verify}).
+ */
+@Tag("testcontainers")
+@Testcontainers
+public class IndexQueueServiceBeanIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "9.6"));
+
+    Connection connection;
+    IndexQueueServiceBean sut;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = connect();
+        try (Statement statement = connection.createStatement();
+                InputStream migration = getClass().getResourceAsStream("/db/migration/V5.8.0.7__index-queue.sql")) {
+            statement.execute("DROP TABLE IF EXISTS indexqueue");
+            statement.execute(IOUtils.toString(migration, StandardCharsets.UTF_8));
+        }
+        sut = queueOn(connection);
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+    }
+
+    private static IndexQueueServiceBean queueOn(Connection connection) {
+        IndexQueueServiceBean queue = new IndexQueueServiceBean();
+        queue.em = NativeQueryEntityManager.create(connection);
+        return queue;
+    }
+
+    /** the ids claimed, in order (RETURNING doesn't keep the order of the claim) */
+    private static List<Long> ids(List<long[]> claimed) {
+        return claimed.stream().map(request -> request[0]).sorted().collect(Collectors.toList());
+    }
+
+    private static long requestCount(List<long[]> claimed, long id) {
+        return claimed.stream().filter(request -> request[0] == id).findFirst().get()[1];
+    }
+
+    private long count(String where) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM indexqueue WHERE " + where)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void testRequestsForAnObjectCollapse() {
+        sut.enqueue(Arrays.asList(1L, 2L));
+        sut.enqueue(Arrays.asList(1L));
+        sut.enqueue(Arrays.asList(1L));
+
+        List<long[]> claimed = sut.claim(10, 0, 0);
+        assertEquals(Arrays.asList(1L, 2L), ids(claimed));
+        assertEquals(3, requestCount(claimed, 1L));
+        assertEquals(1, requestCount(claimed, 2L));
+    }
+
+    @Test
+    public void testNotClaimedUntilTheRequestsStop() {
+        sut.enqueue(Arrays.asList(1L));
+        assertTrue(sut.claim(10, 60_000, 60_000).isEmpty());
+        // ... unless the first request is older than the max delay
+        assertEquals(Arrays.asList(1L), ids(sut.claim(10, 60_000, 0)));
+    }
+
+    @Test
+    public void testClaimSkipsTheRowsClaimedByAnUncommittedTransaction() throws SQLException {
+        sut.enqueue(Arrays.asList(1L, 2L, 3L));
+        try (Connection first = connect(); Connection second = connect()) {
+            first.setAutoCommit(false);
+            assertEquals(Arrays.asList(1L), ids(queueOn(first).claim(1, 0, 0)));
+
+            // (waiting for the lock of the first transaction would fail)
+            try (Statement statement = second.createStatement()) {
+                statement.execute("SET lock_timeout = '2s'");
+            }
+            assertEquals(Arrays.asList(2L, 3L), ids(queueOn(second).claim(10, 0, 0)));
+            first.commit();
+        }
+        assertEquals(3, count("claimtime IS NOT NULL"));
+        assertTrue(sut.claim(10, 0, 0).isEmpty());
+    }
+
+    @Test
+    public void testRequestMadeWhileIndexingKeepsTheRow() throws SQLException {
+        sut.enqueue(Arrays.asList(1L));
+        long[] claimed = sut.claim(10, 0, 0).get(0);
+        assertEquals(1, claimed[1]);
+
+        sut.enqueue(Arrays.asList(1L));
+        sut.complete(1L, claimed[1]);
+        assertEquals(1, count("dvobject_id = 1 AND claimtime IS NULL AND requestcount = 2"));
+
+        claimed = sut.claim(10, 0, 0).get(0);
+        assertEquals(2, claimed[1]);
+        sut.complete(1L, claimed[1]);
+        assertEquals(0, count("TRUE"));
+    }
+
+    @Test
+    public void testFailedRequestIsRetriedLater() throws SQLException {
+        sut.enqueue(Arrays.asList(1L));
+        sut.claim(10, 0, 0);
+        sut.fail(1L, "solr is down");
+
+        assertEquals(1, count("dvobject_id = 1 AND claimtime IS NULL AND attempts = 1 AND lasterror = 'solr is down'"
+                + " AND notbefore > clock_timestamp() + INTERVAL '50 seconds'"));
+        assertTrue(sut.claim(10, 0, 0).isEmpty());
+        JsonObject status = sut.getStatus().build();
+        assertEquals(1, status.getInt("pending"));
+        assertEquals(1, status.getInt("failing"));
+        assertTrue(status.getJsonObject("failures").getString("1").contains("solr is down"));
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE indexqueue SET notbefore = clock_timestamp() - INTERVAL '1 second'");
+        }
+        long[] claimed = sut.claim(10, 0, 0).get(0);
+        sut.complete(1L, claimed[1]);
+        assertEquals(0, count("TRUE"));
+    }
+
+    @Test
+    public void testAbandonedClaimIsTakenOver() throws SQLException {
+        sut.enqueue(Arrays.asList(1L));
+        assertFalse(sut.claim(10, 0, 0).isEmpty());
+        assertTrue(sut.claim(10, 0, 0).isEmpty());
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE indexqueue SET claimtime = clock_timestamp() - "
+                    + (IndexQueueServiceBean.CLAIM_TIMEOUT_MILLIS + 1000) + " * INTERVAL '1 millisecond'");
+        }
+        assertEquals(Arrays.asList(1L), ids(sut.claim(10, 0, 0)));
+    }
+}
@@ -0,0 +1,98 @@
+package edu.harvard.iq.dataverse.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexWorkloadTest {
+
+    @Test
+    void testDealtInTurns() {
+        IndexWorkload workload = new IndexWorkload(Arrays.asList(1L, 2L), Arrays.asList(10L, 11L, 12L, 13L), 2);
+        assertEquals(6, workload.getTotal());
+
+        IndexWorkload.Task task = workload.next(0);
+        assertEquals(1L, task.getId());
+        assertTrue(task.isDataverse());
+        task = workload.next(1);
+        assertEquals(2L, task.getId());
+        assertTrue(task.isDataverse());
+        task = workload.next(0);
+        assertEquals(10L, task.getId());
+        assertFalse(task.isDataverse());
+        assertEquals(11L, workload.next(1).getId());
+        assertEquals(0, workload.getStolen());
+    }
+
+    @Test
+    void testSteal() {
+        // worker 0 gets 10, 12, 14; worker 1 gets 11, 13, 15
+        IndexWorkload workload = new IndexWorkload(Collections.emptyList(), Arrays.asList(10L, 11L, 12L, 13L, 14L, 15L), 2);
+        assertEquals(10L, workload.next(0).getId());
+        assertEquals(12L, workload.next(0).getId());
+        assertEquals(14L, workload.next(0).getId());
+        // worker 0 takes the last (biggest) of worker 1:
+        assertEquals(15L, workload.next(0).getId());
+        assertEquals(1, workload.getStolen());
+        assertEquals(11L, workload.next(1).getId());
+        assertEquals(13L, workload.next(1).getId());
+        assertNull(workload.next(1));
+        assertNull(workload.next(0));
+    }
+
+    @Test
+    void testMoreWorkersThanObjects() {
+        IndexWorkload workload = new IndexWorkload(Collections.emptyList(), Arrays.asList(10L), 4);
+        assertEquals(4, workload.getWorkers());
+        assertEquals(10L, workload.next(3).getId());
+        assertNull(workload.next(0));
+    }
+
+    @Test
+    void testConcurrent() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i < 10000; i++) {
+            ids.add(i);
+        }
+        int workers = 8;
+        IndexWorkload workload = new IndexWorkload(Collections.emptyList(), ids, workers);
+        Set<Long> taken = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                int worker = i;
+                results.add(executor.submit(() -> {
+                    int count = 0;
+                    IndexWorkload.Task task;
+                    while ((task = workload.next(worker)) != null) {
+                        assertTrue(taken.add(task.getId()), "taken twice: " + task.getId());
+                        workload.indexed();
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            int count = 0;
+            for (Future<Integer> result : results) {
+                count += result.get();
+            }
+            assertEquals(ids.size(), count);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(ids.size(), taken.size());
+        assertEquals(ids.size(), workload.getIndexed());
+        assertEquals(0, workload.getFailed());
+    }
+}
@@ -0,0 +1,49 @@
+package edu.harvard.iq.dataverse.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PermissionFilterCacheTest {
+
+    @Test
+    void testCached() {
+        PermissionFilterCache cache = new PermissionFilterCache(1000, 10);
+        AtomicInteger computed = new AtomicInteger();
+        Supplier<String> compute = () -> " OR group_" + computed.incrementAndGet();
+        String key = PermissionFilterCache.key("@user", "127.0.0.1");
+
+        assertEquals(" OR group_1", cache.get(key, 1, 0, compute));
+        assertEquals(" OR group_1", cache.get(key, 1, 999, compute));
+        // another address may be in other (IP) groups
+        assertEquals(" OR group_2", cache.get(PermissionFilterCache.key("@user", "10.0.0.1"), 1, 999, compute));
+        assertEquals(2, computed.get());
+    }
+
+    @Test
+    void testExpiry() {
+        PermissionFilterCache cache = new PermissionFilterCache(1000, 10);
+        AtomicInteger computed = new AtomicInteger();
+        Supplier<String> compute = () -> " OR group_" + computed.incrementAndGet();
+        String key = PermissionFilterCache.key("@user", "127.0.0.1");
+
+        cache.get(key, 1, 0, compute);
+        assertEquals(" OR group_2", cache.get(key, 1, 1000, compute));
+        // groups changed:
+        assertEquals(" OR group_3", cache.get(key, 2, 1001, compute));
+        assertEquals(" OR group_3", cache.get(key, 2, 1002, compute));
+    }
+
+    @Test
+    void testDisabled() {
+        PermissionFilterCache cache = new PermissionFilterCache(0, 10);
+        AtomicInteger computed = new AtomicInteger();
+        Supplier<String> compute = () -> " OR group_" + computed.incrementAndGet();
+        cache.get("key", 1, 0, compute);
+        cache.get("key", 1, 0, compute);
+        assertEquals(2, computed.get());
+    }
+}
@@ -0,0 +1,84 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DvObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PermissionIndexQueueTest {
+
+    @Test
+    void testRequestsCollapse() {
+        PermissionIndexQueue queue = new PermissionIndexQueue();
+        queue.delayMillis = 100;
+        queue.maxDelayMillis = 1000;
+        queue.request(Arrays.asList(1L, 2L));
+        queue.request(Collections.singletonList(1L));
+        long now = System.currentTimeMillis();
+        assertTrue(queue.takeDue(now).isEmpty());
+        List<Long> due = queue.takeDue(now + 100);
+        Collections.sort(due);
+        assertEquals(Arrays.asList(1L, 2L), due);
+        assertTrue(queue.takeDue(now + 200).isEmpty());
+    }
+
+    @Test
+    void testMaxDelay() throws InterruptedException {
+        PermissionIndexQueue queue = new PermissionIndexQueue();
+        queue.delayMillis = 100;
+        queue.maxDelayMillis = 1000;
+        long first = System.currentTimeMillis();
+        queue.request(Collections.singletonList(1L));
+        Thread.sleep(10);
+        // requested again: not due after the delay...
+        queue.request(Collections.singletonList(1L));
+        assertTrue(queue.takeDue(first + 100).isEmpty());
+        // ...but after the max delay
+        assertEquals(Collections.singletonList(1L), queue.takeDue(first + 1000));
+    }
+
+    @Test
+    void testRemoveCovered() {
+        Dataverse root = dataverse(1L, null);
+        Dataverse dataverse = dataverse(2L, root);
+        Dataset dataset = dataset(3L, dataverse);
+        DataFile file = file(4L, dataset);
+        Dataset otherDataset = dataset(5L, root);
+        DataFile otherFile = file(6L, otherDataset);
+
+        // a dataverse doesn't cover its sub-dataverses
+        assertEquals(Arrays.asList(root, dataverse), PermissionIndexQueue.removeCovered(Arrays.asList(root, dataverse)));
+        assertEquals(Arrays.asList(dataverse), PermissionIndexQueue.removeCovered(Arrays.asList(dataverse, dataset, file)));
+        assertEquals(Arrays.asList(dataset), PermissionIndexQueue.removeCovered(Arrays.asList(file, dataset)));
+        assertEquals(Arrays.asList(root, dataset), PermissionIndexQueue.removeCovered(Arrays.asList(root, dataset, otherFile, otherDataset)));
+        assertEquals(Arrays.asList(file, otherFile), PermissionIndexQueue.removeCovered(Arrays.asList(file, otherFile)));
+    }
+
+    private static Dataverse dataverse(Long id, Dataverse owner) {
+        Dataverse dataverse = new Dataverse();
+        dataverse.setId(id);
+        dataverse.setOwner(owner);
+        return dataverse;
+    }
+
+    private static Dataset dataset(Long id, Dataverse owner) {
+        Dataset dataset = new Dataset();
+        dataset.setId(id);
+        dataset.setOwner(owner);
+        return dataset;
+    }
+
+    private static DataFile file(Long id, Dataset owner) {
+        DataFile file = new DataFile();
+        file.setId(id);
+        file.setOwner(owner);
+        return file;
+    }
+}
@@ -8,6 +8,7 @@ package edu.harvard.iq.dataverse.search;
 import edu.harvard.iq.dataverse.DatasetFieldConstant;
 import java.sql.Timestamp;
 import java.util.Arrays;
+import java.util.Map;
 import org.apache.solr.common.SolrInputDocument;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -44,6 +45,16 @@ public class SearchUtilTest {
         assertEquals(SearchFields.DISCOVERABLE_BY + "=" + Arrays.asList(IndexServiceBean.getPublicGroupString()), solrInputDocument.get(SearchFields.DISCOVERABLE_BY).toString());
     }
 
+    @Test
+    public void testCreateDiscoverableByUpdate() {
+        SolrInputDocument permissionDoc = SearchUtil.createSolrDoc(new DvObjectSolrDoc("12345", "dataset_12345_draft", 345678l, null, Arrays.asList("group_user1", "group_2-g")));
+        SolrInputDocument update = SearchUtil.createDiscoverableByUpdate(permissionDoc);
+        assertEquals("dataset_12345_draft", update.getFieldValue(SearchFields.ID));
+        assertEquals(Arrays.asList("group_user1", "group_2-g"), ((Map<?, ?>) update.getFieldValue(SearchFields.DISCOVERABLE_BY)).get("set"));
+        assertNull(update.getField(SearchFields.DEFINITION_POINT));
+        assertTrue(SolrUpdateBatcher.isPartial(update));
+    }
+
     @Test
     public void testGetTimestampOrNull() {
         assertNull(SearchUtil.getTimestampOrNull(null));
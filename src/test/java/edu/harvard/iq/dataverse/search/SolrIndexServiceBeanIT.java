@@ -0,0 +1,374 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.DatasetVersion.VersionState;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseRoleServiceBean;
+import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
+import edu.harvard.iq.dataverse.RoleAssignment;
+import edu.harvard.iq.dataverse.authorization.DataverseRole;
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.util.testing.NativeQueryEntityManager;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * Checks that reindexing the permissions of a dataverse or dataset, which
+ * reads the ids of the datasets, versions and files with native queries,
+ * gives the same permission documents as those built from the entities one
+ * object at a time ({@link SolrIndexServiceBean#determineSolrDocs}). Runs
+ * against PostgreSQL ({@code mvn -Ptc verify}).
+ */
+@Tag("testcontainers")
+@Testcontainers
+public class SolrIndexServiceBeanIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "9.6"));
+
+    Connection connection;
+    SolrIndexServiceBean sut;
+    List<SolrInputDocument> indexed;
+
+    Map<Long, List<RoleAssignment>> assignmentsByDefinitionPoint;
+    Map<String, RoleAssignee> assignees;
+    Map<Long, DataverseRole> roles;
+
+    Dataverse root;
+    Dataverse dataverse;
+    Dataverse permissionRootDataverse;
+    Dataset released;
+    Dataset draftOnly;
+    Dataset releasedWithDraft;
+    Dataset deaccessionedOnly;
+    Dataset releasedThenDeaccessioned;
+    Dataset manyFiles;
+    Dataset inPermissionRoot;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS dvobject, datasetversion, filemetadata");
+            statement.execute("CREATE TABLE dvobject (id BIGINT PRIMARY KEY, dtype VARCHAR(31), owner_id BIGINT, permissionindextime TIMESTAMP)");
+            statement.execute("CREATE TABLE datasetversion (id BIGINT PRIMARY KEY, dataset_id BIGINT, versionstate VARCHAR(255), versionnumber BIGINT, minorversionnumber BIGINT)");
+            statement.execute("CREATE TABLE filemetadata (id SERIAL PRIMARY KEY, datasetversion_id BIGINT, datafile_id BIGINT)");
+        }
+
+        assignmentsByDefinitionPoint = new HashMap<>();
+        assignees = new HashMap<>();
+        roles = new HashMap<>();
+        DataverseRole admin = role(1L, Permission.ViewUnpublishedDataverse, Permission.ViewUnpublishedDataset, Permission.DownloadFile);
+        DataverseRole curator = role(2L, Permission.ViewUnpublishedDataset);
+        DataverseRole fileDownloader = role(3L, Permission.DownloadFile);
+
+        root = dataverse(1L, null);
+        dataverse = dataverse(2L, root);
+        permissionRootDataverse = dataverse(3L, dataverse);
+        permissionRootDataverse.setPermissionRoot(true);
+
+        released = dataset(10L, dataverse);
+        version(released, 100L, VersionState.RELEASED, 1L, 1000L, 1001L);
+        draftOnly = dataset(11L, dataverse);
+        version(draftOnly, 110L, VersionState.DRAFT, null, 1100L);
+        releasedWithDraft = dataset(12L, dataverse);
+        DataFile inBoth = file(1200L, releasedWithDraft);
+        version(releasedWithDraft, 121L, VersionState.DRAFT, null, inBoth, file(1201L, releasedWithDraft));
+        version(releasedWithDraft, 120L, VersionState.RELEASED, 1L, inBoth);
+        deaccessionedOnly = dataset(13L, dataverse);
+        version(deaccessionedOnly, 130L, VersionState.DEACCESSIONED, 1L, 1300L);
+        releasedThenDeaccessioned = dataset(14L, dataverse);
+        DataFile inBothVersions = file(1400L, releasedThenDeaccessioned);
+        version(releasedThenDeaccessioned, 141L, VersionState.DEACCESSIONED, 2L, inBothVersions);
+        version(releasedThenDeaccessioned, 140L, VersionState.RELEASED, 1L, inBothVersions);
+        manyFiles = dataset(15L, dataverse);
+        // (more files than PERMISSION_PAGE_SIZE)
+        long[] fileIds = new long[SolrIndexServiceBean.PERMISSION_PAGE_SIZE + 1];
+        for (int i = 0; i < fileIds.length; i++) {
+            fileIds[i] = 20000L + i;
+        }
+        version(manyFiles, 150L, VersionState.RELEASED, 1L, fileIds);
+        inPermissionRoot = dataset(30L, permissionRootDataverse);
+        version(inPermissionRoot, 300L, VersionState.DRAFT, null, 3000L);
+
+        assign(admin, user(1L), root);
+        assign(curator, user(2L), dataverse);
+        assign(fileDownloader, user(3L), dataverse);
+        assign(curator, user(4L), draftOnly);
+        assign(curator, user(5L), inPermissionRoot);
+        assign(curator, user(6L), permissionRootDataverse);
+
+        sut = new SolrIndexServiceBean();
+        sut.em = NativeQueryEntityManager.create(connection);
+        sut.systemConfig = Mockito.mock(SystemConfig.class);
+        sut.dvObjectService = Mockito.mock(DvObjectServiceBean.class);
+        sut.dataverseService = Mockito.mock(DataverseServiceBean.class);
+        Mockito.when(sut.dataverseService.findRootDataverse()).thenReturn(root);
+        sut.searchPermissionsService = new SearchPermissionsServiceBean();
+        sut.searchPermissionsService.rolesSvc = mockRoleService();
+        sut.searchPermissionsService.roleAssigneeService = Mockito.mock(RoleAssigneeServiceBean.class);
+        Mockito.when(sut.searchPermissionsService.roleAssigneeService.getRoleAssignee(anyString())).thenAnswer(i -> assignees.get(i.<String>getArgument(0)));
+        indexed = new ArrayList<>();
+        sut.solrUpdateBatcher = Mockito.mock(SolrUpdateBatcher.class);
+        Mockito.doAnswer(i -> indexed.addAll(i.<Collection<SolrInputDocument>>getArgument(0))).when(sut.solrUpdateBatcher).add(anyCollection());
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testDataverse() throws SQLException {
+        sut.indexPermissionsOnSelfAndChildren(dataverse);
+
+        assertEquals(expectedDocs(dataverse, released, draftOnly, releasedWithDraft, deaccessionedOnly, releasedThenDeaccessioned, manyFiles), indexedDocs());
+        // (each sent once)
+        assertEquals(indexedDocs().size(), indexed.size());
+        assertEquals(0, count("dtype = 'Dataset' AND owner_id = 2 AND permissionindextime IS NULL"));
+        assertEquals(1, count("dtype = 'Dataset' AND permissionindextime IS NULL"));
+    }
+
+    @Test
+    public void testDataverseUnderAPermissionRoot() throws SQLException {
+        sut.indexPermissionsOnSelfAndChildren(permissionRootDataverse);
+
+        Map<String, Set<String>> docs = indexedDocs();
+        assertEquals(expectedDocs(permissionRootDataverse, inPermissionRoot), docs);
+        // (not the assignments above the permission root)
+        assertEquals(new HashSet<>(Arrays.asList(IndexServiceBean.getGroupPerUserPrefix() + 5, IndexServiceBean.getGroupPerUserPrefix() + 6)),
+                docs.get("datafile_3000_draft_permission"));
+        assertEquals(0, count("id = 30 AND permissionindextime IS NULL"));
+    }
+
+    @Test
+    public void testDataset() throws SQLException {
+        sut.indexPermissionsOnSelfAndChildren(releasedWithDraft);
+
+        Map<String, Set<String>> docs = indexedDocs();
+        assertEquals(expectedDocs(null, releasedWithDraft), docs);
+        assertEquals(new HashSet<>(Arrays.asList("dataset_12_permission", "dataset_12_draft_permission",
+                "datafile_1200_permission", "datafile_1200_draft_permission", "datafile_1201_draft_permission")), docs.keySet());
+        assertEquals(new HashSet<>(Arrays.asList(IndexServiceBean.getPublicGroupString())), docs.get("datafile_1200_permission"));
+        assertEquals(0, count("id = 12 AND permissionindextime IS NULL"));
+    }
+
+    /**
+     * The permission documents of the dataverse (unless it's the root) and of
+     * each dataset and of the files in the versions they have cards for, as
+     * built from the entities, one object at a time.
+     */
+    private Map<String, Set<String>> expectedDocs(Dataverse definitionPoint, Dataset... datasets) {
+        List<DvObjectSolrDoc> docs = new ArrayList<>();
+        if (definitionPoint != null) {
+            docs.addAll(sut.determineSolrDocs(definitionPoint));
+        }
+        for (Dataset dataset : datasets) {
+            List<DvObjectSolrDoc> datasetDocs = sut.determineSolrDocs(dataset);
+            docs.addAll(datasetDocs);
+            for (DvObjectSolrDoc datasetDoc : datasetDocs) {
+                DatasetVersion version = dataset.getVersions().stream().filter(v -> v.getId().equals(datasetDoc.getDatasetVersionId())).findFirst().get();
+                for (FileMetadata fileMetadata : version.getFileMetadatas()) {
+                    // (a file gets documents for all the cards of its dataset,
+                    // including the versions it isn't in; those are left out now)
+                    sut.determineSolrDocs(fileMetadata.getDataFile()).stream()
+                            .filter(fileDoc -> version.getId().equals(fileDoc.getDatasetVersionId()))
+                            .forEach(docs::add);
+                }
+            }
+        }
+        return docs(docs.stream().map(SearchUtil::createSolrDoc).collect(Collectors.toList()));
+    }
+
+    private Map<String, Set<String>> indexedDocs() {
+        return docs(indexed);
+    }
+
+    /**
+     * @return the permissions of the documents, by document id
+     */
+    private static Map<String, Set<String>> docs(Collection<SolrInputDocument> docs) {
+        Map<String, Set<String>> permissions = new HashMap<>();
+        for (SolrInputDocument doc : docs) {
+            permissions.put((String) doc.getFieldValue(SearchFields.ID),
+                    doc.getFieldValues(SearchFields.DISCOVERABLE_BY).stream().map(String.class::cast).collect(Collectors.toSet()));
+        }
+        return permissions;
+    }
+
+    private long count(String where) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM dvobject WHERE " + where)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private DataverseRoleServiceBean mockRoleService() {
+        DataverseRoleServiceBean rolesSvc = Mockito.mock(DataverseRoleServiceBean.class);
+        // (as DataverseRoleServiceBean.rolesAssignments does)
+        Mockito.when(rolesSvc.rolesAssignments(any(DvObject.class))).thenAnswer(i -> {
+            DvObject dvObject = i.getArgument(0);
+            Set<RoleAssignment> assignments = new HashSet<>();
+            while (!dvObject.isEffectivelyPermissionRoot()) {
+                assignments.addAll(assignmentsByDefinitionPoint.getOrDefault(dvObject.getId(), new ArrayList<>()));
+                dvObject = dvObject.getOwner();
+            }
+            assignments.addAll(assignmentsByDefinitionPoint.getOrDefault(dvObject.getId(), new ArrayList<>()));
+            return assignments;
+        });
+        Mockito.when(rolesSvc.directRoleAssignmentIds(anyCollection())).thenAnswer(i -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Long id : i.<Collection<Long>>getArgument(0)) {
+                for (RoleAssignment assignment : assignmentsByDefinitionPoint.getOrDefault(id, new ArrayList<>())) {
+                    rows.add(new Object[]{id, assignment.getAssigneeIdentifier(), assignment.getRole().getId()});
+                }
+            }
+            return rows;
+        });
+        Mockito.when(rolesSvc.find(anyLong())).thenAnswer(i -> roles.get(i.<Long>getArgument(0)));
+        return rolesSvc;
+    }
+
+    private DataverseRole role(Long id, Permission... permissions) {
+        DataverseRole role = new DataverseRole();
+        role.setId(id);
+        role.setAlias("role" + id);
+        role.addPermissions(Arrays.asList(permissions));
+        roles.put(id, role);
+        return role;
+    }
+
+    private AuthenticatedUser user(Long id) {
+        AuthenticatedUser user = new AuthenticatedUser();
+        user.setId(id);
+        user.setUserIdentifier("user" + id);
+        assignees.put(user.getIdentifier(), user);
+        return user;
+    }
+
+    private void assign(DataverseRole role, RoleAssignee assignee, DvObject definitionPoint) {
+        assignmentsByDefinitionPoint.computeIfAbsent(definitionPoint.getId(), id -> new ArrayList<>())
+                .add(new RoleAssignment(role, assignee, definitionPoint, null));
+    }
+
+    private Dataverse dataverse(Long id, Dataverse owner) throws SQLException {
+        Dataverse dataverse = new Dataverse();
+        dataverse.setId(id);
+        dataverse.setOwner(owner);
+        dataverse.setPublicationDate(new Timestamp(System.currentTimeMillis()));
+        insert("INSERT INTO dvobject (id, dtype, owner_id) VALUES (?, 'Dataverse', ?)", id, owner == null ? null : owner.getId());
+        return dataverse;
+    }
+
+    private Dataset dataset(Long id, Dataverse owner) throws SQLException {
+        Dataset dataset = new Dataset();
+        dataset.setId(id);
+        dataset.setOwner(owner);
+        dataset.setVersions(new ArrayList<>());
+        insert("INSERT INTO dvobject (id, dtype, owner_id) VALUES (?, 'Dataset', ?)", id, owner.getId());
+        return dataset;
+    }
+
+    private DataFile file(Long id, Dataset owner) throws SQLException {
+        DataFile file = new DataFile();
+        file.setId(id);
+        file.setOwner(owner);
+        insert("INSERT INTO dvobject (id, dtype, owner_id) VALUES (?, 'DataFile', ?)", id, owner.getId());
+        return file;
+    }
+
+    /**
+     * Adds a version to the dataset, after those it has: the versions have
+     * to be added latest first, as Dataset.getVersions() orders them.
+     */
+    private DatasetVersion version(Dataset dataset, Long id, VersionState state, Long versionNumber, long... newFileIds) throws SQLException {
+        DataFile[] files = new DataFile[newFileIds.length];
+        for (int i = 0; i < newFileIds.length; i++) {
+            files[i] = file(newFileIds[i], dataset);
+        }
+        return version(dataset, id, state, versionNumber, files);
+    }
+
+    private DatasetVersion version(Dataset dataset, Long id, VersionState state, Long versionNumber, DataFile... files) throws SQLException {
+        DatasetVersion version = new DatasetVersion();
+        version.setId(id);
+        version.setDataset(dataset);
+        version.setVersionState(state);
+        version.setVersionNumber(versionNumber);
+        version.setMinorVersionNumber(versionNumber == null ? null : 0L);
+        List<FileMetadata> fileMetadatas = new ArrayList<>();
+        for (DataFile file : files) {
+            FileMetadata fileMetadata = new FileMetadata();
+            fileMetadata.setDataFile(file);
+            fileMetadata.setDatasetVersion(version);
+            fileMetadatas.add(fileMetadata);
+            file.getFileMetadatas().add(fileMetadata);
+        }
+        version.setFileMetadatas(fileMetadatas);
+        dataset.getVersions().add(version);
+
+        insert("INSERT INTO datasetversion (id, dataset_id, versionstate, versionnumber, minorversionnumber) VALUES (?, ?, ?, ?, ?)",
+                id, dataset.getId(), state.name(), versionNumber, version.getMinorVersionNumber());
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO filemetadata (datasetversion_id, datafile_id) VALUES (?, ?)")) {
+            for (DataFile file : files) {
+                statement.setLong(1, id);
+                statement.setLong(2, file.getId());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        return version;
+    }
+
+    private void insert(String sql, Object... values) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    statement.setNull(i + 1, java.sql.Types.BIGINT);
+                } else {
+                    statement.setObject(i + 1, values[i]);
+                }
+            }
+            statement.executeUpdate();
+        }
+    }
+}
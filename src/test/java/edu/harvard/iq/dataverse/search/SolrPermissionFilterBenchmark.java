@@ -0,0 +1,132 @@
+package edu.harvard.iq.dataverse.search;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a search filtered by permissions, the way
+ * {@link SearchServiceBean} does it: with a join on the permission documents
+ * (JOIN), or on the permissions copied onto the content documents
+ * (DENORMALIZED, see :SolrDenormalizedPermissions). The benchmark indexes
+ * synthetic content and permission documents (ids starting with
+ * "benchmark_", deleted afterwards) into a running Solr, by default the one
+ * of a development installation:
+ *
+ * mvn -Pbenchmark test -Dbenchmark.includes=SolrPermissionFilterBenchmark [-Dbenchmark.args="-p solrUrl=http://solr:8983/solr/collection1 -p documents=100000"]
+ *
+ * Every search is made for a different user, and the filter isn't cached by
+ * Solr, so each one is evaluated from scratch, as for a user's first search.
+ * Each user can see the public documents, those of 20 groups out of 1,000
+ * and their own; a tenth of the documents are public.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolrPermissionFilterBenchmark {
+
+    public enum Filter {
+        JOIN, DENORMALIZED
+    }
+
+    static final String ID_PREFIX = "benchmark_";
+    static final int GROUPS = 1000;
+    static final int USERS = 100000;
+    static final int GROUPS_PER_USER = 20;
+
+    @Param({"http://localhost:8983/solr/collection1"})
+    public String solrUrl;
+
+    @Param({"100000", "1000000"})
+    public int documents;
+
+    @Param({"JOIN", "DENORMALIZED"})
+    public Filter filter;
+
+    SolrClient solrClient;
+    Random random;
+
+    @Setup(Level.Trial)
+    public void index() throws SolrServerException, IOException {
+        solrClient = new HttpSolrClient.Builder(solrUrl).build();
+        random = new Random(42);
+        deleteDocuments();
+        Random docRandom = new Random(42);
+        List<SolrInputDocument> batch = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            String contentId = ID_PREFIX + "dataset_" + i;
+            List<String> perms = new ArrayList<>();
+            if (docRandom.nextInt(10) == 0) {
+                perms.add(IndexServiceBean.getPublicGroupString());
+            } else {
+                perms.add(IndexServiceBean.getGroupPerUserPrefix() + docRandom.nextInt(USERS));
+                perms.add(IndexServiceBean.getGroupPrefix() + docRandom.nextInt(GROUPS) + "-group");
+            }
+            SolrInputDocument content = new SolrInputDocument();
+            content.addField(SearchFields.ID, contentId);
+            content.addField(SearchFields.TYPE, "datasets");
+            content.addField(SearchFields.NAME, "Dataset " + i);
+            content.addField(SearchFields.DISCOVERABLE_BY, perms);
+            batch.add(content);
+            batch.add(SearchUtil.createSolrDoc(new DvObjectSolrDoc(Integer.toString(i), contentId, null, null, perms)));
+            if (batch.size() >= 10000) {
+                solrClient.add(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            solrClient.add(batch);
+        }
+        solrClient.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDocuments() throws SolrServerException, IOException {
+        solrClient.deleteByQuery(SearchFields.ID + ":" + ID_PREFIX + "*");
+        solrClient.commit();
+    }
+
+    @Benchmark
+    public long search() throws SolrServerException, IOException {
+        StringBuilder terms = new StringBuilder(IndexServiceBean.getPublicGroupString());
+        terms.append(" OR ").append(IndexServiceBean.getGroupPerUserPrefix()).append(random.nextInt(USERS));
+        for (int i = 0; i < GROUPS_PER_USER; i++) {
+            terms.append(" OR ").append(IndexServiceBean.getGroupPrefix()).append(random.nextInt(GROUPS)).append("-group");
+        }
+        String filterQuery = SearchServiceBean.getDiscoverableByFilter(terms.toString(), filter == Filter.DENORMALIZED);
+        SolrQuery query = new SolrQuery("*:*");
+        // (searches only match content documents)
+        query.addFilterQuery(SearchFields.TYPE + ":datasets");
+        // (the filter of each search is new to Solr anyway: no point caching it)
+        query.addFilterQuery(filter == Filter.JOIN ? filterQuery.replace("{!join ", "{!join cache=false ") : "{!cache=false}" + filterQuery);
+        query.setRows(10);
+        query.setFields(SearchFields.ID);
+        QueryResponse response = solrClient.query(query);
+        return response.getResults().getNumFound();
+    }
+}
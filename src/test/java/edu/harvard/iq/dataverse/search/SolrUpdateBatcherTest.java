@@ -0,0 +1,253 @@
+package edu.harvard.iq.dataverse.search;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class SolrUpdateBatcherTest {
+
+    SolrUpdateBatcher batcher;
+    SolrClient solrClient;
+
+    @BeforeEach
+    void setUp() throws SolrServerException, IOException {
+        solrClient = mock(SolrClient.class);
+        when(solrClient.request(any(), isNull())).thenReturn(new NamedList<>());
+        batcher = new SolrUpdateBatcher();
+        batcher.solrClientService = new SolrClientService();
+        batcher.solrClientService.setSolrClient(solrClient);
+        batcher.batchSize = 3;
+        batcher.maxPending = 5;
+    }
+
+    @Test
+    void testCoalesce() throws SolrServerException, IOException {
+        batcher.add(doc("dataset_1", "old"));
+        batcher.deleteById("dataset_2");
+        batcher.add(doc("dataset_1", "new"));
+        assertEquals(2, batcher.getPendingCount());
+        verify(solrClient, never()).request(any(), any());
+
+        batcher.flush();
+        UpdateRequest request = lastRequest();
+        assertEquals(1, request.getDocuments().size());
+        assertEquals("new", request.getDocuments().get(0).getFieldValue(SearchFields.NAME));
+        assertEquals(Collections.singletonList("dataset_2"), request.getDeleteById());
+        assertEquals(SolrUpdateBatcher.DEFAULT_COMMIT_WITHIN_MILLIS, request.getCommitWithin());
+        assertEquals(0, batcher.getPendingCount());
+
+        // a delete replaces an add of the same document, and the other way around:
+        batcher.add(doc("dataset_3", "x"));
+        batcher.deleteById("dataset_3");
+        batcher.deleteById("dataset_4");
+        batcher.add(doc("dataset_4", "y"));
+        batcher.flush();
+        request = lastRequest();
+        assertEquals("dataset_4", request.getDocuments().get(0).getFieldValue(SearchFields.ID));
+        assertEquals(Collections.singletonList("dataset_3"), request.getDeleteById());
+    }
+
+    @Test
+    void testFlushWhenFull() throws SolrServerException, IOException {
+        batcher.add(Arrays.asList(doc("dataset_1", "a"), doc("dataset_2", "b")));
+        verify(solrClient, never()).request(any(), any());
+        batcher.deleteById("datafile_3");
+        verify(solrClient).request(any(), isNull());
+        assertEquals(2, lastRequest().getDocuments().size());
+        assertEquals(0, batcher.getPendingCount());
+
+        // nothing left to send:
+        batcher.flush();
+        verify(solrClient).request(any(), isNull());
+    }
+
+    @Test
+    void testRetry() throws SolrServerException, IOException {
+        when(solrClient.request(any(), isNull())).thenThrow(new IOException("connection refused"));
+        batcher.add(doc("dataset_1", "old"));
+        batcher.add(doc("dataset_2", "b"));
+        assertThrows(IOException.class, () -> batcher.flush());
+        assertEquals(2, batcher.getPendingCount());
+
+        // updates queued since the failure win:
+        batcher.add(doc("dataset_1", "new"));
+        doReturn(new NamedList<>()).when(solrClient).request(any(), isNull());
+        batcher.flush();
+        List<String> names = new ArrayList<>();
+        for (SolrInputDocument doc : lastRequest().getDocuments()) {
+            names.add((String) doc.getFieldValue(SearchFields.NAME));
+        }
+        assertEquals(Arrays.asList("new", "b"), names);
+    }
+
+    @Test
+    void testRejectedDocumentsAreIndexedAgain() throws SolrServerException, IOException {
+        // Solr refuses any request with the document of file 2 or the permissions of dataset 4:
+        when(solrClient.request(any(), isNull())).thenAnswer(invocation -> {
+            UpdateRequest request = invocation.getArgument(0);
+            if (request.getDocuments() != null) {
+                for (SolrInputDocument doc : request.getDocuments()) {
+                    if (doc.getFieldValue(SearchFields.ID).equals("datafile_2") || doc.getFieldValue(SearchFields.ID).equals("dataset_4_permission")) {
+                        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "bad document");
+                    }
+                }
+            }
+            return new NamedList<>();
+        });
+        EntityManager em = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(em.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        batcher.em = em;
+
+        SolrInputDocument dataset = doc("dataset_1", "a");
+        dataset.addField(SearchFields.ENTITY_ID, 1L);
+        SolrInputDocument file = doc("datafile_2", "b");
+        file.addField(SearchFields.ENTITY_ID, 2L);
+        file.addField(SearchFields.TYPE, "files");
+        file.addField(SearchFields.PARENT_ID, 3L);
+        SolrInputDocument permissions = new SolrInputDocument();
+        permissions.addField(SearchFields.ID, "dataset_4_permission");
+        permissions.addField(SearchFields.DEFINITION_POINT_DVOBJECT_ID, 4L);
+        // (the batch is full: sent right away, then one by one)
+        batcher.add(Arrays.asList(dataset, file, permissions));
+        verify(solrClient, times(4)).request(any(), isNull());
+        assertEquals(0, batcher.getPendingCount());
+        // cleared by the timer, once the caller has set the index times:
+        verify(em, never()).createQuery(anyString());
+
+        batcher.flushIfDue();
+        verify(query).setParameter("ids", new HashSet<>(Arrays.asList(2L, 3L, 4L)));
+        verify(query).executeUpdate();
+        batcher.flushIfDue();
+        verify(em, times(1)).createQuery(anyString());
+    }
+
+    @Test
+    void testQueueFull() throws SolrServerException, IOException {
+        when(solrClient.request(any(), isNull())).thenThrow(new IOException("connection refused"));
+        for (int i = 0; i < 5; i++) {
+            // (failing to send a full batch is not the caller's problem)
+            batcher.add(doc("dataset_" + i, "x"));
+        }
+        assertThrows(IOException.class, () -> batcher.add(doc("dataset_5", "x")));
+        assertEquals(5, batcher.getPendingCount());
+    }
+
+    @Test
+    void testNoBatching() throws SolrServerException, IOException {
+        batcher.batchSize = 0;
+        SolrInputDocument doc = doc("dataset_1", "a");
+        batcher.add(doc);
+        verify(solrClient).add(Collections.singletonList(doc));
+        verify(solrClient).commit();
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    void testPartialUpdates() throws SolrServerException, IOException {
+        batcher.batchSize = 10;
+        batcher.maxPending = 10;
+        // applied to the document queued for the same id:
+        SolrInputDocument full = doc("datafile_1", "a");
+        full.addField(SearchFields.PARENT_NAME, "old");
+        batcher.add(full);
+        batcher.add(partial("datafile_1", "new"));
+        // queued as they are otherwise:
+        batcher.add(partial("datafile_2", "new"));
+        batcher.add(partial("datafile_2", "newer"));
+        // and dropped if the document is to be deleted:
+        batcher.deleteById("datafile_3");
+        batcher.add(partial("datafile_3", "new"));
+        assertEquals(3, batcher.getPendingCount());
+
+        batcher.flush();
+        UpdateRequest request = lastRequest();
+        assertEquals(2, request.getDocuments().size());
+        SolrInputDocument merged = request.getDocuments().get(0);
+        assertFalse(SolrUpdateBatcher.isPartial(merged));
+        assertEquals("a", merged.getFieldValue(SearchFields.NAME));
+        assertEquals("new", merged.getFieldValue(SearchFields.PARENT_NAME));
+        assertNull(merged.getFieldValue(SolrUpdateBatcher.VERSION_FIELD));
+        SolrInputDocument partial = request.getDocuments().get(1);
+        assertEquals("newer", ((Map<?, ?>) partial.getFieldValue(SearchFields.PARENT_NAME)).get("set"));
+        assertEquals(Collections.singletonList("datafile_3"), request.getDeleteById());
+    }
+
+    @Test
+    void testGetLatest() throws SolrServerException, IOException {
+        SolrDocumentList indexed = new SolrDocumentList();
+        for (String id : Arrays.asList("datafile_1", "datafile_2", "datafile_3")) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField(SearchFields.ID, id);
+            doc.setField(SearchFields.NAME, "indexed");
+            doc.setField(SearchFields.PARENT_NAME, "indexed");
+            indexed.add(doc);
+        }
+        when(solrClient.getById(anyCollection(), any(SolrParams.class))).thenReturn(indexed);
+        batcher.batchSize = 10;
+        batcher.maxPending = 10;
+        batcher.add(partial("datafile_1", "queued"));
+        batcher.deleteById("datafile_2");
+        batcher.add(doc("datafile_4", "queued"));
+
+        Map<String, SolrDocument> latest = batcher.getLatest(Arrays.asList("datafile_1", "datafile_2", "datafile_3", "datafile_4", "datafile_5"),
+                SearchFields.NAME, SearchFields.PARENT_NAME);
+        assertEquals(3, latest.size());
+        assertEquals("indexed", latest.get("datafile_1").getFieldValue(SearchFields.NAME));
+        assertEquals("queued", latest.get("datafile_1").getFieldValue(SearchFields.PARENT_NAME));
+        assertEquals("indexed", latest.get("datafile_3").getFieldValue(SearchFields.NAME));
+        assertEquals("queued", latest.get("datafile_4").getFieldValue(SearchFields.NAME));
+        assertNull(latest.get("datafile_4").getFieldValue(SearchFields.PARENT_NAME));
+        // (nothing was sent)
+        assertEquals(3, batcher.getPendingCount());
+    }
+
+    private static SolrInputDocument partial(String id, String parentName) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        doc.addField(SearchFields.PARENT_NAME, Collections.singletonMap("set", parentName));
+        doc.addField(SolrUpdateBatcher.VERSION_FIELD, 1L);
+        return doc;
+    }
+
+    private UpdateRequest lastRequest() throws SolrServerException, IOException {
+        ArgumentCaptor<SolrRequest> captor = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient, atLeastOnce()).request(captor.capture(), isNull());
+        return (UpdateRequest) captor.getValue();
+    }
+
+    private static SolrInputDocument doc(String id, String name) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        doc.addField(SearchFields.NAME, name);
+        return doc;
+    }
+}
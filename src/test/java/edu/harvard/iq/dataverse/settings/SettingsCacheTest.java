@@ -0,0 +1,92 @@
+package edu.harvard.iq.dataverse.settings;
+
+import edu.harvard.iq.dataverse.util.CacheVersionServiceBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SettingsCacheTest {
+
+    @Mock
+    EntityManager em;
+    @Mock
+    CacheVersionServiceBean cacheVersionSvc;
+    @Mock
+    TypedQuery<Setting> findAll;
+
+    List<Setting> db;
+    SettingsCache cache;
+
+    @BeforeEach
+    void setup() {
+        db = new ArrayList<>(Arrays.asList(
+            new Setting(":InstallationName", "Test Dataverse"),
+            new Setting(":ApplicationTermsOfUse", "fr", "Conditions"),
+            new Setting(":Empty", null)));
+        when(em.createNamedQuery("Setting.findAll", Setting.class)).thenReturn(findAll);
+        when(findAll.getResultList()).thenAnswer(inv -> new ArrayList<>(db));
+        when(cacheVersionSvc.getVersion(SettingsCache.CACHE_NAME)).thenReturn(1L);
+
+        cache = new SettingsCache();
+        cache.em = em;
+        cache.cacheVersionSvc = cacheVersionSvc;
+        cache.setup();
+    }
+
+    @Test
+    void testGetServedFromMemory() {
+        assertEquals("Test Dataverse", cache.get(":InstallationName", null));
+        assertEquals("Conditions", cache.get(":ApplicationTermsOfUse", "fr"));
+        assertNull(cache.get(":ApplicationTermsOfUse", null));
+        assertNull(cache.get(":Empty", null));
+        assertNull(cache.get(":NotThere", null));
+
+        assertEquals(5, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        verify(findAll, times(1)).getResultList();
+    }
+
+    @Test
+    void testInvalidateReloads() {
+        db.add(new Setting(":New", "value"));
+        assertNull(cache.get(":New", null));
+
+        cache.invalidate();
+        assertEquals("value", cache.get(":New", null));
+        assertEquals(1, cache.getMisses());
+        verify(findAll, times(2)).getResultList();
+    }
+
+    @Test
+    void testRemoteChangeIsPolled() {
+        db.add(new Setting(":New", "value"));
+        assertNull(cache.get(":New", null));
+
+        // another node bumped the version
+        when(cacheVersionSvc.getVersion(SettingsCache.CACHE_NAME)).thenReturn(2L);
+        cache.pollIntervalMillis = -1;
+
+        assertEquals("value", cache.get(":New", null));
+        assertEquals(2L, cache.getLoadedVersion());
+    }
+
+    @Test
+    void testUnchangedVersionDoesNotReload() {
+        cache.pollIntervalMillis = -1;
+        cache.get(":InstallationName", null);
+        cache.get(":InstallationName", null);
+        verify(findAll, times(1)).getResultList();
+    }
+}
@@ -0,0 +1,157 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class VersionedCacheTest {
+
+    CacheVersionServiceBean cacheVersionSvc;
+    long committedVersion;
+    /** what a transaction reads from the table the value is loaded from */
+    String committedRows;
+    AtomicInteger loads;
+
+    @BeforeEach
+    public void setUp() {
+        cacheVersionSvc = Mockito.mock(CacheVersionServiceBean.class);
+        committedVersion = 1;
+        committedRows = "committed";
+        loads = new AtomicInteger();
+        Mockito.when(cacheVersionSvc.getVersion("test")).thenAnswer(i -> committedVersion);
+    }
+
+    private String load(long version) {
+        loads.incrementAndGet();
+        return committedRows + "@" + version;
+    }
+
+    @Test
+    public void testLoadedOnceWithinTheCheckInterval() {
+        VersionedCache<String> sut = new VersionedCache<>("test", 60_000);
+        assertEquals("committed@1", sut.get(cacheVersionSvc, null, this::load));
+        committedVersion = 2;
+        committedRows = "changed";
+        assertEquals("committed@1", sut.get(cacheVersionSvc, null, this::load));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testReloadedWhenTheVersionMoves() {
+        VersionedCache<String> sut = new VersionedCache<>("test", 0);
+        assertEquals("committed@1", sut.get(cacheVersionSvc, null, this::load));
+        assertEquals("committed@1", sut.get(cacheVersionSvc, null, this::load));
+        assertEquals(1, loads.get());
+        committedVersion = 2;
+        committedRows = "changed";
+        assertEquals("changed@2", sut.get(cacheVersionSvc, null, this::load));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testChangingTransactionDoesNotShareItsCopy() {
+        VersionedCache<String> sut = new VersionedCache<>("test", 60_000);
+        FakeTransaction tx = new FakeTransaction();
+        FakeTransaction other = new FakeTransaction();
+        assertEquals("committed@1", sut.get(cacheVersionSvc, other, this::load));
+
+        sut.invalidate(cacheVersionSvc, tx);
+        Mockito.verify(cacheVersionSvc).bump("test");
+        // the changing transaction sees its own, uncommitted, rows
+        String committed = committedRows;
+        committedRows = "uncommitted";
+        assertEquals("uncommitted@1", sut.get(cacheVersionSvc, tx, this::load));
+        assertEquals("uncommitted@1", sut.get(cacheVersionSvc, tx, this::load));
+        assertEquals(2, loads.get());
+        // ... which the other requests never get
+        committedRows = committed;
+        assertEquals("committed@1", sut.get(cacheVersionSvc, other, this::load));
+        assertEquals(3, loads.get());
+
+        // rolled back: dropped again
+        tx.complete(Status.STATUS_ROLLEDBACK);
+        assertEquals("committed@1", sut.get(cacheVersionSvc, other, this::load));
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testChangeDropsTheOwnCopy() {
+        VersionedCache<String> sut = new VersionedCache<>("test", 60_000);
+        FakeTransaction tx = new FakeTransaction();
+        sut.invalidate(cacheVersionSvc, tx);
+        committedRows = "first change";
+        assertEquals("first change@1", sut.get(cacheVersionSvc, tx, this::load));
+        sut.invalidate(cacheVersionSvc, tx);
+        committedRows = "second change";
+        assertEquals("second change@1", sut.get(cacheVersionSvc, tx, this::load));
+        assertEquals(1, tx.synchronizations.size());
+    }
+
+    @Test
+    public void testValueLoadedAcrossAnInvalidationIsNotKept() {
+        VersionedCache<String> sut = new VersionedCache<>("test", 60_000);
+        assertEquals("committed@1", sut.get(cacheVersionSvc, null, version -> {
+            // a change made (and committed) while loading
+            sut.drop();
+            return load(version);
+        }));
+        committedRows = "changed";
+        assertEquals("changed@1", sut.get(cacheVersionSvc, null, this::load));
+        assertEquals(2, loads.get());
+    }
+
+    static class FakeTransaction implements TransactionSynchronizationRegistry {
+
+        final Map<Object, Object> resources = new HashMap<>();
+        final List<Synchronization> synchronizations = new ArrayList<>();
+        int status = Status.STATUS_ACTIVE;
+
+        void complete(int completionStatus) {
+            status = completionStatus;
+            synchronizations.forEach(s -> s.afterCompletion(completionStatus));
+        }
+
+        @Override
+        public Object getTransactionKey() {
+            return this;
+        }
+
+        @Override
+        public void putResource(Object key, Object value) {
+            resources.put(key, value);
+        }
+
+        @Override
+        public Object getResource(Object key) {
+            return resources.get(key);
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync) {
+            synchronizations.add(sync);
+        }
+
+        @Override
+        public int getTransactionStatus() {
+            return status;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package edu.harvard.iq.dataverse.util.testing;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+
+/**
+ * An {@link EntityManager} whose native queries run on a JDBC connection;
+ * to test the SQL of the service beans against a real PostgreSQL database
+ * (see the {@code tc} Maven profile). Only native queries with positional
+ * parameters ({@code ?1}, {@code ?2}...) are supported; the other methods
+ * of the EntityManager do nothing.
+ */
+public class NativeQueryEntityManager {
+
+    private static final Pattern POSITIONAL_PARAMETER = Pattern.compile("\\?(\\d+)");
+
+    private NativeQueryEntityManager() {
+    }
+
+    public static EntityManager create(Connection connection) {
+        return mock(EntityManager.class, invocation -> {
+            if (invocation.getMethod().getName().equals("createNativeQuery") && invocation.getArguments().length == 1) {
+                return nativeQuery(connection, invocation.getArgument(0));
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        });
+    }
+
+    private static Query nativeQuery(Connection connection, String sql) {
+        Map<Integer, Object> parameters = new HashMap<>();
+        int[] range = {0, -1}; // first result, max results
+        Query[] query = new Query[1];
+        query[0] = mock(Query.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "setParameter":
+                    if (!(invocation.getArgument(0) instanceof Integer)) {
+                        throw new UnsupportedOperationException("Only positional parameters are supported");
+                    }
+                    parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+                    return query[0];
+                case "setFirstResult":
+                    range[0] = invocation.getArgument(0);
+                    return query[0];
+                case "setMaxResults":
+                    range[1] = invocation.getArgument(0);
+                    return query[0];
+                case "getResultList":
+                    return execute(connection, sql, parameters, range[0], range[1]);
+                case "getSingleResult":
+                    List<Object> results = execute(connection, sql, parameters, range[0], 1);
+                    if (results.isEmpty()) {
+                        throw new NoResultException();
+                    }
+                    return results.get(0);
+                case "executeUpdate":
+                    try (PreparedStatement statement = prepare(connection, sql, parameters)) {
+                        return statement.executeUpdate();
+                    } catch (SQLException ex) {
+                        throw new PersistenceException(ex);
+                    }
+                default:
+                    return RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+        return query[0];
+    }
+
+    /**
+     * @return the rows, as EclipseLink returns them: the values of the only
+     * column, or arrays of the values of the columns
+     */
+    private static List<Object> execute(Connection connection, String sql, Map<Integer, Object> parameters, int firstResult, int maxResults) {
+        try (PreparedStatement statement = prepare(connection, sql, parameters)) {
+            if (maxResults >= 0) {
+                statement.setMaxRows(firstResult + maxResults);
+            }
+            List<Object> rows = new ArrayList<>();
+            if (!statement.execute()) {
+                return rows;
+            }
+            try (ResultSet resultSet = statement.getResultSet()) {
+                int columns = resultSet.getMetaData().getColumnCount();
+                int row = 0;
+                while (resultSet.next()) {
+                    if (row++ < firstResult) {
+                        continue;
+                    }
+                    if (columns == 1) {
+                        rows.add(resultSet.getObject(1));
+                    } else {
+                        Object[] values = new Object[columns];
+                        for (int i = 0; i < columns; i++) {
+                            values[i] = resultSet.getObject(i + 1);
+                        }
+                        rows.add(values);
+                    }
+                }
+            }
+            return rows;
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Map<Integer, Object> parameters) throws SQLException {
+        List<Integer> positions = new ArrayList<>();
+        Matcher matcher = POSITIONAL_PARAMETER.matcher(sql);
+        StringBuffer jdbcSql = new StringBuffer();
+        while (matcher.find()) {
+            positions.add(Integer.valueOf(matcher.group(1)));
+            matcher.appendReplacement(jdbcSql, "?");
+        }
+        matcher.appendTail(jdbcSql);
+        PreparedStatement statement = connection.prepareStatement(jdbcSql.toString());
+        for (int i = 0; i < positions.size(); i++) {
+            if (!parameters.containsKey(positions.get(i))) {
+                statement.close();
+                throw new IllegalStateException("No value for parameter ?" + positions.get(i));
+            }
+            statement.setObject(i + 1, parameters.get(positions.get(i)));
+        }
+        return statement;
+    }
+}